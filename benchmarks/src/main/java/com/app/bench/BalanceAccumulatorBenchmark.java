@@ -0,0 +1,77 @@
+package com.app.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.IntLongMap;
+
+/**
+ * Allocation and time per balance update: the previous boxed Map<Integer, Double>.merge
+ * accumulator against the IntLongMap cents accumulator BalanceService now uses.
+ * Run with "-prof gc" and compare gc.alloc.rate.norm: the boxed path allocates a Double
+ * (and often an Integer) per update, the primitive path only when the table grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BalanceAccumulatorBenchmark {
+
+    private static final int UPDATES = 1_000_000;
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private int[] userIds;
+    private long[] deltaCents;
+    private double[] deltaAmounts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        userIds = new int[UPDATES];
+        deltaCents = new long[UPDATES];
+        deltaAmounts = new double[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            userIds[i] = 1 + random.nextInt(users);
+            deltaCents[i] = random.nextInt(200_000) - 100_000;
+            deltaAmounts[i] = deltaCents[i] / 100.0;
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, Double> boxedMerge() {
+        Map<Integer, Double> balances = new HashMap<>();
+        for (int i = 0; i < UPDATES; i++) {
+            balances.merge(userIds[i], deltaAmounts[i], Double::sum);
+        }
+        balances.entrySet().removeIf(entry -> Math.abs(entry.getValue()) < 0.01);
+        return balances;
+    }
+
+    @Benchmark
+    public IntLongMap primitiveCents() {
+        IntLongMap balances = new IntLongMap(256);
+        for (int i = 0; i < UPDATES; i++) {
+            balances.addTo(userIds[i], deltaCents[i]);
+        }
+        return balances;
+    }
+}
@@ -0,0 +1,71 @@
+package com.app.bench;
+
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.BalanceLedger;
+import com.app.BalanceService;
+import com.app.ExpenseRepository;
+import com.app.UserRepository;
+
+/**
+ * BalanceService.calculateNetBalances (two streamed queries) against the original
+ * one-query-per-expense path, as the expense count grows.
+ * The stand-in database has no network latency, so the per-expense path looks far better
+ * here than against a remote PostgreSQL; the growth curve is what to compare.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BalanceBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int expenses;
+
+    private StandInDatabase database;
+    private Connection connection;
+    private BalanceService balanceService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StandInDatabase.quietConsole();
+        database = new StandInDatabase();
+        database.seed(200, expenses, 3, expenses / 10);
+        connection = database.connect();
+        balanceService = new BalanceService(new ExpenseRepository(BalanceLedger.disabled()), new UserRepository());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public Map<Integer, Double> streamed() {
+        return balanceService.calculateNetBalances(connection);
+    }
+
+    @Benchmark
+    public Map<Integer, Double> perExpense() {
+        return balanceService.calculateNetBalancesPerExpense(connection);
+    }
+}
@@ -0,0 +1,31 @@
+package com.app.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts every standard JMH command-line option, but writes
+ * JSON results to target/jmh-result.json unless -rf / -rff say otherwise, so runs from
+ * different commits can be diffed or fed to a JMH visualizer.
+ * Examples:
+ *   java -jar benchmarks.jar                           (everything)
+ *   java -jar benchmarks.jar BalanceBenchmark -prof gc (one class, with allocation rates)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cli.getResult().hasValue()) {
+            options.result("target/jmh-result.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,221 @@
+package com.app.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import com.app.ChangeFeed;
+import com.app.Expense;
+
+/**
+ * In-process load test for the change feed behind GET /api/stream. Subscribes many sinks that
+ * stand in for EventSource connections, publishes 4-member expenses at a fixed rate (two events
+ * each: the expense and its balance deltas) and reports delivery latency, deliveries per second,
+ * heap per subscriber and threads used. A few sinks misbehave: "slow" ones behave like a socket
+ * whose 32-event send buffer is read at 20 events/s, so writes block once it fills, and
+ * "stalled" ones block for 5 s on their first write and then fail (a client that stopped
+ * reading, until the socket times out). Both kinds must be dropped while every fast subscriber
+ * keeps up.
+ * The HTTP transport is not part of the measurement. Exits with status 1 if a fast subscriber
+ * was dropped or missed an event. Run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.ChangeFeedLoadTest [subscribers] [expensesPerSecond] [seconds] [slow] [stalled]
+ */
+public class ChangeFeedLoadTest {
+
+    private static final PrintStream console = System.out;
+
+    // Delivery latency histogram: bucket i counts latencies in [2^i, 2^(i+1)) microseconds
+    private static final AtomicLongArray latencyBuckets = new AtomicLongArray(40);
+    private static final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    private static long[] publishedAtNanos;
+
+    private enum Kind { FAST, SLOW, STALLED }
+
+    private static final int SLOW_SOCKET_EVENTS = 32;
+    private static final double SLOW_READS_PER_SECOND = 20;
+
+    private static final class TestSink implements ChangeFeed.Sink {
+        private final Kind kind;
+        private long received;
+        private long lastId;
+        private boolean gap;
+        private double socketBuffered; // SLOW: events written but not yet read by the client
+        private long lastReadNanos;
+
+        TestSink(Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public void send(List<ChangeFeed.Event> events) throws IOException {
+            long now = System.nanoTime();
+            for (ChangeFeed.Event event : events) {
+                if (event.isKeepAlive() || event.getType().equals("ready")) continue;
+                if (event.getId() != lastId + 1 && lastId != 0) gap = true;
+                lastId = event.getId();
+                received++;
+                record(now - publishedAtNanos[(int) ((event.getId() + 1) / 2)]);
+            }
+            if (kind == Kind.SLOW) {
+                writeToSlowClient(events.size());
+            } else if (kind == Kind.STALLED && received > 0) {
+                sleep(5_000);
+                throw new IOException("Broken pipe");
+            }
+        }
+
+        private void writeToSlowClient(int count) {
+            for (int i = 0; i < count; i++) {
+                long now = System.nanoTime();
+                if (lastReadNanos != 0) {
+                    socketBuffered = Math.max(0, socketBuffered - (now - lastReadNanos) * SLOW_READS_PER_SECOND / 1e9);
+                }
+                lastReadNanos = now;
+                if (socketBuffered >= SLOW_SOCKET_EVENTS) {
+                    sleep((long) Math.ceil((socketBuffered - SLOW_SOCKET_EVENTS + 1) * 1_000 / SLOW_READS_PER_SECOND));
+                    i--;
+                    continue;
+                }
+                socketBuffered++;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int perSecond = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int slow = args.length > 3 ? Integer.parseInt(args[3]) : subscribers / 100;
+        int stalled = args.length > 4 ? Integer.parseInt(args[4]) : subscribers / 100;
+        int dispatchThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        int writes = perSecond * seconds;
+        publishedAtNanos = new long[writes + 2];
+
+        console.printf("Change feed load test: %d subscribers (%d slow, %d stalled), %d expenses/s for %d s, %d dispatch threads, %d CPUs%n",
+                subscribers, slow, stalled, perSecond, seconds, dispatchThreads, Runtime.getRuntime().availableProcessors());
+
+        ChangeFeed feed = new ChangeFeed(256, subscribers, dispatchThreads, 15, 250);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        long heapBefore = usedHeap();
+
+        List<TestSink> sinks = new ArrayList<>(subscribers);
+        List<ChangeFeed.Subscription> subscriptions = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            Kind kind = i < slow ? Kind.SLOW : i < slow + stalled ? Kind.STALLED : Kind.FAST;
+            TestSink sink = new TestSink(kind);
+            sinks.add(sink);
+            subscriptions.add(feed.subscribe(sink));
+        }
+        Thread.sleep(500); // let every "ready" event drain
+        long heapPerSubscriber = (usedHeap() - heapBefore) / subscribers;
+        threads.resetPeakThreadCount();
+
+        Expense expense = new Expense(42.00, "Load test", 1, LocalDate.now());
+        List<Integer> members = List.of(1, 2, 3, 4);
+        long[] shares = {1050, 1050, 1050, 1050};
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        long start = System.nanoTime();
+        for (int write = 1; write <= writes; write++) {
+            long due = start + write * intervalNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                if (wait > 1_000_000) Thread.sleep(wait / 1_000_000);
+                else Thread.onSpinWait();
+            }
+            publishedAtNanos[write] = System.nanoTime();
+            feed.expenseRecorded(write, expense, members, shares);
+        }
+        long publishNanos = System.nanoTime() - start;
+
+        // Wait for fast subscribers to catch up
+        long expected = 2L * writes;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline && !caughtUp(sinks, subscriptions, expected)) {
+            Thread.sleep(20);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        ChangeFeed.Stats stats = feed.getStats();
+        int peakThreads = threads.getPeakThreadCount();
+
+        int[] dropped = new int[Kind.values().length];
+        int[] behind = new int[Kind.values().length];
+        int[] gaps = new int[Kind.values().length];
+        for (int i = 0; i < subscribers; i++) {
+            TestSink sink = sinks.get(i);
+            if (subscriptions.get(i).isClosed()) dropped[sink.kind.ordinal()]++;
+            else if (sink.received < expected) behind[sink.kind.ordinal()]++;
+            if (sink.gap) gaps[sink.kind.ordinal()]++;
+        }
+
+        console.printf("Published %d events in %.2f s; delivered %d (%.0f deliveries/s)%n",
+                stats.getPublished(), publishNanos / 1e9, stats.getDelivered(), stats.getDelivered() / (elapsedNanos / 1e9));
+        console.printf("Delivery latency  p50 %s  p99 %s  p99.9 %s  max %.2f ms%n",
+                percentile(0.50), percentile(0.99), percentile(0.999), maxLatencyNanos.get() / 1e6);
+        console.printf("Fast subscribers:    %d dropped, %d behind, %d with gaps%n",
+                dropped[Kind.FAST.ordinal()], behind[Kind.FAST.ordinal()], gaps[Kind.FAST.ordinal()]);
+        console.printf("Slow subscribers:    %d of %d dropped%n", dropped[Kind.SLOW.ordinal()], slow);
+        console.printf("Stalled subscribers: %d of %d dropped%n", dropped[Kind.STALLED.ordinal()], stalled);
+        console.printf("Heap per idle subscriber ~%d bytes; threads: %d before, peak %d during the run%n",
+                heapPerSubscriber, threadsBefore, peakThreads);
+
+        feed.close();
+        boolean failed = dropped[Kind.FAST.ordinal()] > 0 || behind[Kind.FAST.ordinal()] > 0 || gaps[Kind.FAST.ordinal()] > 0;
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static boolean caughtUp(List<TestSink> sinks, List<ChangeFeed.Subscription> subscriptions, long expected) {
+        for (int i = 0; i < sinks.size(); i++) {
+            TestSink sink = sinks.get(i);
+            if (sink.kind == Kind.FAST && !subscriptions.get(i).isClosed() && sink.received < expected) return false;
+        }
+        return true;
+    }
+
+    private static void record(long latencyNanos) {
+        long micros = Math.max(1, latencyNanos / 1_000);
+        latencyBuckets.incrementAndGet(63 - Long.numberOfLeadingZeros(micros));
+        maxLatencyNanos.accumulate(latencyNanos);
+    }
+
+    // Upper bound of the bucket holding the percentile
+    private static String percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) total += latencyBuckets.get(i);
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            seen += latencyBuckets.get(i);
+            if (seen >= rank && seen > 0) return String.format("<%.2f ms", (1L << (i + 1)) / 1e3);
+        }
+        return "n/a";
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.app.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.app.DatabaseConnector;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+
+/**
+ * Concurrent load test for expense creation against the real PostgreSQL database
+ * (configure it with DB_URL / DB_USER / DB_PASS; use a scratch database).
+ * Compares the two-step path (addExpense + splitExpenseAndRecordDebts) with the single-statement
+ * createExpenseWithSplits, reporting database round trips per expense, throughput and p50/p99 latency.
+ * Rows created by the run are deleted afterwards and the balance ledger is rebuilt.
+ * Not a JMH benchmark (the CTE needs PostgreSQL); run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.ExpenseWriteLoadTest [threads] [expensesPerThread] [members]
+ */
+public class ExpenseWriteLoadTest {
+
+    private static final String TAG = "load-test-" + System.currentTimeMillis();
+
+    @FunctionalInterface
+    private interface Operation {
+        void create(Connection conn, Expense expense, List<Integer> memberIds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int members = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ExpenseRepository repository = new ExpenseRepository();
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            repository.migrate(conn); // schema changes first, outside the timed write transactions
+        }
+        List<Integer> memberIds = existingUserIds(members);
+        System.out.printf("Load test: %d threads x %d expenses, %d members each (tag %s)%n",
+                threads, perThread, memberIds.size(), TAG);
+
+        try {
+            Operation twoStep = (conn, expense, ids) -> {
+                long id = repository.addExpense(conn, expense);
+                Expense persisted = new Expense(id, expense.getAmount(), expense.getDescription(),
+                        expense.getPayerId(), expense.getDate());
+                repository.splitExpenseAndRecordDebts(conn, persisted, ids);
+            };
+            Operation singleStatement = repository::createExpenseWithSplits;
+
+            // Warm both paths (pool, prepared statements, JIT) before measuring.
+            run("warm-up", twoStep, threads, Math.min(perThread, 50), memberIds);
+            run("warm-up", singleStatement, threads, Math.min(perThread, 50), memberIds);
+
+            run("two-step", twoStep, threads, perThread, memberIds);
+            run("single-statement", singleStatement, threads, perThread, memberIds);
+        } finally {
+            cleanUp(repository);
+            DatabaseConnector.shutdown();
+        }
+    }
+
+    private static void run(String label, Operation operation, int threads, int perThread,
+                            List<Integer> memberIds) throws Exception {
+        AtomicLong roundTrips = new AtomicLong();
+        long[][] latencies = new long[threads][perThread];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long[] threadLatencies = latencies[t];
+            int payerId = memberIds.get(t % memberIds.size());
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    Expense expense = new Expense(100.00 + i % 97, TAG, payerId, LocalDate.now());
+                    long began = System.nanoTime();
+                    try (Connection conn = counting(DatabaseConnector.getConnection(), roundTrips)) {
+                        operation.create(conn, expense, memberIds);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    threadLatencies[i] = System.nanoTime() - began;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        if (label.equals("warm-up")) return;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-17s %8.1f expenses/s  %5.2f round trips/expense  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms%n",
+                label, all.length / seconds, roundTrips.get() / (double) all.length,
+                percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Wraps a connection so every statement execution, commit and rollback counts as one round trip.
+     */
+    private static Connection counting(Connection conn, AtomicLong roundTrips) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("commit") || name.equals("rollback")) roundTrips.incrementAndGet();
+                    Object result = invoke(conn, method, args);
+                    if (result instanceof PreparedStatement) {
+                        return countingStatement(result, PreparedStatement.class, roundTrips);
+                    }
+                    if (result instanceof Statement) {
+                        return countingStatement(result, Statement.class, roundTrips);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object countingStatement(Object statement, Class<?> type, AtomicLong roundTrips) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) roundTrips.incrementAndGet();
+            return invoke(statement, method, args);
+        };
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static List<Integer> existingUserIds(int limit) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement statement = conn.prepareStatement(
+                     "SELECT user_id FROM public.users ORDER BY user_id LIMIT ?")) {
+            statement.setInt(1, limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        if (ids.size() < 2) {
+            throw new IllegalStateException("The load test needs at least two users in the database.");
+        }
+        return ids;
+    }
+
+    private static void cleanUp(ExpenseRepository repository) throws Exception {
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement statement = conn.prepareStatement(
+                     "DELETE FROM public.expense_splits WHERE expense_id IN "
+                     + "(SELECT expense_id FROM public.expenses WHERE description = ?)")) {
+            statement.setString(1, TAG);
+            statement.executeUpdate();
+            try (PreparedStatement expenses = conn.prepareStatement("DELETE FROM public.expenses WHERE description = ?")) {
+                expenses.setString(1, TAG);
+                System.out.printf("Removed %d load-test expenses.%n", expenses.executeUpdate());
+            }
+            repository.getLedger().rebuild(conn);
+        }
+    }
+}
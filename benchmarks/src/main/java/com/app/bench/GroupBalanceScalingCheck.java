@@ -0,0 +1,210 @@
+package com.app.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.app.GroupBalances;
+import com.app.IntLongMap;
+
+/**
+ * Speed-up of the all-groups balance computation (GroupBalances.compute) against the number of
+ * fork-join workers, on a synthetic history held in the same columns as InMemoryStorageEngine:
+ * splits (10M by default) over expenses of 2 to 8 members drawn from groups of 3 to 12 users,
+ * plus one settlement per hundred expenses. Each parallelism from 1 up to the available cores
+ * (powers of two, then the core count) runs on its own ForkJoinPool; the best of several runs is
+ * reported with its speed-up and efficiency over one worker.
+ * The baseline is the previous approach: one global map summed on one thread. Every result is
+ * checked against it (the groups must add up to the global balances); the check exits with status
+ * 1 if any parallelism computes something different.
+ * Needs about 16 bytes per split of heap (e.g. -Xmx2g for 10M). Not a JMH benchmark; run it with:
+ *   java -Xmx2g -cp benchmarks/target/benchmarks.jar com.app.bench.GroupBalanceScalingCheck [splits] [groups] [runs]
+ */
+public class GroupBalanceScalingCheck {
+
+    private static final int MIN_GROUP_SIZE = 3;
+    private static final int MAX_GROUP_SIZE = 12;
+
+    public static void main(String[] args) {
+        int splits = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        History history = generate(splits, groups, new Random(42));
+        GroupBalances.Columns columns = history.columns();
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Group balances over %,d splits (%,d expenses) in %,d groups, best of %d runs, %d cores available%n",
+                history.splitCount, history.expenseCount, groups, runs, cores);
+
+        IntLongMap[] global = new IntLongMap[1];
+        long baseline = best(runs, () -> global[0] = history.globalBalances());
+        IntLongMap reference = global[0];
+        System.out.printf("%-26s %10.1f%n", "global map, one thread", baseline / 1e6);
+
+        System.out.printf("%-26s %10s %9s %11s%n", "fork-join workers", "ms", "speed-up", "efficiency");
+        double single = 0;
+        int failures = 0;
+        for (int parallelism : parallelisms(cores)) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                GroupBalances[] result = new GroupBalances[1];
+                long nanos = best(runs, () -> result[0] = GroupBalances.compute(columns, pool));
+                if (parallelism == 1) single = nanos;
+                System.out.printf("%-26d %10.1f %8.2fx %10.0f%%%n", parallelism, nanos / 1e6,
+                        single / nanos, 100 * single / nanos / parallelism);
+                if (!sameBalances(result[0].total(), reference)) {
+                    System.out.printf("  MISMATCH: the groups do not add up to the global balances%n");
+                    failures++;
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (failures > 0) System.exit(1);
+    }
+
+    private static int[] parallelisms(int cores) {
+        int[] levels = new int[0];
+        for (int p = 1; p < cores; p *= 2) {
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levels.length - 1] = p;
+        }
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = cores;
+        return levels;
+    }
+
+    // One warm-up run, then the fastest of runs
+    private static long best(int runs, Runnable work) {
+        work.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long began = System.nanoTime();
+            work.run();
+            best = Math.min(best, System.nanoTime() - began);
+        }
+        return best;
+    }
+
+    private static boolean sameBalances(IntLongMap actual, IntLongMap expected) {
+        IntLongMap difference = new IntLongMap(Math.max(16, expected.size()));
+        difference.addAll(actual);
+        expected.forEach((userId, cents) -> difference.addTo(userId, -cents));
+        return difference.withoutZeros().size() == 0;
+    }
+
+    /**
+     * The synthetic columns (GroupBalances.Columns does not expose them outside com.app).
+     */
+    private static final class History {
+        int[] expenseGroup;
+        int[] expensePayer;
+        long[] expenseAmount;
+        int expenseCount;
+        int[] splitExpense;
+        int[] splitMember;
+        long[] splitOwed;
+        int splitCount;
+        int[] settlementGroup;
+        int[] settlementPayer;
+        int[] settlementReceiver;
+        long[] settlementAmount;
+        int settlementCount;
+
+        GroupBalances.Columns columns() {
+            return new GroupBalances.Columns(expenseGroup, expensePayer, expenseAmount, expenseCount,
+                                             splitExpense, splitMember, splitOwed, splitCount,
+                                             settlementGroup, settlementPayer, settlementReceiver, settlementAmount,
+                                             settlementCount);
+        }
+
+        // Every group mixed into one map on the calling thread, as the balances were recomputed before
+        IntLongMap globalBalances() {
+            IntLongMap balances = new IntLongMap(1 << 16);
+            for (int row = 0; row < expenseCount; row++) {
+                balances.addTo(expensePayer[row], expenseAmount[row]);
+            }
+            for (int split = 0; split < splitCount; split++) {
+                balances.addTo(splitMember[split], -splitOwed[split]);
+            }
+            for (int row = 0; row < settlementCount; row++) {
+                balances.addTo(settlementPayer[row], settlementAmount[row]);
+                balances.addTo(settlementReceiver[row], -settlementAmount[row]);
+            }
+            return balances;
+        }
+    }
+
+    // Group g has members firstUser[g] .. firstUser[g] + size - 1; users are not shared between groups.
+    private static History generate(int splits, int groups, Random random) {
+        int[] firstUser = new int[groups + 1];
+        firstUser[0] = 1;
+        for (int g = 0; g < groups; g++) {
+            firstUser[g + 1] = firstUser[g] + MIN_GROUP_SIZE + random.nextInt(MAX_GROUP_SIZE - MIN_GROUP_SIZE + 1);
+        }
+
+        int capacity = splits / 2 + 1;
+        int[] expenseGroup = new int[capacity];
+        int[] expensePayer = new int[capacity];
+        long[] expenseAmount = new long[capacity];
+        int[] splitExpense = new int[splits];
+        int[] splitMember = new int[splits];
+        long[] splitOwed = new long[splits];
+        int expenseCount = 0;
+        int splitCount = 0;
+        while (splitCount < splits) {
+            int g = random.nextInt(groups);
+            int size = firstUser[g + 1] - firstUser[g];
+            int members = Math.min(Math.min(2 + random.nextInt(7), size), splits - splitCount + 1);
+            int payerIndex = random.nextInt(size);
+            long amount = 100 + random.nextInt(50_000);
+            int row = expenseCount++;
+            if (row == expenseGroup.length) {
+                expenseGroup = Arrays.copyOf(expenseGroup, row * 2);
+                expensePayer = Arrays.copyOf(expensePayer, row * 2);
+                expenseAmount = Arrays.copyOf(expenseAmount, row * 2);
+            }
+            expenseGroup[row] = g + 1;
+            expensePayer[row] = firstUser[g] + payerIndex;
+            expenseAmount[row] = amount;
+            // The payer and the next members - 1 users of the group; the payer's own share is not a split
+            long share = amount / members;
+            for (int m = 1; m < members; m++) {
+                splitExpense[splitCount] = row;
+                splitMember[splitCount] = firstUser[g] + (payerIndex + m) % size;
+                splitOwed[splitCount] = share;
+                splitCount++;
+            }
+        }
+
+        int settlementCount = expenseCount / 100;
+        int[] settlementGroup = new int[settlementCount];
+        int[] settlementPayer = new int[settlementCount];
+        int[] settlementReceiver = new int[settlementCount];
+        long[] settlementAmount = new long[settlementCount];
+        for (int row = 0; row < settlementCount; row++) {
+            int g = random.nextInt(groups);
+            int size = firstUser[g + 1] - firstUser[g];
+            int payer = random.nextInt(size);
+            settlementGroup[row] = g + 1;
+            settlementPayer[row] = firstUser[g] + payer;
+            settlementReceiver[row] = firstUser[g] + (payer + 1) % size;
+            settlementAmount[row] = 100 + random.nextInt(10_000);
+        }
+        History history = new History();
+        history.expenseGroup = expenseGroup;
+        history.expensePayer = expensePayer;
+        history.expenseAmount = expenseAmount;
+        history.expenseCount = expenseCount;
+        history.splitExpense = splitExpense;
+        history.splitMember = splitMember;
+        history.splitOwed = splitOwed;
+        history.splitCount = splitCount;
+        history.settlementGroup = settlementGroup;
+        history.settlementPayer = settlementPayer;
+        history.settlementReceiver = settlementReceiver;
+        history.settlementAmount = settlementAmount;
+        history.settlementCount = settlementCount;
+        return history;
+    }
+}
@@ -0,0 +1,91 @@
+package com.app.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.app.BalanceLedger;
+import com.app.ExpenseRepository;
+import com.app.JdbcStorageEngine;
+import com.app.MetricsRegistry;
+import com.app.OperationTimer;
+import com.app.UserRepository;
+
+/**
+ * Cost of the OperationTimer instrumentation wrapped around every storage engine call.
+ * - bare / timed: a tiny unit of work without and with OperationTimer.time around it; the
+ *   difference is the per-call overhead (two nanoTime reads, a few LongAdder increments).
+ * - timedContended: the same with 8 threads hammering one timer, to show LongAdder striping
+ *   keeps it flat under contention.
+ * - listExpensePage: a real instrumented engine call against the in-process database, for
+ *   scale: the overhead should be lost in the noise of even the cheapest query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    private final OperationTimer timer = MetricsRegistry.query("bench.MetricsOverheadBenchmark");
+
+    private StandInDatabase database;
+    private JdbcStorageEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StandInDatabase.quietConsole();
+        database = new StandInDatabase();
+        database.seed(10, 1_000, 2, 0);
+        engine = new JdbcStorageEngine(database::connect, new UserRepository(),
+                new ExpenseRepository(BalanceLedger.disabled()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        database.close();
+    }
+
+    @Benchmark
+    public Integer bare() {
+        Blackhole.consumeCPU(10);
+        return 1;
+    }
+
+    @Benchmark
+    public Integer timed() {
+        return timer.time(() -> {
+            Blackhole.consumeCPU(10);
+            return 1;
+        });
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer timedContended() {
+        return timer.time(() -> {
+            Blackhole.consumeCPU(10);
+            return 1;
+        });
+    }
+
+    @Benchmark
+    public Object listExpensePage() {
+        return engine.listExpensesPage(500, 10);
+    }
+}
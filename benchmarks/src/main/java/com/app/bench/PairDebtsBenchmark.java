@@ -0,0 +1,121 @@
+package com.app.bench;
+
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.Expense;
+import com.app.InMemoryStorageEngine;
+import com.app.PairDebts;
+import com.app.SplitStrategy;
+import com.app.User;
+
+/**
+ * Pair debts at 100,000 users on the in-memory engine. Users form circles of 20 friends who split
+ * expenses among themselves (a payer and 3 members from the circle), so the adjacency stays
+ * sparse: about 900,000 pairs for 1,000,000 expenses instead of the 5 billion a dense matrix holds.
+ * - allPairs / allPairsJson: a copy of every pair, and the same as API rows.
+ * - userPairs: one user's pairs through the per-user adjacency lists.
+ * - userPairsByScan: the same result filtered from every pair, the cost without the adjacency.
+ * - recordExpense: the incremental cost of a write (expense, 3 splits, balances, pairs, rollups).
+ * The setup prints the heap retained by the pairs, measured on a standalone copy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PairDebtsBenchmark {
+
+    private static final PrintStream console = System.out;
+    private static final int USERS = 100_000;
+    private static final int CIRCLE = 20;
+    private static final int MEMBERS = 4; // payer + 3
+
+    @Param({"1000000"})
+    public int expenses;
+
+    private InMemoryStorageEngine storage;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        StandInDatabase.quietConsole();
+        storage = new InMemoryStorageEngine();
+        for (int i = 1; i <= USERS; i++) {
+            storage.registerNewUser(new User("user" + i, "user" + i + "@example.com", "hash", "User " + i));
+        }
+        random = new Random(7);
+        for (int i = 0; i < expenses; i++) {
+            recordExpense();
+        }
+
+        long before = usedHeap();
+        PairDebts pairs = storage.readPairDebts();
+        long retained = usedHeap() - before;
+        console.printf("%n%d users, %d expenses: %d pairs, ~%d KB retained (~%d bytes per pair, ~%d bytes per user)%n",
+                USERS, expenses, pairs.size(), retained / 1024, retained / Math.max(1, pairs.size()), retained / USERS);
+    }
+
+    @Benchmark
+    public PairDebts allPairs() {
+        return storage.readPairDebts();
+    }
+
+    @Benchmark
+    public List<PairDebts.Debt> allPairsJson() {
+        return storage.readPairDebts().toList();
+    }
+
+    @Benchmark
+    public List<PairDebts.Debt> userPairs() {
+        return storage.readPairDebts(1 + random.nextInt(USERS)).toList();
+    }
+
+    @Benchmark
+    public List<PairDebts.Debt> userPairsByScan() {
+        int userId = 1 + random.nextInt(USERS);
+        List<PairDebts.Debt> debts = new ArrayList<>();
+        storage.readPairDebts().forEach((debtorId, creditorId, cents) -> {
+            if (debtorId == userId || creditorId == userId) debts.add(new PairDebts.Debt(debtorId, creditorId, cents));
+        });
+        return debts;
+    }
+
+    @Benchmark
+    public long recordExpense() {
+        int circleStart = 1 + random.nextInt(USERS / CIRCLE) * CIRCLE;
+        List<Integer> members = new ArrayList<>(MEMBERS);
+        for (int i = 0; i < MEMBERS; i++) {
+            members.add(circleStart + random.nextInt(CIRCLE));
+        }
+        Expense expense = new Expense(1 + random.nextInt(20_000) / 100.0, "Expense", members.get(0), LocalDate.of(2024, 6, 1));
+        return storage.createExpenseWithSplits(expense, members, SplitStrategy.equalShares(expense.getAmountCents(), MEMBERS));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,174 @@
+package com.app.bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.app.AdmissionControl;
+import com.app.BalanceLedger;
+import com.app.DataVersion;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+import com.app.JdbcStorageEngine;
+import com.app.ResponseBodyCache;
+import com.app.SplitStrategy;
+import com.app.StorageEngine;
+import com.app.UserRepository;
+
+/**
+ * GET /api/balances under 1 to 500 concurrent clients, on the JDBC engine over the in-process H2
+ * database with the balance ledger disabled, so every computation is the full aggregate query.
+ * A writer records an expense every few milliseconds, so each version is read by many clients at
+ * once, which is when the body cache alone cannot help: every client that misses runs the query.
+ * - uncached: every request runs the query (no body cache at all).
+ * - per-version cache: cached by version, but concurrent misses each compute (the cache before coalescing).
+ * - coalesced: ResponseBodyCache, where concurrent misses share one computation behind AdmissionControl.
+ * Reports database connections opened per request and per version, the most connections open at
+ * once, 503 rejections and p50/p99 latency. Not a JMH benchmark (it measures a closed-loop system);
+ * run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.ReadCoalescingLoadTest [seconds] [writeEveryMillis]
+ */
+public class ReadCoalescingLoadTest {
+
+    private static final int[] CLIENTS = {1, 10, 100, 500};
+    private static final int USERS = 200;
+    private static final int EXPENSES = 50_000;
+    private static final int SPLITS_PER_EXPENSE = 3;
+    private static final int SETTLEMENTS = 5_000;
+
+    @FunctionalInterface
+    private interface Reader {
+        byte[] read(long version) throws Exception;
+    }
+
+    private static final AtomicLong opened = new AtomicLong();
+    private static final AtomicInteger open = new AtomicInteger();
+    private static final AtomicInteger maxOpen = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        long writeEveryMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+        StandInDatabase.quietConsole();
+        try (StandInDatabase database = new StandInDatabase()) {
+            database.seed(USERS, EXPENSES, SPLITS_PER_EXPENSE, SETTLEMENTS);
+            StorageEngine storage = new JdbcStorageEngine(() -> counting(database.connect()), new UserRepository(),
+                                                          new ExpenseRepository(BalanceLedger.disabled()));
+            Reader compute = version -> storage.readBalances().toString().getBytes(StandardCharsets.UTF_8);
+
+            System.out.printf("Balance reads for %d s per run, one expense written every %d ms%n", seconds, writeEveryMillis);
+            System.out.printf("%-18s %7s %10s %12s %14s %9s %9s %9s %9s%n",
+                    "mode", "clients", "requests", "conns/req", "conns/version", "max open", "rejected", "p50 ms", "p99 ms");
+            for (int clients : CLIENTS) {
+                run("uncached", compute, clients, seconds, writeEveryMillis, storage);
+
+                Map<Long, byte[]> byVersion = new ConcurrentHashMap<>();
+                run("per-version cache", version -> {
+                    byte[] body = byVersion.get(version);
+                    if (body == null) {
+                        body = compute.read(version);
+                        byVersion.put(version, body);
+                    }
+                    return body;
+                }, clients, seconds, writeEveryMillis, storage);
+
+                ResponseBodyCache cache = new ResponseBodyCache(64, new AdmissionControl(8, 64, 2_000, 1));
+                run("coalesced", version -> cache.getOrCompute("balances", version, () -> compute.read(version)),
+                    clients, seconds, writeEveryMillis, storage);
+            }
+        }
+    }
+
+    private static void run(String label, Reader reader, int clients, int seconds, long writeEveryMillis,
+                            StorageEngine storage) throws Exception {
+        long firstVersion = DataVersion.current();
+        opened.set(0);
+        maxOpen.set(0);
+        AtomicLong rejected = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> writes = writer.submit(() -> {
+            List<Integer> members = Arrays.asList(1, 2);
+            while (System.nanoTime() < deadline) {
+                Expense expense = new Expense(12.00, "Load test", 1, LocalDate.of(2024, 6, 1));
+                storage.createExpenseWithSplits(expense, members, SplitStrategy.equalShares(expense.getAmountCents(), 2));
+                Thread.sleep(writeEveryMillis);
+            }
+            return null;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                while (System.nanoTime() < deadline) {
+                    long began = System.nanoTime();
+                    try {
+                        reader.read(DataVersion.current());
+                    } catch (AdmissionControl.OverloadedException e) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = System.nanoTime() - began;
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+        List<long[]> perClient = new ArrayList<>();
+        for (Future<long[]> future : futures) {
+            perClient.add(future.get());
+        }
+        executor.shutdown();
+        writes.get();
+        writer.shutdown();
+
+        long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        long versions = Math.max(1, DataVersion.current() - firstVersion);
+        System.out.printf("%-18s %7d %10d %12.3f %14.2f %9d %9d %9.2f %9.2f%n",
+                label, clients, all.length, opened.get() / (double) Math.max(1, all.length),
+                opened.get() / (double) versions, maxOpen.get(), rejected.get(),
+                percentile(all, 0.50), percentile(all, 0.99));
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        if (sortedNanos.length == 0) return 0;
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Wraps a connection so opening counts one read (the writer's connections included, one per
+     * version) and the number open at once is tracked until close.
+     */
+    private static Connection counting(Connection conn) {
+        opened.incrementAndGet();
+        maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+        AtomicInteger closed = new AtomicInteger();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && closed.getAndIncrement() == 0) open.decrementAndGet();
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
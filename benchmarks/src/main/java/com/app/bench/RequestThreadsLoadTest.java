@@ -0,0 +1,187 @@
+package com.app.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.app.ConnectionPool;
+import com.app.RequestThreads;
+
+/**
+ * Most concurrent users each request execution mode sustains (see RequestThreads), without the
+ * HTTP server in the way: requests run on an executor shaped like the servers' request threads,
+ * a pool of 200 platform threads whose extra requests queue, or one virtual thread per request.
+ * It measures the thread models, not Jetty or Tomcat themselves.
+ * Every request blocks for clientMillis (writing the body to a slow client, or any other blocking
+ * I/O outside the database) and every dbEvery-th one also holds a pooled connection for dbMillis
+ * (a remote query), through the real ConnectionPool with 10 connections and a 5 s acquire timeout.
+ * Each user sends a request, waits for it, thinks for a second and repeats, so users are the
+ * offered concurrency. A level is sustained while the p99 latency stays under sloMillis and no
+ * request times out waiting for a connection.
+ * On a runtime without virtual threads the virtual run shows the fallback pool instead.
+ * Not a JMH benchmark; run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.RequestThreadsLoadTest [clientMillis] [dbMillis] [dbEvery] [sloMillis]
+ */
+public class RequestThreadsLoadTest {
+
+    private static final int[] USERS = {100, 500, 1_000, 2_000, 5_000, 10_000};
+    private static final int SECONDS = 10;
+    private static final long THINK_MILLIS = 1_000;
+    private static final int PLATFORM_THREADS = 200;
+
+    public static void main(String[] args) throws Exception {
+        long clientMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        long dbMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int dbEvery = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long sloMillis = args.length > 3 ? Long.parseLong(args[3]) : 500;
+
+        System.out.printf("Each request: %d ms blocked, plus a %d ms query every %d requests; p99 SLO %d ms%n",
+                clientMillis, dbMillis, dbEvery, sloMillis);
+        for (String mode : new String[] {RequestThreads.PLATFORM, RequestThreads.VIRTUAL}) {
+            RequestThreads threads = RequestThreads.of(mode, PLATFORM_THREADS);
+            System.out.printf("%n%s requested: %s%n", mode, threads.describe());
+            System.out.printf("%7s %10s %9s %9s %9s %16s%n", "users", "req/s", "p50 ms", "p99 ms", "timeouts", "platform threads");
+            int sustained = 0;
+            for (int users : USERS) {
+                if (!run(threads, users, clientMillis, dbMillis, dbEvery, sloMillis)) break;
+                sustained = users;
+            }
+            System.out.printf("%s: sustained %d users%n", mode, sustained);
+        }
+    }
+
+    // One level; false once the SLO is missed (higher levels only get worse).
+    private static boolean run(RequestThreads threads, int users, long clientMillis, long dbMillis, int dbEvery,
+                               long sloMillis) throws Exception {
+        ExecutorService executor = newExecutor(threads);
+        ScheduledExecutorService thinking = Executors.newSingleThreadScheduledExecutor();
+        AtomicLong timeouts = new AtomicLong();
+        AtomicInteger peakThreads = new AtomicInteger();
+        LatencyRecorder latencies = new LatencyRecorder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        CountDownLatch done = new CountDownLatch(users);
+
+        try (ConnectionPool pool = new ConnectionPool(RequestThreadsLoadTest::remoteConnection,
+                                                      new ConnectionPool.Settings(10, 5_000, 300_000, 5_000, 2))) {
+            Runnable request = () -> {
+                try {
+                    Thread.sleep(clientMillis);
+                    if (ThreadLocalRandom.current().nextInt(dbEvery) == 0) {
+                        try (Connection conn = pool.getConnection()) {
+                            Thread.sleep(dbMillis);
+                        }
+                    }
+                } catch (SQLTransientConnectionException e) {
+                    timeouts.incrementAndGet();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            for (int u = 0; u < users; u++) {
+                // Spread the first requests over one think time
+                thinking.schedule(() -> user(request, executor, thinking, latencies, end, done),
+                                  ThreadLocalRandom.current().nextLong(THINK_MILLIS), TimeUnit.MILLISECONDS);
+            }
+            while (!done.await(100, TimeUnit.MILLISECONDS)) {
+                peakThreads.accumulateAndGet(ManagementFactory.getThreadMXBean().getThreadCount(), Math::max);
+            }
+        } finally {
+            executor.shutdownNow();
+            thinking.shutdownNow();
+        }
+
+        long[] sorted = latencies.sorted();
+        double p99 = percentile(sorted, 0.99);
+        System.out.printf("%7d %10.1f %9.1f %9.1f %9d %16d%n", users, sorted.length / (double) SECONDS,
+                percentile(sorted, 0.50), p99, timeouts.get(), peakThreads.get());
+        return p99 <= sloMillis && timeouts.get() == 0;
+    }
+
+    // A thread per task when virtual, otherwise at most getMaxThreads() threads and a queue
+    private static ExecutorService newExecutor(RequestThreads threads) {
+        if (threads.isVirtual()) {
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS,
+                                          new SynchronousQueue<>(), threads.getVirtualThreadFactory());
+        }
+        AtomicInteger next = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads.getMaxThreads(), threads.getMaxThreads(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "request-" + next.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void user(Runnable request, ExecutorService executor, ScheduledExecutorService thinking,
+                             LatencyRecorder latencies, long end, CountDownLatch done) {
+        if (System.nanoTime() >= end) {
+            done.countDown();
+            return;
+        }
+        long began = System.nanoTime();
+        CompletableFuture.runAsync(request, executor).whenComplete((ignored, error) -> {
+            latencies.record(System.nanoTime() - began);
+            thinking.schedule(() -> user(request, executor, thinking, latencies, end, done), THINK_MILLIS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        if (sortedNanos.length == 0) return 0;
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    // A stand-in for a remote connection: the request sleeps for the query itself.
+    private static Connection remoteConnection() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                        case "getAutoCommit":
+                            return true;
+                        case "isClosed":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * Lock-free append-only latency log (the users run on many threads at once).
+     */
+    private static final class LatencyRecorder {
+        private final AtomicLongArray nanos = new AtomicLongArray(1 << 22);
+        private final AtomicInteger count = new AtomicInteger();
+
+        void record(long value) {
+            int index = count.getAndIncrement();
+            if (index < nanos.length()) nanos.set(index, value);
+        }
+
+        long[] sorted() {
+            int n = Math.min(count.get(), nanos.length());
+            long[] values = new long[n];
+            for (int i = 0; i < n; i++) values[i] = nanos.get(i);
+            Arrays.sort(values);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.app.bench;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.Expense;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+
+/**
+ * JSON encoding cost of the two response shapes the APIs return most: the expense list
+ * (GET /api/expenses) and the balance map (GET /api/balances), with Jackson (Spring) and
+ * Gson (Spark). Both are configured to emit dates as ISO strings, as the controllers do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"100", "10000"})
+    public int size;
+
+    private List<Expense> expenses;
+    private Map<Integer, Double> balances;
+    private ObjectMapper jackson;
+    private Gson gson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        expenses = new ArrayList<>(size);
+        balances = new HashMap<>();
+        for (int i = 1; i <= size; i++) {
+            expenses.add(new Expense(i, random.nextInt(100_000) / 100.0, "Expense " + i,
+                    1 + random.nextInt(500), LocalDate.of(2024, 1, 1).plusDays(i % 365)));
+            balances.put(i, (random.nextInt(200_000) - 100_000) / 100.0);
+        }
+
+        jackson = new ObjectMapper().registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // Gson cannot reflect into java.time on Java 17, so it needs an explicit adapter
+        gson = new GsonBuilder()
+                .registerTypeAdapter(LocalDate.class,
+                        (JsonSerializer<LocalDate>) (date, type, context) -> new JsonPrimitive(date.toString()))
+                .create();
+    }
+
+    @Benchmark
+    public byte[] jacksonExpenses() throws IOException {
+        return jackson.writeValueAsBytes(expenses);
+    }
+
+    @Benchmark
+    public String gsonExpenses() {
+        return gson.toJson(expenses);
+    }
+
+    @Benchmark
+    public byte[] jacksonBalances() throws IOException {
+        return jackson.writeValueAsBytes(balances);
+    }
+
+    @Benchmark
+    public String gsonBalances() {
+        return gson.toJson(balances);
+    }
+}
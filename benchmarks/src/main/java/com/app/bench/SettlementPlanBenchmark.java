@@ -0,0 +1,60 @@
+package com.app.bench;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.Settlement;
+import com.app.SettlementPlanner;
+
+/**
+ * Greedy settle-up planning at 1k, 10k and 100k users with random, zero-sum balances.
+ * Expect roughly n log n growth: about 10x-13x per step.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettlementPlanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int users;
+
+    private final SettlementPlanner planner = new SettlementPlanner();
+    private Map<Integer, Double> balances;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        balances = new HashMap<>();
+        long total = 0;
+        for (int id = 1; id < users; id++) {
+            long cents = random.nextInt(200_000) - 100_000;
+            total += cents;
+            balances.put(id, cents / 100.0);
+        }
+        balances.put(users, -total / 100.0);
+    }
+
+    @Benchmark
+    public List<Settlement> greedy() {
+        return planner.planGreedy(balances);
+    }
+}
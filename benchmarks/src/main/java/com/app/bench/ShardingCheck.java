@@ -0,0 +1,324 @@
+package com.app.bench;
+
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import com.app.BalanceLedger;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+import com.app.ExpenseSplit;
+import com.app.InMemoryStorageEngine;
+import com.app.JdbcStorageEngine;
+import com.app.KeysetPage;
+import com.app.Money;
+import com.app.PairDebts;
+import com.app.Settlement;
+import com.app.ShardedStorageEngine;
+import com.app.SpendingReport;
+import com.app.StorageEngine;
+import com.app.User;
+import com.app.UserRepository;
+
+/**
+ * Correctness at scale and fan-out latency of ShardedStorageEngine (ShardedStorageEngineTest covers
+ * the same comparison over a few hundred rows in mvn test). The same workload (users replicated to
+ * every shard, group and ungrouped expenses with splits, splits added to existing expenses,
+ * settlements and a bulk import) is written to a sharded engine and to one unsharded in-memory
+ * engine, and every read is compared: balances (current and as of a date), each group's balances,
+ * pair debts, expenses, settlements and their pages and streams, splits, and the spending report.
+ * Then the global reads are timed on both.
+ * The shards are, by the first argument:
+ * - memory: in-memory engines (no database needed).
+ * - h2: JDBC engines over in-process H2 stand-in databases, one per shard.
+ * - postgres: the databases in DB_SHARDS (see ShardedStorageEngine.fromConfig); they are WIPED first.
+ * Exits with status 1 if any comparison fails. Not a JMH benchmark; run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.ShardingCheck [memory|h2|postgres] [shards] [expenses]
+ */
+public class ShardingCheck {
+
+    private static final int USERS = 200;
+    private static final int GROUPS = 400;
+    private static final int RUNS = 20;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    // The engines report every write on System.out; results go to the original console.
+    private static final PrintStream console = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String backend = args.length > 0 ? args[0] : "memory";
+        int shardCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int expenses = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        StandInDatabase.quietConsole();
+
+        List<StandInDatabase> databases = new ArrayList<>();
+        try (ShardedStorageEngine sharded = open(backend, shardCount, databases);
+             InMemoryStorageEngine reference = new InMemoryStorageEngine()) {
+            sharded.clearAll();
+            console.printf("%d %s shards, %,d expenses in %d groups (plus ungrouped) among %d users%n",
+                    sharded.getShards().size(), backend, expenses, GROUPS, USERS);
+            write(sharded, reference, expenses, new Random(11));
+            printDistribution(sharded);
+            compare(sharded, reference);
+            time(sharded, reference);
+        } finally {
+            for (StandInDatabase database : databases) database.close();
+        }
+        console.println(failures == 0 ? "All sharding checks passed." : failures + " check(s) FAILED.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static ShardedStorageEngine open(String backend, int shardCount, List<StandInDatabase> databases) throws Exception {
+        switch (backend) {
+            case "memory": {
+                List<StorageEngine> shards = new ArrayList<>();
+                for (int s = 0; s < shardCount; s++) shards.add(new InMemoryStorageEngine());
+                return new ShardedStorageEngine(shards);
+            }
+            case "h2": {
+                List<StorageEngine> shards = new ArrayList<>();
+                for (int s = 0; s < shardCount; s++) {
+                    StandInDatabase database = new StandInDatabase();
+                    databases.add(database);
+                    shards.add(new JdbcStorageEngine(database::connect, new UserRepository(),
+                                                     new ExpenseRepository(BalanceLedger.disabled())));
+                }
+                return new ShardedStorageEngine(shards);
+            }
+            case "postgres":
+                return ShardedStorageEngine.fromConfig();
+            default:
+                throw new IllegalArgumentException("Unknown backend '" + backend + "' (expected memory, h2 or postgres)");
+        }
+    }
+
+    /**
+     * The same writes to both engines. Group g (1-based, as created) has 3 to 8 consecutive users.
+     */
+    private static void write(ShardedStorageEngine sharded, StorageEngine reference, int expenses, Random random) {
+        for (int u = 1; u <= USERS; u++) {
+            User user = new User("shard" + u, "shard" + u + "@example.com", "hash", "Shard User " + u);
+            sharded.registerNewUser(user);
+            reference.registerNewUser(user);
+        }
+        check("user ids agree on every shard", reference.findUserByUsername("shard" + USERS).getUserId(),
+              sharded.findUserByUsername("shard" + USERS).getUserId());
+
+        int[] groupIds = new int[GROUPS];
+        int[] firstMember = new int[GROUPS];
+        int[] groupSize = new int[GROUPS];
+        for (int g = 0; g < GROUPS; g++) {
+            groupIds[g] = (int) sharded.createGroup("group " + g, 1);
+            firstMember[g] = 1 + random.nextInt(USERS - 8);
+            groupSize[g] = 3 + random.nextInt(6);
+        }
+
+        for (int i = 0; i < expenses; i++) {
+            boolean grouped = random.nextInt(10) != 0;
+            int g = random.nextInt(GROUPS);
+            int groupId = grouped ? groupIds[g] : 0;
+            int first = grouped ? firstMember[g] : 1 + random.nextInt(USERS - 4);
+            int size = grouped ? groupSize[g] : 2 + random.nextInt(3);
+            List<Integer> members = new ArrayList<>();
+            for (int m = 0; m < size; m++) members.add(first + m);
+            int payer = members.get(random.nextInt(size));
+            members.remove(Integer.valueOf(payer));
+            Expense expense = new Expense(-1, Money.ofCents(100 + random.nextInt(50_000)), "expense " + i, payer,
+                                          FIRST_DAY.plusDays(random.nextInt(365)), groupId);
+            if (i % 50 == 0) {
+                // Splits recorded later for an existing expense, found through its (global) id
+                long shardedId = sharded.addExpense(expense);
+                long referenceId = reference.addExpense(expense);
+                sharded.splitExpenseAndRecordDebts(withId(expense, shardedId), members);
+                reference.splitExpenseAndRecordDebts(withId(expense, referenceId), members);
+            } else {
+                sharded.createExpenseWithSplits(expense, members);
+                reference.createExpenseWithSplits(expense, members);
+            }
+            if (i % 20 == 0) {
+                Settlement settlement = new Settlement(groupId, members.get(0), payer, Money.ofCents(1 + random.nextInt(5_000)));
+                sharded.recordSettlement(settlement);
+                reference.recordSettlement(settlement);
+            }
+        }
+
+        List<Expense> imported = new ArrayList<>();
+        List<List<Integer>> participants = new ArrayList<>();
+        List<Settlement> importedSettlements = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int g = random.nextInt(GROUPS);
+            imported.add(new Expense(-1, Money.ofCents(100 + random.nextInt(20_000)), "imported " + i, firstMember[g],
+                                     FIRST_DAY.plusDays(random.nextInt(365)), groupIds[g]));
+            participants.add(List.of(firstMember[g], firstMember[g] + 1, firstMember[g] + 2));
+            if (i % 10 == 0) {
+                importedSettlements.add(new Settlement(groupIds[g], firstMember[g] + 1, firstMember[g], Money.ofCents(500)));
+            }
+        }
+        sharded.importBatch(imported, participants, importedSettlements);
+        reference.importBatch(imported, participants, importedSettlements);
+    }
+
+    private static void printDistribution(ShardedStorageEngine sharded) {
+        List<StorageEngine> shards = sharded.getShards();
+        for (int s = 0; s < shards.size(); s++) {
+            console.printf("  shard %d: %,7d expenses, %,6d settlements%n", s,
+                    shards.get(s).listAllExpenses().size(), shards.get(s).listAllSettlements().size());
+        }
+    }
+
+    private static void compare(ShardedStorageEngine sharded, StorageEngine reference) {
+        check("balances", reference.readBalanceCents().toDecimalMap(), sharded.readBalanceCents().toDecimalMap());
+        LocalDate midYear = FIRST_DAY.plusMonths(6);
+        check("balances as of " + midYear, reference.readBalanceCentsAsOf(midYear).toDecimalMap(),
+              sharded.readBalanceCentsAsOf(midYear).toDecimalMap());
+
+        int differentGroups = 0;
+        for (int groupId = 0; groupId <= GROUPS; groupId++) {
+            if (!reference.readGroupBalanceCents(groupId).toDecimalMap().equals(sharded.readGroupBalanceCents(groupId).toDecimalMap())) {
+                differentGroups++;
+            }
+        }
+        check("balances of every group (and of group 0)", 0, differentGroups);
+        check("pair debts", pairs(reference.readPairDebts()), pairs(sharded.readPairDebts()));
+        check("one user's pair debts", pairs(reference.readPairDebts(7)), pairs(sharded.readPairDebts(7)));
+
+        List<Expense> expenses = sharded.listAllExpenses();
+        check("expenses", expenseRows(reference.listAllExpenses()), expenseRows(expenses));
+        check("expense ids unique and ascending", true, ascending(ids(expenses)));
+        List<Long> paged = new ArrayList<>();
+        for (KeysetPage<Expense> page = sharded.pageExpenses(null, 137); !page.getRows().isEmpty();
+             page = sharded.pageExpenses(page.getNextCursor(), 137)) {
+            page.getRows().forEach(expense -> paged.add(expense.getExpenseId()));
+        }
+        check("expense pages walk every expense in id order", ids(expenses), paged);
+        List<Long> streamed = new ArrayList<>();
+        sharded.streamExpenses(expense -> streamed.add(expense.getExpenseId()));
+        check("expense stream in id order", ids(expenses), streamed);
+
+        Map<String, Long> referenceIds = new HashMap<>();
+        for (Expense expense : reference.listAllExpenses()) referenceIds.put(expense.getDescription(), expense.getExpenseId());
+        int differentSplits = 0;
+        for (int i = 0; i < expenses.size(); i += Math.max(1, expenses.size() / 500)) {
+            Expense expense = expenses.get(i);
+            List<ExpenseSplit> splits = sharded.listExpenseSplits(expense.getExpenseId());
+            boolean own = splits.stream().allMatch(split -> split.getExpenseId() == expense.getExpenseId());
+            if (!own || !splitRows(splits).equals(splitRows(reference.listExpenseSplits(referenceIds.get(expense.getDescription()))))) {
+                differentSplits++;
+            }
+        }
+        check("splits of sampled expenses", 0, differentSplits);
+
+        List<Settlement> settlements = sharded.listAllSettlements();
+        check("settlements", settlementRows(reference.listAllSettlements()), settlementRows(settlements));
+        List<Long> settlementIds = new ArrayList<>();
+        for (Settlement settlement : settlements) settlementIds.add(settlement.getSettlementId());
+        List<Long> pagedSettlements = new ArrayList<>();
+        for (KeysetPage<Settlement> page = sharded.pageSettlements(null, 61); !page.getRows().isEmpty();
+             page = sharded.pageSettlements(page.getNextCursor(), 61)) {
+            page.getRows().forEach(settlement -> pagedSettlements.add(settlement.getSettlementId()));
+        }
+        check("settlement pages walk every settlement in id order", settlementIds, pagedSettlements);
+
+        SpendingReport.Request request = new SpendingReport.Request(FIRST_DAY, FIRST_DAY.plusYears(1).minusDays(1),
+                                                                    SpendingReport.Granularity.MONTH, 0);
+        check("monthly spending report", buckets(reference.readSpendingReport(request)), buckets(sharded.readSpendingReport(request)));
+        check("ledger verifies on every shard", 0, sharded.verifyBalances().size());
+    }
+
+    private static void time(ShardedStorageEngine sharded, StorageEngine reference) {
+        console.printf("%n%-26s %12s %12s%n", "best of " + RUNS + " (ms)", "unsharded", "sharded");
+        timeBoth("balances", () -> reference.readBalanceCents(), () -> sharded.readBalanceCents());
+        timeBoth("one group's balances", () -> reference.readGroupBalanceCents(5), () -> sharded.readGroupBalanceCents(5));
+        timeBoth("pair debts", () -> reference.readPairDebts(), () -> sharded.readPairDebts());
+        timeBoth("first expense page (100)", () -> reference.listExpensesPage(0, 100), () -> sharded.listExpensesPage(0, 100));
+    }
+
+    private static void timeBoth(String label, Supplier<?> unsharded, Supplier<?> sharded) {
+        console.printf("%-26s %12.3f %12.3f%n", label, best(unsharded) / 1e6, best(sharded) / 1e6);
+    }
+
+    // One warm-up run, then the fastest of RUNS
+    private static long best(Supplier<?> read) {
+        read.get();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long began = System.nanoTime();
+            read.get();
+            best = Math.min(best, System.nanoTime() - began);
+        }
+        return best;
+    }
+
+    private static void check(String label, Object expected, Object actual) {
+        boolean passed = expected.equals(actual);
+        if (!passed) failures++;
+        console.printf("  [%s] %s%n", passed ? "PASS" : "FAIL", label);
+    }
+
+    private static Expense withId(Expense expense, long expenseId) {
+        return new Expense(expenseId, Money.ofCents(expense.getAmountCents()), expense.getDescription(),
+                           expense.getPayerId(), expense.getDate(), expense.getGroupId());
+    }
+
+    private static Map<String, Long> pairs(PairDebts debts) {
+        Map<String, Long> pairs = new TreeMap<>();
+        debts.forEach((debtorId, creditorId, cents) -> pairs.put(debtorId + ">" + creditorId, cents));
+        return pairs;
+    }
+
+    // Ids differ between the engines, so rows are compared by content (descriptions are unique)
+    private static Map<String, String> expenseRows(List<Expense> expenses) {
+        Map<String, String> rows = new TreeMap<>();
+        for (Expense expense : expenses) {
+            rows.put(expense.getDescription(), expense.getPayerId() + " " + expense.getAmountCents() + " "
+                    + expense.getDate() + " " + expense.getGroupId());
+        }
+        return rows;
+    }
+
+    private static List<String> settlementRows(List<Settlement> settlements) {
+        List<String> rows = new ArrayList<>();
+        for (Settlement settlement : settlements) {
+            rows.add(settlement.getGroupId() + " " + settlement.getPayerId() + " " + settlement.getReceiverId() + " "
+                    + settlement.getAmountCents());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static List<String> splitRows(List<ExpenseSplit> splits) {
+        List<String> rows = new ArrayList<>();
+        for (ExpenseSplit split : splits) rows.add(split.getMemberId() + " " + split.getOwedAmountCents());
+        rows.sort(null);
+        return rows;
+    }
+
+    private static List<String> buckets(SpendingReport report) {
+        List<String> rows = new ArrayList<>();
+        for (SpendingReport.Bucket bucket : report.getBuckets()) {
+            rows.add(bucket.getPeriod() + " " + bucket.getUserId() + " " + bucket.getPaid() + " " + bucket.getOwed()
+                    + " " + bucket.getExpenses());
+        }
+        return rows;
+    }
+
+    private static List<Long> ids(List<Expense> expenses) {
+        List<Long> ids = new ArrayList<>(expenses.size());
+        for (Expense expense : expenses) ids.add(expense.getExpenseId());
+        return ids;
+    }
+
+    private static boolean ascending(List<Long> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i) <= ids.get(i - 1)) return false;
+        }
+        return true;
+    }
+}
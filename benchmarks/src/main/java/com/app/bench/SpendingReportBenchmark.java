@@ -0,0 +1,87 @@
+package com.app.bench;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.Expense;
+import com.app.InMemoryStorageEngine;
+import com.app.SpendingReport;
+import com.app.User;
+
+/**
+ * A year of monthly spending for every user, read from the in-memory engine's rollup (cost grows
+ * with the number of user-days in range) versus scanning the expenses (cost grows with the number
+ * of expenses). The scan only totals what each payer paid, skipping the splits, so it is a lower
+ * bound for computing the report without rollups. Expenses are spread over two years.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpendingReportBenchmark {
+
+    private static final int USERS = 100;
+    private static final int SPLITS_PER_EXPENSE = 3;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2023, 1, 1);
+    private static final int DAYS = 730;
+
+    @Param({"10000", "1000000"})
+    public int expenses;
+
+    private InMemoryStorageEngine storage;
+    private SpendingReport.Request lastYear;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StandInDatabase.quietConsole();
+        storage = new InMemoryStorageEngine();
+        for (int i = 1; i <= USERS; i++) {
+            storage.registerNewUser(new User("user" + i, "user" + i + "@example.com", "hash", "User " + i));
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < expenses; i++) {
+            int payerId = 1 + random.nextInt(USERS);
+            Expense expense = new Expense(1 + random.nextInt(20_000) / 100.0, "Expense " + i, payerId,
+                                          FIRST_DAY.plusDays(random.nextInt(DAYS)));
+            List<Integer> members = List.of(payerId, 1 + random.nextInt(USERS), 1 + random.nextInt(USERS));
+            storage.createExpenseWithSplits(expense, members.subList(0, SPLITS_PER_EXPENSE));
+        }
+        lastYear = SpendingReport.Request.parse("2024-01-01", "2024-12-31", "month", null);
+    }
+
+    @Benchmark
+    public SpendingReport rollupReport() {
+        return storage.readSpendingReport(lastYear);
+    }
+
+    @Benchmark
+    public Map<Long, Long> scanPaidOnly() {
+        Map<Long, Long> paidByPayerMonth = new HashMap<>();
+        storage.streamExpenses(expense -> {
+            LocalDate date = expense.getDate();
+            if (date.isBefore(lastYear.getFrom()) || date.isAfter(lastYear.getTo())) return;
+            long key = (long) expense.getPayerId() << 32 | date.getMonthValue();
+            paidByPayerMonth.merge(key, expense.getAmountCents(), Long::sum);
+        });
+        return paidByPayerMonth;
+    }
+}
@@ -0,0 +1,80 @@
+package com.app.bench;
+
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.BalanceLedger;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+
+/**
+ * ExpenseRepository.splitExpenseAndRecordDebts batching cost per expense, by group size
+ * (50000 members takes the chunked path: one batch per 1000 rows).
+ * Each invocation runs inside a transaction that is rolled back afterwards, so the table
+ * does not grow over the run. The ledger upsert is PostgreSQL-only and is switched off here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitRecordingBenchmark {
+
+    @Param({"10", "100", "1000", "50000"})
+    public int members;
+
+    private StandInDatabase database;
+    private Connection connection;
+    private ExpenseRepository repository;
+    private Expense expense;
+    private List<Integer> memberIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StandInDatabase.quietConsole();
+        database = new StandInDatabase();
+        database.seed(members, 1, 0, 0);
+        connection = database.connect();
+        connection.setAutoCommit(false);
+        repository = new ExpenseRepository(BalanceLedger.disabled());
+        expense = new Expense(1, 10_000.00, "Group trip", 1, LocalDate.of(2024, 1, 1));
+        memberIds = new ArrayList<>();
+        for (int id = 1; id <= members; id++) {
+            memberIds.add(id);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() throws Exception {
+        connection.rollback();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public void recordSplits() {
+        repository.splitExpenseAndRecordDebts(connection, expense, memberIds);
+    }
+}
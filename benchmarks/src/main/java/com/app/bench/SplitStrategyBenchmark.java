@@ -0,0 +1,86 @@
+package com.app.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.SplitStrategy;
+
+/**
+ * Splits allocated per second by SplitStrategy, by group size, starting from the request's
+ * List<Double> values as the endpoints do. Percentages and share counts are random, so the
+ * leftover cents really have to be ranked; exact amounts are generated to add up to the total.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitStrategyBenchmark {
+
+    private static final long TOTAL_CENTS = 123_456_789;
+
+    @Param({"equal", "percentage", "shares", "exact"})
+    public String strategy;
+
+    @Param({"10", "1000", "50000"})
+    public int members;
+
+    private SplitStrategy split;
+    private List<Double> values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        split = SplitStrategy.parse(strategy);
+        Random random = new Random(42);
+        values = new ArrayList<>(members);
+        switch (split) {
+            case PERCENTAGE: {
+                // Random weights in basis points, with the last one absorbing the rounding
+                long[] basisPoints = weights(random, 1_000_000);
+                for (long bp : basisPoints) values.add(bp / 10_000.0);
+                break;
+            }
+            case SHARES:
+                for (int i = 0; i < members; i++) values.add((double) (1 + random.nextInt(4)));
+                break;
+            case EXACT:
+                for (long cents : weights(random, TOTAL_CENTS)) values.add(cents / 100.0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // members non-negative integers adding up to total
+    private long[] weights(Random random, long total) {
+        long[] weights = new long[members];
+        long left = total;
+        for (int i = 0; i < members - 1; i++) {
+            weights[i] = Math.min(left, (long) (random.nextDouble() * 2 * total / members));
+            left -= weights[i];
+        }
+        weights[members - 1] = left;
+        return weights;
+    }
+
+    @Benchmark
+    public long[] allocate() {
+        return split.allocate(TOTAL_CENTS, members, values);
+    }
+}
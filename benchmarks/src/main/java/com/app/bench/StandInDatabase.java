@@ -0,0 +1,122 @@
+package com.app.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process H2 database (PostgreSQL mode) with the same tables the repositories use,
+ * so benchmarks exercise the real JDBC code without a network round trip.
+ */
+public final class StandInDatabase implements AutoCloseable {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final String url;
+    private final Connection keepAlive; // an in-memory H2 database lives as long as one connection does
+
+    public StandInDatabase() throws SQLException {
+        this.url = "jdbc:h2:mem:bench" + NEXT_ID.incrementAndGet()
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+        this.keepAlive = DriverManager.getConnection(url);
+        createSchema();
+    }
+
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(url);
+    }
+
+    /**
+     * Inserts users, expenses with splits, and settlements with a fixed seed.
+     * @param users Number of distinct user ids to spread activity over.
+     * @param expenses Number of expenses.
+     * @param splitsPerExpense Number of split rows per expense.
+     * @param settlements Number of settlements.
+     */
+    public void seed(int users, int expenses, int splitsPerExpense, int settlements) throws SQLException {
+        Random random = new Random(42);
+        keepAlive.setAutoCommit(false);
+        try (PreparedStatement expense = keepAlive.prepareStatement(
+                "INSERT INTO public.expenses (expense_id, amount, description, payer_id, expense_date) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement split = keepAlive.prepareStatement(
+                "INSERT INTO public.expense_splits (expense_id, member_id, owed_amount) VALUES (?, ?, ?)");
+             PreparedStatement settlement = keepAlive.prepareStatement(
+                "INSERT INTO public.settlements (group_id, payer_id, receiver_id, amount, settlement_date) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)")) {
+
+            for (int id = 1; id <= expenses; id++) {
+                long cents = 100 + random.nextInt(100_000);
+                int payer = 1 + random.nextInt(users);
+                expense.setLong(1, id);
+                expense.setBigDecimal(2, BigDecimal.valueOf(cents, 2));
+                expense.setString(3, "Expense " + id);
+                expense.setInt(4, payer);
+                expense.setDate(5, java.sql.Date.valueOf(LocalDate.of(2024, 1, 1).plusDays(id % 365)));
+                expense.addBatch();
+
+                long share = cents / (splitsPerExpense + 1);
+                for (int s = 0; s < splitsPerExpense; s++) {
+                    split.setLong(1, id);
+                    split.setInt(2, 1 + random.nextInt(users));
+                    split.setBigDecimal(3, BigDecimal.valueOf(share, 2));
+                    split.addBatch();
+                }
+                if (id % 1_000 == 0) {
+                    expense.executeBatch();
+                    split.executeBatch();
+                }
+            }
+            expense.executeBatch();
+            split.executeBatch();
+
+            for (int i = 0; i < settlements; i++) {
+                settlement.setInt(1, 1);
+                settlement.setInt(2, 1 + random.nextInt(users));
+                settlement.setInt(3, 1 + random.nextInt(users));
+                settlement.setBigDecimal(4, BigDecimal.valueOf(100 + random.nextInt(10_000), 2));
+                settlement.addBatch();
+            }
+            settlement.executeBatch();
+            keepAlive.commit();
+        } finally {
+            keepAlive.setAutoCommit(true);
+        }
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("ALTER TABLE public.expenses ALTER COLUMN expense_id RESTART WITH " + (expenses + 1));
+        }
+    }
+
+    /**
+     * The repositories log every write to stdout; silence that inside the benchmark fork.
+     */
+    public static void quietConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Override
+    public void close() throws SQLException {
+        keepAlive.close();
+    }
+
+    private void createSchema() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE public.users (user_id SERIAL PRIMARY KEY, username VARCHAR(100) UNIQUE, "
+                    + "email VARCHAR(200) UNIQUE, password_hash VARCHAR(200), full_name VARCHAR(200))");
+            statement.execute("CREATE TABLE public.groups (group_id SERIAL PRIMARY KEY, group_name VARCHAR(200), creator_id INT)");
+            statement.execute("CREATE TABLE public.expenses (expense_id BIGSERIAL PRIMARY KEY, amount NUMERIC(12,2) NOT NULL, "
+                    + "description VARCHAR(500), payer_id INT NOT NULL, expense_date DATE NOT NULL, group_id INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE public.expense_splits (split_id BIGSERIAL PRIMARY KEY, expense_id BIGINT NOT NULL, "
+                    + "member_id INT NOT NULL, owed_amount NUMERIC(12,2) NOT NULL)");
+            statement.execute("CREATE INDEX expense_splits_expense_idx ON public.expense_splits (expense_id)");
+            statement.execute("CREATE TABLE public.settlements (settlement_id BIGSERIAL PRIMARY KEY, group_id INT, "
+                    + "payer_id INT NOT NULL, receiver_id INT NOT NULL, amount NUMERIC(12,2) NOT NULL, settlement_date TIMESTAMP NOT NULL)");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.app.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.app.BalanceLedger;
+import com.app.EventLogStorageEngine;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+import com.app.InMemoryStorageEngine;
+import com.app.JdbcStorageEngine;
+import com.app.Money;
+import com.app.Settlement;
+import com.app.StorageEngine;
+import com.app.User;
+import com.app.UserRepository;
+
+/**
+ * The same StorageEngine calls on the JDBC engine (over the in-process H2 database, so without
+ * any network cost), the in-memory engine and the event log engine (in a temporary directory,
+ * with fsync, so addExpense includes the group-committed msync), seeded with the same shape of data.
+ * The JDBC engine opens an H2 connection per call here; with the real pool a borrow is cheaper,
+ * but every call still pays a network round trip that this comparison leaves out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageEngineBenchmark {
+
+    private static final int USERS = 100;
+    private static final int EXPENSES = 20_000;
+    private static final int SPLITS_PER_EXPENSE = 3;
+    private static final int SETTLEMENTS = 2_000;
+
+    @Param({"jdbc", "memory", "eventlog"})
+    public String engine;
+
+    private StandInDatabase database;
+    private StorageEngine storage;
+    private Path logDirectory;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StandInDatabase.quietConsole();
+        random = new Random(7);
+        if (engine.equals(StorageEngine.JDBC)) {
+            database = new StandInDatabase();
+            database.seed(USERS, EXPENSES, SPLITS_PER_EXPENSE, SETTLEMENTS);
+            storage = new JdbcStorageEngine(database::connect, new UserRepository(),
+                                            new ExpenseRepository(BalanceLedger.disabled()));
+        } else if (engine.equals(StorageEngine.EVENT_LOG)) {
+            logDirectory = Files.createTempDirectory("eventlog-bench");
+            storage = new EventLogStorageEngine(logDirectory, EventLogStorageEngine.DEFAULT_SEGMENT_BYTES, true);
+            seedMemory(storage);
+        } else {
+            storage = new InMemoryStorageEngine();
+            seedMemory(storage);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.close();
+        if (database != null) database.close();
+        if (logDirectory != null) {
+            try (Stream<Path> files = Files.list(logDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(logDirectory);
+        }
+    }
+
+    @Benchmark
+    public long addExpense() {
+        return storage.addExpense(new Expense(Money.ofCents(1_234), "Bench", 1 + random.nextInt(USERS), LocalDate.now()));
+    }
+
+    @Benchmark
+    public Object listExpensePage() {
+        return storage.listExpensesPage(random.nextInt(EXPENSES - 100), 100);
+    }
+
+    @Benchmark
+    public Object listExpenseSplits() {
+        return storage.listExpenseSplits(1 + random.nextInt(EXPENSES));
+    }
+
+    // JDBC (ledger disabled on H2): a full recompute; memory and event log: a copy of the maintained balances
+    @Benchmark
+    public Object readBalances() {
+        return storage.readBalanceCents();
+    }
+
+    // Users are registered first so their ids are 1..USERS, as in the seeded database.
+    private static void seedMemory(StorageEngine storage) {
+        Random random = new Random(42);
+        for (int i = 1; i <= USERS; i++) {
+            storage.registerNewUser(new User("user" + i, "user" + i + "@example.com", "", "User " + i));
+        }
+
+        List<Expense> expenses = new ArrayList<>();
+        List<List<Integer>> participants = new ArrayList<>();
+        for (int id = 1; id <= EXPENSES; id++) {
+            int payer = 1 + random.nextInt(USERS);
+            List<Integer> members = new ArrayList<>();
+            members.add(payer);
+            for (int s = 0; s < SPLITS_PER_EXPENSE; s++) members.add(1 + random.nextInt(USERS));
+            expenses.add(new Expense(Money.ofCents(100 + random.nextInt(100_000)), "Expense " + id, payer,
+                                     LocalDate.of(2024, 1, 1).plusDays(id % 365)));
+            participants.add(members);
+        }
+        List<Settlement> settlements = new ArrayList<>();
+        for (int i = 0; i < SETTLEMENTS; i++) {
+            settlements.add(new Settlement(1, 1 + random.nextInt(USERS), 1 + random.nextInt(USERS),
+                                           Money.ofCents(100 + random.nextInt(10_000))));
+        }
+        storage.importBatch(expenses, participants, settlements);
+    }
+}
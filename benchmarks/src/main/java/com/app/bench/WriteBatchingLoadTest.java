@@ -0,0 +1,167 @@
+package com.app.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.app.DatabaseConnector;
+import com.app.Expense;
+import com.app.ExpenseRepository;
+import com.app.JdbcStorageEngine;
+import com.app.Settlement;
+import com.app.SplitStrategy;
+import com.app.StorageEngine;
+import com.app.UserRepository;
+import com.app.WriteBatcher;
+
+/**
+ * Concurrent write load test for group commit, against the real PostgreSQL database (configure it
+ * with DB_URL / DB_USER / DB_PASS; use a scratch database): the commit cost that batching saves is
+ * the WAL flush, which an in-process database does not have.
+ * Each client records expenses with splits and every tenth write a settlement, through the JDBC
+ * engine, once with every write committing on its own and then group-committed at several linger
+ * times. For each client count it prints writes/s, p50/p99 latency and the mean batch size, i.e.
+ * the throughput and latency curves against linger.
+ * Rows created by the run are deleted afterwards and the ledger, pair debts and rollups rebuilt.
+ * Not a JMH benchmark; run it with:
+ *   java -cp benchmarks/target/benchmarks.jar com.app.bench.WriteBatchingLoadTest [writesPerClient] [maxBatch]
+ */
+public class WriteBatchingLoadTest {
+
+    private static final String TAG = "batch-test-" + System.currentTimeMillis();
+    private static final int[] CLIENTS = {1, 8, 32, 128};
+    private static final long[] LINGER_MICROS = {0, 200, 1_000, 5_000};
+    private static final int FLUSHERS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int perClient = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxBatch = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        StandInDatabase.quietConsole();
+        ExpenseRepository repository = new ExpenseRepository();
+        UserRepository users = new UserRepository();
+        List<Integer> memberIds = existingUserIds(4);
+        long lastSettlementId = lastSettlementId();
+        System.out.printf("Write batching: %d writes per client, batches of up to %d on %d flushers (tag %s)%n",
+                perClient, maxBatch, FLUSHERS, TAG);
+        System.out.printf("%-16s %7s %12s %9s %9s %10s%n", "mode", "clients", "writes/s", "p50 ms", "p99 ms", "mean batch");
+
+        try {
+            for (int clients : CLIENTS) {
+                try (JdbcStorageEngine single = new JdbcStorageEngine(DatabaseConnector::getConnection, users, repository)) {
+                    run("unbatched", single, null, clients, Math.min(perClient, 20), memberIds, true);
+                    run("unbatched", single, null, clients, perClient, memberIds, false);
+                }
+                for (long linger : LINGER_MICROS) {
+                    WriteBatcher batcher = new WriteBatcher(DatabaseConnector::getConnection, maxBatch, linger, FLUSHERS,
+                                                            1_024, (conn, writes) -> {});
+                    try (JdbcStorageEngine batched = new JdbcStorageEngine(DatabaseConnector::getConnection, users, repository, batcher)) {
+                        run("linger " + linger + " us", batched, batcher, clients, perClient, memberIds, false);
+                    }
+                }
+            }
+        } finally {
+            cleanUp(repository, lastSettlementId);
+            DatabaseConnector.shutdown();
+        }
+    }
+
+    private static void run(String label, StorageEngine storage, WriteBatcher batcher, int clients, int perClient,
+                            List<Integer> memberIds, boolean warmUp) throws Exception {
+        long[][] latencies = new long[clients][perClient];
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            long[] clientLatencies = latencies[c];
+            int payerId = memberIds.get(c % memberIds.size());
+            int receiverId = memberIds.get((c + 1) % memberIds.size());
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perClient; i++) {
+                    long began = System.nanoTime();
+                    if (i % 10 == 9) {
+                        storage.recordSettlement(new Settlement(0, receiverId, payerId, 1.00));
+                    } else {
+                        Expense expense = new Expense(10.00 + i % 89, TAG, payerId, LocalDate.now());
+                        storage.createExpenseWithSplits(expense, memberIds,
+                                SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+                    }
+                    clientLatencies[i] = System.nanoTime() - began;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        if (warmUp) return;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-16s %7d %12.1f %9.2f %9.2f %10.1f%n",
+                label, clients, all.length / seconds, percentile(all, 0.50), percentile(all, 0.99),
+                batcher == null ? 1.0 : batcher.getStats().getMeanBatch());
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private static List<Integer> existingUserIds(int limit) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement statement = conn.prepareStatement(
+                     "SELECT user_id FROM public.users ORDER BY user_id LIMIT ?")) {
+            statement.setInt(1, limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        if (ids.size() < 2) {
+            throw new IllegalStateException("The load test needs at least two users in the database.");
+        }
+        return ids;
+    }
+
+    private static long lastSettlementId() throws Exception {
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT COALESCE(MAX(settlement_id), 0) FROM public.settlements");
+             ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void cleanUp(ExpenseRepository repository, long lastSettlementId) throws Exception {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            try (PreparedStatement splits = conn.prepareStatement(
+                    "DELETE FROM public.expense_splits WHERE expense_id IN "
+                    + "(SELECT expense_id FROM public.expenses WHERE description = ?)")) {
+                splits.setString(1, TAG);
+                splits.executeUpdate();
+            }
+            try (PreparedStatement expenses = conn.prepareStatement("DELETE FROM public.expenses WHERE description = ?")) {
+                expenses.setString(1, TAG);
+                System.out.printf("Removed %d load-test expenses.%n", expenses.executeUpdate());
+            }
+            try (PreparedStatement settlements = conn.prepareStatement("DELETE FROM public.settlements WHERE settlement_id > ?")) {
+                settlements.setLong(1, lastSettlementId);
+                System.out.printf("Removed %d load-test settlements.%n", settlements.executeUpdate());
+            }
+            repository.getLedger().rebuild(conn);
+            repository.getPairLedger().rebuild(conn);
+            repository.getRollups().rebuild(conn);
+        }
+    }
+}
@@ -46,4 +46,15 @@ export async function resetAll() {
   return res.data
 }
 
+// Server-sent change events (GET /api/stream). Calls onChange(type, data) for every event;
+// EventSource reconnects by itself and the server then sends "ready" again, so refetch on it.
+// Returns a function that closes the stream.
+export function subscribeChanges(onChange) {
+  const source = new EventSource(api.defaults.baseURL + '/stream')
+  for (const type of ['ready', 'expense', 'splits', 'settlement', 'balances', 'refresh']) {
+    source.addEventListener(type, (e) => onChange(type, e.data ? JSON.parse(e.data) : null))
+  }
+  return () => source.close()
+}
+
 export default api
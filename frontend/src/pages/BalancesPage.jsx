@@ -1,10 +1,28 @@
 import React, { useEffect, useState } from 'react'
-import { fetchBalances } from '../api/api'
+import { fetchBalances, subscribeChanges } from '../api/api'
+
+// Net balances keyed by user id; the stream sends per-user deltas that are added in cents.
+function addDeltas(balances, deltas) {
+  const next = { ...balances }
+  Object.entries(deltas || {}).forEach(([userId, amount]) => {
+    const cents = Math.round((next[userId] || 0) * 100) + Math.round(amount * 100)
+    if (cents === 0) delete next[userId]
+    else next[userId] = cents / 100
+  })
+  return next
+}
 
 export default function BalancesPage() {
-  const [balances, setBalances] = useState([])
-  useEffect(() => { fetchBalances().then(setBalances).catch(console.error) }, [])
+  const [balances, setBalances] = useState({})
+  useEffect(() => {
+    const load = () => fetchBalances().then(setBalances).catch(console.error)
+    return subscribeChanges((type, data) => {
+      if (type === 'ready' || type === 'refresh') load()
+      else if (type === 'balances') setBalances(current => addDeltas(current, data && data.deltas))
+    })
+  }, [])
 
+  const rows = Object.entries(balances || {})
   return (
     <div className="card">
       <h3>Balances</h3>
@@ -13,8 +31,8 @@ export default function BalancesPage() {
           <tr><th>Person</th><th>Net Balance</th></tr>
         </thead>
         <tbody>
-          {balances && balances.length ? balances.map((b,i)=> (
-            <tr key={i}><td>{b.person || b.name || b.username}</td><td>{b.amount}</td></tr>
+          {rows.length ? rows.map(([userId, amount]) => (
+            <tr key={userId}><td>{userId}</td><td>{amount}</td></tr>
           )) : <tr><td colSpan="2">No balances</td></tr>}
         </tbody>
       </table>
@@ -1,12 +1,24 @@
 import React, { useEffect, useState } from 'react'
-import { fetchExpenses, fetchFriends } from '../api/api'
+import { fetchExpenses, fetchFriends, subscribeChanges } from '../api/api'
 
 export default function ViewExpensesPage() {
   const [expenses, setExpenses] = useState([])
   const [friends, setFriends] = useState([])
   const [loading, setLoading] = useState(false)
 
-  useEffect(() => { load() }, [])
+  useEffect(() => {
+    return subscribeChanges((type, data) => {
+      if (type === 'ready' || type === 'refresh') load()
+      else if (type === 'expense' && data) setExpenses(current => addExpense(current, data))
+    })
+  }, [])
+
+  // A streamed expense is appended unless a refetch already returned it.
+  function addExpense(current, data) {
+    if (current.some(ex => ex.expenseId === data.id)) return current
+    const { id, amount, payerId, date, description } = data
+    return [...current, { expenseId: id, amount, payerId, date, description }]
+  }
 
   async function load() {
     setLoading(true)
@@ -38,7 +50,7 @@ export default function ViewExpensesPage() {
           </thead>
           <tbody>
             {expenses && expenses.length ? expenses.map((ex, i) => (
-              <tr key={i}>
+              <tr key={ex.expenseId ?? i}>
                 <td>{ex.date || '—'}</td>
                 <td>{ex.description || '—'}</td>
                 <td>{ex.amount || '—'}</td>
@@ -0,0 +1,131 @@
+package com.app;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide limit on concurrent read computations (balances, expense lists and the other
+ * cached bodies), so a burst of viewers queues for a few database connections instead of
+ * exhausting the pool. At most HTTP_READ_CONCURRENCY computations run at once; up to
+ * HTTP_READ_QUEUE more wait, each for at most HTTP_READ_QUEUE_WAIT_MS. A computation that finds
+ * the queue full, or waits longer, is rejected with OverloadedException, which the endpoints turn
+ * into 503 with Retry-After (HTTP_READ_RETRY_AFTER_SECONDS).
+ * Used behind SingleFlight, so identical concurrent requests take one slot between them.
+ */
+public final class AdmissionControl {
+
+    /**
+     * The read limit is saturated; retry after getRetryAfterSeconds().
+     */
+    public static class OverloadedException extends RuntimeException {
+        private final int retryAfterSeconds;
+
+        public OverloadedException(String message, int retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    /**
+     * Counters for the admin endpoints, serialized as-is.
+     */
+    public static class Stats {
+        private final int concurrency;
+        private final int queueCapacity;
+        private final int running;
+        private final int queued;
+        private final long admitted;
+        private final long rejected;
+
+        Stats(int concurrency, int queueCapacity, int running, int queued, long admitted, long rejected) {
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+            this.running = running;
+            this.queued = queued;
+            this.admitted = admitted;
+            this.rejected = rejected;
+        }
+
+        public int getConcurrency() { return concurrency; }
+        public int getQueueCapacity() { return queueCapacity; }
+        public int getRunning() { return running; }
+        public int getQueued() { return queued; }
+        public long getAdmitted() { return admitted; }
+        public long getRejected() { return rejected; }
+    }
+
+    private static final class Holder {
+        static final AdmissionControl INSTANCE = new AdmissionControl(
+                AppConfig.getInt("http.read.concurrency", 8),
+                AppConfig.getInt("http.read.queue", 64),
+                AppConfig.getLong("http.read.queue.wait.ms", 2_000),
+                AppConfig.getInt("http.read.retry.after.seconds", 1));
+    }
+
+    private final int concurrency;
+    private final int queueCapacity;
+    private final long maxWaitNanos;
+    private final int retryAfterSeconds;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionControl(int concurrency, int queueCapacity, long maxWaitMillis, int retryAfterSeconds) {
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+        this.concurrency = concurrency;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.permits = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * The shared instance, configured from HTTP_READ_* on first use.
+     */
+    public static AdmissionControl get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Runs work once a slot is free.
+     * @throws OverloadedException when the queue is full or the wait times out.
+     */
+    public <T> T call(Callable<T> work) throws Exception {
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > queueCapacity) {
+                queued.decrementAndGet();
+                throw reject("queue full");
+            }
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+            } finally {
+                queued.decrementAndGet();
+            }
+            if (!acquired) throw reject("timed out waiting");
+        }
+        admitted.incrementAndGet();
+        try {
+            return work.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(concurrency, queueCapacity, concurrency - permits.availablePermits(), queued.get(),
+                         admitted.get(), rejected.get());
+    }
+
+    private OverloadedException reject(String reason) {
+        rejected.incrementAndGet();
+        return new OverloadedException("Too many concurrent reads (" + reason + "); retry in " + retryAfterSeconds + " s.",
+                                       retryAfterSeconds);
+    }
+}
@@ -1,13 +1,12 @@
 package com.app;
 
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Main application class for the SMART EXPENSE SPLITTER.
@@ -20,28 +19,25 @@ public class App {
     public static void main(String[] args) {
         System.out.println("\n--- Starting Expense Splitter Application ---");
 
-        UserRepository userRepository = new UserRepository();
-        ExpenseRepository expenseRepository = new ExpenseRepository();
-        BalanceService balanceService = new BalanceService(expenseRepository, userRepository);
-        
-        try (Connection connection = DatabaseConnector.getConnection()) {
-            System.out.println("🎉 Connection successful! Connected to Expense Splitter DB.");
-            
-            // Define the payer and the list of members
-            int aliceUserId = 1; // Alice's ID 
-            int bobUserId = 6; // Bob's current ID 
-            List<Integer> partyMembers = Arrays.asList(aliceUserId, bobUserId); 
+        // STORAGE_ENGINE=jdbc (default) or memory, see StorageEngine.fromConfig
+        try (StorageEngine storage = StorageEngine.fromConfig()) {
+            System.out.println("🎉 Storage ready: using the " + storage.getName() + " storage engine.");
 
             // --- 1. USER MANAGEMENT & GROUP CREATION (NEW FIX) ---
             System.out.println("\n--- 1. USER AND GROUP SETUP ---");
             User alice = new User("alice_j", "alice.j@example.com", "hash1", "Alice Johnson");
             User bob = new User("bob_s", "bob.s@example.com", "hash2", "Bob Smith");
             
-            userRepository.registerNewUser(connection, alice);
-            userRepository.registerNewUser(connection, bob);
+            storage.registerNewUser(alice);
+            storage.registerNewUser(bob);
+
+            // Define the payer and the list of members (ids as assigned by the engine)
+            int aliceUserId = storage.findUserByUsername(alice.getUsername()).getUserId();
+            int bobUserId = storage.findUserByUsername(bob.getUsername()).getUserId();
+            List<Integer> partyMembers = Arrays.asList(aliceUserId, bobUserId); 
 
             // FIX: Create a required Group record and capture its ID
-            long groupId = userRepository.createGroup(connection, "Team Dinner Group", aliceUserId);
+            long groupId = storage.createGroup("Team Dinner Group", aliceUserId);
             
             // --- 2. DEBT CREATION (Initial State) ---
             System.out.println("\n--- 2. DEBT CREATION ---");
@@ -54,17 +50,17 @@ public class App {
                 LocalDate.now()
             );
 
-            long newExpenseId = expenseRepository.addExpense(connection, dinnerExpense);
+            long newExpenseId = storage.addExpense(dinnerExpense);
 
             // B. Record the Splits (Bob owes $45.00)
             if (newExpenseId > 0) {
-                Expense recordedExpense = new Expense(newExpenseId, dinnerExpense.getAmount(), dinnerExpense.getDescription(), dinnerExpense.getPayerId(), dinnerExpense.getDate());
-                expenseRepository.splitExpenseAndRecordDebts(connection, recordedExpense, partyMembers);
+                Expense recordedExpense = new Expense(newExpenseId, Money.ofCents(dinnerExpense.getAmountCents()), dinnerExpense.getDescription(), dinnerExpense.getPayerId(), dinnerExpense.getDate());
+                storage.splitExpenseAndRecordDebts(recordedExpense, partyMembers);
             }
 
             // --- 3. INTERMEDIATE BALANCE CHECK ---
             System.out.println("\n--- 3. INTERMEDIATE BALANCE CHECK (Before Settlement) ---");
-            Map<Integer, Double> initialBalances = balanceService.calculateNetBalances(connection);
+            Map<Integer, Double> initialBalances = storage.readBalances();
             printNetBalances(initialBalances);
             
             // --- 4. SETTLEMENT (Debt Clearance) ---
@@ -72,24 +68,25 @@ public class App {
             // Bob (6) pays Alice (1) the owed amount of $45.00
             // FIX: Pass the actual groupId generated above
             Settlement payment = new Settlement((int)groupId, bobUserId, aliceUserId, 45.00); 
-            expenseRepository.recordSettlement(connection, payment);
+            storage.recordSettlement(payment);
             
             // --- 5. FINAL NET BALANCE REPORT ---
             System.out.println("\n--- 5. FINAL NET BALANCE REPORT (After Settlement) ---");
-            Map<Integer, Double> finalBalances = balanceService.calculateNetBalances(connection);
+            Map<Integer, Double> finalBalances = storage.readBalances();
             printNetBalances(finalBalances);
             
             // --- 6. UTILITY MODULE DEMO ---
             System.out.println("\n--- 6. UTILITY DEMO ---");
-            double dinnerTotal = 55.75;
+            Money dinnerTotal = Money.of(55.75);
             int partySize = 3;
-            double splitAmount = MathOperations.calculateSplit(dinnerTotal, partySize); 
-            System.out.printf("Splitting $%.2f among %d people. Each person owes: $%.2f\n", dinnerTotal, partySize, splitAmount);
+            long[] shares = MathOperations.calculateSplit(dinnerTotal.getCents(), partySize);
+            System.out.printf("Splitting $%s among %d people. Shares owed: %s\n", dinnerTotal, partySize,
+                    Arrays.stream(shares).mapToObj(share -> "$" + Money.ofCents(share)).collect(Collectors.joining(", ")));
 
+        } catch (StorageUnavailableException e) {
+            LOGGER.log(Level.SEVERE, "❌ FAILED TO CONNECT TO DATABASE.", e);
         } catch (DatabaseException e) {
             LOGGER.log(Level.SEVERE, "❌ APPLICATION ERROR: Database operation failed.", e);
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "❌ FAILED TO CONNECT TO DATABASE.", e);
         }
         System.out.println("--- Application End ---\n");
     }
@@ -106,9 +103,9 @@ public class App {
         });
     }
 
-    private static void listAndPrintUsers(Connection connection, UserRepository repository, String title) {
+    private static void listAndPrintUsers(StorageEngine storage, String title) {
         System.out.println("\n--- " + title + " ---");
-        List<User> users = repository.listAllUsers(connection);
+        List<User> users = storage.listAllUsers();
         
         if (users.isEmpty()) {
             System.out.println("No users found.");
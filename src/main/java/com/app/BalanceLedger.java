@@ -0,0 +1,307 @@
+package com.app;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Materialized per-user balance ledger stored in the 'user_balances' table.
+ * ExpenseRepository applies every expense, split and settlement to it inside the same
+ * transaction as the write itself, so reading current balances costs O(number of users)
+ * instead of a scan over the whole history.
+ * Deltas are always taken from the rows just written (not from Java-side values), so the
+ * ledger sums exactly what the history tables store.
+ */
+public class BalanceLedger {
+
+    private static final Logger LOGGER = Logger.getLogger(BalanceLedger.class.getName());
+
+    // Every balance movement in the history tables, one signed row per user.
+    private static final String RECOMPUTE_SQL =
+            "SELECT user_id, SUM(delta) AS balance FROM ("
+            + " SELECT payer_id AS user_id, amount AS delta FROM public.expenses"
+            + " UNION ALL SELECT member_id, -owed_amount FROM public.expense_splits"
+            + " UNION ALL SELECT payer_id, amount FROM public.settlements"
+            + " UNION ALL SELECT receiver_id, -amount FROM public.settlements"
+            + ") movements GROUP BY user_id";
+
+    private static final String UPSERT_SUFFIX =
+            " ON CONFLICT (user_id) DO UPDATE SET balance = public.user_balances.balance + EXCLUDED.balance";
+
+    private final boolean enabled;
+    private volatile boolean schemaReady = false;
+
+    public BalanceLedger() {
+        this(true);
+    }
+
+    private BalanceLedger(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * A ledger that ignores writes, for stand-in databases that lack the PostgreSQL upsert
+     * syntax (e.g. the in-process database used by the benchmarks). Reads are not supported.
+     */
+    public static BalanceLedger disabled() {
+        return new BalanceLedger(false);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * A user whose incrementally maintained balance differs from the recomputed one.
+     */
+    public static class Drift {
+        private final int userId;
+        private final double ledgerBalance;
+        private final double recomputedBalance;
+
+        public Drift(int userId, double ledgerBalance, double recomputedBalance) {
+            this.userId = userId;
+            this.ledgerBalance = ledgerBalance;
+            this.recomputedBalance = recomputedBalance;
+        }
+
+        public int getUserId() { return userId; }
+        public double getLedgerBalance() { return ledgerBalance; }
+        public double getRecomputedBalance() { return recomputedBalance; }
+    }
+
+    // --- WRITE PATH (called by ExpenseRepository inside the write transaction) ---
+
+    /**
+     * Credits the payer of a freshly inserted expense with its full amount.
+     */
+    public void creditExpense(Connection conn, long expenseId) throws SQLException {
+        if (!enabled) return;
+        String sql = "INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT payer_id, amount FROM public.expenses WHERE expense_id = ?" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, expenseId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Credits the payers of a batch of freshly inserted expenses (bulk import path).
+     */
+    public void creditExpenses(Connection conn, long[] expenseIds) throws SQLException {
+        if (!enabled || expenseIds.length == 0) return;
+        String sql = "INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT payer_id, SUM(amount) FROM public.expenses WHERE expense_id = ANY(?) "
+                + "GROUP BY payer_id" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, expenseIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Debits the members of the given, freshly inserted split rows.
+     */
+    public void debitSplits(Connection conn, long[] splitIds) throws SQLException {
+        if (!enabled || splitIds.length == 0) return;
+        String sql = "INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT member_id, -SUM(owed_amount) FROM public.expense_splits WHERE split_id = ANY(?) "
+                + "GROUP BY member_id" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, splitIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Moves a freshly inserted settlement's amount from the receiver to the payer.
+     */
+    public void applySettlement(Connection conn, long settlementId) throws SQLException {
+        if (!enabled) return;
+        String sql = "INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT user_id, SUM(delta) FROM ("
+                + " SELECT payer_id AS user_id, amount AS delta FROM public.settlements WHERE settlement_id = ?"
+                + " UNION ALL SELECT receiver_id, -amount FROM public.settlements WHERE settlement_id = ?"
+                + ") movement GROUP BY user_id" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, settlementId);
+            statement.setLong(2, settlementId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Applies a batch of freshly inserted settlements (bulk import path).
+     */
+    public void applySettlements(Connection conn, long[] settlementIds) throws SQLException {
+        if (!enabled || settlementIds.length == 0) return;
+        String sql = "INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT user_id, SUM(delta) FROM ("
+                + " SELECT payer_id AS user_id, amount AS delta FROM public.settlements WHERE settlement_id = ANY(?)"
+                + " UNION ALL SELECT receiver_id, -amount FROM public.settlements WHERE settlement_id = ANY(?)"
+                + ") movement GROUP BY user_id" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            Array ids = toBigintArray(conn, settlementIds);
+            statement.setArray(1, ids);
+            statement.setArray(2, ids);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * SQL for an extra data-modifying CTE that applies balance movements to the ledger as part of
+     * a larger statement (see ExpenseRepository.createExpenseWithSplits).
+     * @param movementsSql A SELECT yielding (user_id, delta) rows, typically over other CTEs' RETURNING output.
+     * @return ", ledger_update AS (...)" to append to a WITH list, or "" when the ledger is disabled.
+     */
+    public String movementsCte(String movementsSql) {
+        if (!enabled) return "";
+        return ", ledger_update AS (INSERT INTO public.user_balances (user_id, balance) "
+                + "SELECT user_id, SUM(delta) FROM (" + movementsSql + ") movements GROUP BY user_id"
+                + UPSERT_SUFFIX + ")";
+    }
+
+    // --- READ PATH ---
+
+    /**
+     * Reads the current net balance of every user from the ledger.
+     * Same contract as BalanceService.calculateNetBalances: positive = owed money,
+     * negative = owes money, settled users are left out.
+     * @param conn The active database connection.
+     * @return A Map where Key=UserId and Value=Net Balance.
+     */
+    public Map<Integer, Double> readBalances(Connection conn) {
+        return readBalanceCents(conn).toDecimalMap();
+    }
+
+    /**
+     * Reads the current net balance of every user, in cents, without boxing.
+     * @param conn The active database connection.
+     * @return Key=UserId, Value=Net Balance in cents (settled users omitted).
+     */
+    public IntLongMap readBalanceCents(Connection conn) {
+        String sql = "SELECT user_id, balance FROM public.user_balances WHERE balance <> 0";
+        IntLongMap balances = new IntLongMap(256);
+
+        try (Statement statement = conn.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+
+            while (resultSet.next()) {
+                balances.addTo(resultSet.getInt("user_id"), Money.toCents(resultSet.getBigDecimal("balance")));
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read the balance ledger.", e);
+        }
+        return balances;
+    }
+
+    // --- MAINTENANCE ---
+
+    /**
+     * Recomputes every balance from the history tables and compares it with the ledger.
+     * @param conn The active database connection.
+     * @return Users whose ledger balance drifted; empty when the ledger is consistent.
+     */
+    public List<Drift> verify(Connection conn) {
+        try {
+            ensureSchema(conn);
+            return findDrift(conn);
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to verify the balance ledger.", e);
+        }
+    }
+
+    /**
+     * Replaces the ledger with balances recomputed from scratch.
+     * The table is locked for the duration, so concurrent writers wait and then apply
+     * their own deltas on top of the rebuilt state.
+     * @param conn The active database connection.
+     * @return The drift that existed before the rebuild.
+     */
+    public List<Drift> rebuild(Connection conn) {
+        try {
+            ensureSchema(conn);
+            List<Drift> drift = Transactions.inTransaction(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("LOCK TABLE public.user_balances IN EXCLUSIVE MODE");
+                    List<Drift> found = findDrift(conn);
+                    statement.executeUpdate("DELETE FROM public.user_balances");
+                    statement.executeUpdate("INSERT INTO public.user_balances (user_id, balance) " + RECOMPUTE_SQL);
+                    return found;
+                }
+            });
+            System.out.printf("  [LEDGER] Rebuilt balance ledger; corrected %d drifted balances.\n", drift.size());
+            return drift;
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to rebuild the balance ledger.", e);
+        }
+    }
+
+    /**
+     * Creates the ledger table and seeds it from the existing history, once, before the first write
+     * (see ExpenseRepository.migrate). Both happen in a transaction of their own, so the connection
+     * must be in auto-commit mode: run inside a write that rolls back, the table would disappear
+     * while the flag stayed set. The flag is set only after the commit.
+     */
+    public void ensureSchema(Connection conn) throws SQLException {
+        if (schemaReady) return;
+        if (!enabled) throw new IllegalStateException("The balance ledger is disabled.");
+        if (!conn.getAutoCommit()) throw new IllegalStateException("The ledger schema must be created outside a transaction.");
+
+        Transactions.inTransaction(conn, () -> {
+            try (Statement statement = conn.createStatement()) {
+                boolean exists;
+                try (ResultSet rs = statement.executeQuery("SELECT to_regclass('public.user_balances') IS NOT NULL")) {
+                    exists = rs.next() && rs.getBoolean(1);
+                }
+
+                if (!exists) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.user_balances ("
+                            + "user_id INT PRIMARY KEY, balance NUMERIC NOT NULL DEFAULT 0)");
+                    statement.executeUpdate("INSERT INTO public.user_balances (user_id, balance) " + RECOMPUTE_SQL
+                            + " ON CONFLICT (user_id) DO NOTHING");
+                    LOGGER.info("Created user_balances ledger and seeded it from history.");
+                }
+            }
+            return null;
+        });
+        schemaReady = true;
+    }
+
+    private List<Drift> findDrift(Connection conn) throws SQLException {
+        String sql = "SELECT COALESCE(l.user_id, r.user_id) AS user_id, "
+                + "COALESCE(l.balance, 0) AS ledger_balance, COALESCE(r.balance, 0) AS recomputed_balance "
+                + "FROM public.user_balances l FULL OUTER JOIN (" + RECOMPUTE_SQL + ") r ON r.user_id = l.user_id "
+                + "WHERE COALESCE(l.balance, 0) <> COALESCE(r.balance, 0) ORDER BY 1";
+        List<Drift> driftList = new ArrayList<>();
+
+        try (Statement statement = conn.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+
+            while (resultSet.next()) {
+                driftList.add(new Drift(resultSet.getInt("user_id"),
+                        Money.toDouble(Money.toCents(resultSet.getBigDecimal("ledger_balance"))),
+                        Money.toDouble(Money.toCents(resultSet.getBigDecimal("recomputed_balance")))));
+            }
+        }
+        return driftList;
+    }
+
+    private static Array toBigintArray(Connection conn, long[] values) throws SQLException {
+        Long[] boxed = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return conn.createArrayOf("bigint", boxed);
+    }
+}
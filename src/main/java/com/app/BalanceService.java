@@ -1,7 +1,6 @@
 package com.app;
 
 import java.sql.Connection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -26,33 +25,81 @@ public class BalanceService {
      * The final balance is relative to the user:
      * - Positive value: The user is owed money (Net Credit).
      * - Negative value: The user owes money (Net Debt).
+     * All inputs are read in a constant number of streamed queries (see
+     * {@link ExpenseRepository#streamBalanceDeltas}) and summed in exact cents.
      * @param conn The active database connection.
      * @return A Map where Key=UserId and Value=Net Balance.
      */
     public Map<Integer, Double> calculateNetBalances(Connection conn) {
-        Map<Integer, Double> netBalances = new HashMap<>();
+        // Users with a zero balance are dropped from the final report by toDecimalMap
+        return calculateNetBalanceCents(conn).toDecimalMap();
+    }
+
+    /**
+     * Same as {@link #calculateNetBalances}, but keeps the result as cents in a primitive map.
+     * Zero balances are still present in the returned map.
+     * @param conn The active database connection.
+     * @return Key=UserId, Value=Net Balance in cents.
+     */
+    public IntLongMap calculateNetBalanceCents(Connection conn) {
+        IntLongMap netBalances = new IntLongMap(256);
+        expenseRepository.streamBalanceDeltas(conn, netBalances::addTo);
+        return netBalances;
+    }
+
+    /**
+     * Same as {@link #calculateNetBalances(Connection)}, from whichever engine holds the data.
+     * The memory and event log engines keep balances up to date in process memory, so this
+     * copies them without any I/O; the JDBC engine reads its ledger (or recomputes), and the
+     * sharded engine asks every shard at once and sums their partial balances per user.
+     * @param storage The storage engine in use.
+     * @return A Map where Key=UserId and Value=Net Balance.
+     */
+    public Map<Integer, Double> calculateNetBalances(StorageEngine storage) {
+        return storage.readBalanceCents().toDecimalMap();
+    }
+
+    /**
+     * Net debt/credit per user within one group only: the group's expenses, their splits and the
+     * group's settlements, summed by the database over the group_id indexes.
+     * @param conn The active database connection.
+     * @param groupId The group; 0 for everything recorded outside a group.
+     * @return A Map where Key=UserId and Value=Net Balance within the group.
+     */
+    public Map<Integer, Double> calculateGroupBalances(Connection conn, int groupId) {
+        return expenseRepository.readGroupBalanceCents(conn, groupId).toDecimalMap();
+    }
+
+    /**
+     * Same as {@link #calculateGroupBalances(Connection, int)}, from whichever engine holds the data.
+     * The memory and event log engines keep every group's balances up to date in process memory.
+     */
+    public Map<Integer, Double> calculateGroupBalances(StorageEngine storage, int groupId) {
+        return storage.readGroupBalanceCents(groupId).toDecimalMap();
+    }
+
+    /**
+     * Original balance calculation: one split query per expense (N+1 round trips).
+     * Kept as the reference implementation to cross-check {@link #calculateNetBalances}.
+     * @param conn The active database connection.
+     * @return A Map where Key=UserId and Value=Net Balance.
+     */
+    public Map<Integer, Double> calculateNetBalancesPerExpense(Connection conn) {
+        IntLongMap netBalances = new IntLongMap(256);
 
         // 1. Process EXPENSE SPLITS (The initial debts)
         // The payer gets credited (positive), the members splitting the expense get debited (negative).
         List<Expense> allExpenses = expenseRepository.listAllExpenses(conn);
         
         for (Expense expense : allExpenses) {
-            double amount = expense.getAmount();
-
             // A. Credit the Payer: Payer is owed the full amount they spent
-            int payerId = expense.getPayerId();
-            netBalances.merge(payerId, amount, Double::sum);
+            netBalances.addTo(expense.getPayerId(), expense.getAmountCents());
 
             // B. Debit the Split Members: Members who owe money receive a negative amount
-            
             List<ExpenseSplit> splits = expenseRepository.listExpenseSplits(conn, expense.getExpenseId());
 
             for (ExpenseSplit split : splits) {
-                int memberId = split.getMemberId();
-                double owedAmount = split.getOwedAmount(); // This is a debit (negative balance)
-                
-                // Merge adds the negative owed amount to the user's balance
-                netBalances.merge(memberId, -owedAmount, Double::sum);
+                netBalances.addTo(split.getMemberId(), -split.getOwedAmountCents());
             }
         }
         
@@ -61,20 +108,12 @@ public class BalanceService {
         List<Settlement> allSettlements = expenseRepository.listAllSettlements(conn);
 
         for (Settlement settlement : allSettlements) {
-            int payerId = settlement.getPayerId(); // Debtor
-            int receiverId = settlement.getReceiverId(); // Creditor
-            double amount = settlement.getAmount();
-
-            // Payer's balance increases (clearing debt)
-            netBalances.merge(payerId, amount, Double::sum); 
-            
-            // Receiver's balance decreases (less money owed to them)
-            netBalances.merge(receiverId, -amount, Double::sum);
+            // Payer's balance increases (clearing debt); receiver's decreases (less money owed to them)
+            netBalances.addTo(settlement.getPayerId(), settlement.getAmountCents());
+            netBalances.addTo(settlement.getReceiverId(), -settlement.getAmountCents());
         }
         
         // Remove users with a zero balance from the final report
-        netBalances.entrySet().removeIf(entry -> Math.abs(entry.getValue()) < 0.01);
-        
-        return netBalances;
+        return netBalances.toDecimalMap();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,549 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Periodic checkpoints of the net-balance vector and the per-pair debts, stored in
+ * 'balance_snapshots' (one row per checkpoint, with the last expense, split and settlement id it
+ * covers) plus 'balance_snapshot_balances' and 'balance_snapshot_pairs'.
+ * A read loads the latest snapshot and replays only the rows with higher ids, so its cost is
+ * bounded by the checkpoint interval instead of the size of the history. Both run in one
+ * REPEATABLE READ transaction, so a write committing in between is either fully seen or not at all.
+ * "As of date X" reads start from the latest snapshot whose covered rows are all dated on or
+ * before X (covers_until) and replay the newer rows dated on or before X. Expenses back-dated
+ * before an older snapshot make that choice fall further back, in the worst case to a full scan.
+ * A checkpoint is taken once interval expenses + settlements were written since the last one
+ * (counted in this process), or when a read had to replay that many rows. It holds writes off
+ * with LOCK TABLE on PostgreSQL; other databases (the in-process H2 stand-in) have no such
+ * statement, so there the writes made through the engine take the write fence instead.
+ * A disabled instance never touches the snapshot tables and replays the whole history.
+ */
+public class BalanceSnapshots {
+
+    public static final int DEFAULT_INTERVAL = 10_000;
+    public static final int DEFAULT_KEEP = 50;
+
+    private static final Logger LOGGER = Logger.getLogger(BalanceSnapshots.class.getName());
+    private static final int FETCH_SIZE = 10_000;
+    private static final int INSERT_BATCH_SIZE = 1_000;
+
+    private static final OperationTimer CHECKPOINT = MetricsRegistry.query("BalanceSnapshots.checkpoint");
+    private static final OperationTimer READ = MetricsRegistry.query("BalanceSnapshots.read");
+    private static final OperationTimer READ_AS_OF = MetricsRegistry.query("BalanceSnapshots.readAsOf");
+
+    private final boolean enabled;
+    private final int interval;
+    private final int keep;
+    private final AtomicLong writesSinceCheckpoint = new AtomicLong();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private final ReentrantReadWriteLock writeFence = new ReentrantReadWriteLock();
+    private volatile boolean schemaReady = false;
+    private volatile Boolean tableLocks; // null until the first checkpoint asks the database
+
+    /**
+     * Checkpoints every BALANCE_SNAPSHOT_INTERVAL rows (0 disables), keeping the newest BALANCE_SNAPSHOT_KEEP.
+     */
+    public BalanceSnapshots() {
+        this(AppConfig.getInt("balance.snapshot.interval", DEFAULT_INTERVAL),
+             AppConfig.getInt("balance.snapshot.keep", DEFAULT_KEEP));
+    }
+
+    public BalanceSnapshots(int interval, int keep) {
+        this.enabled = interval > 0;
+        this.interval = interval;
+        this.keep = Math.max(1, keep);
+    }
+
+    /**
+     * Reads replay the whole history and no snapshot is ever stored (e.g. on stand-in databases).
+     */
+    public static BalanceSnapshots disabled() {
+        return new BalanceSnapshots(0, 1);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Held (shared) by every write to the history tables; a checkpoint on a database without
+     * LOCK TABLE takes it exclusively. Release it before afterWrites, which may checkpoint.
+     */
+    public Lock writeFence() { return writeFence.readLock(); }
+
+    /**
+     * Balances and pair debts at some point of the history, with the ids it covers.
+     */
+    public static class State {
+        private long snapshotId;
+        private long lastExpenseId;
+        private long lastSplitId;
+        private long lastSettlementId;
+        private LocalDate coversUntil; // latest date among the covered rows, null while empty
+        private final IntLongMap balances = new IntLongMap(256);
+        private final PairDebts pairs = new PairDebts(256);
+        private long replayedRows;
+        private long replayedEvents; // expenses + settlements, compared with the interval
+
+        // The snapshot the state was built from (0 = none, replayed from the start)
+        public long getSnapshotId() { return snapshotId; }
+        // Zero balances are still present
+        public IntLongMap getBalances() { return balances; }
+        public PairDebts getPairs() { return pairs; }
+        // Rows read on top of the snapshot (expenses, splits and settlements)
+        public long getReplayedRows() { return replayedRows; }
+
+        private void cover(LocalDate date) {
+            if (coversUntil == null || date.isAfter(coversUntil)) coversUntil = date;
+        }
+    }
+
+    /**
+     * One stored checkpoint, serialized as-is by the admin endpoints (dates as ISO strings).
+     */
+    public static class Summary {
+        private final long snapshotId;
+        private final long lastExpenseId;
+        private final long lastSplitId;
+        private final long lastSettlementId;
+        private final String coversUntil;
+        private final String takenAt;
+        private final int users;
+        private final int pairs;
+
+        public Summary(long snapshotId, long lastExpenseId, long lastSplitId, long lastSettlementId,
+                       String coversUntil, String takenAt, int users, int pairs) {
+            this.snapshotId = snapshotId;
+            this.lastExpenseId = lastExpenseId;
+            this.lastSplitId = lastSplitId;
+            this.lastSettlementId = lastSettlementId;
+            this.coversUntil = coversUntil;
+            this.takenAt = takenAt;
+            this.users = users;
+            this.pairs = pairs;
+        }
+
+        public long getSnapshotId() { return snapshotId; }
+        public long getLastExpenseId() { return lastExpenseId; }
+        public long getLastSplitId() { return lastSplitId; }
+        public long getLastSettlementId() { return lastSettlementId; }
+        public String getCoversUntil() { return coversUntil; }
+        public String getTakenAt() { return takenAt; }
+        public int getUsers() { return users; }
+        public int getPairs() { return pairs; }
+    }
+
+    // --- READ PATH ---
+
+    /**
+     * Current balances and pair debts: the latest snapshot plus every newer row.
+     * Takes a checkpoint afterwards when the replay was longer than the interval.
+     * @param conn The active database connection.
+     */
+    public State read(Connection conn) {
+        State state = READ.time(() -> {
+            try {
+                if (enabled) ensureSchema(conn); // outside the read-only cursor transaction, which is rolled back
+                return consistentRead(conn, () -> {
+                    State current = enabled ? loadLatest(conn, null) : new State();
+                    replay(conn, current, null);
+                    READ.rows(current.replayedRows);
+                    return current;
+                });
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to read balances from snapshots.", e);
+            }
+        });
+        if (enabled && state.replayedEvents >= interval) checkpointQuietly(conn);
+        return state;
+    }
+
+    /**
+     * Balances and pair debts counting only expenses dated on or before the date and settlements
+     * made before the end of that day.
+     * @param conn The active database connection.
+     */
+    public State readAsOf(Connection conn, LocalDate date) {
+        return READ_AS_OF.time(() -> {
+            try {
+                if (enabled) ensureSchema(conn);
+                return consistentRead(conn, () -> {
+                    State state = enabled ? loadLatest(conn, date) : new State();
+                    replay(conn, state, date);
+                    READ_AS_OF.rows(state.replayedRows);
+                    return state;
+                });
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to read balances as of " + date + ".", e);
+            }
+        });
+    }
+
+    // --- CHECKPOINTS ---
+
+    /**
+     * Counts rows written through the engine and takes a checkpoint once the interval is reached.
+     * A failed checkpoint is logged and does not fail the write that triggered it.
+     * @param conn A connection with no open transaction.
+     */
+    public void afterWrites(Connection conn, long rows) {
+        if (!enabled || writesSinceCheckpoint.addAndGet(rows) < interval) return;
+        checkpointQuietly(conn);
+    }
+
+    /**
+     * Stores a new snapshot of the current balances and pair debts (nothing is stored if no row
+     * was written since the last one) and drops all but the newest ones.
+     * The history tables are locked in SHARE mode meanwhile (or the write fence is taken): that
+     * waits for in-flight writes, so no row below the recorded ids can commit later, and holds new
+     * writes for the duration.
+     * @param conn A connection with no open transaction.
+     * @return The latest snapshot.
+     */
+    public Summary checkpoint(Connection conn) {
+        return checkpoint(conn, true);
+    }
+
+    // Without waitForWrites, gives up (returns null) when the write fence is busy.
+    private Summary checkpoint(Connection conn, boolean waitForWrites) {
+        if (!enabled) throw new IllegalStateException("Balance snapshots are disabled.");
+        checkpointLock.lock();
+        try {
+            return CHECKPOINT.time(() -> {
+                Lock fence = null;
+                try {
+                    ensureSchema(conn);
+                    if (!hasTableLocks(conn)) {
+                        Lock exclusive = writeFence.writeLock();
+                        if (waitForWrites) exclusive.lock();
+                        else if (!exclusive.tryLock()) return null;
+                        fence = exclusive;
+                    }
+                    boolean lockTables = fence == null;
+                    return Transactions.inTransaction(conn, () -> {
+                        if (lockTables) {
+                            try (Statement statement = conn.createStatement()) {
+                                statement.execute("LOCK TABLE public.expenses, public.expense_splits, public.settlements IN SHARE MODE");
+                            }
+                        }
+                        State state = loadLatest(conn, null);
+                        replay(conn, state, null);
+                        writesSinceCheckpoint.set(0);
+                        if (state.snapshotId != 0 && state.replayedRows == 0) {
+                            return latestSummary(conn);
+                        }
+
+                        long snapshotId = insertSnapshot(conn, state);
+                        prune(conn);
+                        CHECKPOINT.rows(state.replayedRows);
+                        LOGGER.info(String.format("Saved balance snapshot %d (expense ID <= %d, settlement ID <= %d).",
+                                snapshotId, state.lastExpenseId, state.lastSettlementId));
+                        return latestSummary(conn);
+                    });
+                } catch (SQLException e) {
+                    throw new DatabaseException("Failed to save a balance snapshot.", e);
+                } finally {
+                    if (fence != null) fence.unlock();
+                }
+            });
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Stored snapshots, newest first.
+     * @param conn The active database connection.
+     */
+    public List<Summary> list(Connection conn) {
+        if (!enabled) return new ArrayList<>();
+        String sql = "SELECT s.snapshot_id, s.last_expense_id, s.last_split_id, s.last_settlement_id, s.covers_until, s.taken_at, "
+                + "(SELECT COUNT(*) FROM public.balance_snapshot_balances b WHERE b.snapshot_id = s.snapshot_id) AS users, "
+                + "(SELECT COUNT(*) FROM public.balance_snapshot_pairs p WHERE p.snapshot_id = s.snapshot_id) AS pairs "
+                + "FROM public.balance_snapshots s ORDER BY s.snapshot_id DESC";
+        List<Summary> summaries = new ArrayList<>();
+
+        try {
+            ensureSchema(conn);
+            try (Statement statement = conn.createStatement();
+                 ResultSet resultSet = statement.executeQuery(sql)) {
+
+                while (resultSet.next()) {
+                    summaries.add(toSummary(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to list balance snapshots.", e);
+        }
+        return summaries;
+    }
+
+    /**
+     * Forgets the write count, e.g. after the history tables were truncated.
+     */
+    public void reset() {
+        writesSinceCheckpoint.set(0);
+    }
+
+    /**
+     * Creates the snapshot tables on first use.
+     */
+    public void ensureSchema(Connection conn) throws SQLException {
+        if (schemaReady) return;
+        if (!enabled) throw new IllegalStateException("Balance snapshots are disabled.");
+
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.balance_snapshots ("
+                    + "snapshot_id BIGSERIAL PRIMARY KEY, last_expense_id BIGINT NOT NULL, last_split_id BIGINT NOT NULL, "
+                    + "last_settlement_id BIGINT NOT NULL, covers_until DATE, taken_at TIMESTAMP NOT NULL DEFAULT now())");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.balance_snapshot_balances ("
+                    + "snapshot_id BIGINT NOT NULL REFERENCES public.balance_snapshots ON DELETE CASCADE, "
+                    + "user_id INT NOT NULL, balance_cents BIGINT NOT NULL, PRIMARY KEY (snapshot_id, user_id))");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.balance_snapshot_pairs ("
+                    + "snapshot_id BIGINT NOT NULL REFERENCES public.balance_snapshots ON DELETE CASCADE, "
+                    + "debtor_id INT NOT NULL, creditor_id INT NOT NULL, amount_cents BIGINT NOT NULL, "
+                    + "PRIMARY KEY (snapshot_id, debtor_id, creditor_id))");
+        }
+        schemaReady = true;
+    }
+
+    private void checkpointQuietly(Connection conn) {
+        if (!checkpointLock.tryLock()) return; // another thread is already taking one
+        try {
+            checkpoint(conn, false); // writers waiting on a group commit hold the fence: skip, not wait
+        } catch (DatabaseException e) {
+            LOGGER.warning("Balance snapshot failed: " + e.getMessage());
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // --- INTERNALS ---
+
+    // The load and the replay see one snapshot of the history; inside a caller's transaction they
+    // simply join it at its isolation level.
+    private static <T> T consistentRead(Connection conn, Transactions.SqlWork<T> work) throws SQLException {
+        if (!conn.getAutoCommit()) return work.run();
+        int isolation = conn.getTransactionIsolation();
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try {
+            return ExpenseRepository.withCursor(conn, work);
+        } finally {
+            conn.setTransactionIsolation(isolation);
+        }
+    }
+
+    private boolean hasTableLocks(Connection conn) throws SQLException {
+        Boolean known = tableLocks;
+        if (known == null) {
+            known = "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+            tableLocks = known;
+        }
+        return known;
+    }
+
+    // The newest snapshot (usable as of the date, when given), or an empty state.
+    private State loadLatest(Connection conn, LocalDate asOf) throws SQLException {
+        String sql = "SELECT snapshot_id, last_expense_id, last_split_id, last_settlement_id, covers_until "
+                + "FROM public.balance_snapshots"
+                + (asOf != null ? " WHERE covers_until IS NULL OR covers_until <= ?" : "")
+                + " ORDER BY snapshot_id DESC LIMIT 1";
+        State state = new State();
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            if (asOf != null) statement.setDate(1, Date.valueOf(asOf));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) return state;
+                state.snapshotId = resultSet.getLong("snapshot_id");
+                state.lastExpenseId = resultSet.getLong("last_expense_id");
+                state.lastSplitId = resultSet.getLong("last_split_id");
+                state.lastSettlementId = resultSet.getLong("last_settlement_id");
+                Date coversUntil = resultSet.getDate("covers_until");
+                state.coversUntil = coversUntil == null ? null : coversUntil.toLocalDate();
+            }
+        }
+
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT user_id, balance_cents FROM public.balance_snapshot_balances WHERE snapshot_id = ?")) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, state.snapshotId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    state.balances.addTo(resultSet.getInt("user_id"), resultSet.getLong("balance_cents"));
+                }
+            }
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT debtor_id, creditor_id, amount_cents FROM public.balance_snapshot_pairs WHERE snapshot_id = ?")) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, state.snapshotId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    state.pairs.add(resultSet.getInt("debtor_id"), resultSet.getInt("creditor_id"), resultSet.getLong("amount_cents"));
+                }
+            }
+        }
+        return state;
+    }
+
+    // Applies every row above the state's ids (dated on or before asOf, when given).
+    private static void replay(Connection conn, State state, LocalDate asOf) throws SQLException {
+        String expenseSql = "SELECT expense_id, payer_id, amount, expense_date FROM public.expenses WHERE expense_id > ?"
+                + (asOf != null ? " AND expense_date <= ?" : "");
+        String splitSql = "SELECT s.split_id, s.member_id, s.owed_amount, e.payer_id, e.expense_date "
+                + "FROM public.expense_splits s JOIN public.expenses e ON e.expense_id = s.expense_id WHERE s.split_id > ?"
+                + (asOf != null ? " AND e.expense_date <= ?" : "");
+        String settlementSql = "SELECT settlement_id, payer_id, receiver_id, amount, settlement_date FROM public.settlements "
+                + "WHERE settlement_id > ?" + (asOf != null ? " AND settlement_date < ?" : "");
+
+        try (PreparedStatement statement = conn.prepareStatement(expenseSql)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, state.lastExpenseId);
+            if (asOf != null) statement.setDate(2, Date.valueOf(asOf));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    state.lastExpenseId = Math.max(state.lastExpenseId, resultSet.getLong("expense_id"));
+                    state.balances.addTo(resultSet.getInt("payer_id"), Money.toCents(resultSet.getBigDecimal("amount")));
+                    state.cover(resultSet.getDate("expense_date").toLocalDate());
+                    state.replayedRows++;
+                    state.replayedEvents++;
+                }
+            }
+        }
+
+        try (PreparedStatement statement = conn.prepareStatement(splitSql)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, state.lastSplitId);
+            if (asOf != null) statement.setDate(2, Date.valueOf(asOf));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int memberId = resultSet.getInt("member_id");
+                    long owed = Money.toCents(resultSet.getBigDecimal("owed_amount"));
+                    state.lastSplitId = Math.max(state.lastSplitId, resultSet.getLong("split_id"));
+                    state.balances.addTo(memberId, -owed);
+                    state.pairs.add(memberId, resultSet.getInt("payer_id"), owed);
+                    state.cover(resultSet.getDate("expense_date").toLocalDate());
+                    state.replayedRows++;
+                }
+            }
+        }
+
+        try (PreparedStatement statement = conn.prepareStatement(settlementSql)) {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, state.lastSettlementId);
+            if (asOf != null) statement.setTimestamp(2, Timestamp.valueOf(asOf.plusDays(1).atStartOfDay()));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int payerId = resultSet.getInt("payer_id");
+                    int receiverId = resultSet.getInt("receiver_id");
+                    long amount = Money.toCents(resultSet.getBigDecimal("amount"));
+                    state.lastSettlementId = Math.max(state.lastSettlementId, resultSet.getLong("settlement_id"));
+                    state.balances.addTo(payerId, amount);
+                    state.balances.addTo(receiverId, -amount);
+                    state.pairs.add(payerId, receiverId, -amount); // paying off reduces the payer's debt
+                    state.cover(resultSet.getTimestamp("settlement_date").toLocalDateTime().toLocalDate());
+                    state.replayedRows++;
+                    state.replayedEvents++;
+                }
+            }
+        }
+    }
+
+    private static long insertSnapshot(Connection conn, State state) throws SQLException {
+        long snapshotId;
+        String sql = "INSERT INTO public.balance_snapshots (last_expense_id, last_split_id, last_settlement_id, covers_until) "
+                + "VALUES (?, ?, ?, ?)";
+        try (PreparedStatement statement = conn.prepareStatement(sql, new String[] {"snapshot_id"})) {
+            statement.setLong(1, state.lastExpenseId);
+            statement.setLong(2, state.lastSplitId);
+            statement.setLong(3, state.lastSettlementId);
+            statement.setDate(4, state.coversUntil == null ? null : Date.valueOf(state.coversUntil));
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                snapshotId = keys.getLong(1);
+            }
+        }
+
+        // Copied out first so the inserts are plain loops that can throw SQLException
+        int[] userIds = new int[state.balances.size()];
+        long[] balances = new long[userIds.length];
+        int[] users = {0};
+        state.balances.forEach((userId, cents) -> {
+            if (cents == 0) return;
+            userIds[users[0]] = userId;
+            balances[users[0]++] = cents;
+        });
+
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO public.balance_snapshot_balances (snapshot_id, user_id, balance_cents) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < users[0]; i++) {
+                statement.setLong(1, snapshotId);
+                statement.setInt(2, userIds[i]);
+                statement.setLong(3, balances[i]);
+                statement.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) statement.executeBatch();
+            }
+            if (users[0] % INSERT_BATCH_SIZE != 0) statement.executeBatch();
+        }
+
+        int[] debtorIds = new int[state.pairs.size()];
+        int[] creditorIds = new int[debtorIds.length];
+        long[] amounts = new long[debtorIds.length];
+        int[] pairs = {0};
+        state.pairs.forEach((debtorId, creditorId, cents) -> {
+            debtorIds[pairs[0]] = debtorId;
+            creditorIds[pairs[0]] = creditorId;
+            amounts[pairs[0]++] = cents;
+        });
+
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO public.balance_snapshot_pairs (snapshot_id, debtor_id, creditor_id, amount_cents) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < pairs[0]; i++) {
+                statement.setLong(1, snapshotId);
+                statement.setInt(2, debtorIds[i]);
+                statement.setInt(3, creditorIds[i]);
+                statement.setLong(4, amounts[i]);
+                statement.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) statement.executeBatch();
+            }
+            if (pairs[0] % INSERT_BATCH_SIZE != 0) statement.executeBatch();
+        }
+        return snapshotId;
+    }
+
+    private void prune(Connection conn) throws SQLException {
+        String sql = "DELETE FROM public.balance_snapshots WHERE snapshot_id NOT IN "
+                + "(SELECT snapshot_id FROM public.balance_snapshots ORDER BY snapshot_id DESC LIMIT ?)";
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, keep);
+            statement.executeUpdate();
+        }
+    }
+
+    private Summary latestSummary(Connection conn) throws SQLException {
+        return list(conn).get(0);
+    }
+
+    private static Summary toSummary(ResultSet resultSet) throws SQLException {
+        Date coversUntil = resultSet.getDate("covers_until");
+        Timestamp takenAt = resultSet.getTimestamp("taken_at");
+        return new Summary(resultSet.getLong("snapshot_id"), resultSet.getLong("last_expense_id"),
+                resultSet.getLong("last_split_id"), resultSet.getLong("last_settlement_id"),
+                coversUntil == null ? null : coversUntil.toLocalDate().toString(),
+                takenAt == null ? null : takenAt.toLocalDateTime().toString(),
+                resultSet.getInt("users"), resultSet.getInt("pairs"));
+    }
+}
@@ -0,0 +1,363 @@
+package com.app;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Imports historic expenses (with equal splits) and settlements from a CSV or NDJSON stream.
+ * - The input is parsed line by line; only one chunk of rows is held in memory at a time and the
+ *   next chunk is not read until the previous one is written, so a fast client is slowed down to
+ *   the database's pace by ordinary TCP flow control (backpressure).
+ * - Each chunk is written as one StorageEngine.importBatch (on JDBC: batched inserts in one
+ *   transaction). If the chunk fails, nothing of it is kept and it is replayed row by row, so a
+ *   bad row only costs itself: it is reported with its line number and the import carries on.
+ *   When part of the chunk was committed anyway (PartialImportException, on the sharded engine),
+ *   only the uncommitted rows are replayed.
+ * Record format (one record per line, CSV needs a header; column names are case-insensitive and
+ * may be snake_case or camelCase):
+ *   type (expense|settlement, default expense), amount, description, payer_id, date (yyyy-MM-dd,
+ *   default today), participant_ids (CSV: separated by ';' or spaces; NDJSON: array),
+ *   receiver_id (settlements), group_id (settlements, default 0).
+ */
+public class BulkImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1_000;
+    public static final int MAX_CHUNK_SIZE = 10_000;
+    // The report keeps at most this many row errors; the counts are always complete.
+    public static final int MAX_REPORTED_ERRORS = 1_000;
+
+    public enum Format {
+        CSV, NDJSON;
+
+        /**
+         * Picks the format from an explicit name (csv|ndjson) or else from the request Content-Type.
+         * @throws IllegalArgumentException if the name is neither csv nor ndjson.
+         */
+        public static Format resolve(String name, String contentType) {
+            if (name != null && !name.isBlank()) {
+                try {
+                    return Format.valueOf(name.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("format must be csv or ndjson, got '" + name.trim() + "'");
+                }
+            }
+            return contentType != null && contentType.toLowerCase(Locale.ROOT).contains("csv") ? CSV : NDJSON;
+        }
+    }
+
+    /**
+     * A row that could not be imported.
+     */
+    public static class RowError {
+        private final long line;
+        private final String message;
+
+        public RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() { return line; }
+        public String getMessage() { return message; }
+    }
+
+    /**
+     * Outcome of one import, serialized as-is by the import endpoint.
+     */
+    public static class Report {
+        private long rowsRead;
+        private long expensesImported;
+        private long settlementsImported;
+        private long rowsFailed;
+        private long chunks;
+        private long chunksReplayed;
+        private long elapsedMillis;
+        private final List<RowError> errors = new ArrayList<>();
+
+        public long getRowsRead() { return rowsRead; }
+        public long getRowsImported() { return expensesImported + settlementsImported; }
+        public long getExpensesImported() { return expensesImported; }
+        public long getSettlementsImported() { return settlementsImported; }
+        public long getRowsFailed() { return rowsFailed; }
+        public long getChunks() { return chunks; }
+        public long getChunksReplayed() { return chunksReplayed; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public double getRowsPerSecond() {
+            return elapsedMillis == 0 ? getRowsImported() : getRowsImported() * 1000.0 / elapsedMillis;
+        }
+        public List<RowError> getErrors() { return errors; }
+        public boolean isErrorsTruncated() { return rowsFailed > errors.size(); }
+
+        private void fail(long line, String message) {
+            rowsFailed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new RowError(line, message));
+        }
+    }
+
+    // One parsed input record: either an expense (with split participants) or a settlement.
+    private static final class Row {
+        final long line;
+        final Expense expense;
+        final List<Integer> participants;
+        final Settlement settlement;
+
+        Row(long line, Expense expense, List<Integer> participants, Settlement settlement) {
+            this.line = line;
+            this.expense = expense;
+            this.participants = participants;
+            this.settlement = settlement;
+        }
+    }
+
+    private final StorageEngine storage;
+
+    public BulkImporter(StorageEngine storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Reads the whole stream and imports it in chunks of chunkSize rows.
+     * @return Counts, throughput and per-row errors. Database outages still throw DatabaseException.
+     */
+    public Report importStream(InputStream input, Format format, int chunkSize) throws IOException {
+        int size = Math.max(1, Math.min(chunkSize, MAX_CHUNK_SIZE));
+        Report report = new Report();
+        long start = System.nanoTime();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<Row> chunk = new ArrayList<>(size);
+        String[] header = null;
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && line.startsWith("\uFEFF")) line = line.substring(1);
+            if (line.isBlank()) continue;
+
+            if (format == Format.CSV && header == null) {
+                header = parseCsvLine(line).toArray(new String[0]);
+                continue;
+            }
+
+            report.rowsRead++;
+            try {
+                Map<String, String> fields = format == Format.CSV ? csvFields(header, line) : jsonFields(line);
+                chunk.add(toRow(lineNumber, fields));
+            } catch (IllegalArgumentException | ArithmeticException | DateTimeException | JsonParseException e) {
+                report.fail(lineNumber, e.getMessage());
+            }
+
+            if (chunk.size() == size) {
+                writeChunk(chunk, report);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) writeChunk(chunk, report);
+
+        report.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("  [IMPORT] Imported %d of %d rows (%d failed) in %d ms (%.0f rows/s).\n",
+                          report.getRowsImported(), report.rowsRead, report.rowsFailed,
+                          report.elapsedMillis, report.getRowsPerSecond());
+        return report;
+    }
+
+    private void writeChunk(List<Row> chunk, Report report) {
+        List<Expense> expenses = new ArrayList<>();
+        List<List<Integer>> participants = new ArrayList<>();
+        List<Settlement> settlements = new ArrayList<>();
+        for (Row row : chunk) {
+            if (row.expense != null) {
+                expenses.add(row.expense);
+                participants.add(row.participants);
+            } else {
+                settlements.add(row.settlement);
+            }
+        }
+
+        report.chunks++;
+        try {
+            storage.importBatch(expenses, participants, settlements);
+            report.expensesImported += expenses.size();
+            report.settlementsImported += settlements.size();
+        } catch (StorageUnavailableException e) {
+            throw e; // replaying row by row cannot help
+        } catch (PartialImportException partial) {
+            // Part of the chunk was committed (on some shards); replay only the rest.
+            report.chunksReplayed++;
+            int expenseIndex = 0;
+            int settlementIndex = 0;
+            for (Row row : chunk) {
+                boolean committed = row.expense != null ? partial.isExpenseCommitted(expenseIndex++)
+                                                        : partial.isSettlementCommitted(settlementIndex++);
+                if (!committed) {
+                    writeRow(row, report);
+                } else if (row.expense != null) {
+                    report.expensesImported++;
+                } else {
+                    report.settlementsImported++;
+                }
+            }
+        } catch (DatabaseException chunkFailure) {
+            // Something in the chunk was rejected; find out which rows by writing them one at a time.
+            report.chunksReplayed++;
+            for (Row row : chunk) {
+                writeRow(row, report);
+            }
+        }
+    }
+
+    private void writeRow(Row row, Report report) {
+        try {
+            if (row.expense != null) {
+                long id = row.participants.isEmpty()
+                        ? storage.addExpense(row.expense)
+                        : storage.createExpenseWithSplits(row.expense, row.participants);
+                if (id <= 0) {
+                    report.fail(row.line, "Expense was not created.");
+                    return;
+                }
+                report.expensesImported++;
+            } else {
+                storage.recordSettlement(row.settlement);
+                report.settlementsImported++;
+            }
+        } catch (StorageUnavailableException e) {
+            throw e;
+        } catch (DatabaseException e) {
+            report.fail(row.line, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+    }
+
+    // --- PARSING ---
+
+    private static Row toRow(long line, Map<String, String> fields) {
+        String type = fields.getOrDefault("type", "expense").toLowerCase(Locale.ROOT);
+        Money amount = Money.of(new BigDecimal(required(fields, "amount")));
+        if (!amount.isPositive()) throw new IllegalArgumentException("amount must be positive");
+        int payerId = parseId(required(fields, "payerid"), "payer_id");
+        String date = fields.get("date");
+        LocalDate day = date == null || date.isBlank() ? LocalDate.now() : LocalDate.parse(date.trim());
+
+        switch (type) {
+            case "expense":
+                String description = fields.getOrDefault("description", "").trim();
+                if (description.isEmpty()) throw new IllegalArgumentException("description is required");
+                List<Integer> participants = new ArrayList<>();
+                String ids = fields.getOrDefault("participantids", "");
+                for (String id : ids.trim().split("[;\\s]+")) {
+                    if (!id.isEmpty()) participants.add(parseId(id, "participant_ids"));
+                }
+                return new Row(line, new Expense(amount, description, payerId, day), participants, null);
+            case "settlement":
+                int receiverId = parseId(required(fields, "receiverid"), "receiver_id");
+                if (receiverId == payerId) throw new IllegalArgumentException("payer_id and receiver_id must differ");
+                String groupId = fields.get("groupid");
+                int group = groupId == null || groupId.isBlank() ? 0 : Integer.parseInt(groupId.trim());
+                LocalDateTime when = day.atStartOfDay();
+                return new Row(line, null, List.of(), new Settlement(-1, group, payerId, receiverId, amount, when));
+            default:
+                throw new IllegalArgumentException("unknown type '" + type + "' (expected expense or settlement)");
+        }
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.isBlank()) throw new IllegalArgumentException(name + " is required");
+        return value.trim();
+    }
+
+    // NumberFormatException is an IllegalArgumentException too, so bad ids surface as row errors.
+    private static int parseId(String value, String name) {
+        int id = Integer.parseInt(value.trim());
+        if (id <= 0) throw new IllegalArgumentException(name + " must be a positive user id");
+        return id;
+    }
+
+    // Field names are compared without case or underscores: payer_id, payerId and PAYERID all match.
+    private static String normalize(String name) {
+        return name.trim().replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static Map<String, String> csvFields(String[] header, String line) {
+        List<String> values = parseCsvLine(line);
+        if (values.size() > header.length) {
+            throw new IllegalArgumentException("expected at most " + header.length + " columns, got " + values.size());
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            fields.put(normalize(header[i]), values.get(i));
+        }
+        return fields;
+    }
+
+    private static Map<String, String> jsonFields(String line) {
+        JsonElement parsed = JsonParser.parseString(line);
+        if (!parsed.isJsonObject()) throw new IllegalArgumentException("expected a JSON object");
+        Map<String, String> fields = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : parsed.getAsJsonObject().entrySet()) {
+            JsonElement value = entry.getValue();
+            if (value.isJsonNull()) continue;
+            if (value.isJsonArray()) {
+                StringBuilder joined = new StringBuilder();
+                for (JsonElement item : value.getAsJsonArray()) {
+                    joined.append(item.getAsString()).append(';');
+                }
+                fields.put(normalize(entry.getKey()), joined.toString());
+            } else if (value.isJsonPrimitive()) {
+                fields.put(normalize(entry.getKey()), value.getAsString());
+            } else {
+                throw new IllegalArgumentException("field '" + entry.getKey() + "' must not be an object");
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Splits one CSV record (RFC 4180 quoting, "" for a literal quote). Records may not span lines.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        values.add(current.toString());
+        return values;
+    }
+}
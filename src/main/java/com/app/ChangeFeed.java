@@ -0,0 +1,523 @@
+package com.app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+
+/**
+ * Live change events for GET /api/stream (server-sent events), so open pages can apply small
+ * deltas instead of refetching whole lists. The storage engines publish once a write has
+ * committed; money is in currency units like the JSON API:
+ *   expense     {"id", "amount", "payerId", "date", "description", "splitCount", "splits": [{"memberId", "owed"}]}
+ *   splits      {"expenseId", "splitCount", "splits": [...]} (splits added to an existing expense)
+ *   settlement  {"payerId", "receiverId", "amount", "date"}
+ *   balances    {"deltas": {"userId": change}} (net balance changes caused by one write)
+ *   refresh     {"reason"} (import, reset, rebuild or a group too large to inline; refetch)
+ *   ready       {"subscribers"} (first event on every connection; fetch, then apply deltas)
+ * Each event is serialized once and shared by every subscriber. Subscribers get a bounded queue
+ * drained by a small dispatcher pool. One whose queue fills up (a slow client) or whose write
+ * blocks for stream.stall.millis (a stalled one) is dropped instead of slowing writers, growing
+ * memory or holding up other subscribers, and its EventSource reconnects and refetches.
+ * Delivery is at most once, in publish order. Publishing with no subscribers is one check.
+ */
+public final class ChangeFeed implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ChangeFeed.class.getName());
+    private static final Gson GSON = new Gson();
+
+    // Expenses with more splits than this send a refresh instead of per-member splits and deltas.
+    public static final int MAX_INLINE_SPLITS = 1_000;
+    // Frames handed to a sink per write, so a backlog is flushed in a few large writes.
+    private static final int MAX_DRAIN_BATCH = 64;
+
+    private static final OperationTimer PUBLISH = MetricsRegistry.query("ChangeFeed.publish");
+
+    private static volatile ChangeFeed instance;
+
+    /**
+     * Receives a subscriber's events from a dispatcher thread (never two threads at once).
+     */
+    public interface Sink {
+        /**
+         * Writes the events in order and flushes; throwing ends the subscription.
+         */
+        void send(List<Event> events) throws IOException;
+
+        /**
+         * Ends the response. Called once, from a dispatcher thread, when the subscription closes.
+         */
+        void close();
+    }
+
+    /**
+     * One change. A null type is a keep-alive, sent as an SSE comment.
+     */
+    public static final class Event {
+        private final long id;
+        private final String type;
+        private final String data;
+        private String frame;
+
+        private Event(long id, String type, String data) {
+            this.id = id;
+            this.type = type;
+            this.data = data;
+        }
+
+        public long getId() { return id; }
+        public String getType() { return type; }
+        public String getData() { return data; }
+        public boolean isKeepAlive() { return type == null; }
+
+        /**
+         * The event as text/event-stream bytes, for sinks that write the raw response.
+         */
+        public String toFrame() {
+            String f = frame;
+            if (f == null) {
+                f = isKeepAlive() ? ": keep-alive\n\n" : "id: " + id + "\nevent: " + type + "\ndata: " + data + "\n\n";
+                frame = f; // racy but idempotent
+            }
+            return f;
+        }
+    }
+
+    /**
+     * An open stream; closed when the client disconnects, falls too far behind, or the feed closes.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Sink sink;
+        private final ArrayBlockingQueue<Event> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile String closeReason;
+        private volatile long sendStartedNanos; // 0 while no write is in progress
+
+        private Subscription(Sink sink, int capacity) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public boolean isClosed() { return closed.get(); }
+
+        /**
+         * Why the subscription closed ("disconnected", "slow consumer", "stalled", "shutdown"), or null while open.
+         */
+        public String getCloseReason() { return closeReason; }
+
+        /**
+         * Blocks until the subscription closes, for transports that hold the request thread.
+         */
+        public void awaitClosed() throws InterruptedException {
+            done.await();
+        }
+
+        @Override
+        public void close() {
+            ChangeFeed.this.close(this, "disconnected");
+        }
+    }
+
+    /**
+     * Counters for GET /api/admin/stream.
+     */
+    public static final class Stats {
+        private final int subscribers;
+        private final long published;
+        private final long delivered;
+        private final long dropped;
+        private final long rejected;
+
+        Stats(int subscribers, long published, long delivered, long dropped, long rejected) {
+            this.subscribers = subscribers;
+            this.published = published;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.rejected = rejected;
+        }
+
+        public int getSubscribers() { return subscribers; }
+        public long getPublished() { return published; }
+        public long getDelivered() { return delivered; }
+        public long getDropped() { return dropped; }
+        public long getRejected() { return rejected; }
+    }
+
+    private final int bufferEvents;
+    private final int maxSubscribers;
+    private final int dispatchThreads;
+    private final int keepAliveSeconds;
+    private final long stallNanos;
+    private final long checkNanos;
+
+    private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+    private final Object publishLock = new Object();
+    private long lastEventId;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // Subscriptions whose sink is inside send(), watched for writes blocked on a stalled client
+    private final Set<Subscription> sending = ConcurrentHashMap.newKeySet();
+
+    // Started with the first subscriber, so processes that never stream own no threads.
+    private volatile ThreadPoolExecutor dispatcher;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean shutdown;
+
+    /**
+     * @param bufferEvents Queued events per subscriber before it is dropped as too slow.
+     * @param maxSubscribers Open streams allowed at once; further subscribe calls return null.
+     * @param dispatchThreads Threads writing to subscribers.
+     * @param keepAliveSeconds Interval of keep-alive comments (0 = none), which also detect dead clients.
+     * @param stallMillis How long a single write may block before the subscriber is dropped.
+     */
+    public ChangeFeed(int bufferEvents, int maxSubscribers, int dispatchThreads, int keepAliveSeconds, long stallMillis) {
+        if (bufferEvents <= 0) throw new IllegalArgumentException("Stream buffer must be positive: " + bufferEvents);
+        if (dispatchThreads <= 0) throw new IllegalArgumentException("Dispatch threads must be positive: " + dispatchThreads);
+        this.bufferEvents = bufferEvents;
+        this.maxSubscribers = maxSubscribers;
+        this.dispatchThreads = dispatchThreads;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        this.checkNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(10), stallNanos);
+    }
+
+    /**
+     * The process-wide feed the storage engines publish to, configured by stream.buffer.events
+     * (256), stream.max.subscribers (10000), stream.dispatch.threads (max(4, 2 x CPUs)),
+     * stream.keepalive.seconds (15) and stream.stall.millis (250).
+     */
+    public static ChangeFeed get() {
+        ChangeFeed feed = instance;
+        if (feed == null) {
+            synchronized (ChangeFeed.class) {
+                feed = instance;
+                if (feed == null) {
+                    feed = new ChangeFeed(
+                            AppConfig.getInt("stream.buffer.events", 256),
+                            AppConfig.getInt("stream.max.subscribers", 10_000),
+                            AppConfig.getInt("stream.dispatch.threads", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())),
+                            AppConfig.getInt("stream.keepalive.seconds", 15),
+                            AppConfig.getLong("stream.stall.millis", 250));
+                    instance = feed;
+                }
+            }
+        }
+        return feed;
+    }
+
+    // --- SUBSCRIBING ---
+
+    /**
+     * Opens a stream whose first event is "ready".
+     * @return The subscription, or null when maxSubscribers streams are already open.
+     */
+    public Subscription subscribe(Sink sink) {
+        if (shutdown) return null;
+        startThreads();
+        Subscription subscription = new Subscription(sink, bufferEvents);
+        synchronized (publishLock) {
+            if (subscribers.size() >= maxSubscribers) {
+                rejected.increment();
+                return null;
+            }
+            subscribers.add(subscription);
+            offer(subscription, new Event(lastEventId, "ready", GSON.toJson(Map.of("subscribers", subscribers.size()))));
+        }
+        return subscription;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    public Stats getStats() {
+        return new Stats(subscribers.size(), published.sum(), delivered.sum(), dropped.sum(), rejected.sum());
+    }
+
+    // --- PUBLISHING (called by the storage engines after a write commits) ---
+
+    /**
+     * A new expense, its splits (shares[i] owed by memberIds.get(i), payer excluded) and the
+     * balance changes they cause.
+     */
+    public void expenseRecorded(long expenseId, Expense expense, List<Integer> memberIds, long[] shares) {
+        if (subscribers.isEmpty() || expenseId <= 0) return;
+        PUBLISH.run(() -> {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", expenseId);
+            data.put("amount", Money.toDouble(expense.getAmountCents()));
+            data.put("payerId", expense.getPayerId());
+            data.put("date", String.valueOf(expense.getDate()));
+            data.put("description", expense.getDescription());
+            addSplits(data, expense.getPayerId(), memberIds, shares);
+            publish("expense", data);
+
+            IntLongMap deltas = new IntLongMap(16);
+            deltas.addTo(expense.getPayerId(), expense.getAmountCents());
+            publishBalances(deltas, expense.getPayerId(), memberIds, shares);
+        });
+    }
+
+    /**
+     * Splits recorded for an existing expense, and the balance changes they cause.
+     */
+    public void splitsRecorded(Expense expense, List<Integer> memberIds, long[] shares) {
+        if (subscribers.isEmpty() || shares.length == 0) return;
+        PUBLISH.run(() -> {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("expenseId", expense.getExpenseId());
+            addSplits(data, expense.getPayerId(), memberIds, shares);
+            publish("splits", data);
+            publishBalances(new IntLongMap(16), expense.getPayerId(), memberIds, shares);
+        });
+    }
+
+    /**
+     * A new settlement and the balance changes it causes.
+     */
+    public void settlementRecorded(long settlementId, Settlement settlement) {
+        if (subscribers.isEmpty() || settlementId <= 0) return;
+        PUBLISH.run(() -> {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", settlementId);
+            data.put("payerId", settlement.getPayerId());
+            data.put("receiverId", settlement.getReceiverId());
+            data.put("amount", Money.toDouble(settlement.getAmountCents()));
+            data.put("date", String.valueOf(settlement.getSettlementDate()));
+            publish("settlement", data);
+
+            IntLongMap deltas = new IntLongMap(4);
+            deltas.addTo(settlement.getPayerId(), settlement.getAmountCents());
+            deltas.addTo(settlement.getReceiverId(), -settlement.getAmountCents());
+            publish("balances", Map.of("deltas", deltas.toDecimalMap()));
+        });
+    }
+
+    /**
+     * A change too large to describe as deltas; subscribers refetch.
+     */
+    public void refresh(String reason) {
+        if (subscribers.isEmpty()) return;
+        PUBLISH.run(() -> publish("refresh", Map.of("reason", reason)));
+    }
+
+    private static void addSplits(Map<String, Object> data, int payerId, List<Integer> memberIds, long[] shares) {
+        int splitCount = 0;
+        for (int memberId : memberIds) {
+            if (memberId != payerId) splitCount++;
+        }
+        if (shares.length == 0) splitCount = 0;
+        data.put("splitCount", splitCount);
+        if (splitCount == 0 || splitCount > MAX_INLINE_SPLITS) return;
+
+        List<Map<String, Object>> splits = new ArrayList<>(splitCount);
+        for (int i = 0; i < shares.length; i++) {
+            if (memberIds.get(i) == payerId) continue;
+            Map<String, Object> split = new LinkedHashMap<>();
+            split.put("memberId", memberIds.get(i));
+            split.put("owed", Money.toDouble(shares[i]));
+            splits.add(split);
+        }
+        data.put("splits", splits);
+    }
+
+    private void publishBalances(IntLongMap deltas, int payerId, List<Integer> memberIds, long[] shares) {
+        if (shares.length > MAX_INLINE_SPLITS) {
+            publish("refresh", Map.of("reason", "large-split"));
+            return;
+        }
+        for (int i = 0; i < shares.length; i++) {
+            if (memberIds.get(i) != payerId) deltas.addTo(memberIds.get(i), -shares[i]);
+        }
+        IntLongMap changed = deltas.withoutZeros();
+        if (!changed.isEmpty()) publish("balances", Map.of("deltas", changed.toDecimalMap()));
+    }
+
+    private void publish(String type, Object data) {
+        String json = GSON.toJson(data); // once, outside the lock, shared by every subscriber
+        synchronized (publishLock) {
+            // Ids and queue order follow this lock, so every subscriber sees the same sequence
+            Event event = new Event(++lastEventId, type, json);
+            for (Subscription subscription : subscribers) {
+                offer(subscription, event);
+            }
+        }
+        published.increment();
+    }
+
+    // --- DELIVERY ---
+
+    private void offer(Subscription subscription, Event event) {
+        if (!subscription.queue.offer(event)) {
+            close(subscription, "slow consumer");
+            return;
+        }
+        if (subscription.scheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(() -> drain(subscription));
+            } catch (RejectedExecutionException e) {
+                close(subscription, "shutdown"); // feed closed while publishing
+                finish(subscription);
+            }
+        }
+    }
+
+    // Runs on one dispatcher thread at a time per subscription (whoever set 'scheduled').
+    private void drain(Subscription subscription) {
+        List<Event> batch = new ArrayList<>(MAX_DRAIN_BATCH);
+        try {
+            while (!subscription.isClosed()) {
+                subscription.queue.drainTo(batch, MAX_DRAIN_BATCH);
+                if (batch.isEmpty()) {
+                    subscription.scheduled.set(false);
+                    // An event offered after drainTo saw scheduled == true and left it to us
+                    if (subscription.queue.isEmpty() || !subscription.scheduled.compareAndSet(false, true)) return;
+                    continue;
+                }
+                subscription.sendStartedNanos = System.nanoTime();
+                sending.add(subscription);
+                try {
+                    subscription.sink.send(batch);
+                } finally {
+                    sending.remove(subscription);
+                    subscription.sendStartedNanos = 0;
+                }
+                delivered.add(batch.size());
+                batch.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            close(subscription, "disconnected");
+        }
+        // Closed while this thread owned the subscription, so closing the sink is left to it
+        finish(subscription);
+    }
+
+    private void close(Subscription subscription, String reason) {
+        if (!subscription.closed.compareAndSet(false, true)) return;
+        subscription.closeReason = reason;
+        subscribers.remove(subscription);
+        subscription.queue.clear();
+        if (reason.equals("slow consumer") || reason.equals("stalled")) {
+            dropped.increment();
+            LOGGER.log(Level.FINE, "Dropped a stream subscriber: " + reason);
+        }
+        // Never close on the publishing (writer) thread, and never under a send still in
+        // progress: a running drain closes the sink on its way out.
+        if (subscription.scheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(() -> finish(subscription));
+            } catch (RejectedExecutionException e) {
+                finish(subscription);
+            }
+        }
+    }
+
+    private static void finish(Subscription subscription) {
+        if (!subscription.finished.compareAndSet(false, true)) return;
+        try {
+            subscription.sink.close();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to close a stream.", e);
+        } finally {
+            subscription.done.countDown();
+        }
+    }
+
+    /**
+     * A write to a client that stopped reading blocks its dispatcher thread until the socket
+     * times out. Runs every checkNanos (10 ms): the pool grows by two threads per write blocked
+     * longer than that, so a burst of stalls (a dropped network) is absorbed in a few rounds
+     * while everyone else keeps receiving, and subscribers whose write has taken
+     * stream.stall.millis are dropped. The extra threads retire once those writes return or fail.
+     */
+    private void checkBlockedWrites() {
+        long now = System.nanoTime();
+        int blocked = 0;
+        for (Subscription subscription : sending) {
+            long started = subscription.sendStartedNanos;
+            if (started == 0 || now - started < checkNanos) continue;
+            blocked++;
+            if (now - started > stallNanos) close(subscription, "stalled");
+        }
+        int size = dispatchThreads + 2 * blocked;
+        if (size > dispatcher.getMaximumPoolSize()) {
+            dispatcher.setMaximumPoolSize(size);
+            dispatcher.setCorePoolSize(size);
+        } else if (size < dispatcher.getCorePoolSize()) {
+            dispatcher.setCorePoolSize(size);
+            dispatcher.setMaximumPoolSize(size);
+        }
+    }
+
+    private synchronized void startThreads() {
+        if (dispatcher != null) return;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("change-feed-dispatch-"));
+        pool.allowCoreThreadTimeOut(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("change-feed-scheduler-"));
+        scheduler.scheduleWithFixedDelay(this::checkBlockedWrites, checkNanos, checkNanos, TimeUnit.NANOSECONDS);
+        if (keepAliveSeconds > 0) {
+            scheduler.scheduleAtFixedRate(this::sendKeepAlive, keepAliveSeconds, keepAliveSeconds, TimeUnit.SECONDS);
+        }
+        dispatcher = pool;
+    }
+
+    private void sendKeepAlive() {
+        synchronized (publishLock) {
+            Event event = new Event(lastEventId, null, null);
+            for (Subscription subscription : subscribers) {
+                offer(subscription, event);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Closes every subscription and stops the threads.
+     */
+    @Override
+    public void close() {
+        shutdown = true;
+        for (Subscription subscription : new ArrayList<>(subscribers)) {
+            close(subscription, "shutdown");
+        }
+        synchronized (this) {
+            if (scheduler != null) scheduler.shutdownNow();
+            if (dispatcher != null) dispatcher.shutdown();
+        }
+    }
+}
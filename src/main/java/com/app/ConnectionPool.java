@@ -0,0 +1,317 @@
+package com.app;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A bounded JDBC connection pool.
+ * Callers use it exactly like DriverManager: the connection they get back is a proxy whose
+ * close() returns the physical connection to the pool instead of closing it.
+ * Idle connections are re-validated before reuse once they have been idle for a while, and
+ * connections idle for longer than the idle timeout are closed by a background evictor.
+ * Only a Semaphore and lock-free queues are used, so waiting callers never pin a carrier thread.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * Opens a new physical connection to the database.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    /**
+     * Pool sizing and timeouts. Defaults can be overridden with DB_POOL_* settings (see AppConfig).
+     */
+    public static class Settings {
+        final int maxSize;
+        final long acquireTimeoutMillis;
+        final long idleTimeoutMillis;
+        final long validateAfterMillis;
+        final int validationTimeoutSeconds;
+
+        public Settings(int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis,
+                        long validateAfterMillis, int validationTimeoutSeconds) {
+            if (maxSize <= 0) throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+            this.maxSize = maxSize;
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            this.validateAfterMillis = validateAfterMillis;
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+        }
+
+        public static Settings fromConfig() {
+            return new Settings(
+                    AppConfig.getInt("db.pool.size", 10),
+                    AppConfig.getLong("db.pool.acquire.timeout.ms", 5_000),
+                    AppConfig.getLong("db.pool.idle.timeout.ms", 300_000),
+                    AppConfig.getLong("db.pool.validate.after.ms", 5_000),
+                    AppConfig.getInt("db.pool.validation.timeout.s", 2));
+        }
+    }
+
+    /**
+     * Point-in-time view of the pool, serialized as-is by the admin endpoints.
+     */
+    public static class Metrics {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final int waiters;
+        private final long acquired;
+        private final long timeouts;
+        private final long created;
+        private final long evicted;
+        private final double avgAcquireMillis;
+        private final double maxAcquireMillis;
+
+        Metrics(int maxSize, int active, int idle, int waiters, long acquired, long timeouts,
+                long created, long evicted, double avgAcquireMillis, double maxAcquireMillis) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waiters = waiters;
+            this.acquired = acquired;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.evicted = evicted;
+            this.avgAcquireMillis = avgAcquireMillis;
+            this.maxAcquireMillis = maxAcquireMillis;
+        }
+
+        public int getMaxSize() { return maxSize; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getWaiters() { return waiters; }
+        public long getAcquired() { return acquired; }
+        public long getTimeouts() { return timeouts; }
+        public long getCreated() { return created; }
+        public long getEvicted() { return evicted; }
+        public double getAvgAcquireMillis() { return avgAcquireMillis; }
+        public double getMaxAcquireMillis() { return maxAcquireMillis; }
+    }
+
+    private static class IdleConnection {
+        final Connection physical;
+        final long idleSinceNanos;
+
+        IdleConnection(Connection physical) {
+            this.physical = physical;
+            this.idleSinceNanos = System.nanoTime();
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final Settings settings;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger waiterCount = new AtomicInteger();
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong acquireNanosTotal = new AtomicLong();
+    private final AtomicLong acquireNanosMax = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(ConnectionFactory factory, Settings settings) {
+        this.factory = factory;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, settings.idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout for one to become free.
+     * Closing the returned connection hands it back to the pool.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed.");
+
+        long start = System.nanoTime();
+        boolean acquired = permits.tryAcquire();
+        if (!acquired) {
+            waiterCount.incrementAndGet();
+            try {
+                acquired = permits.tryAcquire(settings.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection.", e);
+            } finally {
+                waiterCount.decrementAndGet();
+            }
+        }
+
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new SQLTransientConnectionException("Timed out after " + settings.acquireTimeoutMillis
+                    + " ms waiting for a database connection (pool size " + settings.maxSize + ").");
+        }
+
+        try {
+            Connection physical = takeIdleOrOpen();
+            activeCount.incrementAndGet();
+            recordAcquire(System.nanoTime() - start);
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public Metrics getMetrics() {
+        long acquired = acquiredCount.get();
+        double avgMillis = acquired == 0 ? 0 : acquireNanosTotal.get() / (double) acquired / 1_000_000.0;
+        return new Metrics(settings.maxSize, activeCount.get(), idleCount.get(), waiterCount.get(),
+                acquired, timeoutCount.get(), createdCount.get(), evictedCount.get(),
+                avgMillis, acquireNanosMax.get() / 1_000_000.0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            closeQuietly(entry.physical);
+        }
+    }
+
+    private Connection takeIdleOrOpen() throws SQLException {
+        IdleConnection entry;
+        // LIFO: the most recently returned connection is the one most likely to still be healthy.
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.idleSinceNanos);
+            if (idleMillis < settings.validateAfterMillis || isValid(entry.physical)) {
+                return entry.physical;
+            }
+            evictedCount.incrementAndGet();
+            closeQuietly(entry.physical);
+        }
+
+        Connection physical = factory.open();
+        createdCount.incrementAndGet();
+        return physical;
+    }
+
+    private void release(Connection physical) {
+        activeCount.decrementAndGet();
+        try {
+            if (closed || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            // Never hand the next borrower a half-finished transaction.
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(physical));
+            idleCount.incrementAndGet();
+        } catch (SQLException e) {
+            LOGGER.warning("Discarding connection that could not be reset: " + e.getMessage());
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            IdleConnection entry = oldestFirst.next();
+            if (TimeUnit.NANOSECONDS.toMillis(now - entry.idleSinceNanos) < settings.idleTimeoutMillis) {
+                break; // everything newer is younger still
+            }
+            if (idle.remove(entry)) { // lost the race to a borrower otherwise
+                idleCount.decrementAndGet();
+                evictedCount.incrementAndGet();
+                closeQuietly(entry.physical);
+            }
+        }
+    }
+
+    private boolean isValid(Connection physical) {
+        try {
+            return physical.isValid(settings.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordAcquire(long nanos) {
+        acquiredCount.incrementAndGet();
+        acquireNanosTotal.addAndGet(nanos);
+        acquireNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    private Connection wrap(Connection physical) {
+        InvocationHandler handler = new InvocationHandler() {
+            private final AtomicBoolean returned = new AtomicBoolean(false);
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (returned.compareAndSet(false, true)) release(physical);
+                        return null;
+                    case "isClosed":
+                        return returned.get() || physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + physical;
+                    default:
+                        if (returned.get()) throw new SQLException("Connection has already been returned to the pool.");
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+    }
+
+    private static void closeQuietly(Connection physical) {
+        try {
+            physical.close();
+        } catch (SQLException ignore) {
+            // Already broken; nothing more to do.
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide data version: a counter that every committed write bumps.
+ * Read endpoints derive their ETag from it, so a client holding the current ETag can be
+ * answered with 304 Not Modified without touching the database, and ResponseBodyCache keys
+ * serialized bodies by it.
+ * - Transactions.inTransaction bumps after each commit it owns; single statements run in
+ *   auto-commit mode call {@link #afterWrite}. A version is only ever bumped after the data is
+ *   visible, so a reader that samples the version before querying never labels old data as new.
+ * - Only writes made by this process are seen. Writes from another instance or straight in SQL
+ *   are not; run one instance per database, or bump via the admin endpoints after such writes.
+ */
+public final class DataVersion {
+
+    // Distinguishes restarts, so an ETag from a previous run never matches a fresh counter.
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    private DataVersion() {}
+
+    public static long current() {
+        return VERSION.get();
+    }
+
+    public static long bump() {
+        return VERSION.incrementAndGet();
+    }
+
+    /**
+     * Bumps the version for a write that has just run on conn, unless conn is inside a
+     * caller-managed transaction; whoever commits that transaction bumps instead.
+     */
+    public static void afterWrite(Connection conn) throws SQLException {
+        if (conn.getAutoCommit()) bump();
+    }
+
+    /**
+     * Weak ETag for the given version: bodies with the same version are equivalent, though not
+     * necessarily byte-identical (map ordering may differ between two serializations).
+     */
+    public static String etag(long version) {
+        return "W/\"" + EPOCH + "." + version + "\"";
+    }
+
+    /**
+     * True if an If-None-Match header value (one tag, a comma-separated list or *) matches the tag.
+     * Comparison is weak, as required for If-None-Match.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) return false;
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(opaque)) return true;
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -7,15 +7,57 @@ import java.sql.SQLException;
 public class DatabaseConnector {
     
     // IMPORTANT: Replace these placeholders with your actual Supabase connection details!
-    private static final String DB_HOST = "db.xgtnepssnpdrodutqolk.supabase.co";
-    private static final String DB_USER = "postgres"; 
-    private static final String DB_PASS = "Sagar@javanew2025"; // Your Supabase password
-    private static final String DB_NAME = "postgres";
-    private static final String DB_PORT = "5432";
+    // Each value can also be overridden at runtime (e.g. DB_HOST / -Ddb.host, see AppConfig).
+    private static final String DB_HOST = AppConfig.getString("db.host", "db.xgtnepssnpdrodutqolk.supabase.co");
+    private static final String DB_USER = AppConfig.getString("db.user", "postgres");
+    private static final String DB_PASS = AppConfig.getString("db.pass", null); // required: DB_PASS / -Ddb.pass, no default
+    private static final String DB_NAME = AppConfig.getString("db.name", "postgres");
+    private static final String DB_PORT = AppConfig.getString("db.port", "5432");
 
-    private static final String DB_URL = "jdbc:postgresql://" + DB_HOST + ":" + DB_PORT + "/" + DB_NAME;
+    private static final String DB_URL = AppConfig.getString("db.url",
+            "jdbc:postgresql://" + DB_HOST + ":" + DB_PORT + "/" + DB_NAME);
 
+    // Every getConnection() borrows from this pool instead of paying a new TCP/TLS/auth handshake.
+    private static final ConnectionPool POOL =
+            new ConnectionPool(DatabaseConnector::openPhysicalConnection, ConnectionPool.Settings.fromConfig());
+
+    /**
+     * Borrows a pooled connection. Closing it (try-with-resources) returns it to the pool.
+     */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+        return POOL.getConnection();
+    }
+
+    /**
+     * Opens a new, unpooled connection straight from the driver.
+     */
+    public static Connection openPhysicalConnection() throws SQLException {
+        return DriverManager.getConnection(DB_URL, DB_USER, requirePassword());
+    }
+
+    /**
+     * Opens a new, unpooled connection to another database with the same credentials (e.g. a shard).
+     */
+    public static Connection openPhysicalConnection(String url) throws SQLException {
+        return DriverManager.getConnection(url, DB_USER, requirePassword());
+    }
+
+    public static ConnectionPool.Metrics getPoolMetrics() {
+        return POOL.getMetrics();
+    }
+
+    // The password is never defaulted: without it every connection fails here, before reaching the server.
+    private static String requirePassword() throws SQLException {
+        if (DB_PASS == null) {
+            throw new SQLException("The database password is not set: provide DB_PASS (or -Ddb.pass).");
+        }
+        return DB_PASS;
+    }
+
+    /**
+     * Closes all idle connections; used by short-lived entry points such as App.
+     */
+    public static void shutdown() {
+        POOL.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package com.app;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The demo users, expense and settlement the frontend shows on a fresh database, written by
+ * WebApp at start-up according to DEMO_SEED / -Ddemo.seed:
+ * - background (default): after the routes are live, on a daemon thread, so start-up never waits
+ *   for the remote writes.
+ * - sync: before the routes are defined, as the server always did.
+ * - off: never (production).
+ * Seeding is idempotent: it only writes when the demo users do not exist yet, so restarts do not
+ * pile up duplicate expenses or fail on duplicate users. The expense and its split are written
+ * with one createExpenseWithSplits call, so a failure leaves no half-split expense behind.
+ */
+public final class DemoData {
+
+    public static final String BACKGROUND = "background";
+    public static final String SYNC = "sync";
+    public static final String OFF = "off";
+
+    private static final Logger LOGGER = Logger.getLogger(DemoData.class.getName());
+
+    private static final String ALICE = "alice_j";
+    private static final String BOB = "bob_s";
+
+    private DemoData() {}
+
+    /**
+     * Seeds according to the demo.seed setting; with background, returns immediately.
+     */
+    public static void start(StorageEngine storage) {
+        String mode = AppConfig.getString("demo.seed", BACKGROUND).toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case OFF:
+                LOGGER.info("Demo data seeding is off.");
+                return;
+            case SYNC:
+                seedQuietly(storage);
+                return;
+            case BACKGROUND:
+                Thread seeder = new Thread(() -> seedQuietly(storage), "demo-seed");
+                seeder.setDaemon(true);
+                seeder.start();
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown demo.seed mode '" + mode + "' (expected background, sync or off)");
+        }
+    }
+
+    /**
+     * Writes the demo data unless the demo users already exist.
+     * @return true if anything was written.
+     */
+    public static boolean seed(StorageEngine storage) {
+        if (storage.findUserByUsername(ALICE) != null && storage.findUserByUsername(BOB) != null) {
+            return false;
+        }
+        storage.registerNewUser(new User(ALICE, "alice.j@example.com", "hash1", "Alice Johnson"));
+        storage.registerNewUser(new User(BOB, "bob.s@example.com", "hash2", "Bob Smith"));
+
+        // Ids are whatever the engine assigned (1 and 6 in the original demo database)
+        int aliceUserId = storage.findUserByUsername(ALICE).getUserId();
+        int bobUserId = storage.findUserByUsername(BOB).getUserId();
+        List<Integer> partyMembers = Arrays.asList(aliceUserId, bobUserId);
+        long groupId = storage.createGroup("Web Demo Group", aliceUserId);
+
+        Expense dinnerExpense = new Expense(90.00, "Initial Web Demo Dinner", aliceUserId, LocalDate.now());
+        storage.createExpenseWithSplits(dinnerExpense, partyMembers);
+
+        // Bob owes Alice $45.00 for the dinner split; settle it so the balance report isn't massive.
+        storage.recordSettlement(new Settlement((int) groupId, bobUserId, aliceUserId, 45.00));
+        return true;
+    }
+
+    // Seeding must never take the server down.
+    private static void seedQuietly(StorageEngine storage) {
+        try {
+            boolean written = seed(storage);
+            StartupReport.phase(written ? "demo data seeded" : "demo data already present");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Demo data seeding failed. The server keeps running without it.", e);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of binary records in memory-mapped segment files (segment-NNNNNNNNNNNN.log),
+ * used by EventLogStorageEngine. A new segment is started when a record does not fit.
+ * Record layout (big-endian):
+ *   int  length   bytes of type + payload
+ *   int  crc      CRC32C of type + payload
+ *   byte type
+ *   payload       field layout fixed per type (see EventLogStorageEngine)
+ * A zero length ends a segment: mapped files are zero-filled beyond the data.
+ * Durability is group-committed: append returns a position and the writer waits in
+ * awaitDurable; the first waiter forces everything appended so far with one msync while later
+ * writers queue behind it, and the whole group is released when it returns.
+ * Opening the log replays and validates every record. A record cut short or failing its CRC in
+ * the last segment is a torn write from a crash; it was never acknowledged, so it and anything
+ * after it is zeroed out. Anywhere else it is corruption and opening fails.
+ * Positions are (segment number << 40) + offset, so they grow monotonically across segments.
+ */
+public final class EventLog implements AutoCloseable {
+
+    public static final int HEADER_BYTES = 8; // length + crc; the type byte counts towards length
+    private static final int OFFSET_BITS = 40;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{12})\\.log");
+
+    private static final OperationTimer APPEND = MetricsRegistry.query("EventLog.append");
+    // One call per msync; rows = records made durable by it (the group commit size).
+    private static final OperationTimer SYNC = MetricsRegistry.query("EventLog.sync");
+
+    /**
+     * Receives each valid record during replay. The payload buffer is only valid during the call.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void accept(byte type, ByteBuffer payload);
+    }
+
+    /**
+     * What opening the log found, serialized as-is by the admin endpoints.
+     */
+    public static class RecoveryReport {
+        private int segments;
+        private long records;
+        private long tornBytes;
+        private long tornSegment = -1;
+        private int tornOffset = -1;
+        private long elapsedMillis;
+
+        public int getSegments() { return segments; }
+        public long getRecords() { return records; }
+        // Bytes discarded at the end of the last segment (0 after a clean shutdown)
+        public long getTornBytes() { return tornBytes; }
+        public long getTornSegment() { return tornSegment; }
+        public int getTornOffset() { return tornOffset; }
+        public long getElapsedMillis() { return elapsedMillis; }
+    }
+
+    private static final class Segment {
+        final long number;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(long number, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final RecoveryReport recovery = new RecoveryReport();
+
+    // Append state, guarded by this.
+    private Segment current;
+    private int writeOffset;
+    private long appendedRecords;
+    private boolean closed;
+
+    // Group commit state, guarded by syncLock. Appenders never take syncLock, so the leader may
+    // briefly take this while holding it.
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private long durablePosition;
+    private long durableRecords;
+    private boolean syncing;
+
+    private EventLog(Path directory, int segmentBytes, boolean fsync) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Opens (or creates) the log in the directory and hands every valid record to the handler,
+     * oldest first, before returning.
+     * @param segmentBytes Size of new segment files; a record may not exceed it.
+     * @param fsync false skips the msync (the OS writes pages back on its own schedule).
+     */
+    public static EventLog open(Path directory, int segmentBytes, boolean fsync, RecordHandler handler) {
+        if (segmentBytes < 4_096) throw new IllegalArgumentException("Segment size must be at least 4096 bytes: " + segmentBytes);
+        EventLog log = new EventLog(directory, segmentBytes, fsync);
+        try {
+            Files.createDirectories(directory);
+            log.recover(handler);
+        } catch (IOException e) {
+            throw new StorageUnavailableException("Failed to open the event log in " + directory, e);
+        }
+        return log;
+    }
+
+    public RecoveryReport getRecoveryReport() { return recovery; }
+
+    public Path getDirectory() { return directory; }
+
+    /**
+     * Largest payload append accepts (a record never spans segments).
+     */
+    public int maxPayloadBytes() { return segmentBytes - HEADER_BYTES - 1; }
+
+    /**
+     * Appends one record. It is readable by the next replay once awaitDurable(position) returns.
+     * @return The log position just past the record.
+     */
+    public long append(byte type, byte[] payload) {
+        return APPEND.time(() -> {
+            int recordBytes = HEADER_BYTES + 1 + payload.length;
+            if (recordBytes > segmentBytes) {
+                throw new DatabaseException("Event of " + recordBytes + " bytes exceeds the segment size of " + segmentBytes);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(type);
+            crc.update(payload);
+
+            synchronized (this) {
+                if (closed) throw new StorageUnavailableException("The event log is closed.", null);
+                if (writeOffset + recordBytes > current.buffer.capacity()) rotate();
+
+                ByteBuffer buffer = current.buffer;
+                buffer.put(writeOffset + HEADER_BYTES, type);
+                buffer.put(writeOffset + HEADER_BYTES + 1, payload);
+                buffer.putInt(writeOffset + 4, (int) crc.getValue());
+                buffer.putInt(writeOffset, 1 + payload.length); // written last: a record exists once its length does
+                writeOffset += recordBytes;
+                appendedRecords++;
+                APPEND.rows(1);
+                return position(current.number, writeOffset);
+            }
+        });
+    }
+
+    /**
+     * Blocks until everything up to the position is on disk. Concurrent callers share one msync.
+     */
+    public void awaitDurable(long position) {
+        if (!fsync) return;
+        syncLock.lock();
+        try {
+            while (durablePosition < position) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Become the leader: flush everything appended so far on behalf of every waiter.
+                syncing = true;
+                Segment segment;
+                int to;
+                long target;
+                long records;
+                synchronized (this) {
+                    segment = current;
+                    to = writeOffset;
+                    target = position(segment.number, to);
+                    records = appendedRecords;
+                }
+                // Older segments were forced when they were rotated out.
+                int from = segmentOf(durablePosition) == segment.number ? offsetOf(durablePosition) : 0;
+
+                syncLock.unlock();
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    if (to > from) segment.buffer.force(from, to - from);
+                    failed = false;
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    if (!failed) {
+                        SYNC.rows(records - durableRecords);
+                        durablePosition = Math.max(durablePosition, target);
+                        durableRecords = Math.max(durableRecords, records);
+                    }
+                    SYNC.record(System.nanoTime() - start, failed);
+                    synced.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment now, e.g. so a record can be written first in a fresh segment.
+     */
+    public synchronized void rotate() {
+        if (fsync) current.buffer.force();
+        closeQuietly(current.channel);
+        current = mapSegment(current.number + 1, true);
+        writeOffset = 0;
+    }
+
+    /**
+     * Deletes every segment older than the one holding the position (e.g. after a reset record).
+     */
+    public synchronized void deleteSegmentsBefore(long position) {
+        long keepFrom = segmentOf(position);
+        for (long number : listSegments()) {
+            if (number >= keepFrom) break;
+            try {
+                Files.deleteIfExists(segmentPath(number));
+            } catch (IOException e) {
+                throw new DatabaseException("Failed to delete event log segment " + number, e);
+            }
+        }
+    }
+
+    /**
+     * Current end of the log (the position the next record starts at).
+     */
+    public synchronized long endPosition() {
+        return position(current.number, writeOffset);
+    }
+
+    public Path segmentPath(long number) {
+        return directory.resolve(String.format("segment-%012d.log", number));
+    }
+
+    public static long segmentOf(long position) {
+        return position >>> OFFSET_BITS;
+    }
+
+    public static int offsetOf(long position) {
+        return (int) (position & ((1L << OFFSET_BITS) - 1));
+    }
+
+    private static long position(long segment, int offset) {
+        return (segment << OFFSET_BITS) + offset;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (fsync) current.buffer.force();
+        closeQuietly(current.channel);
+    }
+
+    // --- RECOVERY ---
+
+    private void recover(RecordHandler handler) throws IOException {
+        long start = System.nanoTime();
+        List<Long> numbers = listSegments();
+        if (numbers.isEmpty()) numbers.add(1L);
+
+        for (int i = 0; i < numbers.size(); i++) {
+            long number = numbers.get(i);
+            boolean last = i == numbers.size() - 1;
+            Segment segment = mapSegment(number, last);
+            int end = replaySegment(segment, handler);
+            recovery.segments++;
+
+            int capacity = segment.buffer.capacity();
+            if (!last) {
+                closeQuietly(segment.channel);
+                continue;
+            }
+            current = segment;
+            writeOffset = end;
+            durablePosition = position(number, end);
+
+            // Anything after the last valid record is a torn write: zero it so appends start clean.
+            if (end < capacity && !isZero(segment.buffer, end, capacity)) {
+                recovery.tornSegment = number;
+                recovery.tornOffset = end;
+                recovery.tornBytes = lastNonZero(segment.buffer, end, capacity) - end + 1;
+                for (int offset = end; offset < capacity; offset++) {
+                    segment.buffer.put(offset, (byte) 0);
+                }
+                segment.buffer.force();
+            }
+        }
+        appendedRecords = recovery.records;
+        durableRecords = recovery.records;
+        recovery.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Hands over records until the end marker or the first invalid one; returns where it stopped.
+    private int replaySegment(Segment segment, RecordHandler handler) {
+        ByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int offset = 0;
+        CRC32C crc = new CRC32C();
+
+        while (offset + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) break; // end of segment
+            if (length < 1 || length > capacity - offset - HEADER_BYTES) {
+                return invalidRecord(segment, offset, "length " + length);
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                return invalidRecord(segment, offset, "checksum mismatch");
+            }
+
+            byte type = body.get();
+            handler.accept(type, body.slice());
+            recovery.records++;
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private int invalidRecord(Segment segment, int offset, String problem) {
+        long lastSegment = listSegments().stream().mapToLong(Long::longValue).max().orElse(segment.number);
+        if (segment.number != lastSegment) {
+            throw new StorageUnavailableException("Event log segment " + segment.number + " is corrupt at offset "
+                                                  + offset + " (" + problem + ")", null);
+        }
+        return offset; // torn tail of the last segment, discarded by recover()
+    }
+
+    private Segment mapSegment(long number, boolean writable) {
+        Path path = segmentPath(number);
+        try {
+            FileChannel channel = writable
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            // The last segment is (re)extended to full size; a crash may have left it truncated.
+            long size = writable ? Math.max(channel.size(), segmentBytes) : channel.size();
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                                                  0, size);
+            return new Segment(number, channel, buffer);
+        } catch (IOException e) {
+            throw new StorageUnavailableException("Failed to map event log segment " + path, e);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) numbers.add(Long.parseLong(matcher.group(1)));
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int from, int to) {
+        return lastNonZero(buffer, from, to) < from;
+    }
+
+    private static int lastNonZero(ByteBuffer buffer, int from, int to) {
+        int offset = to;
+        // Eight bytes at a time over the (usually all-zero) unused part of the segment
+        while (offset - 8 >= from && buffer.getLong(offset - 8) == 0) offset -= 8;
+        for (offset--; offset >= from; offset--) {
+            if (buffer.get(offset) != 0) return offset;
+        }
+        return from - 1;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+            // the mapping stays valid after the channel is closed
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * StorageEngine for single-node deployments: state lives in an InMemoryStorageEngine and every
+ * write is recorded as a binary event in a local EventLog, so reads never do I/O and writes never
+ * leave the machine. On startup the users, expenses, splits and settlements are rebuilt by
+ * replaying the log into a fresh in-memory engine (which regenerates the same ids).
+ * A write is applied to memory first (so a rejected write is never logged), appended to the log
+ * under the same mutex (so log order is apply order), and acknowledged once the group commit
+ * has flushed it. Readers may see a write a few hundred microseconds before it is durable.
+ * If appending fails, memory and log have diverged: the engine turns read-only until restarted.
+ * Writes are published to the ChangeFeed once durable (never while replaying).
+ * Event payloads (big-endian; strings are an int byte length, -1 for null, then UTF-8):
+ *   USER_REGISTERED            username, email, passwordHash, fullName
+ *   USER_UPDATED               username, email, fullName
+ *   USER_DELETED               username
+ *   USER_DELETED_BY_ID         int userId
+ *   GROUP_CREATED              int creatorId, groupName
+ *   EXPENSE_ADDED              expense
+ *   SHARES_RECORDED            long expenseId, int payerId, shares
+ *   EXPENSE_WITH_SHARES        expense, shares
+ *   SETTLEMENT_RECORDED        settlement
+ *   BATCH_IMPORTED             int count, count x (expense, members), int count, count x settlement
+ *   CLEARED                    (empty; first record of a new segment, older segments are deleted)
+ *   USER_RESTORED              int userId, username, email, passwordHash, fullName
+ * where expense = int groupId, long amountCents, int payerId, int epochDay, description;
+ * members = int count, count x int userId;
+ * shares = members, then count x long cents (same order);
+ * settlement = int groupId, int payerId, int receiverId, long amountCents, long UTC epoch micros.
+ */
+public class EventLogStorageEngine implements StorageEngine {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final byte USER_REGISTERED = 1;
+    private static final byte USER_UPDATED = 2;
+    private static final byte USER_DELETED = 3;
+    private static final byte USER_DELETED_BY_ID = 4;
+    private static final byte GROUP_CREATED = 5;
+    private static final byte EXPENSE_ADDED = 6;
+    private static final byte SHARES_RECORDED = 7;
+    private static final byte EXPENSE_WITH_SHARES = 8;
+    private static final byte SETTLEMENT_RECORDED = 9;
+    private static final byte BATCH_IMPORTED = 10;
+    private static final byte CLEARED = 11;
+    private static final byte USER_RESTORED = 12;
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final InMemoryStorageEngine state = new InMemoryStorageEngine();
+    private final EventLog log;
+    private final ChangeFeed feed = ChangeFeed.get();
+    private final Object writeMutex = new Object();
+    private volatile boolean failed;
+    private long skippedEvents;
+
+    /**
+     * Opens the log in the directory and replays it.
+     * @param segmentBytes Size of each segment file; also the upper bound for one event.
+     * @param fsync false leaves flushing to the OS (faster, but a power loss can drop acknowledged writes).
+     */
+    public EventLogStorageEngine(Path directory, int segmentBytes, boolean fsync) {
+        state.setChangeFeed(null);
+        state.setConsoleOutput(false);
+        this.log = EventLog.open(directory, segmentBytes, fsync, this::replay);
+        state.setConsoleOutput(true);
+
+        EventLog.RecoveryReport report = log.getRecoveryReport();
+        System.out.printf("  [EVENTLOG] Replayed %d events from %d segment(s) in %s in %d ms.\n",
+                report.getRecords(), report.getSegments(), directory, report.getElapsedMillis());
+        if (report.getTornBytes() > 0) {
+            System.err.printf("  [RECOVERY] Discarded a torn write of %d bytes at the end of segment %d (offset %d).\n",
+                    report.getTornBytes(), report.getTornSegment(), report.getTornOffset());
+        }
+        if (skippedEvents > 0) {
+            System.err.printf("  [WARNING] %d logged events were rejected on replay.\n", skippedEvents);
+        }
+    }
+
+    /**
+     * Engine configured by eventlog.dir (default data/eventlog), eventlog.segment.bytes and eventlog.fsync.
+     */
+    public static EventLogStorageEngine fromConfig() {
+        return new EventLogStorageEngine(Paths.get(AppConfig.getString("eventlog.dir", "data/eventlog")),
+                                         AppConfig.getInt("eventlog.segment.bytes", DEFAULT_SEGMENT_BYTES),
+                                         AppConfig.getBoolean("eventlog.fsync", true));
+    }
+
+    @Override
+    public String getName() { return EVENT_LOG; }
+
+    public EventLog getEventLog() { return log; }
+
+    // --- USERS ---
+
+    @Override
+    public void registerNewUser(User user) {
+        logged(USER_REGISTERED, out -> {
+            writeString(out, user.getUsername());
+            writeString(out, user.getEmail());
+            writeString(out, user.getPasswordHash());
+            writeString(out, user.getFullName());
+        }, () -> { state.registerNewUser(user); return null; });
+    }
+
+    @Override
+    public List<User> listAllUsers() { return state.listAllUsers(); }
+
+    @Override
+    public List<User> listUserDirectory() { return state.listUserDirectory(); }
+
+    @Override
+    public User findUserById(int userId) { return state.findUserById(userId); }
+
+    @Override
+    public User findUserByUsername(String username) { return state.findUserByUsername(username); }
+
+    @Override
+    public void updateUser(User user) {
+        logged(USER_UPDATED, out -> {
+            writeString(out, user.getUsername());
+            writeString(out, user.getEmail());
+            writeString(out, user.getFullName());
+        }, () -> { state.updateUser(user); return null; });
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        logged(USER_DELETED, out -> writeString(out, username), () -> { state.deleteUser(username); return null; });
+    }
+
+    @Override
+    public boolean deleteUserById(int userId) {
+        return logged(USER_DELETED_BY_ID, out -> out.writeInt(userId), () -> state.deleteUserById(userId));
+    }
+
+    @Override
+    public boolean isUserReferenced(int userId) { return state.isUserReferenced(userId); }
+
+    @Override
+    public void restoreUser(User user) {
+        logged(USER_RESTORED, out -> {
+            out.writeInt(user.getUserId());
+            writeString(out, user.getUsername());
+            writeString(out, user.getEmail());
+            writeString(out, user.getPasswordHash());
+            writeString(out, user.getFullName());
+        }, () -> { state.restoreUser(user); return null; });
+    }
+
+    @Override
+    public long createGroup(String groupName, int creatorId) {
+        return logged(GROUP_CREATED, out -> {
+            out.writeInt(creatorId);
+            writeString(out, groupName);
+        }, () -> state.createGroup(groupName, creatorId));
+    }
+
+    // --- EXPENSES AND SETTLEMENTS ---
+
+    @Override
+    public long addExpense(Expense expense) {
+        long expenseId = logged(EXPENSE_ADDED, out -> writeExpense(out, expense), () -> state.addExpense(expense));
+        feed.expenseRecorded(expenseId, expense, List.of(), new long[0]);
+        return expenseId;
+    }
+
+    @Override
+    public void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds, long[] shares) {
+        logged(SHARES_RECORDED, out -> {
+            out.writeLong(expense.getExpenseId());
+            out.writeInt(expense.getPayerId());
+            writeShares(out, memberIds, shares);
+        }, () -> { state.splitExpenseAndRecordDebts(expense, memberIds, shares); return null; });
+        feed.splitsRecorded(expense, memberIds, shares);
+    }
+
+    @Override
+    public long createExpenseWithSplits(Expense expense, List<Integer> memberIds, long[] shares) {
+        long expenseId = logged(EXPENSE_WITH_SHARES, out -> {
+            writeExpense(out, expense);
+            writeShares(out, memberIds, shares);
+        }, () -> state.createExpenseWithSplits(expense, memberIds, shares));
+        feed.expenseRecorded(expenseId, expense, memberIds, shares);
+        return expenseId;
+    }
+
+    @Override
+    public long recordSettlement(Settlement settlement) {
+        long settlementId = logged(SETTLEMENT_RECORDED, out -> writeSettlement(out, settlement),
+                                   () -> state.recordSettlement(settlement));
+        feed.settlementRecorded(settlementId, settlement);
+        return settlementId;
+    }
+
+    @Override
+    public void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements) {
+        logged(BATCH_IMPORTED, out -> {
+            out.writeInt(expenses.size());
+            for (int i = 0; i < expenses.size(); i++) {
+                writeExpense(out, expenses.get(i));
+                writeMembers(out, participants.get(i));
+            }
+            out.writeInt(settlements.size());
+            for (Settlement settlement : settlements) {
+                writeSettlement(out, settlement);
+            }
+        }, () -> { state.importBatch(expenses, participants, settlements); return null; });
+        feed.refresh("import");
+    }
+
+    @Override
+    public List<Expense> listAllExpenses() { return state.listAllExpenses(); }
+
+    @Override
+    public List<Expense> listExpensesPage(long afterId, int limit) { return state.listExpensesPage(afterId, limit); }
+
+    @Override
+    public void streamExpenses(Consumer<Expense> consumer) { state.streamExpenses(consumer); }
+
+    @Override
+    public List<ExpenseSplit> listExpenseSplits(long expenseId) { return state.listExpenseSplits(expenseId); }
+
+    @Override
+    public List<Settlement> listAllSettlements() { return state.listAllSettlements(); }
+
+    @Override
+    public List<Settlement> listSettlementsPage(long afterId, int limit) { return state.listSettlementsPage(afterId, limit); }
+
+    @Override
+    public void streamSettlements(Consumer<Settlement> consumer) { state.streamSettlements(consumer); }
+
+    @Override
+    public void streamBalanceDeltas(ExpenseRepository.BalanceDeltaConsumer consumer) { state.streamBalanceDeltas(consumer); }
+
+    // --- BALANCES ---
+
+    @Override
+    public IntLongMap readBalanceCents() { return state.readBalanceCents(); }
+
+    @Override
+    public IntLongMap readBalanceCentsAsOf(LocalDate date) { return state.readBalanceCentsAsOf(date); }
+
+    @Override
+    public IntLongMap readGroupBalanceCents(int groupId) { return state.readGroupBalanceCents(groupId); }
+
+    @Override
+    public PairDebts readPairDebts() { return state.readPairDebts(); }
+
+    @Override
+    public PairDebts readPairDebts(int userId) { return state.readPairDebts(userId); }
+
+    @Override
+    public List<BalanceLedger.Drift> verifyBalances() { return state.verifyBalances(); }
+
+    // Balances are derived state, rebuilt by every replay, so this is not logged.
+    @Override
+    public List<BalanceLedger.Drift> rebuildBalances() {
+        List<BalanceLedger.Drift> drift = state.rebuildBalances();
+        if (!drift.isEmpty()) feed.refresh("rebuild");
+        return drift;
+    }
+
+    // --- REPORTS ---
+
+    @Override
+    public SpendingReport readSpendingReport(SpendingReport.Request request) { return state.readSpendingReport(request); }
+
+    // Derived state too, like the balances.
+    @Override
+    public int rebuildSpendingRollups() { return state.rebuildSpendingRollups(); }
+
+    // --- ADMIN ---
+
+    @Override
+    public void clearAll() {
+        requireWritable();
+        long position;
+        synchronized (writeMutex) {
+            state.clearAll();
+            position = append(() -> {
+                log.rotate();
+                return log.append(CLEARED, new byte[0]);
+            });
+        }
+        log.awaitDurable(position);
+        // A crash part way through leaves some old segments behind; replaying them ends at CLEARED.
+        log.deleteSegmentsBefore(position);
+        feed.refresh("reset");
+    }
+
+    @Override
+    public UserCache.Stats getUserCacheStats() {
+        return null; // users already live in memory
+    }
+
+    @Override
+    public void close() {
+        log.close();
+    }
+
+    // --- WRITE PATH ---
+
+    private <T> T logged(byte type, PayloadWriter payload, Supplier<T> apply) {
+        requireWritable();
+        byte[] event = encode(payload);
+        if (event.length > log.maxPayloadBytes()) {
+            throw new DatabaseException("Write of " + event.length + " bytes exceeds the event log limit of "
+                                        + log.maxPayloadBytes() + " bytes.");
+        }
+
+        T result;
+        long position;
+        synchronized (writeMutex) {
+            result = apply.get(); // a rejected write throws here and is never logged
+            position = append(() -> log.append(type, event));
+        }
+        log.awaitDurable(position);
+        return result;
+    }
+
+    // Caller holds writeMutex and has already applied the write to memory.
+    private long append(Supplier<Long> append) {
+        try {
+            return append.get();
+        } catch (RuntimeException e) {
+            failed = true;
+            throw new StorageUnavailableException("Failed to append to the event log; writes are disabled until restart.", e);
+        }
+    }
+
+    private void requireWritable() {
+        if (failed) {
+            throw new StorageUnavailableException("The event log failed earlier; restart to recover from it.", null);
+        }
+    }
+
+    private static byte[] encode(PayloadWriter payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            payload.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by in-memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeExpense(DataOutputStream out, Expense expense) throws IOException {
+        out.writeInt(expense.getGroupId());
+        out.writeLong(expense.getAmountCents());
+        out.writeInt(expense.getPayerId());
+        out.writeInt(Math.toIntExact(expense.getDate().toEpochDay()));
+        writeString(out, expense.getDescription());
+    }
+
+    private static void writeMembers(DataOutputStream out, List<Integer> memberIds) throws IOException {
+        out.writeInt(memberIds.size());
+        for (int memberId : memberIds) {
+            out.writeInt(memberId);
+        }
+    }
+
+    private static void writeShares(DataOutputStream out, List<Integer> memberIds, long[] shares) throws IOException {
+        if (shares.length != memberIds.size()) {
+            throw new IllegalArgumentException("Expected one share per member: " + memberIds.size() + " members, " + shares.length + " shares.");
+        }
+        writeMembers(out, memberIds);
+        for (long cents : shares) {
+            out.writeLong(cents);
+        }
+    }
+
+    private static void writeSettlement(DataOutputStream out, Settlement settlement) throws IOException {
+        LocalDateTime date = settlement.getSettlementDate();
+        out.writeInt(settlement.getGroupId());
+        out.writeInt(settlement.getPayerId());
+        out.writeInt(settlement.getReceiverId());
+        out.writeLong(settlement.getAmountCents());
+        out.writeLong(date.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + date.getNano() / 1_000);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // --- REPLAY ---
+
+    private void replay(byte type, ByteBuffer in) {
+        try {
+            switch (type) {
+                case USER_REGISTERED:
+                    state.registerNewUser(new User(readString(in), readString(in), readString(in), readString(in)));
+                    break;
+                case USER_UPDATED:
+                    state.updateUser(new User(readString(in), readString(in), null, readString(in)));
+                    break;
+                case USER_DELETED:
+                    state.deleteUser(readString(in));
+                    break;
+                case USER_DELETED_BY_ID:
+                    state.deleteUserById(in.getInt());
+                    break;
+                case USER_RESTORED:
+                    state.restoreUser(new User(in.getInt(), readString(in), readString(in), readString(in), readString(in)));
+                    break;
+                case GROUP_CREATED: {
+                    int creatorId = in.getInt();
+                    state.createGroup(readString(in), creatorId);
+                    break;
+                }
+                case EXPENSE_ADDED:
+                    state.addExpense(readExpense(in));
+                    break;
+                case SHARES_RECORDED: {
+                    long expenseId = in.getLong();
+                    int payerId = in.getInt();
+                    List<Integer> memberIds = readMembers(in);
+                    state.splitExpenseAndRecordDebts(new Expense(expenseId, Money.ZERO, null, payerId, null),
+                                                     memberIds, readShareCents(in, memberIds.size()));
+                    break;
+                }
+                case EXPENSE_WITH_SHARES: {
+                    Expense expense = readExpense(in);
+                    List<Integer> memberIds = readMembers(in);
+                    state.createExpenseWithSplits(expense, memberIds, readShareCents(in, memberIds.size()));
+                    break;
+                }
+                case SETTLEMENT_RECORDED:
+                    state.recordSettlement(readSettlement(in));
+                    break;
+                case BATCH_IMPORTED: {
+                    int expenseCount = in.getInt();
+                    List<Expense> expenses = new ArrayList<>(expenseCount);
+                    List<List<Integer>> participants = new ArrayList<>(expenseCount);
+                    for (int i = 0; i < expenseCount; i++) {
+                        expenses.add(readExpense(in));
+                        participants.add(readMembers(in));
+                    }
+                    int settlementCount = in.getInt();
+                    List<Settlement> settlements = new ArrayList<>(settlementCount);
+                    for (int i = 0; i < settlementCount; i++) {
+                        settlements.add(readSettlement(in));
+                    }
+                    state.importBatch(expenses, participants, settlements);
+                    break;
+                }
+                case CLEARED:
+                    state.clearAll();
+                    break;
+                default:
+                    throw new DatabaseException("Unknown event type " + type);
+            }
+        } catch (DatabaseException e) {
+            // Only successful writes are logged, so this means leftovers of an interrupted reset.
+            skippedEvents++;
+        }
+    }
+
+    private static Expense readExpense(ByteBuffer in) {
+        int groupId = in.getInt();
+        long amountCents = in.getLong();
+        int payerId = in.getInt();
+        LocalDate date = LocalDate.ofEpochDay(in.getInt());
+        return new Expense(-1, Money.ofCents(amountCents), readString(in), payerId, date, groupId);
+    }
+
+    private static List<Integer> readMembers(ByteBuffer in) {
+        int count = in.getInt();
+        List<Integer> memberIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            memberIds.add(in.getInt());
+        }
+        return memberIds;
+    }
+
+    private static long[] readShareCents(ByteBuffer in, int count) {
+        long[] shares = new long[count];
+        for (int i = 0; i < count; i++) {
+            shares[i] = in.getLong();
+        }
+        return shares;
+    }
+
+    private static Settlement readSettlement(ByteBuffer in) {
+        int groupId = in.getInt();
+        int payerId = in.getInt();
+        int receiverId = in.getInt();
+        long amountCents = in.getLong();
+        long micros = in.getLong();
+        LocalDateTime date = LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+        return new Settlement(-1, groupId, payerId, receiverId, Money.ofCents(amountCents), date);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
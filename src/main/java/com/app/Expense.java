@@ -5,40 +5,60 @@ import java.time.LocalDate;
 /**
  * The Model Class (or Data Entity) for the 'expenses' table.
  * Updated to use payerId (int) to match database foreign key.
+ * The amount is held in whole cents (see Money); getAmount() is kept for the JSON API.
  */
 public class Expense {
 
-    private final double amount;
+    private final long amountCents;
     private final String description;
     private final int payerId; // Changed from String username to int id
     private final LocalDate date;
     private final long expenseId;
+    private final int groupId; // 0 = not in a group
 
     /**
      * Constructor for creating a new Expense object BEFORE it has an ID.
      */
     public Expense(double amount, String description, int payerId, LocalDate date) {
-        this.amount = amount;
-        this.description = description;
-        this.payerId = payerId;
-        this.date = date;
-        this.expenseId = -1;
+        this(-1, Money.of(amount), description, payerId, date);
+    }
+
+    public Expense(Money amount, String description, int payerId, LocalDate date) {
+        this(-1, amount, description, payerId, date);
+    }
+
+    /**
+     * Constructor for a new Expense shared within a group (see UserRepository.createGroup).
+     */
+    public Expense(double amount, String description, int payerId, LocalDate date, int groupId) {
+        this(-1, Money.of(amount), description, payerId, date, groupId);
     }
     
     /**
      * Constructor for creating an Expense object retrieved from the database (WITH ID).
      */
     public Expense(long expenseId, double amount, String description, int payerId, LocalDate date) {
+        this(expenseId, Money.of(amount), description, payerId, date);
+    }
+
+    public Expense(long expenseId, Money amount, String description, int payerId, LocalDate date) {
+        this(expenseId, amount, description, payerId, date, 0);
+    }
+
+    public Expense(long expenseId, Money amount, String description, int payerId, LocalDate date, int groupId) {
         this.expenseId = expenseId;
-        this.amount = amount;
+        this.amountCents = amount.getCents();
         this.description = description;
         this.payerId = payerId;
         this.date = date;
+        this.groupId = groupId;
     }
 
     public long getExpenseId() { return expenseId; }
-    public double getAmount() { return amount; }
+    public double getAmount() { return Money.toDouble(amountCents); }
+    public long getAmountCents() { return amountCents; }
     public String getDescription() { return description; }
     public int getPayerId() { return payerId; } // New getter
     public LocalDate getDate() { return date; }
-}
\ No newline at end of file
+    public int getGroupId() { return groupId; }
+}
@@ -1,5 +1,6 @@
 package com.app;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,7 +9,9 @@ import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -19,137 +22,528 @@ public class ExpenseRepository {
 
     private static final Logger LOGGER = Logger.getLogger(ExpenseRepository.class.getName());
 
+    // Rows pulled per round trip when streaming the balance inputs through a server-side cursor.
+    private static final int BALANCE_FETCH_SIZE = 10_000;
+    // Rows per round trip for streamed API responses; bounds memory per open stream.
+    private static final int STREAM_FETCH_SIZE = 1_000;
+    // Split rows per batch or statement, so one expense across a huge group stays bounded in memory.
+    private static final int SPLIT_CHUNK_SIZE = 1_000;
+
+    private final BalanceLedger ledger;
+    private final SpendingRollups rollups;
+    private final PairDebtLedger pairs;
+    private volatile boolean groupColumnReady = false;
+
+    public ExpenseRepository() {
+        this(new BalanceLedger());
+    }
+
+    // Share one ledger between the repository (writes) and the read endpoints.
+    // The spending rollups and pair debts follow the ledger: all of them need PostgreSQL's upsert.
+    public ExpenseRepository(BalanceLedger ledger) {
+        this(ledger, ledger.isEnabled() ? new SpendingRollups() : SpendingRollups.disabled());
+    }
+
+    public ExpenseRepository(BalanceLedger ledger, SpendingRollups rollups) {
+        this(ledger, rollups, ledger.isEnabled() ? new PairDebtLedger() : PairDebtLedger.disabled());
+    }
+
+    public ExpenseRepository(BalanceLedger ledger, SpendingRollups rollups, PairDebtLedger pairs) {
+        this.ledger = ledger;
+        this.rollups = rollups;
+        this.pairs = pairs;
+    }
+
+    /**
+     * Receives one signed balance movement per row while the balance inputs are streamed.
+     * Positive deltas credit the user, negative deltas debit them.
+     */
+    @FunctionalInterface
+    public interface BalanceDeltaConsumer {
+        void accept(int userId, long deltaCents);
+    }
+
     // --- CREATE OPERATIONS ---
 
     /**
-     * Inserts a new expense record into the 'expenses' table.
+     * Inserts a new expense record into the 'expenses' table and credits the payer in the
+     * balance ledger and spending rollups within the same transaction.
      * @return The generated expense_id, or -1 if creation failed.
      */
     public long addExpense(Connection conn, Expense expense) {
-        String sql = "INSERT INTO public.expenses (amount, description, payer_id, expense_date) VALUES (?, ?, ?, ?)";
-        long expenseId = -1;
-        
-        try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            statement.setDouble(1, expense.getAmount());
-            statement.setString(2, expense.getDescription());
-            statement.setInt(3, expense.getPayerId());
-            statement.setDate(4, java.sql.Date.valueOf(expense.getDate())); 
+        String sql = "INSERT INTO public.expenses (amount, description, payer_id, expense_date, group_id) VALUES (?, ?, ?, ?, ?)";
 
-            int rowsAffected = statement.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                try (ResultSet rs = statement.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        expenseId = rs.getLong(1);
-                        System.out.printf("  [CREATE] Successfully added expense (ID: %d) of $%.2f paid by User ID: %d.\n", 
-                                          expenseId, expense.getAmount(), expense.getPayerId());
+        try {
+            long expenseId = Transactions.inTransaction(conn, () -> {
+                try (PreparedStatement statement = conn.prepareStatement(sql, new String[] {"expense_id"})) {
+
+                    statement.setBigDecimal(1, Money.toBigDecimal(expense.getAmountCents()));
+                    statement.setString(2, expense.getDescription());
+                    statement.setInt(3, expense.getPayerId());
+                    statement.setDate(4, java.sql.Date.valueOf(expense.getDate()));
+                    statement.setInt(5, expense.getGroupId());
+
+                    if (statement.executeUpdate() == 0) return -1L;
+
+                    try (ResultSet rs = statement.getGeneratedKeys()) {
+                        if (!rs.next()) return -1L;
+                        long id = rs.getLong(1);
+                        ledger.creditExpense(conn, id);
+                        rollups.recordExpenses(conn, new long[] {id});
+                        return id;
                     }
                 }
+            });
+
+            if (expenseId > 0) {
+                System.out.printf("  [CREATE] Successfully added expense (ID: %d) of $%.2f paid by User ID: %d.\n",
+                                  expenseId, expense.getAmount(), expense.getPayerId());
             }
+            return expenseId;
         } catch (SQLException e) {
              throw new DatabaseException("Failed to add new expense: " + expense.getDescription(), e);
         }
-        return expenseId;
     }
 
     /**
-     * Calculates the split amount and records the debt (expense_splits) for each member.
+     * Records equal exact-cent splits (see MathOperations.calculateSplit) for an existing expense.
      */
     public void splitExpenseAndRecordDebts(Connection conn, Expense expense, List<Integer> memberIds) {
-        if (memberIds.isEmpty() || expense.getAmount() <= 0) return;
+        splitExpenseAndRecordDebts(conn, expense, memberIds, SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+    }
 
-        double splitAmount = expense.getAmount() / memberIds.size();
+    /**
+     * Records the debt (expense_splits) of each member: shares[i] cents for memberIds.get(i).
+     * If the member is the payer, we assume they owe nothing in this split.
+     * Rows are sent in batches of SPLIT_CHUNK_SIZE, each followed by its ledger debit, all within
+     * one transaction: a huge group never builds one giant batch, and a failure keeps nothing.
+     */
+    public void splitExpenseAndRecordDebts(Connection conn, Expense expense, List<Integer> memberIds, long[] shares) {
+        checkShares(memberIds, shares);
+        if (shares.length == 0) return;
         String sql = "INSERT INTO public.expense_splits (expense_id, member_id, owed_amount) VALUES (?, ?, ?)";
-        
-        try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            for (int memberId : memberIds) {
-                // If the member is the payer, we assume they owe nothing in this split.
-                if (memberId != expense.getPayerId()) {
-                    statement.setLong(1, expense.getExpenseId());
-                    statement.setInt(2, memberId);
-                    statement.setDouble(3, splitAmount);
-                    statement.addBatch(); // Add the insert to the batch
+
+        try {
+            int recorded = Transactions.inTransaction(conn, () -> {
+                try (PreparedStatement statement = conn.prepareStatement(sql, new String[] {"split_id"})) {
+                    int total = 0;
+                    int batched = 0;
+                    for (int i = 0; i < shares.length; i++) {
+                        int memberId = memberIds.get(i);
+                        if (memberId != expense.getPayerId()) {
+                            statement.setLong(1, expense.getExpenseId());
+                            statement.setInt(2, memberId);
+                            statement.setBigDecimal(3, Money.toBigDecimal(shares[i]));
+                            statement.addBatch(); // Add the insert to the batch
+                            batched++;
+                        }
+                        if (batched == SPLIT_CHUNK_SIZE || (i == shares.length - 1 && batched > 0)) {
+                            int[] results = statement.executeBatch();
+                            long[] splitIds = readGeneratedIds(statement, results.length);
+                            ledger.debitSplits(conn, splitIds);
+                            rollups.recordSplits(conn, splitIds);
+                            pairs.recordSplits(conn, splitIds);
+                            total += results.length;
+                            batched = 0;
+                        }
+                    }
+                    return total;
                 }
-            }
-            
-            int[] results = statement.executeBatch();
-            System.out.printf("  [SPLIT] Recorded %d debt records for Expense ID: %d.\n", results.length, expense.getExpenseId());
-            
+            });
+            System.out.printf("  [SPLIT] Recorded %d debt records for Expense ID: %d.\n", recorded, expense.getExpenseId());
+
         } catch (SQLException e) {
             throw new DatabaseException("Failed to record expense splits for ID: " + expense.getExpenseId(), e);
         }
     }
-    
+
+    /**
+     * Inserts an expense together with its equal split rows; see the overload taking shares.
+     * @return The generated expense_id, or -1 if creation failed.
+     */
+    public long createExpenseWithSplits(Connection conn, Expense expense, List<Integer> memberIds) {
+        return createExpenseWithSplits(conn, expense, memberIds, SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+    }
+
+    /**
+     * Inserts an expense together with its split rows (shares[i] cents for memberIds.get(i), payer
+     * excluded) and ledger movements. Up to SPLIT_CHUNK_SIZE debtors this is a single statement,
+     * i.e. one round trip that either fully succeeds or leaves nothing behind; larger groups add one
+     * statement per further chunk, in one transaction.
+     * @return The generated expense_id, or -1 if creation failed.
+     */
+    public long createExpenseWithSplits(Connection conn, Expense expense, List<Integer> memberIds, long[] shares) {
+        checkShares(memberIds, shares);
+        List<Integer> debtors = new ArrayList<>(shares.length);
+        List<BigDecimal> owed = new ArrayList<>(shares.length);
+        for (int i = 0; i < shares.length; i++) {
+            if (memberIds.get(i) != expense.getPayerId()) {
+                debtors.add(memberIds.get(i));
+                owed.add(Money.toBigDecimal(shares[i]));
+            }
+        }
+
+        try {
+            long expenseId;
+            if (debtors.size() <= SPLIT_CHUNK_SIZE) {
+                expenseId = insertExpenseWithSplits(conn, expense, debtors, owed);
+                if (expenseId < 0) return -1L;
+                DataVersion.afterWrite(conn);
+            } else {
+                expenseId = Transactions.inTransaction(conn, () -> {
+                    long id = insertExpenseWithSplits(conn, expense,
+                            debtors.subList(0, SPLIT_CHUNK_SIZE), owed.subList(0, SPLIT_CHUNK_SIZE));
+                    if (id < 0) throw new SQLException("Expense insert returned no expense_id.");
+                    for (int from = SPLIT_CHUNK_SIZE; from < debtors.size(); from += SPLIT_CHUNK_SIZE) {
+                        int to = Math.min(from + SPLIT_CHUNK_SIZE, debtors.size());
+                        insertSplits(conn, id, debtors.subList(from, to), owed.subList(from, to));
+                    }
+                    return id;
+                });
+            }
+            System.out.printf("  [CREATE] Added expense (ID: %d) of $%s paid by User ID: %d with %d debt records.\n",
+                              expenseId, Money.ofCents(expense.getAmountCents()), expense.getPayerId(), debtors.size());
+            return expenseId;
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to add expense with splits: " + expense.getDescription(), e);
+        }
+    }
+
+    // The expense, its first chunk of splits, their ledger movements, spending rollups and pair debts in one statement.
+    private long insertExpenseWithSplits(Connection conn, Expense expense, List<Integer> debtors, List<BigDecimal> owed)
+            throws SQLException {
+        String sql = "WITH new_expense AS ("
+                + " INSERT INTO public.expenses (amount, description, payer_id, expense_date, group_id) VALUES (?, ?, ?, ?, ?)"
+                + " RETURNING expense_id, payer_id, amount, expense_date"
+                + "), new_splits AS ("
+                + " INSERT INTO public.expense_splits (expense_id, member_id, owed_amount)"
+                + " SELECT e.expense_id, m.member_id, m.owed_amount"
+                + " FROM new_expense e CROSS JOIN unnest(?::int[], ?::numeric[]) AS m(member_id, owed_amount)"
+                + " RETURNING member_id, owed_amount"
+                + ")" + ledger.movementsCte(
+                        "SELECT payer_id AS user_id, amount AS delta FROM new_expense"
+                        + " UNION ALL SELECT member_id, -owed_amount FROM new_splits")
+                + rollups.rollupCte(
+                        "SELECT payer_id AS user_id, expense_date AS day, amount AS paid, 0 AS owed, 1 AS expenses FROM new_expense"
+                        + " UNION ALL SELECT s.member_id, e.expense_date, 0, s.owed_amount, 0 FROM new_splits s CROSS JOIN new_expense e")
+                + pairs.debtsCte(
+                        "SELECT s.member_id AS debtor_id, e.payer_id AS creditor_id, s.owed_amount AS amount"
+                        + " FROM new_splits s CROSS JOIN new_expense e")
+                + " SELECT expense_id FROM new_expense";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setBigDecimal(1, Money.toBigDecimal(expense.getAmountCents()));
+            statement.setString(2, expense.getDescription());
+            statement.setInt(3, expense.getPayerId());
+            statement.setDate(4, java.sql.Date.valueOf(expense.getDate()));
+            statement.setInt(5, expense.getGroupId());
+            statement.setArray(6, conn.createArrayOf("integer", debtors.toArray()));
+            statement.setArray(7, conn.createArrayOf("numeric", owed.toArray()));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1L;
+            }
+        }
+    }
+
+    // A further chunk of splits for an existing expense, with its ledger debits, rollups and pair debts, in one statement.
+    private void insertSplits(Connection conn, long expenseId, List<Integer> debtors, List<BigDecimal> owed)
+            throws SQLException {
+        String sql = "WITH new_splits AS ("
+                + " INSERT INTO public.expense_splits (expense_id, member_id, owed_amount)"
+                + " SELECT ?, m.member_id, m.owed_amount"
+                + " FROM unnest(?::int[], ?::numeric[]) AS m(member_id, owed_amount)"
+                + " RETURNING expense_id, member_id, owed_amount"
+                + ")" + ledger.movementsCte("SELECT member_id AS user_id, -owed_amount AS delta FROM new_splits")
+                // The expense was inserted by an earlier statement of this transaction, so it is visible here
+                + rollups.rollupCte("SELECT s.member_id AS user_id, e.expense_date AS day, 0 AS paid, s.owed_amount AS owed, 0 AS expenses"
+                        + " FROM new_splits s JOIN public.expenses e ON e.expense_id = s.expense_id")
+                + pairs.debtsCte("SELECT s.member_id AS debtor_id, e.payer_id AS creditor_id, s.owed_amount AS amount"
+                        + " FROM new_splits s JOIN public.expenses e ON e.expense_id = s.expense_id")
+                + " SELECT count(*) FROM new_splits";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, expenseId);
+            statement.setArray(2, conn.createArrayOf("integer", debtors.toArray()));
+            statement.setArray(3, conn.createArrayOf("numeric", owed.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next() || rs.getLong(1) != debtors.size()) {
+                    throw new SQLException("Expected " + debtors.size() + " split rows for expense ID " + expenseId);
+                }
+            }
+        }
+    }
+
+    private static void checkShares(List<Integer> memberIds, long[] shares) {
+        if (shares.length != memberIds.size()) {
+            throw new IllegalArgumentException("Expected one share per member: " + memberIds.size() + " members, " + shares.length + " shares.");
+        }
+    }
+
     /**
      * Records a payment between a payer (debtor) and a receiver (creditor).
-     * This is used to adjust the net balance calculation.
+     * This is used to adjust the net balance calculation; the ledger is updated in the same transaction.
+     * @return The generated settlement_id, or -1 if the insert returned none.
      */
-    public void recordSettlement(Connection conn, Settlement settlement) {
+    public long recordSettlement(Connection conn, Settlement settlement) {
         // NOTE: Your schema specifies group_id, which we simplify to 0 for this demo.
         String sql = "INSERT INTO public.settlements (group_id, payer_id, receiver_id, amount, settlement_date) VALUES (?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            statement.setInt(1, settlement.getGroupId());
-            statement.setInt(2, settlement.getPayerId());
-            statement.setInt(3, settlement.getReceiverId());
-            statement.setDouble(4, settlement.getAmount());
-            statement.setTimestamp(5, java.sql.Timestamp.valueOf(settlement.getSettlementDate()));
 
-            int rowsAffected = statement.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                try (ResultSet rs = statement.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        long settlementId = rs.getLong(1);
-                        System.out.printf("  [SETTLE] Settlement ID %d recorded: User %d paid User %d $%.2f.\n", 
-                                          settlementId, settlement.getPayerId(), settlement.getReceiverId(), settlement.getAmount());
+        try {
+            long settlementId = Transactions.inTransaction(conn, () -> {
+                try (PreparedStatement statement = conn.prepareStatement(sql, new String[] {"settlement_id"})) {
+
+                    statement.setInt(1, settlement.getGroupId());
+                    statement.setInt(2, settlement.getPayerId());
+                    statement.setInt(3, settlement.getReceiverId());
+                    statement.setBigDecimal(4, Money.toBigDecimal(settlement.getAmountCents()));
+                    statement.setTimestamp(5, java.sql.Timestamp.valueOf(settlement.getSettlementDate()));
+
+                    if (statement.executeUpdate() == 0) return -1L;
+
+                    try (ResultSet rs = statement.getGeneratedKeys()) {
+                        if (!rs.next()) return -1L;
+                        long id = rs.getLong(1);
+                        ledger.applySettlement(conn, id);
+                        pairs.applySettlements(conn, new long[] {id});
+                        return id;
                     }
                 }
+            });
+
+            if (settlementId > 0) {
+                System.out.printf("  [SETTLE] Settlement ID %d recorded: User %d paid User %d $%.2f.\n",
+                                  settlementId, settlement.getPayerId(), settlement.getReceiverId(), settlement.getAmount());
             }
+            return settlementId;
         } catch (SQLException e) {
              throw new DatabaseException("Failed to record settlement.", e);
         }
     }
 
+    // --- BULK OPERATIONS (import path) ---
+
+    /**
+     * Inserts many expenses and their equal splits with batched statements (splits flushed every
+     * SPLIT_CHUNK_SIZE rows, each flush followed by its ledger update), all in one transaction:
+     * if any row fails, nothing from the batch is kept.
+     * @param participants Members to split each expense with (same index as expenses; may be empty).
+     * @return The generated expense_ids, in input order.
+     */
+    public long[] addExpensesWithSplits(Connection conn, List<Expense> expenses, List<List<Integer>> participants) {
+        if (expenses.isEmpty()) return new long[0];
+        String expenseSql = "INSERT INTO public.expenses (amount, description, payer_id, expense_date, group_id) VALUES (?, ?, ?, ?, ?)";
+        String splitSql = "INSERT INTO public.expense_splits (expense_id, member_id, owed_amount) VALUES (?, ?, ?)";
+
+        try {
+            return Transactions.inTransaction(conn, () -> {
+                long[] expenseIds;
+                try (PreparedStatement statement = conn.prepareStatement(expenseSql, new String[] {"expense_id"})) {
+                    for (Expense expense : expenses) {
+                        statement.setBigDecimal(1, Money.toBigDecimal(expense.getAmountCents()));
+                        statement.setString(2, expense.getDescription());
+                        statement.setInt(3, expense.getPayerId());
+                        statement.setDate(4, java.sql.Date.valueOf(expense.getDate()));
+                        statement.setInt(5, expense.getGroupId());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    expenseIds = readGeneratedIds(statement, expenses.size());
+                }
+                if (expenseIds.length != expenses.size()) {
+                    throw new SQLException("Expected " + expenses.size() + " generated expense IDs, got " + expenseIds.length);
+                }
+                ledger.creditExpenses(conn, expenseIds);
+                rollups.recordExpenses(conn, expenseIds);
+
+                try (PreparedStatement statement = conn.prepareStatement(splitSql, new String[] {"split_id"})) {
+                    int recorded = 0;
+                    int batched = 0;
+                    for (int e = 0; e < expenses.size(); e++) {
+                        Expense expense = expenses.get(e);
+                        List<Integer> memberIds = participants.get(e);
+                        long[] shares = SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size());
+                        for (int i = 0; i < shares.length; i++) {
+                            if (memberIds.get(i) != expense.getPayerId()) {
+                                statement.setLong(1, expenseIds[e]);
+                                statement.setInt(2, memberIds.get(i));
+                                statement.setBigDecimal(3, Money.toBigDecimal(shares[i]));
+                                statement.addBatch();
+                                // Flush in chunks so a large import never holds one giant batch
+                                if (++batched == SPLIT_CHUNK_SIZE) {
+                                    statement.executeBatch();
+                                    long[] splitIds = readGeneratedIds(statement, batched);
+                                    ledger.debitSplits(conn, splitIds);
+                                    rollups.recordSplits(conn, splitIds);
+                                    pairs.recordSplits(conn, splitIds);
+                                    recorded += batched;
+                                    batched = 0;
+                                }
+                            }
+                        }
+                    }
+                    if (batched > 0) {
+                        statement.executeBatch();
+                        long[] splitIds = readGeneratedIds(statement, batched);
+                        ledger.debitSplits(conn, splitIds);
+                        rollups.recordSplits(conn, splitIds);
+                        pairs.recordSplits(conn, splitIds);
+                        recorded += batched;
+                    }
+                }
+                return expenseIds;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to add a batch of " + expenses.size() + " expenses.", e);
+        }
+    }
+
+    /**
+     * Inserts many settlements with one batched statement and one ledger update, in one transaction.
+     * @return The generated settlement_ids, in input order.
+     */
+    public long[] recordSettlements(Connection conn, List<Settlement> settlements) {
+        if (settlements.isEmpty()) return new long[0];
+        String sql = "INSERT INTO public.settlements (group_id, payer_id, receiver_id, amount, settlement_date) VALUES (?, ?, ?, ?, ?)";
+
+        try {
+            return Transactions.inTransaction(conn, () -> {
+                try (PreparedStatement statement = conn.prepareStatement(sql, new String[] {"settlement_id"})) {
+                    for (Settlement settlement : settlements) {
+                        statement.setInt(1, settlement.getGroupId());
+                        statement.setInt(2, settlement.getPayerId());
+                        statement.setInt(3, settlement.getReceiverId());
+                        statement.setBigDecimal(4, Money.toBigDecimal(settlement.getAmountCents()));
+                        statement.setTimestamp(5, java.sql.Timestamp.valueOf(settlement.getSettlementDate()));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    long[] settlementIds = readGeneratedIds(statement, settlements.size());
+                    ledger.applySettlements(conn, settlementIds);
+                    pairs.applySettlements(conn, settlementIds);
+                    return settlementIds;
+                }
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to record a batch of " + settlements.size() + " settlements.", e);
+        }
+    }
+
+    public BalanceLedger getLedger() { return ledger; }
+    public SpendingRollups getRollups() { return rollups; }
+    public PairDebtLedger getPairLedger() { return pairs; }
+
+    private static long[] readGeneratedIds(Statement statement, int expected) throws SQLException {
+        long[] ids = new long[expected];
+        int count = 0;
+        try (ResultSet rs = statement.getGeneratedKeys()) {
+            while (rs.next() && count < expected) {
+                ids[count++] = rs.getLong(1);
+            }
+        }
+        return count == expected ? ids : Arrays.copyOf(ids, count);
+    }
+
 
     // --- READ OPERATIONS ---
 
+    private static final String EXPENSE_COLUMNS = "SELECT expense_id, amount, description, payer_id, expense_date, group_id FROM public.expenses";
+    private static final String SETTLEMENT_COLUMNS = "SELECT settlement_id, group_id, payer_id, receiver_id, amount, settlement_date FROM public.settlements";
+
     /**
      * Retrieves all expense records.
      * @return A List of Expense objects.
      */
     public List<Expense> listAllExpenses(Connection conn) {
-        String sql = "SELECT expense_id, amount, description, payer_id, expense_date FROM public.expenses ORDER BY expense_id";
+        String sql = EXPENSE_COLUMNS + " ORDER BY expense_id";
         List<Expense> expenseList = new ArrayList<>();
         
         try (Statement statement = conn.createStatement();
              ResultSet resultSet = statement.executeQuery(sql)) {
             
             while (resultSet.next()) {
-                long id = resultSet.getLong("expense_id");
-                double amount = resultSet.getDouble("amount");
-                String description = resultSet.getString("description");
-                int payerId = resultSet.getInt("payer_id");
-                LocalDate date = resultSet.getDate("expense_date").toLocalDate(); 
-
-                Expense expense = new Expense(id, amount, description, payerId, date);
-                expenseList.add(expense);
+                expenseList.add(mapExpense(resultSet));
             }
         } catch (SQLException e) {
              throw new DatabaseException("Failed to list all expenses.", e);
         }
         return expenseList;
     }
+
+    /**
+     * True if an expense (as payer), split (as member) or settlement (as either party) names the
+     * user: the rows whose foreign keys reject deleting the user.
+     */
+    public boolean isUserReferenced(Connection conn, int userId) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM public.expenses WHERE payer_id = ?)"
+                + " OR EXISTS (SELECT 1 FROM public.expense_splits WHERE member_id = ?)"
+                + " OR EXISTS (SELECT 1 FROM public.settlements WHERE payer_id = ? OR receiver_id = ?)";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            for (int i = 1; i <= 4; i++) statement.setInt(i, userId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to check references to user with ID: " + userId, e);
+        }
+    }
+
+    /**
+     * Retrieves one page of expenses in expense_id order (keyset pagination).
+     * @param afterId Only expenses with a larger ID are returned; pass 0 for the first page.
+     * @param limit Maximum number of rows in the page.
+     * @return Up to 'limit' expenses; the last one's ID is the cursor for the next page.
+     */
+    public List<Expense> listExpensesPage(Connection conn, long afterId, int limit) {
+        String sql = EXPENSE_COLUMNS + " WHERE expense_id > ? ORDER BY expense_id LIMIT ?";
+        List<Expense> expenseList = new ArrayList<>(Math.min(limit, 1_000));
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, afterId);
+            statement.setInt(2, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    expenseList.add(mapExpense(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to list expenses after ID: " + afterId, e);
+        }
+        return expenseList;
+    }
+
+    /**
+     * Hands every expense to the consumer as rows arrive, in expense_id order.
+     * Rows are fetched in bounded chunks through a cursor, so memory use does not grow with the table.
+     */
+    public void streamExpenses(Connection conn, Consumer<Expense> consumer) {
+        String sql = EXPENSE_COLUMNS + " ORDER BY expense_id";
+
+        try {
+            withCursor(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.setFetchSize(STREAM_FETCH_SIZE);
+                    try (ResultSet resultSet = statement.executeQuery(sql)) {
+                        while (resultSet.next()) {
+                            consumer.accept(mapExpense(resultSet));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to stream expenses.", e);
+        }
+    }
     
     /**
      * Retrieves the individual debt records for a single expense.
      * @return A List of ExpenseSplit objects (debts).
      */
     public List<ExpenseSplit> listExpenseSplits(Connection conn, long expenseId) {
-        String sql = "SELECT split_id, expense_id, member_id, owed_amount FROM public.expense_splits WHERE expense_id = ?";
+        String sql = "SELECT split_id, expense_id, member_id, owed_amount FROM public.expense_splits WHERE expense_id = ? ORDER BY split_id";
         List<ExpenseSplit> splitList = new ArrayList<>();
 
         try (PreparedStatement statement = conn.prepareStatement(sql)) {
@@ -159,7 +553,7 @@ public class ExpenseRepository {
                 while (resultSet.next()) {
                     long splitId = resultSet.getLong("split_id");
                     int memberId = resultSet.getInt("member_id");
-                    double owedAmount = resultSet.getDouble("owed_amount");
+                    Money owedAmount = Money.of(resultSet.getBigDecimal("owed_amount"));
 
                     ExpenseSplit split = new ExpenseSplit(splitId, expenseId, memberId, owedAmount);
                     splitList.add(split);
@@ -176,27 +570,237 @@ public class ExpenseRepository {
      * @return A List of Settlement objects.
      */
     public List<Settlement> listAllSettlements(Connection conn) {
-        String sql = "SELECT settlement_id, group_id, payer_id, receiver_id, amount, settlement_date FROM public.settlements";
+        String sql = SETTLEMENT_COLUMNS + " ORDER BY settlement_id";
         List<Settlement> settlementList = new ArrayList<>();
 
         try (Statement statement = conn.createStatement();
              ResultSet resultSet = statement.executeQuery(sql)) {
 
             while (resultSet.next()) {
-                long id = resultSet.getLong("settlement_id");
-                int groupId = resultSet.getInt("group_id");
-                int payerId = resultSet.getInt("payer_id");
-                int receiverId = resultSet.getInt("receiver_id");
-                double amount = resultSet.getDouble("amount");
-                // Need to convert Timestamp (from SQL) to LocalDateTime (in Java model)
-                LocalDateTime date = resultSet.getTimestamp("settlement_date").toLocalDateTime();
-
-                Settlement settlement = new Settlement(id, groupId, payerId, receiverId, amount, date);
-                settlementList.add(settlement);
+                settlementList.add(mapSettlement(resultSet));
             }
         } catch (SQLException e) {
             throw new DatabaseException("Failed to list all settlements.", e);
         }
         return settlementList;
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves one page of settlements in settlement_id order (keyset pagination).
+     * @param afterId Only settlements with a larger ID are returned; pass 0 for the first page.
+     * @param limit Maximum number of rows in the page.
+     */
+    public List<Settlement> listSettlementsPage(Connection conn, long afterId, int limit) {
+        String sql = SETTLEMENT_COLUMNS + " WHERE settlement_id > ? ORDER BY settlement_id LIMIT ?";
+        List<Settlement> settlementList = new ArrayList<>(Math.min(limit, 1_000));
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setLong(1, afterId);
+            statement.setInt(2, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    settlementList.add(mapSettlement(resultSet));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to list settlements after ID: " + afterId, e);
+        }
+        return settlementList;
+    }
+
+    /**
+     * Hands every settlement to the consumer as rows arrive, in settlement_id order,
+     * fetching bounded chunks through a cursor.
+     */
+    public void streamSettlements(Connection conn, Consumer<Settlement> consumer) {
+        String sql = SETTLEMENT_COLUMNS + " ORDER BY settlement_id";
+
+        try {
+            withCursor(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.setFetchSize(STREAM_FETCH_SIZE);
+                    try (ResultSet resultSet = statement.executeQuery(sql)) {
+                        while (resultSet.next()) {
+                            consumer.accept(mapSettlement(resultSet));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to stream settlements.", e);
+        }
+    }
+
+    /**
+     * Streams every balance movement (payer credits, split debits and settlements) to the consumer
+     * using exactly two queries, regardless of how many expenses exist.
+     * Expenses are joined to their splits and read in expense_id order, so each payer credit is
+     * delivered immediately before the debits of its own splits, just like the per-expense reads.
+     * Amounts are delivered in cents.
+     * @param conn The active database connection.
+     * @param consumer Receives (userId, delta) for every row.
+     */
+    public void streamBalanceDeltas(Connection conn, BalanceDeltaConsumer consumer) {
+        String expenseSql = "SELECT e.expense_id, e.amount, e.payer_id, s.member_id, s.owed_amount "
+                + "FROM public.expenses e LEFT JOIN public.expense_splits s ON s.expense_id = e.expense_id "
+                + "ORDER BY e.expense_id, s.split_id";
+        String settlementSql = "SELECT payer_id, receiver_id, amount FROM public.settlements";
+
+        try {
+            withCursor(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.setFetchSize(BALANCE_FETCH_SIZE);
+
+                    try (ResultSet resultSet = statement.executeQuery(expenseSql)) {
+                        long currentExpenseId = -1;
+                        while (resultSet.next()) {
+                            long expenseId = resultSet.getLong("expense_id");
+                            if (expenseId != currentExpenseId) {
+                                currentExpenseId = expenseId;
+                                consumer.accept(resultSet.getInt("payer_id"), Money.toCents(resultSet.getBigDecimal("amount")));
+                            }
+
+                            int memberId = resultSet.getInt("member_id");
+                            if (!resultSet.wasNull()) { // LEFT JOIN: expenses without splits yield one NULL row
+                                consumer.accept(memberId, -Money.toCents(resultSet.getBigDecimal("owed_amount")));
+                            }
+                        }
+                    }
+
+                    try (ResultSet resultSet = statement.executeQuery(settlementSql)) {
+                        while (resultSet.next()) {
+                            long amount = Money.toCents(resultSet.getBigDecimal("amount"));
+                            consumer.accept(resultSet.getInt("payer_id"), amount);
+                            consumer.accept(resultSet.getInt("receiver_id"), -amount);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to stream balance data.", e);
+        }
+    }
+
+    /**
+     * Net balance per user within one group, in cents: the group's expenses credit their payers,
+     * their splits debit the members and the group's settlements move money from receiver to
+     * payer. Summed by the database in one query over the group_id indexes, so the cost follows
+     * the group's size rather than the whole history. Zero balances are omitted.
+     * @param groupId The group; 0 reads everything recorded outside a group.
+     */
+    public IntLongMap readGroupBalanceCents(Connection conn, int groupId) {
+        String sql = "SELECT user_id, SUM(delta) AS balance FROM ("
+                + "SELECT payer_id AS user_id, amount AS delta FROM public.expenses WHERE group_id = ?"
+                + " UNION ALL SELECT s.member_id, -s.owed_amount FROM public.expense_splits s"
+                + " JOIN public.expenses e ON e.expense_id = s.expense_id WHERE e.group_id = ?"
+                + " UNION ALL SELECT payer_id, amount FROM public.settlements WHERE group_id = ?"
+                + " UNION ALL SELECT receiver_id, -amount FROM public.settlements WHERE group_id = ?"
+                + ") m GROUP BY user_id HAVING SUM(delta) <> 0";
+        IntLongMap balances = new IntLongMap(64);
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            for (int i = 1; i <= 4; i++) {
+                statement.setInt(i, groupId);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.addTo(resultSet.getInt("user_id"), Money.toCents(resultSet.getBigDecimal("balance")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read balances for group ID: " + groupId, e);
+        }
+        return balances;
+    }
+
+    /**
+     * Schema changes the queries above depend on, run once before the first read or write (see
+     * JdbcStorageEngine): adds expenses.group_id and creates the balance ledger, the spending
+     * rollups and the pair debts. The connection must be in auto-commit mode, so each change is committed on its own
+     * and a later write that rolls back cannot undo it.
+     */
+    public void migrate(Connection conn) throws SQLException {
+        if (!conn.getAutoCommit()) {
+            throw new IllegalStateException("Schema migrations must run outside a transaction.");
+        }
+        ensureGroupColumn(conn);
+        if (ledger.isEnabled()) ledger.ensureSchema(conn);
+        if (rollups.isEnabled()) rollups.ensureSchema(conn);
+        if (pairs.isEnabled()) pairs.ensureSchema(conn);
+    }
+
+    /**
+     * Adds expenses.group_id (0 for existing rows, i.e. no group) with indexes on the group
+     * columns of expenses and settlements for the per-group balance reads. The flag is set only
+     * once every statement has committed.
+     */
+    private void ensureGroupColumn(Connection conn) throws SQLException {
+        if (groupColumnReady) return;
+
+        try (Statement statement = conn.createStatement()) {
+            boolean exists;
+            try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM information_schema.columns"
+                    + " WHERE lower(table_schema) = 'public' AND lower(table_name) = 'expenses'"
+                    + " AND lower(column_name) = 'group_id'")) {
+                exists = rs.next() && rs.getInt(1) > 0;
+            }
+
+            if (!exists) {
+                statement.executeUpdate("ALTER TABLE public.expenses ADD COLUMN IF NOT EXISTS group_id INT NOT NULL DEFAULT 0");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS expenses_group_idx ON public.expenses (group_id)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS settlements_group_idx ON public.settlements (group_id)");
+                LOGGER.info("Added expenses.group_id and the group indexes.");
+            }
+        }
+        groupColumnReady = true;
+    }
+
+    // --- ROW MAPPING ---
+
+    private static Expense mapExpense(ResultSet resultSet) throws SQLException {
+        long id = resultSet.getLong("expense_id");
+        Money amount = Money.of(resultSet.getBigDecimal("amount"));
+        String description = resultSet.getString("description");
+        int payerId = resultSet.getInt("payer_id");
+        LocalDate date = resultSet.getDate("expense_date").toLocalDate();
+        int groupId = resultSet.getInt("group_id");
+        return new Expense(id, amount, description, payerId, date, groupId);
+    }
+
+    private static Settlement mapSettlement(ResultSet resultSet) throws SQLException {
+        long id = resultSet.getLong("settlement_id");
+        int groupId = resultSet.getInt("group_id");
+        int payerId = resultSet.getInt("payer_id");
+        int receiverId = resultSet.getInt("receiver_id");
+        Money amount = Money.of(resultSet.getBigDecimal("amount"));
+        // Need to convert Timestamp (from SQL) to LocalDateTime (in Java model)
+        LocalDateTime date = resultSet.getTimestamp("settlement_date").toLocalDateTime();
+        return new Settlement(id, groupId, payerId, receiverId, amount, date);
+    }
+
+    /**
+     * Runs a read with cursor-based fetching enabled. The PostgreSQL driver only uses a cursor
+     * (and honours the fetch size) outside auto-commit, so auto-commit is switched off for the
+     * read and restored afterwards; a caller's own transaction is left alone.
+     */
+    static <T> T withCursor(Connection conn, Transactions.SqlWork<T> work) throws SQLException {
+        if (!conn.getAutoCommit()) {
+            return work.run();
+        }
+
+        conn.setAutoCommit(false);
+        try {
+            return work.run();
+        } finally {
+            try {
+                conn.rollback(); // read-only, nothing to keep
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOGGER.warning("Could not restore auto-commit after a streamed read: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.app;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Net balance per user within each group, in cents: one IntLongMap per group, found through a
+ * group id -> slot index, so adding a movement never boxes or allocates once both are known.
+ * Group 0 holds expenses and settlements that belong to no group.
+ * {@link #compute} rebuilds it from history columns on a fork-join pool, split by group: the
+ * groups are hashed into one partition per worker and each task scans the columns, summing only
+ * its own groups' rows into its own primitive table keyed by the packed (group, user) pair. Each
+ * table holds only its partition's keys (smaller, so more of it stays in cache), no accumulator is
+ * shared between threads and the partitions share no group, so merging just takes over their maps.
+ * Splitting by expense-id ranges instead would leave every task with nearly every key when groups
+ * are interleaved in time, and merging those tables costs as much as the sums.
+ * Not thread-safe.
+ */
+public final class GroupBalances {
+
+    // Histories smaller than this are summed by one task: another scan would cost more than it saves.
+    private static final long MIN_PARTITION_ROWS = 256 * 1024;
+
+    @FunctionalInterface
+    public interface GroupConsumer {
+        void accept(int groupId, IntLongMap balances);
+    }
+
+    /**
+     * The history to compute from, as parallel column arrays (row counts may be shorter than the
+     * arrays). splitExpense holds the split's expense row, i.e. an index into the expense columns.
+     */
+    public static final class Columns {
+        final int[] expenseGroup;
+        final int[] expensePayer;
+        final long[] expenseAmount;
+        final int expenseCount;
+        final int[] splitExpense;
+        final int[] splitMember;
+        final long[] splitOwed;
+        final int splitCount;
+        final int[] settlementGroup;
+        final int[] settlementPayer;
+        final int[] settlementReceiver;
+        final long[] settlementAmount;
+        final int settlementCount;
+
+        public Columns(int[] expenseGroup, int[] expensePayer, long[] expenseAmount, int expenseCount,
+                       int[] splitExpense, int[] splitMember, long[] splitOwed, int splitCount,
+                       int[] settlementGroup, int[] settlementPayer, int[] settlementReceiver,
+                       long[] settlementAmount, int settlementCount) {
+            this.expenseGroup = expenseGroup;
+            this.expensePayer = expensePayer;
+            this.expenseAmount = expenseAmount;
+            this.expenseCount = expenseCount;
+            this.splitExpense = splitExpense;
+            this.splitMember = splitMember;
+            this.splitOwed = splitOwed;
+            this.splitCount = splitCount;
+            this.settlementGroup = settlementGroup;
+            this.settlementPayer = settlementPayer;
+            this.settlementReceiver = settlementReceiver;
+            this.settlementAmount = settlementAmount;
+            this.settlementCount = settlementCount;
+        }
+
+        long rows() {
+            return (long) expenseCount + splitCount + settlementCount;
+        }
+    }
+
+    // group id -> slot + 1
+    private final IntLongMap slotByGroup;
+    private int[] groupIds;
+    private IntLongMap[] balances;
+    private int groupCount;
+
+    public GroupBalances() {
+        this(16);
+    }
+
+    public GroupBalances(int expectedGroups) {
+        int capacity = Math.max(4, expectedGroups);
+        slotByGroup = new IntLongMap(capacity);
+        groupIds = new int[capacity];
+        balances = new IntLongMap[capacity];
+    }
+
+    /**
+     * Adds cents to the user's balance in the group (negative = the user owes more).
+     */
+    public void add(int groupId, int userId, long cents) {
+        balancesOf(groupId).addTo(userId, cents);
+    }
+
+    /**
+     * The group's non-zero balances, as a copy the caller owns (empty for an unknown group).
+     */
+    public IntLongMap get(int groupId) {
+        long slot = slotByGroup.get(groupId);
+        return slot == 0 ? new IntLongMap() : balances[(int) slot - 1].withoutZeros();
+    }
+
+    /**
+     * Number of groups with at least one movement (including groups that have netted out).
+     */
+    public int groupCount() { return groupCount; }
+
+    /**
+     * Hands every group's balances (zeros included, not copied) to the consumer, in the order
+     * the groups first appeared.
+     */
+    public void forEachGroup(GroupConsumer consumer) {
+        for (int slot = 0; slot < groupCount; slot++) {
+            consumer.accept(groupIds[slot], balances[slot]);
+        }
+    }
+
+    public void addAll(GroupBalances other) {
+        other.forEachGroup((groupId, groupBalances) -> balancesOf(groupId).addAll(groupBalances));
+    }
+
+    // Like addAll, but takes over the other's maps for groups not present here (other is discarded)
+    private void absorb(GroupBalances other) {
+        other.forEachGroup((groupId, groupBalances) -> {
+            if (slotByGroup.get(groupId) == 0) {
+                insert(groupId, groupBalances);
+            } else {
+                balancesOf(groupId).addAll(groupBalances);
+            }
+        });
+    }
+
+    /**
+     * Sum of every group, i.e. the global balance per user.
+     */
+    public IntLongMap total() {
+        IntLongMap total = new IntLongMap(256);
+        forEachGroup((groupId, groupBalances) -> total.addAll(groupBalances));
+        return total;
+    }
+
+    /**
+     * Balances per group summed from the columns on the pool: payers are credited, split members
+     * debited (in their expense's group) and settlements move the amount from receiver to payer.
+     * The result is the same for any parallelism, since cents add exactly in any order.
+     */
+    public static GroupBalances compute(Columns columns, ForkJoinPool pool) {
+        int partitions = (int) Math.max(1, Math.min(pool.getParallelism(), columns.rows() / MIN_PARTITION_ROWS));
+        return pool.invoke(new PartitionTask(columns, 0, partitions, partitions));
+    }
+
+    private IntLongMap balancesOf(int groupId) {
+        long slot = slotByGroup.get(groupId);
+        if (slot != 0) return balances[(int) slot - 1];
+        IntLongMap created = new IntLongMap();
+        insert(groupId, created);
+        return created;
+    }
+
+    private void insert(int groupId, IntLongMap groupBalances) {
+        if (groupCount == groupIds.length) {
+            groupIds = Arrays.copyOf(groupIds, groupCount * 2);
+            balances = Arrays.copyOf(balances, groupCount * 2);
+        }
+        groupIds[groupCount] = groupId;
+        balances[groupCount] = groupBalances;
+        slotByGroup.put(groupId, ++groupCount);
+    }
+
+    // A hash of the group scaled to [0, partitions) by a multiply instead of a division (every row pays it)
+    private static int partitionOf(int groupId, int partitions) {
+        return (int) (((groupId * 0x9E3779B9) >>> 1) * (long) partitions >>> 31);
+    }
+
+    /**
+     * Group partitions [from, to) of the given number: split in halves down to one partition,
+     * which scans the columns for rows of its own groups.
+     */
+    private static final class PartitionTask extends RecursiveTask<GroupBalances> {
+        private final Columns columns;
+        private final int from;
+        private final int to;
+        private final int partitions;
+
+        PartitionTask(Columns columns, int from, int to, int partitions) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+            this.partitions = partitions;
+        }
+
+        @Override
+        protected GroupBalances compute() {
+            if (to - from == 1) return sum(from);
+            int middle = (from + to) >>> 1;
+            PartitionTask right = new PartitionTask(columns, middle, to, partitions);
+            right.fork();
+            GroupBalances left = new PartitionTask(columns, from, middle, partitions).compute();
+            left.absorb(right.join());
+            return left;
+        }
+
+        private GroupBalances sum(int partition) {
+            Columns c = columns;
+            int n = partitions;
+            PackedSums sums = new PackedSums((int) Math.min(1 << 20, c.rows() / n / 16));
+            for (int row = 0; row < c.expenseCount; row++) {
+                int groupId = c.expenseGroup[row];
+                if (n == 1 || partitionOf(groupId, n) == partition) {
+                    sums.addTo(pack(groupId, c.expensePayer[row]), c.expenseAmount[row]);
+                }
+            }
+            for (int split = 0; split < c.splitCount; split++) {
+                int groupId = c.expenseGroup[c.splitExpense[split]];
+                if (n == 1 || partitionOf(groupId, n) == partition) {
+                    sums.addTo(pack(groupId, c.splitMember[split]), -c.splitOwed[split]);
+                }
+            }
+            for (int row = 0; row < c.settlementCount; row++) {
+                int groupId = c.settlementGroup[row];
+                if (n == 1 || partitionOf(groupId, n) == partition) {
+                    sums.addTo(pack(groupId, c.settlementPayer[row]), c.settlementAmount[row]);
+                    sums.addTo(pack(groupId, c.settlementReceiver[row]), -c.settlementAmount[row]);
+                }
+            }
+            return sums.toGroupBalances();
+        }
+    }
+
+    private static long pack(int groupId, int userId) {
+        return ((long) groupId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A partition's sums: cents per packed (group, user) key in one open-addressing table
+     * (linear probing, no boxing), so each row costs one probe however many groups there are.
+     */
+    private static final class PackedSums {
+        private static final long FREE = 0; // group 0, user 0; stored out of line
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+        private boolean hasFreeKey;
+        private long freeValue;
+
+        PackedSums(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            keys = new long[capacity];
+            values = new long[capacity];
+        }
+
+        void addTo(long key, long delta) {
+            if (key == FREE) {
+                hasFreeKey = true;
+                freeValue += delta;
+                return;
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != FREE) {
+                if (keys[slot] == key) {
+                    values[slot] += delta;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = delta;
+            if (++size * 2 > keys.length) rehash(keys.length * 2);
+        }
+
+        GroupBalances toGroupBalances() {
+            GroupBalances result = new GroupBalances(256);
+            if (hasFreeKey) result.add(0, 0, freeValue);
+            for (int slot = 0; slot < keys.length; slot++) {
+                long key = keys[slot];
+                if (key != FREE) result.add((int) (key >> 32), (int) key, values[slot]);
+            }
+            return result;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[capacity];
+            values = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == FREE) continue;
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != FREE) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,824 @@
+package com.app;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * StorageEngine that keeps everything in process memory, for low-latency test fixtures and
+ * edge deployments without a database. Nothing is persisted.
+ * - Expenses, splits and settlements are stored column-wise in primitive arrays (amounts in
+ *   cents, dates as epoch days / microseconds), row N holding id N + 1.
+ * - Splits are chained per expense (first and last split per expense row, next split per split
+ *   row), so an insert never allocates. A per-user count of the rows that reference the user
+ *   stands in for the foreign keys when a user is deleted.
+ * - Balances, per-group balances (GroupBalances), pair debts (PairDebts) and daily spending
+ *   buckets (SpendingBuckets) are maintained on every write, like the JDBC balance ledger and
+ *   spending rollups. Recomputing balances from the columns runs on the common fork-join pool.
+ * - One read/write lock guards all of it. Streams copy rows out in bounded batches, so a slow
+ *   consumer never holds the lock.
+ * Foreign keys are enforced (payers, members and receivers must be registered users) and a
+ * rejected write leaves nothing behind. clearAll restarts ids, like RESTART IDENTITY.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_ROWS = 1_024;
+    // Rows copied out per lock acquisition by the streaming reads.
+    private static final int STREAM_BATCH_SIZE = 1_000;
+
+    private static final OperationTimer ADD_EXPENSE = MetricsRegistry.query("InMemoryStorageEngine.addExpense");
+    private static final OperationTimer SPLIT_EXPENSE = MetricsRegistry.query("InMemoryStorageEngine.splitExpenseAndRecordDebts");
+    private static final OperationTimer CREATE_EXPENSE_WITH_SPLITS = MetricsRegistry.query("InMemoryStorageEngine.createExpenseWithSplits");
+    private static final OperationTimer RECORD_SETTLEMENT = MetricsRegistry.query("InMemoryStorageEngine.recordSettlement");
+    private static final OperationTimer IMPORT_BATCH = MetricsRegistry.query("InMemoryStorageEngine.importBatch");
+    private static final OperationTimer LIST_EXPENSES = MetricsRegistry.query("InMemoryStorageEngine.listExpenses");
+    private static final OperationTimer LIST_SETTLEMENTS = MetricsRegistry.query("InMemoryStorageEngine.listSettlements");
+    private static final OperationTimer STREAM_BALANCE_DELTAS = MetricsRegistry.query("InMemoryStorageEngine.streamBalanceDeltas");
+    private static final OperationTimer READ_BALANCES = MetricsRegistry.query("InMemoryStorageEngine.readBalanceCents");
+    private static final OperationTimer READ_BALANCES_AS_OF = MetricsRegistry.query("InMemoryStorageEngine.readBalanceCentsAsOf");
+    private static final OperationTimer READ_GROUP_BALANCES = MetricsRegistry.query("InMemoryStorageEngine.readGroupBalanceCents");
+    private static final OperationTimer READ_PAIR_DEBTS = MetricsRegistry.query("InMemoryStorageEngine.readPairDebts");
+    private static final OperationTimer READ_SPENDING = MetricsRegistry.query("InMemoryStorageEngine.readSpendingReport");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // --- users (row = user_id - 1, null once deleted) ---
+    private User[] users = new User[64];
+    private int userCount;
+    private final Map<String, Integer> idByUsername = new HashMap<>();
+    private final Map<String, Integer> idByEmail = new HashMap<>();
+    private int groupCount;
+
+    // --- expense columns ---
+    private long[] expenseAmount = new long[INITIAL_ROWS];
+    private int[] expensePayer = new int[INITIAL_ROWS];
+    private int[] expenseDay = new int[INITIAL_ROWS]; // LocalDate.toEpochDay()
+    private int[] expenseGroup = new int[INITIAL_ROWS];
+    private String[] expenseDescription = new String[INITIAL_ROWS];
+    private int[] expenseFirstSplit = new int[INITIAL_ROWS];
+    private int[] expenseLastSplit = new int[INITIAL_ROWS];
+    private int expenseCount;
+
+    // --- split columns ---
+    private int[] splitExpense = new int[INITIAL_ROWS]; // expense row
+    private int[] splitMember = new int[INITIAL_ROWS];
+    private long[] splitOwed = new long[INITIAL_ROWS];
+    private int[] splitNextOfExpense = new int[INITIAL_ROWS];
+    private int splitCount;
+
+    // --- settlement columns ---
+    private int[] settlementGroup = new int[INITIAL_ROWS];
+    private int[] settlementPayer = new int[INITIAL_ROWS];
+    private int[] settlementReceiver = new int[INITIAL_ROWS];
+    private long[] settlementAmount = new long[INITIAL_ROWS];
+    private long[] settlementMicros = new long[INITIAL_ROWS]; // UTC epoch microseconds, like timestamp
+    private int settlementCount;
+
+    // --- per-user state (row = user_id) ---
+    private int[] historyRefs = new int[64]; // expenses, splits and settlements naming the user
+    private IntLongMap balances = new IntLongMap(256);
+    private GroupBalances groupBalances = new GroupBalances();
+    private PairDebts pairs = new PairDebts(256);
+    private SpendingBuckets spending = new SpendingBuckets();
+
+    // Bumped by clearAll so an interrupted stream does not resume into new data.
+    private long clearCount;
+
+    // Off while EventLogStorageEngine replays its log, which would print every historic write.
+    private volatile boolean consoleOutput = true;
+    // Null inside EventLogStorageEngine, which publishes once a write is durable instead.
+    private volatile ChangeFeed feed = ChangeFeed.get();
+
+    @Override
+    public String getName() { return MEMORY; }
+
+    void setConsoleOutput(boolean enabled) {
+        this.consoleOutput = enabled;
+    }
+
+    void setChangeFeed(ChangeFeed feed) {
+        this.feed = feed;
+    }
+
+    // --- USERS ---
+
+    @Override
+    public void registerNewUser(User user) {
+        write(() -> {
+            if (idByUsername.containsKey(user.getUsername())
+                    || (user.getEmail() != null && idByEmail.containsKey(user.getEmail()))) {
+                warn("  [ERROR] User registration failed: Username or email '%s' already exists.\n", user.getUsername());
+                return null;
+            }
+            int userId = ++userCount;
+            ensureUserCapacity(userId);
+            users[userId - 1] = new User(userId, user.getUsername(), user.getEmail(), user.getPasswordHash(), user.getFullName());
+            idByUsername.put(user.getUsername(), userId);
+            if (user.getEmail() != null) idByEmail.put(user.getEmail(), userId);
+            info("  [CREATE] Successfully registered user '%s' with ID: %d.\n", user.getUsername(), userId);
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> listAllUsers() {
+        return read(() -> {
+            List<User> userList = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                if (users[i] != null) userList.add(users[i]);
+            }
+            return userList;
+        });
+    }
+
+    @Override
+    public List<User> listUserDirectory() {
+        return read(() -> {
+            List<User> userList = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                if (users[i] != null) userList.add(directoryUser(users[i]));
+            }
+            return userList;
+        });
+    }
+
+    @Override
+    public User findUserById(int userId) {
+        return read(() -> userExists(userId) ? directoryUser(users[userId - 1]) : null);
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        return read(() -> {
+            Integer userId = idByUsername.get(username);
+            return userId == null ? null : directoryUser(users[userId - 1]);
+        });
+    }
+
+    @Override
+    public void updateUser(User user) {
+        write(() -> {
+            Integer userId = idByUsername.get(user.getUsername());
+            if (userId == null) {
+                warn("  [WARNING] Could not find user to update: '%s'.\n", user.getUsername());
+                return null;
+            }
+            Integer emailOwner = user.getEmail() == null ? null : idByEmail.get(user.getEmail());
+            if (emailOwner != null && !emailOwner.equals(userId)) {
+                throw new DatabaseException("Failed to update user: " + user.getUsername() + " (email already in use)");
+            }
+            User previous = users[userId - 1];
+            if (previous.getEmail() != null) idByEmail.remove(previous.getEmail());
+            if (user.getEmail() != null) idByEmail.put(user.getEmail(), userId);
+            users[userId - 1] = new User(userId, previous.getUsername(), user.getEmail(), previous.getPasswordHash(), user.getFullName());
+            info("  [UPDATE] Successfully updated user details for '%s'.\n", user.getUsername());
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        write(() -> {
+            Integer userId = idByUsername.get(username);
+            if (userId == null) {
+                warn("  [WARNING] Could not find user to delete: '%s'.\n", username);
+                return null;
+            }
+            removeUser(userId);
+            info("  [DELETE] Successfully deleted user: '%s'.\n", username);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean deleteUserById(int userId) {
+        return write(() -> {
+            if (!userExists(userId)) {
+                warn("  [WARNING] Could not find user to delete with ID: %d.\n", userId);
+                return false;
+            }
+            removeUser(userId);
+            info("  [DELETE] Successfully deleted user with ID: %d.\n", userId);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean isUserReferenced(int userId) {
+        return read(() -> userExists(userId) && historyRefs[userId] > 0);
+    }
+
+    @Override
+    public void restoreUser(User user) {
+        write(() -> {
+            int userId = user.getUserId();
+            if (userId < 1 || userId > userCount || users[userId - 1] != null
+                    || idByUsername.containsKey(user.getUsername())
+                    || (user.getEmail() != null && idByEmail.containsKey(user.getEmail()))) {
+                throw new DatabaseException("Failed to restore user: " + user.getUsername() + " (ID " + userId + ", username or email is taken)");
+            }
+            users[userId - 1] = user;
+            idByUsername.put(user.getUsername(), userId);
+            if (user.getEmail() != null) idByEmail.put(user.getEmail(), userId);
+            info("  [CREATE] Restored user '%s' with ID: %d.\n", user.getUsername(), userId);
+            return null;
+        });
+    }
+
+    @Override
+    public long createGroup(String groupName, int creatorId) {
+        return write(() -> {
+            requireUser(creatorId, "creator_id");
+            long groupId = ++groupCount;
+            info("  [CREATE] Successfully created group '%s' with ID: %d.\n", groupName, groupId);
+            return groupId;
+        });
+    }
+
+    // --- EXPENSES AND SETTLEMENTS ---
+
+    @Override
+    public long addExpense(Expense expense) {
+        long expenseId = ADD_EXPENSE.time(() -> write(() -> {
+            requireUser(expense.getPayerId(), "payer_id");
+            long id = appendExpense(expense) + 1;
+            ADD_EXPENSE.rows(1);
+            info("  [CREATE] Successfully added expense (ID: %d) of $%.2f paid by User ID: %d.\n",
+                              id, expense.getAmount(), expense.getPayerId());
+            return id;
+        }));
+        ChangeFeed f = feed;
+        if (f != null) f.expenseRecorded(expenseId, expense, List.of(), new long[0]);
+        return expenseId;
+    }
+
+    @Override
+    public void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds, long[] shares) {
+        checkShares(memberIds, shares);
+        SPLIT_EXPENSE.run(() -> write(() -> {
+            if (shares.length == 0) return null;
+            long expenseId = expense.getExpenseId();
+            if (expenseId < 1 || expenseId > expenseCount) {
+                throw new DatabaseException("Failed to record debts: no expense with ID " + expenseId);
+            }
+            for (int memberId : memberIds) requireUser(memberId, "member_id");
+
+            int recorded = appendSplits((int) expenseId - 1, expense.getPayerId(), memberIds, shares);
+            SPLIT_EXPENSE.rows(recorded);
+            info("  [SPLIT] Recorded %d debt records for Expense ID: %d.\n", recorded, expenseId);
+            return null;
+        }));
+        ChangeFeed f = feed;
+        if (f != null) f.splitsRecorded(expense, memberIds, shares);
+    }
+
+    @Override
+    public long createExpenseWithSplits(Expense expense, List<Integer> memberIds, long[] shares) {
+        checkShares(memberIds, shares);
+        long expenseId = CREATE_EXPENSE_WITH_SPLITS.time(() -> write(() -> {
+            requireUser(expense.getPayerId(), "payer_id");
+            for (int memberId : memberIds) requireUser(memberId, "member_id");
+
+            int row = appendExpense(expense);
+            int recorded = appendSplits(row, expense.getPayerId(), memberIds, shares);
+            CREATE_EXPENSE_WITH_SPLITS.rows(1 + recorded);
+            info("  [CREATE] Added expense (ID: %d) of $%s paid by User ID: %d with %d debt records.\n",
+                              row + 1, Money.ofCents(expense.getAmountCents()), expense.getPayerId(), recorded);
+            return (long) row + 1;
+        }));
+        ChangeFeed f = feed;
+        if (f != null) f.expenseRecorded(expenseId, expense, memberIds, shares);
+        return expenseId;
+    }
+
+    @Override
+    public long recordSettlement(Settlement settlement) {
+        long settlementId = RECORD_SETTLEMENT.time(() -> write(() -> {
+            requireSettlementUsers(settlement);
+            long id = appendSettlement(settlement) + 1;
+            RECORD_SETTLEMENT.rows(1);
+            info("  [SETTLE] Settlement ID %d recorded: User %d paid User %d $%.2f.\n",
+                              id, settlement.getPayerId(), settlement.getReceiverId(), settlement.getAmount());
+            return id;
+        }));
+        ChangeFeed f = feed;
+        if (f != null) f.settlementRecorded(settlementId, settlement);
+        return settlementId;
+    }
+
+    @Override
+    public void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements) {
+        if (expenses.size() != participants.size()) {
+            throw new IllegalArgumentException("Expected one participant list per expense.");
+        }
+        IMPORT_BATCH.run(() -> write(() -> {
+            // Check every row before writing any, so a rejected batch leaves nothing behind
+            for (int i = 0; i < expenses.size(); i++) {
+                requireUser(expenses.get(i).getPayerId(), "payer_id");
+                for (int memberId : participants.get(i)) requireUser(memberId, "member_id");
+            }
+            for (Settlement settlement : settlements) requireSettlementUsers(settlement);
+
+            long rows = 0;
+            for (int i = 0; i < expenses.size(); i++) {
+                Expense expense = expenses.get(i);
+                int row = appendExpense(expense);
+                List<Integer> memberIds = participants.get(i);
+                rows += 1 + appendSplits(row, expense.getPayerId(), memberIds,
+                        SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+            }
+            for (Settlement settlement : settlements) {
+                appendSettlement(settlement);
+            }
+            IMPORT_BATCH.rows(rows + settlements.size());
+            return null;
+        }));
+        ChangeFeed f = feed;
+        if (f != null) f.refresh("import");
+    }
+
+    @Override
+    public List<Expense> listAllExpenses() {
+        return LIST_EXPENSES.time(() -> read(() -> {
+            List<Expense> expenseList = expenseRows(0, expenseCount);
+            LIST_EXPENSES.rows(expenseList.size());
+            return expenseList;
+        }));
+    }
+
+    @Override
+    public List<Expense> listExpensesPage(long afterId, int limit) {
+        return LIST_EXPENSES.time(() -> read(() -> {
+            int from = (int) Math.max(0, Math.min(afterId, expenseCount));
+            List<Expense> expenseList = expenseRows(from, Math.min(expenseCount, from + Math.max(0, limit)));
+            LIST_EXPENSES.rows(expenseList.size());
+            return expenseList;
+        }));
+    }
+
+    @Override
+    public void streamExpenses(Consumer<Expense> consumer) {
+        streamInBatches(from -> expenseRows(from, Math.min(expenseCount, from + STREAM_BATCH_SIZE)), consumer);
+    }
+
+    @Override
+    public List<ExpenseSplit> listExpenseSplits(long expenseId) {
+        return read(() -> {
+            List<ExpenseSplit> splitList = new ArrayList<>();
+            if (expenseId < 1 || expenseId > expenseCount) return splitList;
+            for (int split = expenseFirstSplit[(int) expenseId - 1]; split != NONE; split = splitNextOfExpense[split]) {
+                splitList.add(new ExpenseSplit(split + 1, expenseId, splitMember[split], Money.ofCents(splitOwed[split])));
+            }
+            return splitList;
+        });
+    }
+
+    @Override
+    public List<Settlement> listAllSettlements() {
+        return LIST_SETTLEMENTS.time(() -> read(() -> {
+            List<Settlement> settlementList = settlementRows(0, settlementCount);
+            LIST_SETTLEMENTS.rows(settlementList.size());
+            return settlementList;
+        }));
+    }
+
+    @Override
+    public List<Settlement> listSettlementsPage(long afterId, int limit) {
+        return LIST_SETTLEMENTS.time(() -> read(() -> {
+            int from = (int) Math.max(0, Math.min(afterId, settlementCount));
+            List<Settlement> settlementList = settlementRows(from, Math.min(settlementCount, from + Math.max(0, limit)));
+            LIST_SETTLEMENTS.rows(settlementList.size());
+            return settlementList;
+        }));
+    }
+
+    @Override
+    public void streamSettlements(Consumer<Settlement> consumer) {
+        streamInBatches(from -> settlementRows(from, Math.min(settlementCount, from + STREAM_BATCH_SIZE)), consumer);
+    }
+
+    // Movements are summed per user under the read lock and delivered as one delta per user.
+    @Override
+    public void streamBalanceDeltas(ExpenseRepository.BalanceDeltaConsumer consumer) {
+        STREAM_BALANCE_DELTAS.run(() -> {
+            IntLongMap deltas = read(this::recompute);
+            STREAM_BALANCE_DELTAS.rows(deltas.size());
+            deltas.forEach(consumer::accept);
+        });
+    }
+
+    // --- BALANCES ---
+
+    @Override
+    public IntLongMap readBalanceCents() {
+        return READ_BALANCES.time(() -> read(() -> {
+            IntLongMap nonZero = balances.withoutZeros();
+            READ_BALANCES.rows(nonZero.size());
+            return nonZero;
+        }));
+    }
+
+    // A scan over the columns: cheap in memory, so no snapshots are kept here.
+    @Override
+    public IntLongMap readBalanceCentsAsOf(LocalDate date) {
+        long lastDay = date.toEpochDay();
+        long endMicros = date.plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC) * 1_000_000L;
+        return READ_BALANCES_AS_OF.time(() -> read(() -> {
+            IntLongMap result = new IntLongMap(Math.max(16, balances.size()));
+            for (int row = 0; row < expenseCount; row++) {
+                if (expenseDay[row] <= lastDay) result.addTo(expensePayer[row], expenseAmount[row]);
+            }
+            for (int split = 0; split < splitCount; split++) {
+                if (expenseDay[splitExpense[split]] <= lastDay) result.addTo(splitMember[split], -splitOwed[split]);
+            }
+            for (int row = 0; row < settlementCount; row++) {
+                if (settlementMicros[row] < endMicros) {
+                    result.addTo(settlementPayer[row], settlementAmount[row]);
+                    result.addTo(settlementReceiver[row], -settlementAmount[row]);
+                }
+            }
+            READ_BALANCES_AS_OF.rows(expenseCount + splitCount + settlementCount);
+            return result.withoutZeros();
+        }));
+    }
+
+    @Override
+    public IntLongMap readGroupBalanceCents(int groupId) {
+        return READ_GROUP_BALANCES.time(() -> read(() -> {
+            IntLongMap nonZero = groupBalances.get(groupId);
+            READ_GROUP_BALANCES.rows(nonZero.size());
+            return nonZero;
+        }));
+    }
+
+    @Override
+    public PairDebts readPairDebts() {
+        return READ_PAIR_DEBTS.time(() -> read(() -> {
+            READ_PAIR_DEBTS.rows(pairs.size());
+            return pairs.copy();
+        }));
+    }
+
+    @Override
+    public PairDebts readPairDebts(int userId) {
+        return READ_PAIR_DEBTS.time(() -> read(() -> {
+            PairDebts result = new PairDebts();
+            pairs.forEachOf(userId, result::add);
+            READ_PAIR_DEBTS.rows(result.size());
+            return result;
+        }));
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> verifyBalances() {
+        return read(() -> findDrift(recompute()));
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> rebuildBalances() {
+        List<BalanceLedger.Drift> drift = write(() -> {
+            GroupBalances recomputedGroups = recomputeGroups();
+            IntLongMap recomputed = recomputedGroups.total();
+            List<BalanceLedger.Drift> found = findDrift(recomputed);
+            balances = recomputed;
+            groupBalances = recomputedGroups;
+            pairs = recomputePairs();
+            info("  [LEDGER] Rebuilt balance ledger; corrected %d drifted balances.\n", found.size());
+            return found;
+        });
+        ChangeFeed f = feed;
+        if (f != null && !drift.isEmpty()) f.refresh("rebuild");
+        return drift;
+    }
+
+    // --- REPORTS ---
+
+    @Override
+    public SpendingReport readSpendingReport(SpendingReport.Request request) {
+        return READ_SPENDING.time(() -> read(() -> {
+            List<SpendingReport.Bucket> buckets = spending.report(request);
+            READ_SPENDING.rows(buckets.size());
+            return new SpendingReport(request, buckets);
+        }));
+    }
+
+    @Override
+    public int rebuildSpendingRollups() {
+        return write(() -> {
+            SpendingBuckets rebuilt = new SpendingBuckets();
+            for (int row = 0; row < expenseCount; row++) {
+                rebuilt.add(expensePayer[row], expenseDay[row], expenseAmount[row], 0, 1);
+            }
+            for (int split = 0; split < splitCount; split++) {
+                rebuilt.add(splitMember[split], expenseDay[splitExpense[split]], 0, splitOwed[split], 0);
+            }
+            spending = rebuilt;
+            info("  [ROLLUP] Rebuilt spending rollups: %d user-days.\n", rebuilt.size());
+            return rebuilt.size();
+        });
+    }
+
+    // --- ADMIN ---
+
+    @Override
+    public void clearAll() {
+        write(() -> {
+            users = new User[64];
+            userCount = 0;
+            idByUsername.clear();
+            idByEmail.clear();
+            groupCount = 0;
+            Arrays.fill(expenseDescription, 0, expenseCount, null); // let the strings go
+            expenseCount = 0;
+            splitCount = 0;
+            settlementCount = 0;
+            historyRefs = new int[64];
+            balances = new IntLongMap(256);
+            groupBalances = new GroupBalances();
+            pairs = new PairDebts(256);
+            spending = new SpendingBuckets();
+            clearCount++;
+            return null;
+        });
+        ChangeFeed f = feed;
+        if (f != null) f.refresh("reset");
+    }
+
+    @Override
+    public UserCache.Stats getUserCacheStats() {
+        return null; // users already live in memory
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; the data goes with the process.
+    }
+
+    // --- WRITE HELPERS (caller holds the write lock and has validated the row) ---
+
+    private int appendExpense(Expense expense) {
+        int row = expenseCount;
+        if (row == expenseAmount.length) growExpenses(row * 2);
+        int payerId = expense.getPayerId();
+        expenseAmount[row] = expense.getAmountCents();
+        expensePayer[row] = payerId;
+        expenseDay[row] = Math.toIntExact(expense.getDate().toEpochDay());
+        expenseGroup[row] = expense.getGroupId();
+        expenseDescription[row] = expense.getDescription();
+        expenseFirstSplit[row] = NONE;
+        expenseLastSplit[row] = NONE;
+        historyRefs[payerId]++;
+        expenseCount = row + 1;
+        balances.addTo(payerId, expense.getAmountCents());
+        groupBalances.add(expense.getGroupId(), payerId, expense.getAmountCents());
+        spending.add(payerId, expenseDay[row], expense.getAmountCents(), 0, 1);
+        return row;
+    }
+
+    // Same rules as ExpenseRepository: shares[i] for memberIds.get(i), the payer's own share is not recorded.
+    private int appendSplits(int expenseRow, int payerId, List<Integer> memberIds, long[] shares) {
+        // Grow once up front, so a huge group costs at most one copy of the split columns
+        if (splitCount + shares.length > splitMember.length) {
+            growSplits(Math.max(splitMember.length * 2, splitCount + shares.length));
+        }
+        int recorded = 0;
+        for (int i = 0; i < shares.length; i++) {
+            int memberId = memberIds.get(i);
+            if (memberId == payerId) continue;
+
+            int split = splitCount;
+            splitExpense[split] = expenseRow;
+            splitMember[split] = memberId;
+            splitOwed[split] = shares[i];
+            splitNextOfExpense[split] = NONE;
+            if (expenseLastSplit[expenseRow] == NONE) {
+                expenseFirstSplit[expenseRow] = split;
+            } else {
+                splitNextOfExpense[expenseLastSplit[expenseRow]] = split;
+            }
+            expenseLastSplit[expenseRow] = split;
+            historyRefs[memberId]++;
+            splitCount = split + 1;
+            balances.addTo(memberId, -shares[i]);
+            groupBalances.add(expenseGroup[expenseRow], memberId, -shares[i]);
+            pairs.add(memberId, payerId, shares[i]);
+            spending.add(memberId, expenseDay[expenseRow], 0, shares[i], 0);
+            recorded++;
+        }
+        return recorded;
+    }
+
+    private static void checkShares(List<Integer> memberIds, long[] shares) {
+        if (shares.length != memberIds.size()) {
+            throw new IllegalArgumentException("Expected one share per member: " + memberIds.size() + " members, " + shares.length + " shares.");
+        }
+    }
+
+    private int appendSettlement(Settlement settlement) {
+        int row = settlementCount;
+        if (row == settlementAmount.length) growSettlements(row * 2);
+        LocalDateTime date = settlement.getSettlementDate();
+        settlementGroup[row] = settlement.getGroupId();
+        settlementPayer[row] = settlement.getPayerId();
+        settlementReceiver[row] = settlement.getReceiverId();
+        settlementAmount[row] = settlement.getAmountCents();
+        settlementMicros[row] = date.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + date.getNano() / 1_000;
+        historyRefs[settlement.getPayerId()]++;
+        historyRefs[settlement.getReceiverId()]++;
+        settlementCount = row + 1;
+        balances.addTo(settlement.getPayerId(), settlement.getAmountCents());
+        balances.addTo(settlement.getReceiverId(), -settlement.getAmountCents());
+        groupBalances.add(settlement.getGroupId(), settlement.getPayerId(), settlement.getAmountCents());
+        groupBalances.add(settlement.getGroupId(), settlement.getReceiverId(), -settlement.getAmountCents());
+        pairs.add(settlement.getPayerId(), settlement.getReceiverId(), -settlement.getAmountCents()); // paying off reduces the payer's debt
+        return row;
+    }
+
+    // Like the foreign keys in the database: a user still referenced by history cannot be deleted.
+    private void removeUser(int userId) {
+        if (historyRefs[userId] > 0) {
+            throw new DatabaseException("Failed to delete user with ID: " + userId + " (still referenced by expenses or settlements)");
+        }
+        User removed = users[userId - 1];
+        users[userId - 1] = null;
+        idByUsername.remove(removed.getUsername());
+        if (removed.getEmail() != null) idByEmail.remove(removed.getEmail());
+    }
+
+    private boolean userExists(int userId) {
+        return userId >= 1 && userId <= userCount && users[userId - 1] != null;
+    }
+
+    private void requireUser(int userId, String column) {
+        if (!userExists(userId)) {
+            throw new DatabaseException("No user with ID " + userId + " for " + column + ".");
+        }
+    }
+
+    private void requireSettlementUsers(Settlement settlement) {
+        requireUser(settlement.getPayerId(), "payer_id");
+        requireUser(settlement.getReceiverId(), "receiver_id");
+    }
+
+    // --- READ HELPERS (caller holds the read lock) ---
+
+    private List<Expense> expenseRows(int from, int to) {
+        List<Expense> expenseList = new ArrayList<>(Math.max(0, to - from));
+        for (int row = from; row < to; row++) {
+            expenseList.add(new Expense(row + 1, Money.ofCents(expenseAmount[row]), expenseDescription[row],
+                                        expensePayer[row], LocalDate.ofEpochDay(expenseDay[row]), expenseGroup[row]));
+        }
+        return expenseList;
+    }
+
+    private List<Settlement> settlementRows(int from, int to) {
+        List<Settlement> settlementList = new ArrayList<>(Math.max(0, to - from));
+        for (int row = from; row < to; row++) {
+            long micros = settlementMicros[row];
+            LocalDateTime date = LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                    (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+            settlementList.add(new Settlement(row + 1, settlementGroup[row], settlementPayer[row], settlementReceiver[row],
+                                              Money.ofCents(settlementAmount[row]), date));
+        }
+        return settlementList;
+    }
+
+    // Every balance movement summed from the columns, ignoring the maintained balances.
+    private IntLongMap recompute() {
+        return recomputeGroups().total();
+    }
+
+    // Balances per group from the columns, summed in parallel (the pool only reads the arrays,
+    // which writers cannot touch while the caller holds the lock).
+    private GroupBalances recomputeGroups() {
+        return GroupBalances.compute(new GroupBalances.Columns(
+                expenseGroup, expensePayer, expenseAmount, expenseCount,
+                splitExpense, splitMember, splitOwed, splitCount,
+                settlementGroup, settlementPayer, settlementReceiver, settlementAmount, settlementCount),
+                ForkJoinPool.commonPool());
+    }
+
+    // Pair debts summed from the splits (member owes the expense's payer) and settlements.
+    private PairDebts recomputePairs() {
+        PairDebts recomputed = new PairDebts(Math.max(16, pairs.size()));
+        for (int split = 0; split < splitCount; split++) {
+            recomputed.add(splitMember[split], expensePayer[splitExpense[split]], splitOwed[split]);
+        }
+        for (int row = 0; row < settlementCount; row++) {
+            recomputed.add(settlementPayer[row], settlementReceiver[row], -settlementAmount[row]);
+        }
+        return recomputed;
+    }
+
+    private List<BalanceLedger.Drift> findDrift(IntLongMap recomputed) {
+        List<BalanceLedger.Drift> drift = new ArrayList<>();
+        IntLongMap keys = new IntLongMap(Math.max(16, recomputed.size()));
+        keys.addAll(recomputed);
+        keys.addAll(balances);
+        keys.forEach((userId, ignored) -> {
+            long ledger = balances.get(userId);
+            long expected = recomputed.get(userId);
+            if (ledger != expected) {
+                drift.add(new BalanceLedger.Drift(userId, Money.toDouble(ledger), Money.toDouble(expected)));
+            }
+        });
+        drift.sort((a, b) -> Integer.compare(a.getUserId(), b.getUserId()));
+        return drift;
+    }
+
+    private static User directoryUser(User user) {
+        return new User(user.getUserId(), user.getUsername(), user.getEmail(), null, user.getFullName());
+    }
+
+    @FunctionalInterface
+    private interface BatchReader<T> {
+        List<T> read(int from);
+    }
+
+    // Copies up to STREAM_BATCH_SIZE rows per read lock, then hands them over with the lock released.
+    private <T> void streamInBatches(BatchReader<T> batches, Consumer<T> consumer) {
+        long startedAt = read(() -> clearCount);
+        int from = 0;
+        while (true) {
+            int offset = from;
+            List<T> batch = read(() -> clearCount == startedAt ? batches.read(offset) : List.of());
+            if (batch.isEmpty()) return;
+            for (T row : batch) consumer.accept(row);
+            from += batch.size();
+        }
+    }
+
+    // --- LOCKING AND GROWTH ---
+
+    private void info(String format, Object... args) {
+        if (consoleOutput) System.out.printf(format, args);
+    }
+
+    private void warn(String format, Object... args) {
+        if (consoleOutput) System.err.printf(format, args);
+    }
+
+    private <T> T read(Supplier<T> work) {
+        lock.readLock().lock();
+        try {
+            return work.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bumps the DataVersion once the write is visible to readers; a rejected write changes nothing.
+    private <T> T write(Supplier<T> work) {
+        T result;
+        lock.writeLock().lock();
+        try {
+            result = work.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        DataVersion.bump();
+        return result;
+    }
+
+    private void ensureUserCapacity(int userId) {
+        if (userId <= users.length && userId < historyRefs.length) return;
+        int capacity = Math.max(users.length, historyRefs.length) * 2;
+        users = Arrays.copyOf(users, capacity);
+        historyRefs = Arrays.copyOf(historyRefs, capacity + 1);
+    }
+
+    private void growExpenses(int capacity) {
+        expenseAmount = Arrays.copyOf(expenseAmount, capacity);
+        expensePayer = Arrays.copyOf(expensePayer, capacity);
+        expenseDay = Arrays.copyOf(expenseDay, capacity);
+        expenseGroup = Arrays.copyOf(expenseGroup, capacity);
+        expenseDescription = Arrays.copyOf(expenseDescription, capacity);
+        expenseFirstSplit = Arrays.copyOf(expenseFirstSplit, capacity);
+        expenseLastSplit = Arrays.copyOf(expenseLastSplit, capacity);
+    }
+
+    private void growSplits(int capacity) {
+        splitExpense = Arrays.copyOf(splitExpense, capacity);
+        splitMember = Arrays.copyOf(splitMember, capacity);
+        splitOwed = Arrays.copyOf(splitOwed, capacity);
+        splitNextOfExpense = Arrays.copyOf(splitNextOfExpense, capacity);
+    }
+
+    private void growSettlements(int capacity) {
+        settlementGroup = Arrays.copyOf(settlementGroup, capacity);
+        settlementPayer = Arrays.copyOf(settlementPayer, capacity);
+        settlementReceiver = Arrays.copyOf(settlementReceiver, capacity);
+        settlementAmount = Arrays.copyOf(settlementAmount, capacity);
+        settlementMicros = Arrays.copyOf(settlementMicros, capacity);
+    }
+}
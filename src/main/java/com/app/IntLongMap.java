@@ -0,0 +1,170 @@
+package com.app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open-addressing hash map from int keys to long values (linear probing, no boxing).
+ * Used to accumulate balances in cents per user id without allocating per update.
+ * Not thread-safe; give each thread its own instance and {@link #addAll} them at the end.
+ */
+public final class IntLongMap {
+
+    private static final int FREE = 0; // key 0 is stored out of line in zeroValue
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int key, long value);
+    }
+
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public IntLongMap() {
+        this(16);
+    }
+
+    public IntLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Adds delta to the value stored under key (missing keys start at 0).
+     */
+    public void addTo(int key, long delta) {
+        if (key == FREE) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue += delta;
+            return;
+        }
+
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    public void put(int key, long value) {
+        addTo(key, value - get(key));
+    }
+
+    public long get(int key) {
+        if (key == FREE) return hasZeroKey ? zeroValue : 0;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) return hasZeroKey;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) consumer.accept(0, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * Adds every entry of other into this map (used to merge per-thread partial sums).
+     */
+    public void addAll(IntLongMap other) {
+        other.forEach(this::addTo);
+    }
+
+    /**
+     * A copy without the entries that are exactly zero (e.g. settled users).
+     */
+    public IntLongMap withoutZeros() {
+        IntLongMap result = new IntLongMap(size);
+        forEach((key, value) -> {
+            if (value != 0) result.addTo(key, value);
+        });
+        return result;
+    }
+
+    /**
+     * Converts to the API's boxed Map of decimal amounts, dropping entries that are exactly zero.
+     */
+    public Map<Integer, Double> toDecimalMap() {
+        Map<Integer, Double> result = new HashMap<>(Math.max(16, size * 2));
+        forEach((key, cents) -> {
+            if (cents != 0) result.put(key, Money.toDouble(cents));
+        });
+        return result;
+    }
+
+    public static IntLongMap fromDecimalMap(Map<Integer, Double> amounts) {
+        IntLongMap result = new IntLongMap(amounts.size());
+        amounts.forEach((key, amount) -> result.addTo(key, Money.toCents(amount)));
+        return result;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * 0.6f);
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,516 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * StorageEngine backed by the PostgreSQL repositories. Each call borrows a connection from the
+ * factory (the pool by default) for the duration of the call and returns it afterwards.
+ * Current balances are read from the ledger when it is enabled, otherwise from the latest balance
+ * snapshot plus the newer rows (or recomputed from the history when snapshots are disabled).
+ * Balances as of a date always come from the nearest earlier snapshot plus a filtered replay.
+ * Pair debts follow the same rule: the pair ledger when enabled, otherwise snapshot plus replay.
+ * Committed writes are published to the ChangeFeed.
+ * Expense, split and settlement writes can be group-committed (see WriteBatcher): concurrent
+ * writes then share one transaction and commit, and each call still returns once its write is durable.
+ */
+public class JdbcStorageEngine implements StorageEngine {
+
+    @FunctionalInterface
+    private interface ConnectionWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private static final OperationTimer REGISTER_USER = MetricsRegistry.query("JdbcStorageEngine.registerNewUser");
+    private static final OperationTimer LIST_USERS = MetricsRegistry.query("JdbcStorageEngine.listUsers");
+    private static final OperationTimer FIND_USER = MetricsRegistry.query("JdbcStorageEngine.findUser");
+    private static final OperationTimer UPDATE_USER = MetricsRegistry.query("JdbcStorageEngine.updateUser");
+    private static final OperationTimer DELETE_USER = MetricsRegistry.query("JdbcStorageEngine.deleteUser");
+    private static final OperationTimer CREATE_GROUP = MetricsRegistry.query("JdbcStorageEngine.createGroup");
+    private static final OperationTimer ADD_EXPENSE = MetricsRegistry.query("JdbcStorageEngine.addExpense");
+    private static final OperationTimer SPLIT_EXPENSE = MetricsRegistry.query("JdbcStorageEngine.splitExpenseAndRecordDebts");
+    private static final OperationTimer CREATE_EXPENSE_WITH_SPLITS = MetricsRegistry.query("JdbcStorageEngine.createExpenseWithSplits");
+    private static final OperationTimer RECORD_SETTLEMENT = MetricsRegistry.query("JdbcStorageEngine.recordSettlement");
+    private static final OperationTimer IMPORT_BATCH = MetricsRegistry.query("JdbcStorageEngine.importBatch");
+    private static final OperationTimer LIST_EXPENSES = MetricsRegistry.query("JdbcStorageEngine.listExpenses");
+    private static final OperationTimer LIST_EXPENSE_SPLITS = MetricsRegistry.query("JdbcStorageEngine.listExpenseSplits");
+    private static final OperationTimer LIST_SETTLEMENTS = MetricsRegistry.query("JdbcStorageEngine.listSettlements");
+    private static final OperationTimer STREAM_BALANCE_DELTAS = MetricsRegistry.query("JdbcStorageEngine.streamBalanceDeltas");
+    private static final OperationTimer READ_BALANCES = MetricsRegistry.query("JdbcStorageEngine.readBalanceCents");
+    private static final OperationTimer READ_BALANCES_AS_OF = MetricsRegistry.query("JdbcStorageEngine.readBalanceCentsAsOf");
+    private static final OperationTimer READ_GROUP_BALANCES = MetricsRegistry.query("JdbcStorageEngine.readGroupBalanceCents");
+    private static final OperationTimer READ_PAIR_DEBTS = MetricsRegistry.query("JdbcStorageEngine.readPairDebts");
+    private static final OperationTimer READ_SPENDING = MetricsRegistry.query("JdbcStorageEngine.readSpendingReport");
+
+    private final ConnectionPool.ConnectionFactory connections;
+    private final UserRepository userRepository;
+    private final ExpenseRepository expenseRepository;
+    private final BalanceSnapshots snapshots;
+    private final boolean ownsPool;
+    private final WriteBatcher writeBatcher; // null: every write commits on its own
+    private volatile boolean migrated;
+    // Null inside ShardedStorageEngine, which publishes with global ids instead.
+    private volatile ChangeFeed feed = ChangeFeed.get();
+
+    /**
+     * Engine over the shared pool (DatabaseConnector); closing it shuts the pool down.
+     */
+    public JdbcStorageEngine() {
+        this(DatabaseConnector::getConnection, new UserRepository(), new ExpenseRepository(new BalanceLedger()),
+             new BalanceSnapshots(), true, null);
+    }
+
+    /**
+     * Engine over any connection source, e.g. a stand-in database; closing it leaves the source alone.
+     * Balance snapshots are disabled; pass a BalanceSnapshots to keep them.
+     */
+    public JdbcStorageEngine(ConnectionPool.ConnectionFactory connections, UserRepository userRepository,
+                             ExpenseRepository expenseRepository) {
+        this(connections, userRepository, expenseRepository, BalanceSnapshots.disabled(), false, null);
+    }
+
+    public JdbcStorageEngine(ConnectionPool.ConnectionFactory connections, UserRepository userRepository,
+                             ExpenseRepository expenseRepository, BalanceSnapshots snapshots) {
+        this(connections, userRepository, expenseRepository, snapshots, false, null);
+    }
+
+    /**
+     * Engine over any connection source with writes group-committed by the given batcher
+     * (which must use the same connections); closing the engine closes the batcher.
+     */
+    public JdbcStorageEngine(ConnectionPool.ConnectionFactory connections, UserRepository userRepository,
+                             ExpenseRepository expenseRepository, WriteBatcher writeBatcher) {
+        this(connections, userRepository, expenseRepository, BalanceSnapshots.disabled(), false, writeBatcher);
+    }
+
+    private JdbcStorageEngine(ConnectionPool.ConnectionFactory connections, UserRepository userRepository,
+                              ExpenseRepository expenseRepository, BalanceSnapshots snapshots, boolean ownsPool,
+                              WriteBatcher writeBatcher) {
+        this.connections = connections;
+        this.userRepository = userRepository;
+        this.expenseRepository = expenseRepository;
+        this.snapshots = snapshots;
+        this.ownsPool = ownsPool;
+        // The pool-backed engine reads WRITE_BATCH_*; batching is off unless WRITE_BATCH_SIZE > 1
+        this.writeBatcher = writeBatcher != null || !ownsPool ? writeBatcher
+                : WriteBatcher.fromConfig(connections, snapshots::afterWrites);
+    }
+
+    @Override
+    public String getName() { return JDBC; }
+
+    void setChangeFeed(ChangeFeed feed) {
+        this.feed = feed;
+    }
+
+    // Direct access for JDBC-only tooling (ledger maintenance, benchmarks).
+    public UserRepository getUserRepository() { return userRepository; }
+    public ExpenseRepository getExpenseRepository() { return expenseRepository; }
+    public BalanceLedger getLedger() { return expenseRepository.getLedger(); }
+    public SpendingRollups getRollups() { return expenseRepository.getRollups(); }
+    public PairDebtLedger getPairLedger() { return expenseRepository.getPairLedger(); }
+    public BalanceSnapshots getSnapshots() { return snapshots; }
+    public WriteBatcher getWriteBatcher() { return writeBatcher; }
+
+    // --- USERS ---
+
+    @Override
+    public void registerNewUser(User user) {
+        REGISTER_USER.run(() -> withConnection(conn -> { userRepository.registerNewUser(conn, user); return null; }));
+        REGISTER_USER.rows(1);
+    }
+
+    @Override
+    public List<User> listAllUsers() {
+        List<User> users = LIST_USERS.time(() -> withConnection(userRepository::listAllUsers));
+        LIST_USERS.rows(users.size());
+        return users;
+    }
+
+    @Override
+    public List<User> listUserDirectory() {
+        List<User> users = LIST_USERS.time(() -> withConnection(userRepository::listUserDirectory));
+        LIST_USERS.rows(users.size());
+        return users;
+    }
+
+    @Override
+    public User findUserById(int userId) {
+        return FIND_USER.time(() -> withConnection(conn -> userRepository.findUserById(conn, userId)));
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        return FIND_USER.time(() -> withConnection(conn -> userRepository.findUserByUsername(conn, username)));
+    }
+
+    @Override
+    public void updateUser(User user) {
+        UPDATE_USER.run(() -> withConnection(conn -> { userRepository.updateUser(conn, user); return null; }));
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        DELETE_USER.run(() -> withConnection(conn -> { userRepository.deleteUser(conn, username); return null; }));
+    }
+
+    @Override
+    public boolean deleteUserById(int userId) {
+        return DELETE_USER.time(() -> withConnection(conn -> userRepository.deleteUserById(conn, userId)));
+    }
+
+    @Override
+    public boolean isUserReferenced(int userId) {
+        return FIND_USER.time(() -> withConnection(conn -> expenseRepository.isUserReferenced(conn, userId)));
+    }
+
+    @Override
+    public void restoreUser(User user) {
+        REGISTER_USER.run(() -> withConnection(conn -> { userRepository.restoreUser(conn, user); return null; }));
+    }
+
+    @Override
+    public long createGroup(String groupName, int creatorId) {
+        return CREATE_GROUP.time(() -> withConnection(conn -> userRepository.createGroup(conn, groupName, creatorId)));
+    }
+
+    // --- EXPENSES AND SETTLEMENTS ---
+
+    @Override
+    public long addExpense(Expense expense) {
+        long expenseId = ADD_EXPENSE.time(() -> withWrite(conn -> expenseRepository.addExpense(conn, expense), 1));
+        ADD_EXPENSE.rows(1);
+        ChangeFeed f = feed;
+        if (f != null) f.expenseRecorded(expenseId, expense, List.of(), new long[0]);
+        return expenseId;
+    }
+
+    @Override
+    public void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds, long[] shares) {
+        SPLIT_EXPENSE.run(() -> withWrite(conn -> {
+            expenseRepository.splitExpenseAndRecordDebts(conn, expense, memberIds, shares);
+            return null;
+        }, 0));
+        SPLIT_EXPENSE.rows(memberIds.size());
+        ChangeFeed f = feed;
+        if (f != null) f.splitsRecorded(expense, memberIds, shares);
+    }
+
+    @Override
+    public long createExpenseWithSplits(Expense expense, List<Integer> memberIds, long[] shares) {
+        long expenseId = CREATE_EXPENSE_WITH_SPLITS.time(() ->
+                withWrite(conn -> expenseRepository.createExpenseWithSplits(conn, expense, memberIds, shares), 1));
+        CREATE_EXPENSE_WITH_SPLITS.rows(1 + memberIds.size());
+        ChangeFeed f = feed;
+        if (f != null) f.expenseRecorded(expenseId, expense, memberIds, shares);
+        return expenseId;
+    }
+
+    @Override
+    public long recordSettlement(Settlement settlement) {
+        long settlementId = RECORD_SETTLEMENT.time(() -> withWrite(conn -> expenseRepository.recordSettlement(conn, settlement), 1));
+        RECORD_SETTLEMENT.rows(1);
+        ChangeFeed f = feed;
+        if (f != null) f.settlementRecorded(settlementId, settlement);
+        return settlementId;
+    }
+
+    @Override
+    public void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements) {
+        IMPORT_BATCH.run(() -> withConnection(conn -> {
+            fenced(() -> Transactions.inTransaction(conn, () -> {
+                expenseRepository.addExpensesWithSplits(conn, expenses, participants);
+                expenseRepository.recordSettlements(conn, settlements);
+                return null;
+            }));
+            snapshots.afterWrites(conn, expenses.size() + settlements.size());
+            return null;
+        }));
+        IMPORT_BATCH.rows(expenses.size() + settlements.size());
+        ChangeFeed f = feed;
+        if (f != null) f.refresh("import");
+    }
+
+    @Override
+    public List<Expense> listAllExpenses() {
+        List<Expense> expenses = LIST_EXPENSES.time(() -> withConnection(expenseRepository::listAllExpenses));
+        LIST_EXPENSES.rows(expenses.size());
+        return expenses;
+    }
+
+    @Override
+    public List<Expense> listExpensesPage(long afterId, int limit) {
+        List<Expense> expenses = LIST_EXPENSES.time(() -> withConnection(conn -> expenseRepository.listExpensesPage(conn, afterId, limit)));
+        LIST_EXPENSES.rows(expenses.size());
+        return expenses;
+    }
+
+    @Override
+    public void streamExpenses(Consumer<Expense> consumer) {
+        LIST_EXPENSES.run(() -> withConnection(conn -> { expenseRepository.streamExpenses(conn, consumer); return null; }));
+    }
+
+    @Override
+    public List<ExpenseSplit> listExpenseSplits(long expenseId) {
+        List<ExpenseSplit> splits = LIST_EXPENSE_SPLITS.time(() -> withConnection(conn -> expenseRepository.listExpenseSplits(conn, expenseId)));
+        LIST_EXPENSE_SPLITS.rows(splits.size());
+        return splits;
+    }
+
+    @Override
+    public List<Settlement> listAllSettlements() {
+        List<Settlement> settlements = LIST_SETTLEMENTS.time(() -> withConnection(expenseRepository::listAllSettlements));
+        LIST_SETTLEMENTS.rows(settlements.size());
+        return settlements;
+    }
+
+    @Override
+    public List<Settlement> listSettlementsPage(long afterId, int limit) {
+        List<Settlement> settlements = LIST_SETTLEMENTS.time(() -> withConnection(conn -> expenseRepository.listSettlementsPage(conn, afterId, limit)));
+        LIST_SETTLEMENTS.rows(settlements.size());
+        return settlements;
+    }
+
+    @Override
+    public void streamSettlements(Consumer<Settlement> consumer) {
+        LIST_SETTLEMENTS.run(() -> withConnection(conn -> { expenseRepository.streamSettlements(conn, consumer); return null; }));
+    }
+
+    @Override
+    public void streamBalanceDeltas(ExpenseRepository.BalanceDeltaConsumer consumer) {
+        STREAM_BALANCE_DELTAS.run(() -> withConnection(conn -> { expenseRepository.streamBalanceDeltas(conn, consumer); return null; }));
+    }
+
+    // --- BALANCES ---
+
+    @Override
+    public IntLongMap readBalanceCents() {
+        IntLongMap balances = READ_BALANCES.time(this::readCurrentBalanceCents);
+        READ_BALANCES.rows(balances.size());
+        return balances;
+    }
+
+    private IntLongMap readCurrentBalanceCents() {
+        BalanceLedger ledger = getLedger();
+        if (ledger.isEnabled()) {
+            return withConnection(ledger::readBalanceCents);
+        }
+
+        if (snapshots.isEnabled()) {
+            return withConnection(snapshots::read).getBalances().withoutZeros();
+        }
+
+        IntLongMap balances = new IntLongMap(256);
+        streamBalanceDeltas(balances::addTo);
+        return balances.withoutZeros();
+    }
+
+    @Override
+    public IntLongMap readBalanceCentsAsOf(LocalDate date) {
+        IntLongMap balances = READ_BALANCES_AS_OF.time(() ->
+                withConnection(conn -> snapshots.readAsOf(conn, date)).getBalances().withoutZeros());
+        READ_BALANCES_AS_OF.rows(balances.size());
+        return balances;
+    }
+
+    // Summed by the database from the group's own rows; the ledger and snapshots are global only.
+    @Override
+    public IntLongMap readGroupBalanceCents(int groupId) {
+        IntLongMap balances = READ_GROUP_BALANCES.time(() -> withConnection(conn -> expenseRepository.readGroupBalanceCents(conn, groupId)));
+        READ_GROUP_BALANCES.rows(balances.size());
+        return balances;
+    }
+
+    @Override
+    public PairDebts readPairDebts() {
+        PairDebtLedger pairLedger = getPairLedger();
+        PairDebts pairs = READ_PAIR_DEBTS.time(() -> pairLedger.isEnabled()
+                ? withConnection(pairLedger::read)
+                : withConnection(snapshots::read).getPairs());
+        READ_PAIR_DEBTS.rows(pairs.size());
+        return pairs;
+    }
+
+    @Override
+    public PairDebts readPairDebts(int userId) {
+        PairDebtLedger pairLedger = getPairLedger();
+        PairDebts pairs = READ_PAIR_DEBTS.time(() -> {
+            if (pairLedger.isEnabled()) {
+                return withConnection(conn -> pairLedger.read(conn, userId));
+            }
+            PairDebts result = new PairDebts();
+            withConnection(snapshots::read).getPairs().forEachOf(userId, result::add);
+            return result;
+        });
+        READ_PAIR_DEBTS.rows(pairs.size());
+        return pairs;
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> verifyBalances() {
+        return withConnection(getLedger()::verify);
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> rebuildBalances() {
+        List<BalanceLedger.Drift> drift = withConnection(getLedger()::rebuild);
+        if (getPairLedger().isEnabled()) withConnection(getPairLedger()::rebuild);
+        ChangeFeed f = feed;
+        if (f != null && !drift.isEmpty()) f.refresh("rebuild");
+        return drift;
+    }
+
+    // --- REPORTS ---
+
+    @Override
+    public SpendingReport readSpendingReport(SpendingReport.Request request) {
+        return READ_SPENDING.time(() -> new SpendingReport(request, withConnection(conn -> getRollups().read(conn, request))));
+    }
+
+    @Override
+    public int rebuildSpendingRollups() {
+        int buckets = withConnection(getRollups()::rebuild);
+        DataVersion.bump();
+        return buckets;
+    }
+
+    // --- ADMIN ---
+
+    @Override
+    public void clearAll() {
+        withConnection(conn -> {
+            try (Statement st = conn.createStatement()) {
+                // Order matters due to foreign keys (splits, settlements depend on expenses/users)
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.expense_splits RESTART IDENTITY CASCADE");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.settlements RESTART IDENTITY CASCADE");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.expenses RESTART IDENTITY CASCADE");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.users RESTART IDENTITY CASCADE");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.user_balances");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.spending_rollups");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.user_pair_debts");
+                } catch (SQLException ignore) {}
+                try {
+                    st.executeUpdate("TRUNCATE TABLE public.balance_snapshots CASCADE");
+                } catch (SQLException ignore) {}
+            }
+            return null;
+        });
+        snapshots.reset();
+        userRepository.invalidateCache();
+        DataVersion.bump();
+        ChangeFeed f = feed;
+        if (f != null) f.refresh("reset");
+    }
+
+    /**
+     * Stored balance snapshots, newest first (empty when snapshots are disabled).
+     */
+    public List<BalanceSnapshots.Summary> listBalanceSnapshots() {
+        return withConnection(snapshots::list);
+    }
+
+    /**
+     * Takes a balance snapshot now, regardless of the interval.
+     */
+    public BalanceSnapshots.Summary checkpointBalances() {
+        return withConnection(snapshots::checkpoint);
+    }
+
+    @Override
+    public UserCache.Stats getUserCacheStats() {
+        return userRepository.getCacheStats();
+    }
+
+    @Override
+    public void close() {
+        if (writeBatcher != null) writeBatcher.close();
+        if (ownsPool) DatabaseConnector.shutdown();
+    }
+
+    /**
+     * Runs a single write on its own connection, or queues it for the next group commit.
+     * @param rows Rows counted towards the next balance snapshot (batches count one per write).
+     */
+    private <T> T withWrite(ConnectionWork<T> work, int rows) {
+        migrate();
+        if (writeBatcher != null) {
+            Lock fence = snapshots.writeFence(); // held until the batch this write joined has committed
+            fence.lock();
+            try {
+                return writeBatcher.submit(work::run);
+            } finally {
+                fence.unlock();
+            }
+        }
+        return withConnection(conn -> {
+            T result = fenced(() -> work.run(conn));
+            if (rows > 0) snapshots.afterWrites(conn, rows);
+            return result;
+        });
+    }
+
+    // Holds the snapshot write fence for the duration of one write (not of its afterWrites).
+    private <T> T fenced(Transactions.SqlWork<T> write) throws SQLException {
+        Lock fence = snapshots.writeFence();
+        fence.lock();
+        try {
+            return write.run();
+        } finally {
+            fence.unlock();
+        }
+    }
+
+    // The repository's schema changes, once, on their own auto-commit connection before the first
+    // call: run inside a write transaction (or a group-commit batch) they would be undone with it.
+    private void migrate() {
+        if (migrated) return;
+        synchronized (this) {
+            if (migrated) return;
+            Connection conn;
+            try {
+                conn = connections.open();
+            } catch (SQLException e) {
+                throw new StorageUnavailableException("Failed to get a database connection.", e);
+            }
+            try (conn) {
+                expenseRepository.migrate(conn);
+            } catch (SQLException e) {
+                throw new DatabaseException("Schema migration failed.", e);
+            }
+            migrated = true;
+        }
+    }
+
+    private <T> T withConnection(ConnectionWork<T> work) {
+        migrate();
+        Connection conn;
+        try {
+            conn = connections.open();
+        } catch (SQLException e) {
+            throw new StorageUnavailableException("Failed to get a database connection.", e);
+        }
+        try (conn) {
+            return work.run(conn);
+        } catch (SQLException e) {
+            throw new DatabaseException("Database operation failed.", e);
+        }
+    }
+}
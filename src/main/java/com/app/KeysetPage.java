@@ -0,0 +1,40 @@
+package com.app;
+
+import java.util.List;
+
+/**
+ * One page of a keyset list and the cursor of the page after it. Clients treat cursors as opaque:
+ * the last row's id on one database, a position per shard on ShardedStorageEngine.
+ */
+public final class KeysetPage<T> {
+
+    private final List<T> rows;
+    private final String nextCursor;
+
+    public KeysetPage(List<T> rows, String nextCursor) {
+        this.rows = rows;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getRows() { return rows; }
+
+    /**
+     * Where the next page starts (the cursor this page was read with when it is empty).
+     */
+    public String getNextCursor() { return nextCursor; }
+
+    /**
+     * The id a single-database cursor stands for; null or empty is the first page (0).
+     * @throws IllegalArgumentException if the cursor is not an id.
+     */
+    public static long afterId(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return 0;
+        try {
+            long afterId = Long.parseLong(cursor);
+            if (afterId >= 0) return afterId;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Malformed page cursor '" + cursor + "'.");
+    }
+}
@@ -0,0 +1,72 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command-line entry point for checking and repairing the 'user_balances' ledger (rebuild also
+ * recomputes the 'user_pair_debts' table), for taking a balance snapshot on demand and for
+ * backfilling the spending rollups.
+ * Usage: LedgerMaintenance verify | rebuild | snapshot | rollups
+ * Exits with status 1 when verify finds drift.
+ */
+public class LedgerMaintenance {
+
+    private static final Logger LOGGER = Logger.getLogger(LedgerMaintenance.class.getName());
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "verify";
+        BalanceLedger ledger = new BalanceLedger();
+        int exitCode = 0;
+
+        try (Connection connection = DatabaseConnector.getConnection()) {
+            List<BalanceLedger.Drift> drift;
+
+            if (command.equals("verify")) {
+                drift = ledger.verify(connection);
+                exitCode = drift.isEmpty() ? 0 : 1;
+            } else if (command.equals("rebuild")) {
+                drift = ledger.rebuild(connection);
+                new PairDebtLedger().rebuild(connection);
+            } else if (command.equals("snapshot")) {
+                BalanceSnapshots.Summary snapshot = new BalanceSnapshots().checkpoint(connection);
+                System.out.printf("Latest balance snapshot %d covers expense ID <= %d and settlement ID <= %d (%d users, %d pairs).\n",
+                        snapshot.getSnapshotId(), snapshot.getLastExpenseId(), snapshot.getLastSettlementId(),
+                        snapshot.getUsers(), snapshot.getPairs());
+                drift = null;
+            } else if (command.equals("rollups")) {
+                new SpendingRollups().rebuild(connection);
+                drift = null;
+            } else {
+                System.err.println("Usage: LedgerMaintenance verify | rebuild | snapshot | rollups");
+                System.exit(2);
+                return;
+            }
+
+            if (drift != null) printDrift(drift);
+        } catch (DatabaseException e) {
+            LOGGER.log(Level.SEVERE, "Ledger " + command + " failed.", e);
+            exitCode = 2;
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "FAILED TO CONNECT TO DATABASE.", e);
+            exitCode = 2;
+        }
+        System.exit(exitCode);
+    }
+
+    private static void printDrift(List<BalanceLedger.Drift> drift) {
+        if (drift.isEmpty()) {
+            System.out.println("Ledger is consistent with the expense history.");
+            return;
+        }
+        System.out.printf("Found %d drifted balances:\n", drift.size());
+        for (BalanceLedger.Drift d : drift) {
+            System.out.printf("User ID %d: ledger $%.2f, recomputed $%.2f (drift $%.2f)\n",
+                    d.getUserId(), d.getLedgerBalance(), d.getRecomputedBalance(),
+                    d.getLedgerBalance() - d.getRecomputedBalance());
+        }
+    }
+}
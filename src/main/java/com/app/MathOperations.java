@@ -1,5 +1,8 @@
 package com.app;
 
+import java.math.BigInteger;
+import java.util.Arrays;
+
 /**
  * This class contains reusable business logic (mathematical operations).
  */
@@ -18,13 +21,90 @@ public class MathOperations {
     }
 
     /**
-     * Calculates the equal split amount for a total expense among a group of people.
+     * Calculates the equal split of a total expense (in cents) among a group of people.
+     * Shares differ by at most one cent: the leftover cents go to the first people, so the
+     * shares always add up to exactly the total.
+     * @return One share in cents per person, or an empty array if numPeople is not positive.
+     * @throws IllegalArgumentException if the total is negative (the leftover cents would be negative).
      */
-    public static double calculateSplit(double totalAmount, int numPeople) {
+    public static long[] calculateSplit(long totalCents, int numPeople) {
+        if (totalCents < 0) throw new IllegalArgumentException("Total must not be negative: " + totalCents);
         if (numPeople <= 0) {
-            System.err.println("  [ERROR] Split requires at least one person. Returning 0.0.");
-            return 0.0;
+            System.err.println("  [ERROR] Split requires at least one person. Returning no shares.");
+            return new long[0];
+        }
+        long base = totalCents / numPeople;
+        long remainder = totalCents % numPeople;
+        long[] shares = new long[numPeople];
+        for (int i = 0; i < numPeople; i++) {
+            shares[i] = base + (i < remainder ? 1 : 0);
+        }
+        return shares;
+    }
+
+    /**
+     * Allocates a total (in cents) in proportion to integer weights with the largest-remainder
+     * method: everyone gets the floor of their exact share, then the leftover cents go one each to
+     * the largest fractional remainders, ties to the earlier person. The shares always add up to
+     * exactly the total, and equal weights give the same shares as calculateSplit.
+     * @throws IllegalArgumentException if the total or a weight is negative, or all weights are zero.
+     */
+    public static long[] allocateByWeight(long totalCents, long[] weights) {
+        if (totalCents < 0) throw new IllegalArgumentException("Total must not be negative: " + totalCents);
+        long weightSum = 0;
+        for (long weight : weights) {
+            if (weight < 0) throw new IllegalArgumentException("Weights must not be negative: " + weight);
+            weightSum = Math.addExact(weightSum, weight);
+        }
+        if (weightSum == 0) throw new IllegalArgumentException("At least one weight must be positive.");
+
+        int n = weights.length;
+        long[] shares = new long[n];
+        long[] remainders = new long[n];
+        long leftover = totalCents;
+        for (int i = 0; i < n; i++) {
+            long product = totalCents * weights[i];
+            if (Math.multiplyHigh(totalCents, weights[i]) != 0 || product < 0) {
+                // total * weight overflows a long (only for huge totals or weights)
+                BigInteger[] division = BigInteger.valueOf(totalCents).multiply(BigInteger.valueOf(weights[i]))
+                        .divideAndRemainder(BigInteger.valueOf(weightSum));
+                shares[i] = division[0].longValueExact();
+                remainders[i] = division[1].longValueExact();
+            } else {
+                shares[i] = product / weightSum;
+                remainders[i] = product % weightSum;
+            }
+            leftover -= shares[i];
+        }
+        // Each floor loses less than one cent, so fewer than n cents are left over
+        if (leftover > 0) {
+            for (int i : largestRemainders(remainders, (int) leftover, weightSum)) shares[i]++;
+        }
+        return shares;
+    }
+
+    // Indexes of the k largest remainders (ties to the lower index), sorting primitives when possible.
+    private static int[] largestRemainders(long[] remainders, int k, long weightSum) {
+        int n = remainders.length;
+        int[] picked = new int[k];
+        if (weightSum <= Integer.MAX_VALUE) {
+            // remainder < weightSum < 2^31, so (remainder, reversed index) packs into one sortable long
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = (remainders[i] << 32) | (0xFFFF_FFFFL - i);
+            }
+            Arrays.sort(keys);
+            for (int j = 0; j < k; j++) {
+                picked[j] = (int) (0xFFFF_FFFFL - (keys[n - 1 - j] & 0xFFFF_FFFFL));
+            }
+        } else {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> remainders[a] != remainders[b]
+                    ? Long.compare(remainders[b], remainders[a])
+                    : Integer.compare(a, b));
+            for (int j = 0; j < k; j++) picked[j] = order[j];
         }
-        return totalAmount / numPeople;
+        return picked;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.app;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide registry of OperationTimers.
+ * - "query" timers wrap storage engine calls and internal read paths (latency, rows read/written, errors).
+ * - "endpoint" timers wrap HTTP routes, labelled with the route template, not the raw path.
+ * Exported as JSON snapshots and in the Prometheus text format at /api/admin/metrics.
+ */
+public final class MetricsRegistry {
+
+    public static final String QUERY = "query";
+    public static final String ENDPOINT = "endpoint";
+
+    private static final ConcurrentMap<String, OperationTimer> TIMERS = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {}
+
+    /**
+     * Timer for a storage engine call or internal read path, e.g. "JdbcStorageEngine.addExpense".
+     */
+    public static OperationTimer query(String name) {
+        return timer(QUERY, name);
+    }
+
+    /**
+     * Timer for an HTTP route, e.g. "GET /api/friends/{id}".
+     */
+    public static OperationTimer endpoint(String name) {
+        return timer(ENDPOINT, name);
+    }
+
+    public static List<OperationTimer.Snapshot> snapshot() {
+        List<OperationTimer.Snapshot> snapshots = new ArrayList<>();
+        for (OperationTimer timer : TIMERS.values()) {
+            snapshots.add(timer.snapshot());
+        }
+        snapshots.sort(Comparator.comparing(OperationTimer.Snapshot::getKind)
+                .thenComparing(OperationTimer.Snapshot::getName));
+        return snapshots;
+    }
+
+    /**
+     * All timers in the Prometheus text exposition format (version 0.0.4).
+     */
+    public static String prometheus() {
+        List<OperationTimer.Snapshot> snapshots = snapshot();
+        StringBuilder out = new StringBuilder(4096);
+        writeFamily(out, snapshots, QUERY, "app_query", "op", "Storage engine call latency.");
+        writeFamily(out, snapshots, ENDPOINT, "app_http_request", "route", "HTTP request latency by route.");
+        return out.toString();
+    }
+
+    private static OperationTimer timer(String kind, String name) {
+        return TIMERS.computeIfAbsent(kind + ":" + name, key -> new OperationTimer(name, kind));
+    }
+
+    private static void writeFamily(StringBuilder out, List<OperationTimer.Snapshot> snapshots, String kind,
+                                    String prefix, String label, String help) {
+        out.append("# HELP ").append(prefix).append("_seconds ").append(help).append('\n');
+        out.append("# TYPE ").append(prefix).append("_seconds histogram\n");
+        for (OperationTimer.Snapshot s : snapshots) {
+            if (!s.getKind().equals(kind)) continue;
+            String name = label + "=\"" + escape(s.getName()) + "\"";
+            long cumulative = 0;
+            long[] buckets = s.getBucketCounts();
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                String le = i < OperationTimer.BUCKET_BOUNDS_NANOS.length
+                        ? seconds(OperationTimer.BUCKET_BOUNDS_NANOS[i] / 1e9) : "+Inf";
+                out.append(prefix).append("_seconds_bucket{").append(name).append(",le=\"").append(le).append("\"} ")
+                   .append(cumulative).append('\n');
+            }
+            out.append(prefix).append("_seconds_sum{").append(name).append("} ").append(seconds(s.getTotalMillis() / 1e3)).append('\n');
+            out.append(prefix).append("_seconds_count{").append(name).append("} ").append(s.getCount()).append('\n');
+        }
+
+        out.append("# HELP ").append(prefix).append("_errors_total Calls that ended in an exception or a 5xx status.\n");
+        out.append("# TYPE ").append(prefix).append("_errors_total counter\n");
+        for (OperationTimer.Snapshot s : snapshots) {
+            if (!s.getKind().equals(kind)) continue;
+            out.append(prefix).append("_errors_total{").append(label).append("=\"").append(escape(s.getName()))
+               .append("\"} ").append(s.getErrors()).append('\n');
+        }
+
+        if (kind.equals(QUERY)) {
+            out.append("# HELP ").append(prefix).append("_rows_total Rows read or written.\n");
+            out.append("# TYPE ").append(prefix).append("_rows_total counter\n");
+            for (OperationTimer.Snapshot s : snapshots) {
+                if (!s.getKind().equals(kind)) continue;
+                out.append(prefix).append("_rows_total{").append(label).append("=\"").append(escape(s.getName()))
+                   .append("\"} ").append(s.getRows()).append('\n');
+            }
+        }
+    }
+
+    private static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
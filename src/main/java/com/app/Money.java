@@ -0,0 +1,83 @@
+package com.app;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money amount stored as a whole number of cents.
+ * Every amount in the models, repositories and balance calculations is a long number of
+ * cents; this class converts at the edges (JSON doubles, SQL NUMERIC columns) and rounds
+ * half-up to the cent exactly once, on the way in.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * Converts a decimal amount such as 45.5 (from JSON or a literal) to cents.
+     */
+    public static Money of(double amount) {
+        return ofCents(toCents(amount));
+    }
+
+    public static Money of(BigDecimal amount) {
+        return ofCents(toCents(amount));
+    }
+
+    public long getCents() { return cents; }
+    public double toDouble() { return toDouble(cents); }
+    public BigDecimal toBigDecimal() { return toBigDecimal(cents); }
+
+    public Money plus(Money other) { return ofCents(Math.addExact(cents, other.cents)); }
+    public Money minus(Money other) { return ofCents(Math.subtractExact(cents, other.cents)); }
+    public Money negate() { return ofCents(-cents); }
+    public boolean isPositive() { return cents > 0; }
+
+    // --- Raw cent helpers for hot paths that keep amounts in primitive longs ---
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static long toCents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal(cents).toPlainString();
+    }
+}
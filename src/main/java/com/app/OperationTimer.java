@@ -0,0 +1,176 @@
+package com.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Latency histogram plus call, error and row counters for one operation (a storage engine call
+ * or an HTTP route). Recording is lock-free: striped LongAdders and fixed histogram buckets,
+ * so concurrent callers do not contend and nothing is allocated per call.
+ * Obtain instances from MetricsRegistry so they are exported.
+ */
+public final class OperationTimer {
+
+    // Histogram bucket upper bounds: 50us .. 10s, roughly 1-2.5-5 steps, plus an overflow bucket.
+    static final long[] BUCKET_BOUNDS_NANOS = {
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+
+    /**
+     * Point-in-time view of one timer, serialized as-is by the admin endpoints.
+     * Percentiles are histogram estimates: the upper bound of the bucket they fall in.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final String kind;
+        private final long count;
+        private final long errors;
+        private final long rows;
+        private final double totalMillis;
+        private final double meanMillis;
+        private final double maxMillis;
+        private final double p50Millis;
+        private final double p95Millis;
+        private final double p99Millis;
+        private final long[] bucketCounts;
+
+        Snapshot(String name, String kind, long count, long errors, long rows, long totalNanos,
+                 long maxNanos, long[] bucketCounts) {
+            this.name = name;
+            this.kind = kind;
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.totalMillis = totalNanos / 1e6;
+            this.meanMillis = count == 0 ? 0 : totalNanos / 1e6 / count;
+            this.maxMillis = maxNanos / 1e6;
+            this.p50Millis = percentile(bucketCounts, 0.50, maxNanos);
+            this.p95Millis = percentile(bucketCounts, 0.95, maxNanos);
+            this.p99Millis = percentile(bucketCounts, 0.99, maxNanos);
+            this.bucketCounts = bucketCounts;
+        }
+
+        public String getName() { return name; }
+        public String getKind() { return kind; }
+        public long getCount() { return count; }
+        public long getErrors() { return errors; }
+        public long getRows() { return rows; }
+        public double getTotalMillis() { return totalMillis; }
+        public double getMeanMillis() { return meanMillis; }
+        public double getMaxMillis() { return maxMillis; }
+        public double getP50Millis() { return p50Millis; }
+        public double getP95Millis() { return p95Millis; }
+        public double getP99Millis() { return p99Millis; }
+        // Per-bucket (not cumulative) counts; the last entry is the overflow bucket.
+        public long[] getBucketCounts() { return bucketCounts; }
+
+        private static double percentile(long[] buckets, double p, long maxNanos) {
+            long total = 0;
+            for (long bucket : buckets) total += bucket;
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    long bound = i < BUCKET_BOUNDS_NANOS.length ? BUCKET_BOUNDS_NANOS[i] : maxNanos;
+                    return Math.min(bound, maxNanos) / 1e6;
+                }
+            }
+            return maxNanos / 1e6;
+        }
+    }
+
+    private final String name;
+    private final String kind;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+
+    OperationTimer(String name, String kind) {
+        this.name = name;
+        this.kind = kind;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public String getName() { return name; }
+    public String getKind() { return kind; }
+
+    /**
+     * Runs the work and records its latency; an exception is counted as an error and rethrown.
+     */
+    public <T> T time(Supplier<T> work) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = work.get();
+            failed = false;
+            return result;
+        } finally {
+            record(System.nanoTime() - start, failed);
+        }
+    }
+
+    public void run(Runnable work) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            work.run();
+            failed = false;
+        } finally {
+            record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Adds to the rows read or written by this operation.
+     */
+    public void rows(long n) {
+        rows.add(n);
+    }
+
+    /**
+     * Records one call that took the given time (for callers that measure themselves, e.g. filters).
+     */
+    public void record(long nanos, boolean failed) {
+        count.increment();
+        totalNanos.add(nanos);
+        if (failed) errors.increment();
+        buckets[bucketIndex(nanos)].increment();
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(name, kind, count.sum(), errors.sum(), rows.sum(), totalNanos.sum(),
+                            maxNanos.get(), counts);
+    }
+
+    private static int bucketIndex(long nanos) {
+        int low = 0;
+        int high = BUCKET_BOUNDS_NANOS.length;
+        while (low < high) { // first bound >= nanos
+            int mid = (low + high) >>> 1;
+            if (BUCKET_BOUNDS_NANOS[mid] < nanos) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,220 @@
+package com.app;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Net debt per pair of users stored in the 'user_pair_debts' table, the pairwise counterpart of
+ * BalanceLedger. ExpenseRepository applies every split (the member owes the expense's payer) and
+ * settlement (the payer owes the receiver less) to it inside the same transaction as the write,
+ * so reading the pairs costs one row per pair that ever shared an expense, and one user's pairs
+ * are two index lookups.
+ * Like PairDebts, each unordered pair is one row keyed (low_id, high_id) with a positive amount
+ * meaning low_id owes high_id. Amounts are always taken from the rows just written.
+ */
+public class PairDebtLedger {
+
+    private static final Logger LOGGER = Logger.getLogger(PairDebtLedger.class.getName());
+
+    // Every pair movement in the history tables, one signed row per pair.
+    private static final String RECOMPUTE_SQL =
+            "SELECT low_id, high_id, SUM(amount) FROM ("
+            + pairRows("SELECT s.member_id AS debtor_id, e.payer_id AS creditor_id, s.owed_amount AS amount"
+                    + " FROM public.expense_splits s JOIN public.expenses e ON e.expense_id = s.expense_id"
+                    + " UNION ALL SELECT payer_id, receiver_id, -amount FROM public.settlements")
+            + ") movements GROUP BY low_id, high_id";
+
+    private static final String INSERT_PREFIX = "INSERT INTO public.user_pair_debts (low_id, high_id, amount) ";
+
+    private static final String UPSERT_SUFFIX = " ON CONFLICT (low_id, high_id) DO UPDATE SET"
+            + " amount = public.user_pair_debts.amount + EXCLUDED.amount";
+
+    private static final OperationTimer READ = MetricsRegistry.query("PairDebtLedger.read");
+
+    private final boolean enabled;
+    private volatile boolean schemaReady = false;
+
+    public PairDebtLedger() {
+        this(true);
+    }
+
+    private PairDebtLedger(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * A pair ledger that ignores writes, for stand-in databases that lack the PostgreSQL upsert
+     * syntax (e.g. the in-process database used by the benchmarks). Reads are not supported.
+     */
+    public static PairDebtLedger disabled() {
+        return new PairDebtLedger(false);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    // --- WRITE PATH (called by ExpenseRepository inside the write transaction) ---
+
+    /**
+     * Adds the given, freshly inserted split rows to the debt of each member to the payer.
+     */
+    public void recordSplits(Connection conn, long[] splitIds) throws SQLException {
+        if (!enabled || splitIds.length == 0) return;
+        String sql = upsert("SELECT s.member_id AS debtor_id, e.payer_id AS creditor_id, s.owed_amount AS amount"
+                + " FROM public.expense_splits s JOIN public.expenses e ON e.expense_id = s.expense_id"
+                + " WHERE s.split_id = ANY(?)");
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, splitIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes freshly inserted settlements off the debt of each payer to the receiver.
+     */
+    public void applySettlements(Connection conn, long[] settlementIds) throws SQLException {
+        if (!enabled || settlementIds.length == 0) return;
+        String sql = upsert("SELECT payer_id AS debtor_id, receiver_id AS creditor_id, -amount AS amount"
+                + " FROM public.settlements WHERE settlement_id = ANY(?)");
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, settlementIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * SQL for an extra data-modifying CTE that adds to the pair debts as part of a larger
+     * statement (see ExpenseRepository.createExpenseWithSplits).
+     * @param debtsSql A SELECT yielding (debtor_id, creditor_id, amount) rows, typically over other CTEs' RETURNING output.
+     * @return ", pair_update AS (...)" to append to a WITH list, or "" when the pair ledger is disabled.
+     */
+    public String debtsCte(String debtsSql) {
+        if (!enabled) return "";
+        return ", pair_update AS (" + upsert(debtsSql) + ")";
+    }
+
+    // --- READ PATH ---
+
+    /**
+     * Every pair with a non-zero net debt.
+     * @param conn The active database connection.
+     */
+    public PairDebts read(Connection conn) {
+        return read(conn, "SELECT low_id, high_id, amount FROM public.user_pair_debts WHERE amount <> 0", 0);
+    }
+
+    /**
+     * The user's pairs with a non-zero net debt, from the primary key (as low_id) and the
+     * high_id index.
+     * @param conn The active database connection.
+     */
+    public PairDebts read(Connection conn, int userId) {
+        return read(conn, "SELECT low_id, high_id, amount FROM public.user_pair_debts WHERE low_id = ? AND amount <> 0"
+                + " UNION ALL SELECT low_id, high_id, amount FROM public.user_pair_debts WHERE high_id = ? AND amount <> 0", userId);
+    }
+
+    private PairDebts read(Connection conn, String sql, int userId) {
+        return READ.time(() -> {
+            PairDebts pairs = new PairDebts(256);
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                if (userId != 0) {
+                    statement.setInt(1, userId);
+                    statement.setInt(2, userId);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        pairs.add(resultSet.getInt("low_id"), resultSet.getInt("high_id"),
+                                  Money.toCents(resultSet.getBigDecimal("amount")));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to read the pair debts.", e);
+            }
+            READ.rows(pairs.size());
+            return pairs;
+        });
+    }
+
+    // --- MAINTENANCE ---
+
+    /**
+     * Replaces the pair debts with amounts recomputed from the history.
+     * The table is locked for the duration, so concurrent writers wait and then add their own
+     * rows on top of the rebuilt state.
+     * @param conn The active database connection.
+     * @return The number of pairs.
+     */
+    public int rebuild(Connection conn) {
+        try {
+            ensureSchema(conn);
+            int rows = Transactions.inTransaction(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("LOCK TABLE public.user_pair_debts IN EXCLUSIVE MODE");
+                    statement.executeUpdate("DELETE FROM public.user_pair_debts");
+                    return statement.executeUpdate(INSERT_PREFIX + RECOMPUTE_SQL);
+                }
+            });
+            System.out.printf("  [LEDGER] Rebuilt pair debts: %d pairs.\n", rows);
+            return rows;
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to rebuild the pair debts.", e);
+        }
+    }
+
+    /**
+     * Creates the pair table and seeds it from the existing history, once, before the first write
+     * (see ExpenseRepository.migrate). The connection must be in auto-commit mode: both run in a
+     * transaction of their own, and the flag is set only after it commits.
+     */
+    public void ensureSchema(Connection conn) throws SQLException {
+        if (schemaReady) return;
+        if (!enabled) throw new IllegalStateException("The pair debt ledger is disabled.");
+        if (!conn.getAutoCommit()) throw new IllegalStateException("The pair ledger schema must be created outside a transaction.");
+
+        Transactions.inTransaction(conn, () -> {
+            try (Statement statement = conn.createStatement()) {
+                boolean exists;
+                try (ResultSet rs = statement.executeQuery("SELECT to_regclass('public.user_pair_debts') IS NOT NULL")) {
+                    exists = rs.next() && rs.getBoolean(1);
+                }
+
+                if (!exists) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.user_pair_debts ("
+                            + "low_id INT NOT NULL, high_id INT NOT NULL, amount NUMERIC NOT NULL DEFAULT 0,"
+                            + " PRIMARY KEY (low_id, high_id))");
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS user_pair_debts_high ON public.user_pair_debts (high_id)");
+                    statement.executeUpdate(INSERT_PREFIX + RECOMPUTE_SQL + " ON CONFLICT (low_id, high_id) DO NOTHING");
+                    LOGGER.info("Created user_pair_debts and seeded it from history.");
+                }
+            }
+            return null;
+        });
+        schemaReady = true;
+    }
+
+    // (debtor_id, creditor_id, amount) rows folded onto (low_id, high_id, signed amount), one per pair.
+    private static String upsert(String debtsSql) {
+        return INSERT_PREFIX + "SELECT low_id, high_id, SUM(amount) FROM (" + pairRows(debtsSql) + ") new_rows"
+                + " GROUP BY low_id, high_id" + UPSERT_SUFFIX;
+    }
+
+    private static String pairRows(String debtsSql) {
+        return "SELECT LEAST(debtor_id, creditor_id) AS low_id, GREATEST(debtor_id, creditor_id) AS high_id,"
+                + " CASE WHEN debtor_id < creditor_id THEN amount ELSE -amount END AS amount"
+                + " FROM (" + debtsSql + ") debts WHERE debtor_id <> creditor_id";
+    }
+
+    private static Array toBigintArray(Connection conn, long[] values) throws SQLException {
+        Long[] boxed = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return conn.createArrayOf("bigint", boxed);
+    }
+}
@@ -0,0 +1,218 @@
+package com.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Net debt between pairs of users in cents, as a sparse adjacency with primitive keys: one entry
+ * per pair of users that ever shared an expense or a settlement, nothing for the others.
+ * - Each unordered pair is stored once, under the packed key (lower id, higher id), with a
+ *   positive value meaning the lower id owes the higher one. Entries are rows of parallel arrays
+ *   found through an open-addressing hash of the key (linear probing, no boxing).
+ * - Every entry is chained into the adjacency lists of both its users (a head per user in an
+ *   IntLongMap plus a next-entry array per side), so one user's debts cost one step per
+ *   counterparty instead of a scan of every pair.
+ * Expense splits add debt from the member to the payer; settlements reduce the payer's debt to
+ * the receiver (and may turn it around).
+ * Not thread-safe.
+ */
+public final class PairDebts {
+
+    private static final int NONE = -1;
+
+    @FunctionalInterface
+    public interface DebtConsumer {
+        void accept(int debtorId, int creditorId, long cents);
+    }
+
+    /**
+     * One pair for GET /api/balances/pairs: the debtor owes the creditor amount (currency units).
+     */
+    public static class Debt {
+        private final int debtorId;
+        private final int creditorId;
+        private final double amount;
+
+        public Debt(int debtorId, int creditorId, long cents) {
+            this.debtorId = debtorId;
+            this.creditorId = creditorId;
+            this.amount = Money.toDouble(cents);
+        }
+
+        public int getDebtorId() { return debtorId; }
+        public int getCreditorId() { return creditorId; }
+        public double getAmount() { return amount; }
+    }
+
+    // --- entry columns ---
+    private long[] entryKeys;
+    private long[] entryValues;
+    private int[] nextOfLow;  // next entry in the lower id's list
+    private int[] nextOfHigh; // next entry in the higher id's list
+    private int size;
+
+    // key -> entry + 1; 0 marks an empty slot. At most half full.
+    private int[] slots;
+    // user id -> the user's most recent entry + 1
+    private IntLongMap heads;
+
+    public PairDebts() {
+        this(16);
+    }
+
+    public PairDebts(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        entryKeys = new long[capacity];
+        entryValues = new long[capacity];
+        nextOfLow = new int[capacity];
+        nextOfHigh = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        heads = new IntLongMap(Math.max(16, capacity));
+    }
+
+    /**
+     * Records that the debtor owes the creditor cents more (negative = less).
+     */
+    public void add(int debtorId, int creditorId, long cents) {
+        if (debtorId == creditorId || cents == 0) return;
+        if (debtorId < creditorId) {
+            addTo(debtorId, creditorId, cents);
+        } else {
+            addTo(creditorId, debtorId, -cents);
+        }
+    }
+
+    /**
+     * What the debtor owes the creditor, net of what the creditor owes the debtor.
+     */
+    public long owed(int debtorId, int creditorId) {
+        if (debtorId == creditorId) return 0;
+        int entry = debtorId < creditorId ? find(pack(debtorId, creditorId)) : find(pack(creditorId, debtorId));
+        if (entry == NONE) return 0;
+        return debtorId < creditorId ? entryValues[entry] : -entryValues[entry];
+    }
+
+    /**
+     * Number of pairs with an entry (including pairs that have netted out to zero).
+     */
+    public int size() { return size; }
+
+    /**
+     * Hands every pair with a non-zero net debt to the consumer, debtor first, in the order the
+     * pairs first appeared.
+     */
+    public void forEach(DebtConsumer consumer) {
+        for (int entry = 0; entry < size; entry++) {
+            accept(entry, consumer);
+        }
+    }
+
+    /**
+     * Hands the user's pairs with a non-zero net debt to the consumer (the user is either the
+     * debtor or the creditor), most recently added counterparty first.
+     */
+    public void forEachOf(int userId, DebtConsumer consumer) {
+        for (int entry = (int) heads.get(userId) - 1; entry != NONE; ) {
+            accept(entry, consumer);
+            entry = (int) (entryKeys[entry] >>> 32) == userId ? nextOfLow[entry] : nextOfHigh[entry];
+        }
+    }
+
+    /**
+     * The pairs with a non-zero net debt for the JSON API, in forEach order.
+     */
+    public List<Debt> toList() {
+        List<Debt> debts = new ArrayList<>(size);
+        forEach((debtorId, creditorId, cents) -> debts.add(new Debt(debtorId, creditorId, cents)));
+        return debts;
+    }
+
+    public void addAll(PairDebts other) {
+        other.forEach(this::add);
+    }
+
+    public PairDebts copy() {
+        PairDebts copy = new PairDebts(1);
+        copy.entryKeys = Arrays.copyOf(entryKeys, entryKeys.length);
+        copy.entryValues = Arrays.copyOf(entryValues, entryValues.length);
+        copy.nextOfLow = Arrays.copyOf(nextOfLow, nextOfLow.length);
+        copy.nextOfHigh = Arrays.copyOf(nextOfHigh, nextOfHigh.length);
+        copy.size = size;
+        copy.slots = Arrays.copyOf(slots, slots.length);
+        copy.heads = new IntLongMap(Math.max(16, heads.size()));
+        copy.heads.addAll(heads);
+        return copy;
+    }
+
+    private void accept(int entry, DebtConsumer consumer) {
+        long value = entryValues[entry];
+        if (value == 0) return;
+        int low = (int) (entryKeys[entry] >>> 32);
+        int high = (int) entryKeys[entry];
+        if (value > 0) {
+            consumer.accept(low, high, value);
+        } else {
+            consumer.accept(high, low, -value);
+        }
+    }
+
+    private void addTo(int low, int high, long delta) {
+        long key = pack(low, high);
+        int entry = find(key);
+        if (entry == NONE) entry = insert(key, low, high);
+        entryValues[entry] += delta;
+    }
+
+    private int find(long key) {
+        int mask = slots.length - 1;
+        for (int slot = mix(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entryKeys[entry] == key) return entry;
+        }
+        return NONE;
+    }
+
+    private int insert(long key, int low, int high) {
+        int entry = size;
+        if (entry == entryKeys.length) grow(entry * 2);
+        if ((entry + 1) * 2 > slots.length) rehash(slots.length * 2);
+        entryKeys[entry] = key;
+        entryValues[entry] = 0;
+        nextOfLow[entry] = (int) heads.get(low) - 1;
+        nextOfHigh[entry] = (int) heads.get(high) - 1;
+        heads.put(low, entry + 1);
+        heads.put(high, entry + 1);
+        size = entry + 1;
+        place(entry);
+        return entry;
+    }
+
+    private void place(int entry) {
+        int mask = slots.length - 1;
+        int slot = mix(entryKeys[entry]) & mask;
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        slots[slot] = entry + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int entry = 0; entry < size; entry++) place(entry);
+    }
+
+    private void grow(int capacity) {
+        entryKeys = Arrays.copyOf(entryKeys, capacity);
+        entryValues = Arrays.copyOf(entryValues, capacity);
+        nextOfLow = Arrays.copyOf(nextOfLow, capacity);
+        nextOfHigh = Arrays.copyOf(nextOfHigh, capacity);
+    }
+
+    private static long pack(int low, int high) {
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,25 @@
+package com.app;
+
+/**
+ * Thrown by an importBatch that stopped part way with some of its rows already committed (see
+ * ShardedStorageEngine#importBatch). Writing the whole batch again would store those rows twice,
+ * so a retry must only write the rows that were not committed.
+ */
+public class PartialImportException extends DatabaseException {
+
+    private final boolean[] expensesCommitted;
+    private final boolean[] settlementsCommitted;
+
+    /**
+     * @param expensesCommitted Per expense of the batch (in batch order), true if it was stored.
+     * @param settlementsCommitted Per settlement of the batch, true if it was stored.
+     */
+    public PartialImportException(String message, Throwable cause, boolean[] expensesCommitted, boolean[] settlementsCommitted) {
+        super(message, cause);
+        this.expensesCommitted = expensesCommitted;
+        this.settlementsCommitted = settlementsCommitted;
+    }
+
+    public boolean isExpenseCommitted(int index) { return expensesCommitted[index]; }
+    public boolean isSettlementCommitted(int index) { return settlementsCommitted[index]; }
+}
@@ -0,0 +1,101 @@
+package com.app;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Which threads run HTTP request handling, chosen by HTTP_THREADS:
+ * - platform (default): a bounded pool of HTTP_THREADS_MAX (200) platform threads, the servers'
+ *   usual model; a blocked JDBC call holds one of them for its whole round trip.
+ * - virtual: one virtual thread per request (Java 21+), so requests waiting on the database
+ *   cost no platform thread and the pool no longer caps concurrent requests. Database
+ *   concurrency stays bounded by the connection pool's semaphore (DB_POOL_SIZE), whose waiters
+ *   park without pinning a carrier thread.
+ * The code is compiled for Java 17, so virtual threads are looked up reflectively; on a runtime
+ * older than 21 (the version Spring Boot also requires for them) virtual falls back to the
+ * bounded platform pool and says so at start-up.
+ */
+public final class RequestThreads {
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    // Jetty still pools its (virtual) workers; this only guards against a runaway
+    private static final int MAX_VIRTUAL_THREADS = 10_000;
+
+    private final int maxPlatformThreads;
+    private final ThreadFactory virtualFactory; // null when running on platform threads
+    private final String fallbackReason;
+
+    private RequestThreads(String requested, int maxPlatformThreads) {
+        this.maxPlatformThreads = maxPlatformThreads;
+        ThreadFactory factory = null;
+        String reason = null;
+        if (requested.equals(VIRTUAL)) {
+            int feature = Runtime.version().feature();
+            try {
+                if (feature < 21) throw new UnsupportedOperationException("virtual threads need Java 21, running " + feature);
+                factory = virtualThreadFactory("request-");
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                reason = (e.getCause() != null ? e.getCause() : e).getMessage();
+            }
+        }
+        this.virtualFactory = factory;
+        this.fallbackReason = reason;
+    }
+
+    /**
+     * The mode from HTTP_THREADS (platform or virtual) and HTTP_THREADS_MAX.
+     */
+    public static RequestThreads fromConfig() {
+        String mode = AppConfig.getString("http.threads", PLATFORM).toLowerCase(Locale.ROOT);
+        if (!mode.equals(PLATFORM) && !mode.equals(VIRTUAL)) {
+            throw new IllegalArgumentException("Unknown http.threads mode '" + mode + "' (expected platform or virtual)");
+        }
+        return new RequestThreads(mode, AppConfig.getInt("http.threads.max", 200));
+    }
+
+    /**
+     * A specific mode, e.g. for load tests comparing both.
+     */
+    public static RequestThreads of(String mode, int maxPlatformThreads) {
+        return new RequestThreads(mode, maxPlatformThreads);
+    }
+
+    /**
+     * True if requests actually run on virtual threads (requested and available).
+     */
+    public boolean isVirtual() { return virtualFactory != null; }
+
+    public int getMaxPlatformThreads() { return maxPlatformThreads; }
+
+    /**
+     * Most request threads at once: HTTP_THREADS_MAX on platform threads, a high guard when virtual.
+     */
+    public int getMaxThreads() { return isVirtual() ? MAX_VIRTUAL_THREADS : maxPlatformThreads; }
+
+    /**
+     * Factory for request threads: virtual ones, or null to let the server use its own pool.
+     */
+    public ThreadFactory getVirtualThreadFactory() { return virtualFactory; }
+
+    /**
+     * One line for the start-up log: the mode in effect and, after a fallback, why.
+     */
+    public String describe() {
+        if (isVirtual()) return "virtual threads (one per request; database bounded by the connection pool)";
+        String platform = "a bounded pool of " + maxPlatformThreads + " platform threads";
+        return fallbackReason == null ? platform : platform + ", because " + fallbackReason;
+    }
+
+    // Thread.ofVirtual().name(prefix, 0).factory(), without compiling against Java 21
+    private static ThreadFactory virtualThreadFactory(String prefix) throws ReflectiveOperationException {
+        Method ofVirtual = Thread.class.getMethod("ofVirtual");
+        Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+        Object builder = ofVirtual.invoke(null);
+        builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+        ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        return factory;
+    }
+}
@@ -0,0 +1,103 @@
+package com.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Serialized response bodies keyed by request (e.g. "balances") and tagged with the
+ * DataVersion they were produced under. A body is served again only while the version is
+ * unchanged, so no explicit invalidation is needed: any write makes every entry stale.
+ * Holds at most maxEntries bodies (least recently used are dropped).
+ * Misses are coalesced: concurrent requests for the same key and version wait for one
+ * computation (SingleFlight), which runs inside the AdmissionControl limit, so N viewers of an
+ * unchanged version cost one query however large N is, and a saturated limit fails fast.
+ */
+public class ResponseBodyCache {
+
+    /**
+     * Produces the serialized body on a cache miss.
+     */
+    @FunctionalInterface
+    public interface BodySupplier {
+        byte[] get() throws Exception;
+    }
+
+    private static final class Entry {
+        final long version;
+        final byte[] body;
+
+        Entry(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private final SingleFlight flights = new SingleFlight();
+    private final AdmissionControl admission;
+    private long hits;
+    private long misses;
+
+    public ResponseBodyCache(int maxEntries) {
+        this(maxEntries, AdmissionControl.get());
+    }
+
+    public ResponseBodyCache(int maxEntries, AdmissionControl admission) {
+        this.admission = admission;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache size from config: HTTP_BODY_CACHE_ENTRIES (default 64 bodies).
+     */
+    public static ResponseBodyCache fromConfig() {
+        return new ResponseBodyCache(AppConfig.getInt("http.body.cache.entries", 64));
+    }
+
+    /**
+     * Returns the body cached for key at the given version, or produces and caches it.
+     * The version must be sampled before the supplier reads any data (see DataVersion).
+     * @throws AdmissionControl.OverloadedException when a miss cannot be admitted.
+     */
+    public byte[] getOrCompute(String key, long version, BodySupplier supplier) throws Exception {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                hits++;
+                return entry.body;
+            }
+            misses++;
+        }
+
+        // Stored before the flight ends, so a request arriving just after it finds the body
+        return compute(key, version, () -> {
+            byte[] body = supplier.get();
+            synchronized (this) {
+                Entry current = entries.get(key);
+                if (current == null || current.version < version) {
+                    entries.put(key, new Entry(version, body));
+                }
+            }
+            return body;
+        });
+    }
+
+    /**
+     * Runs an uncached read (e.g. one page of a keyset list) with the same coalescing and
+     * admission as a miss: concurrent calls with the same key and version share one result.
+     */
+    public <T> T compute(String key, long version, Callable<T> work) throws Exception {
+        return flights.run(key + "@" + version, () -> admission.call(work));
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    // Misses answered by another request's computation
+    public long getCoalesced() { return flights.getShared(); }
+}
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 
 /**
  * The Model Class for the 'settlements' table.
+ * The amount is held in whole cents (see Money); getAmount() is kept for the JSON API.
  */
 public class Settlement {
     
@@ -11,30 +12,34 @@ public class Settlement {
     private final int groupId; // Group the settlement belongs to (NO LONGER HARDCODED)
     private final int payerId; // The user making the payment (debtor)
     private final int receiverId; // The user receiving the payment (creditor)
-    private final double amount;
+    private final long amountCents;
     private final LocalDateTime settlementDate;
 
     /**
      * Constructor used when creating a new settlement record (before saving to DB).
      */
     public Settlement(int groupId, int payerId, int receiverId, double amount) {
+        this(groupId, payerId, receiverId, Money.of(amount));
+    }
+
+    public Settlement(int groupId, int payerId, int receiverId, Money amount) {
         this.settlementId = -1;
         this.groupId = groupId; // NOW ACCEPTS THE GENERATED GROUP ID
         this.payerId = payerId;
         this.receiverId = receiverId;
-        this.amount = amount;
+        this.amountCents = amount.getCents();
         this.settlementDate = LocalDateTime.now();
     }
 
     /**
      * Constructor used when retrieving a settlement record from the database.
      */
-    public Settlement(long settlementId, int groupId, int payerId, int receiverId, double amount, LocalDateTime settlementDate) {
+    public Settlement(long settlementId, int groupId, int payerId, int receiverId, Money amount, LocalDateTime settlementDate) {
         this.settlementId = settlementId;
         this.groupId = groupId;
         this.payerId = payerId;
         this.receiverId = receiverId;
-        this.amount = amount;
+        this.amountCents = amount.getCents();
         this.settlementDate = settlementDate;
     }
 
@@ -43,6 +48,7 @@ public class Settlement {
     public int getGroupId() { return groupId; }
     public int getPayerId() { return payerId; }
     public int getReceiverId() { return receiverId; }
-    public double getAmount() { return amount; }
+    public double getAmount() { return Money.toDouble(amountCents); }
+    public long getAmountCents() { return amountCents; }
     public LocalDateTime getSettlementDate() { return settlementDate; }
 }
\ No newline at end of file
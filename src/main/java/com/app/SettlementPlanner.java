@@ -0,0 +1,191 @@
+package com.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the net balance map into a short list of "who pays whom" transfers.
+ * - Greedy mode: repeatedly matches the largest creditor with the largest debtor using two
+ *   heaps. At most n-1 transfers, O(n log n), suitable for groups of any size.
+ * - Exact mode: finds the true minimum number of transfers by splitting the group into the
+ *   largest number of zero-sum subsets (subset DP, exponential), so it is limited to small groups
+ *   and falls back to greedy above {@link #EXACT_MAX_PARTICIPANTS}.
+ * Amounts are matched in whole cents so the plan always clears the balances exactly.
+ */
+public class SettlementPlanner {
+
+    public static final int EXACT_MAX_PARTICIPANTS = 16;
+
+    /**
+     * Plans transfers with the heap-based greedy matcher.
+     * @param netBalances Key=UserId, Value=Net Balance (positive = is owed money).
+     * @return Settlements from debtor (payer) to creditor (receiver).
+     */
+    public List<Settlement> planGreedy(Map<Integer, Double> netBalances) {
+        return planGreedy(IntLongMap.fromDecimalMap(netBalances));
+    }
+
+    /**
+     * Greedy plan straight from balances in cents (Key=UserId, Value=Net Balance in cents).
+     */
+    public List<Settlement> planGreedy(IntLongMap netBalanceCents) {
+        int[] userIds = new int[netBalanceCents.size()];
+        long[] cents = new long[netBalanceCents.size()];
+        int count = nonZero(netBalanceCents, userIds, cents);
+        return matchGreedy(userIds, cents, 0, count, new ArrayList<>());
+    }
+
+    /**
+     * Plans the minimum possible number of transfers for small groups.
+     * Groups with more than {@link #EXACT_MAX_PARTICIPANTS} non-zero balances use the greedy plan.
+     * @param netBalances Key=UserId, Value=Net Balance (positive = is owed money).
+     * @return Settlements from debtor (payer) to creditor (receiver).
+     */
+    public List<Settlement> planExact(Map<Integer, Double> netBalances) {
+        return planExact(IntLongMap.fromDecimalMap(netBalances));
+    }
+
+    /**
+     * Exact plan straight from balances in cents (Key=UserId, Value=Net Balance in cents).
+     */
+    public List<Settlement> planExact(IntLongMap netBalanceCents) {
+        int[] userIds = new int[netBalanceCents.size()];
+        long[] cents = new long[netBalanceCents.size()];
+        int n = nonZero(netBalanceCents, userIds, cents);
+        if (n > EXACT_MAX_PARTICIPANTS) {
+            return matchGreedy(userIds, cents, 0, n, new ArrayList<>());
+        }
+
+        int full = (1 << n) - 1;
+        long[] sum = new long[full + 1];
+        int[] zeroSumGroups = new int[full + 1];
+        for (int mask = 1; mask <= full; mask++) {
+            int low = Integer.numberOfTrailingZeros(mask);
+            sum[mask] = sum[mask & (mask - 1)] + cents[low];
+
+            int best = 0;
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                int without = mask & ~Integer.lowestOneBit(rest);
+                best = Math.max(best, zeroSumGroups[without]);
+            }
+            zeroSumGroups[mask] = best + (sum[mask] == 0 ? 1 : 0);
+        }
+
+        // Walk back from the full set; every zero-sum prefix on the path closes one independent
+        // sub-group, which needs exactly (size - 1) transfers.
+        int[] orderedIds = new int[n];
+        long[] orderedCents = new long[n];
+        List<Settlement> plan = new ArrayList<>();
+        int mask = full;
+        int groupEnd = n;
+        int position = n;
+        while (mask != 0) {
+            int expected = zeroSumGroups[mask] - (sum[mask] == 0 ? 1 : 0);
+            int chosen = -1;
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                int bit = Integer.numberOfTrailingZeros(rest);
+                if (zeroSumGroups[mask & ~(1 << bit)] == expected) {
+                    chosen = bit;
+                    break;
+                }
+            }
+            position--;
+            orderedIds[position] = userIds[chosen];
+            orderedCents[position] = cents[chosen];
+            mask &= ~(1 << chosen);
+
+            if (mask == 0 || sum[mask] == 0) {
+                matchGreedy(orderedIds, orderedCents, position, groupEnd, plan);
+                groupEnd = position;
+            }
+        }
+        return plan;
+    }
+
+    // Copies non-zero balances into the arrays; returns how many entries were written.
+    private static int nonZero(IntLongMap netBalanceCents, int[] userIds, long[] cents) {
+        int[] count = {0};
+        netBalanceCents.forEach((userId, value) -> {
+            if (value != 0) {
+                userIds[count[0]] = userId;
+                cents[count[0]] = value;
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private static List<Settlement> matchGreedy(int[] userIds, long[] cents, int from, int to, List<Settlement> plan) {
+        AmountHeap creditors = new AmountHeap(to - from);
+        AmountHeap debtors = new AmountHeap(to - from);
+        for (int i = from; i < to; i++) {
+            if (cents[i] > 0) creditors.push(userIds[i], cents[i]);
+            else if (cents[i] < 0) debtors.push(userIds[i], -cents[i]);
+        }
+
+        while (!creditors.isEmpty() && !debtors.isEmpty()) {
+            int creditor = creditors.peekId();
+            long credit = creditors.peekAmount();
+            int debtor = debtors.peekId();
+            long debt = debtors.peekAmount();
+            creditors.pop();
+            debtors.pop();
+
+            long transfer = Math.min(credit, debt);
+            plan.add(new Settlement(0, debtor, creditor, Money.ofCents(transfer)));
+
+            if (credit > transfer) creditors.push(creditor, credit - transfer);
+            if (debt > transfer) debtors.push(debtor, debt - transfer);
+        }
+        return plan;
+    }
+
+    /**
+     * Binary max-heap over (userId, cents) kept in primitive arrays to avoid boxing.
+     */
+    private static final class AmountHeap {
+        private final int[] ids;
+        private final long[] amounts;
+        private int size;
+
+        AmountHeap(int capacity) {
+            this.ids = new int[Math.max(1, capacity)];
+            this.amounts = new long[Math.max(1, capacity)];
+        }
+
+        boolean isEmpty() { return size == 0; }
+        int peekId() { return ids[0]; }
+        long peekAmount() { return amounts[0]; }
+
+        void push(int id, long amount) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (amounts[parent] >= amount) break;
+                ids[i] = ids[parent];
+                amounts[i] = amounts[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            amounts[i] = amount;
+        }
+
+        void pop() {
+            int lastId = ids[--size];
+            long lastAmount = amounts[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && amounts[child + 1] > amounts[child]) child++;
+                if (lastAmount >= amounts[child]) break;
+                ids[i] = ids[child];
+                amounts[i] = amounts[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            amounts[i] = lastAmount;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.app;
+
+/**
+ * Which of N database shards holds a row, and how shard-local ids map to the global ids the API
+ * hands out (see ShardedStorageEngine).
+ * - A group's expenses, their splits and its settlements all live on shard groupId mod N, so a
+ *   group's balances are answered by one shard. Rows outside a group (group 0) would otherwise all
+ *   land on shard 0; they are spread by payer instead.
+ * - Each shard generates its own ids, so a global id carries its shard in the low digits:
+ *   global = local * N + shard. Global ids are unique, and ordering by them keeps each shard's own
+ *   order. They are not monotonic across shards: a shard with fewer rows hands out lower ids, so a
+ *   row it stores after a page was served can sort behind that page's last id. Page cursors
+ *   therefore keep each shard's local position (see ShardedStorageEngine#pageExpenses).
+ * The mapping depends on N: changing the number of shards needs the data re-split.
+ */
+public final class ShardRouter {
+
+    private final int shardCount;
+
+    public ShardRouter(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("At least one shard is needed: " + shardCount);
+        this.shardCount = shardCount;
+    }
+
+    public int getShardCount() { return shardCount; }
+
+    /**
+     * Shard of a row in the group, paid by the payer (the payer only matters outside a group).
+     */
+    public int shardOf(int groupId, int payerId) {
+        return Math.floorMod(groupId != 0 ? groupId : payerId, shardCount);
+    }
+
+    public int shardOf(Expense expense) {
+        return shardOf(expense.getGroupId(), expense.getPayerId());
+    }
+
+    public int shardOf(Settlement settlement) {
+        return shardOf(settlement.getGroupId(), settlement.getPayerId());
+    }
+
+    /**
+     * True if the group's rows are all on one shard (every group but 0).
+     */
+    public boolean isSingleShard(int groupId) {
+        return groupId != 0 || shardCount == 1;
+    }
+
+    /**
+     * @return The global id of the shard's local id; ids below 1 (failures) are returned as-is.
+     */
+    public long globalId(long localId, int shard) {
+        return localId < 1 ? localId : localId * shardCount + shard;
+    }
+
+    public int shardOfId(long globalId) {
+        return (int) Math.floorMod(globalId, (long) shardCount);
+    }
+
+    public long localId(long globalId) {
+        return Math.floorDiv(globalId, shardCount);
+    }
+
+    /**
+     * The shard's keyset position for a global one: its local ids above the result are exactly
+     * its rows with global ids above afterId (0 for the first page).
+     */
+    public long localAfter(long afterId, int shard) {
+        return Math.max(0, Math.floorDiv(afterId - shard, shardCount));
+    }
+}
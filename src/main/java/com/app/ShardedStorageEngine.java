@@ -0,0 +1,706 @@
+package com.app;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * StorageEngine spread over N shards (usually JdbcStorageEngines, one PostgreSQL database each),
+ * with groups as the unit of distribution: ShardRouter puts a group's expenses, splits and
+ * settlements on one shard, so writes and group balances touch a single database.
+ * - Users (and the group directory) are reference data: every user write is applied to every
+ *   shard in the same order, so each shard generates the same user_id and keeps its foreign keys.
+ *   A user is registered or deleted on every shard or on none: a failure part way through is
+ *   undone on the shards already written.
+ *   User reads are answered by shard 0. Groups are created on every shard the same way.
+ * - Expense, split and settlement ids are global (see ShardRouter): the shard's own id with the
+ *   shard in the low digits. They are unique but not monotonic across shards, so page cursors
+ *   hold a position per shard rather than one id (see {@link #pageExpenses(String, int)}).
+ * - Global reads (balances, pair debts, lists, pages, reports, ledger checks) are scattered to
+ *   every shard in parallel on a fan-out pool and the partial results merged: balances and pair
+ *   debts are summed per user or pair, lists merged in global id order.
+ * - A bulk import is split by shard and each shard's part is atomic, but there is no distributed
+ *   transaction: if a later shard fails, the parts already committed on earlier shards remain and
+ *   the PartialImportException names their rows, so BulkImporter only replays the others.
+ * Ledger checks report drift per shard, so a user can appear once for each shard that drifted.
+ * Pick it with STORAGE_ENGINE=sharded and DB_SHARDS, see {@link #fromConfig()}.
+ */
+public class ShardedStorageEngine implements StorageEngine {
+
+    // Rows fetched per shard and page while streaming in global id order
+    private static final int STREAM_PAGE = 1_000;
+    private static final OperationTimer FAN_OUT = MetricsRegistry.query("ShardedStorageEngine.fanOut");
+
+    @FunctionalInterface
+    private interface ShardPage<T> {
+        List<T> rows(int shard, long afterLocalId);
+    }
+
+    private final List<StorageEngine> shards;
+    private final ShardRouter router;
+    private final ExecutorService fanOut; // null with a single shard
+    private final List<ConnectionPool> pools; // empty when the shards were handed in
+    private final Object userWrites = new Object(); // users and groups
+    private final ChangeFeed feed = ChangeFeed.get();
+
+    /**
+     * Engine over the given shards, e.g. JDBC engines over stand-in databases; closing it closes them.
+     * The shards' own change feeds are switched off: this engine publishes with global ids.
+     */
+    public ShardedStorageEngine(List<StorageEngine> shards) {
+        this(shards, List.of());
+    }
+
+    private ShardedStorageEngine(List<StorageEngine> shards, List<ConnectionPool> pools) {
+        this.shards = List.copyOf(shards);
+        this.router = new ShardRouter(this.shards.size());
+        this.pools = pools;
+        for (StorageEngine shard : this.shards) {
+            if (shard instanceof JdbcStorageEngine) ((JdbcStorageEngine) shard).setChangeFeed(null);
+            if (shard instanceof InMemoryStorageEngine) ((InMemoryStorageEngine) shard).setChangeFeed(null);
+        }
+        // The calling thread queries shard 0 itself, the pool the others
+        if (this.shards.size() > 1) {
+            AtomicInteger next = new AtomicInteger();
+            this.fanOut = Executors.newFixedThreadPool(this.shards.size() - 1, task -> {
+                Thread thread = new Thread(task, "shard-fan-out-" + next.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.fanOut = null;
+        }
+    }
+
+    /**
+     * One JDBC engine per URL in DB_SHARDS (comma-separated), each with its own connection pool
+     * sized by the DB_POOL_* settings and the shared DB_USER and DB_PASS. Shard order matters:
+     * the router maps ids by position, so list the shards the same way on every start.
+     */
+    public static ShardedStorageEngine fromConfig() {
+        String urls = AppConfig.getString("db.shards", "");
+        List<StorageEngine> shards = new ArrayList<>();
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (url.isBlank()) continue;
+            String shardUrl = url.trim();
+            ConnectionPool pool = new ConnectionPool(() -> DatabaseConnector.openPhysicalConnection(shardUrl),
+                                                     ConnectionPool.Settings.fromConfig());
+            pools.add(pool);
+            shards.add(new JdbcStorageEngine(pool::getConnection, new UserRepository(), new ExpenseRepository(new BalanceLedger())));
+        }
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("The sharded storage engine needs db.shards (DB_SHARDS): comma-separated JDBC URLs");
+        }
+        return new ShardedStorageEngine(shards, pools);
+    }
+
+    @Override
+    public String getName() { return SHARDED; }
+
+    public ShardRouter getRouter() { return router; }
+
+    /**
+     * The shard engines, in router order (for tooling and checks).
+     */
+    public List<StorageEngine> getShards() { return shards; }
+
+    /**
+     * Each shard's connection pool metrics, in shard order (empty unless built from DB_SHARDS).
+     */
+    public List<ConnectionPool.Metrics> getShardPoolMetrics() {
+        List<ConnectionPool.Metrics> metrics = new ArrayList<>(pools.size());
+        for (ConnectionPool pool : pools) metrics.add(pool.getMetrics());
+        return metrics;
+    }
+
+    // --- USERS ---
+
+    /**
+     * Registers the user on every shard or on none: each shard must hand out the user_id shard 0
+     * did, and if one fails or diverges the user is removed again from the shards that have it.
+     */
+    @Override
+    public void registerNewUser(User user) {
+        synchronized (userWrites) {
+            String username = user.getUsername();
+            if (shards.get(0).findUserByUsername(username) != null) {
+                shards.get(0).registerNewUser(user); // a duplicate is reported and ignored
+                return;
+            }
+            int registered = 0;
+            try {
+                int userId = -1;
+                for (int s = 0; s < shards.size(); s++) {
+                    StorageEngine shard = shards.get(s);
+                    if (shard.findUserByUsername(username) != null) throw diverged(username, s, "already has it");
+                    shard.registerNewUser(user);
+                    User copy = shard.findUserByUsername(username);
+                    if (copy == null) {
+                        if (s == 0) return; // a duplicate email, reported and ignored
+                        throw diverged(username, s, "did not register it");
+                    }
+                    registered++;
+                    if (s == 0) {
+                        userId = copy.getUserId();
+                    } else if (copy.getUserId() != userId) {
+                        throw diverged(username, s, "gave it id " + copy.getUserId() + " but shard 0 gave " + userId);
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (int s = 0; s < registered; s++) {
+                    try {
+                        User copy = shards.get(s).findUserByUsername(username);
+                        if (copy != null) shards.get(s).deleteUserById(copy.getUserId());
+                    } catch (RuntimeException undo) {
+                        e.addSuppressed(undo);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public List<User> listAllUsers() {
+        return shards.get(0).listAllUsers();
+    }
+
+    @Override
+    public List<User> listUserDirectory() {
+        return shards.get(0).listUserDirectory();
+    }
+
+    @Override
+    public User findUserById(int userId) {
+        return shards.get(0).findUserById(userId);
+    }
+
+    @Override
+    public User findUserByUsername(String username) {
+        return shards.get(0).findUserByUsername(username);
+    }
+
+    @Override
+    public void updateUser(User user) {
+        synchronized (userWrites) {
+            for (StorageEngine shard : shards) {
+                shard.updateUser(user);
+            }
+        }
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        synchronized (userWrites) {
+            User user = shards.get(0).findUserByUsername(username);
+            if (user == null) {
+                shards.get(0).deleteUser(username); // reports the unknown user
+                return;
+            }
+            deleteEverywhere(user.getUserId());
+        }
+    }
+
+    @Override
+    public boolean deleteUserById(int userId) {
+        synchronized (userWrites) {
+            if (shards.get(0).findUserById(userId) == null) {
+                return shards.get(0).deleteUserById(userId); // reports the unknown user
+            }
+            deleteEverywhere(userId);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isUserReferenced(int userId) {
+        return onEveryShard(s -> shards.get(s).isUserReferenced(userId)).contains(true);
+    }
+
+    @Override
+    public void restoreUser(User user) {
+        synchronized (userWrites) {
+            for (StorageEngine shard : shards) {
+                shard.restoreUser(user);
+            }
+        }
+    }
+
+    /**
+     * Creates the group on every shard in the same order, like a user, so each shard hands out the
+     * same group_id and the group's rows on shard groupId mod N keep their foreign key to it.
+     * Groups cannot be deleted, so a shard that fails or diverges is reported, not undone: the
+     * group is then left on the shards before it, without any rows.
+     */
+    @Override
+    public long createGroup(String groupName, int creatorId) {
+        synchronized (userWrites) {
+            long groupId = shards.get(0).createGroup(groupName, creatorId);
+            if (groupId < 1) return groupId;
+            for (int s = 1; s < shards.size(); s++) {
+                long copy;
+                try {
+                    copy = shards.get(s).createGroup(groupName, creatorId);
+                } catch (RuntimeException e) {
+                    throw new DatabaseException("Group '" + groupName + "' (ID " + groupId + ") failed on shard " + s
+                            + " after shards 0 to " + (s - 1) + " created it.", e);
+                }
+                if (copy != groupId) {
+                    throw new DatabaseException("Group '" + groupName + "' has id " + copy + " on shard " + s + " but "
+                            + groupId + " on shard 0; the shards' group tables have diverged.");
+                }
+            }
+            return groupId;
+        }
+    }
+
+    // --- EXPENSES AND SETTLEMENTS ---
+
+    @Override
+    public long addExpense(Expense expense) {
+        int shard = router.shardOf(expense);
+        long expenseId = router.globalId(shards.get(shard).addExpense(expense), shard);
+        feed.expenseRecorded(expenseId, expense, List.of(), new long[0]);
+        return expenseId;
+    }
+
+    @Override
+    public void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds, long[] shares) {
+        int shard = router.shardOfId(expense.getExpenseId());
+        shards.get(shard).splitExpenseAndRecordDebts(withId(expense, router.localId(expense.getExpenseId())), memberIds, shares);
+        feed.splitsRecorded(expense, memberIds, shares);
+    }
+
+    @Override
+    public long createExpenseWithSplits(Expense expense, List<Integer> memberIds, long[] shares) {
+        int shard = router.shardOf(expense);
+        long expenseId = router.globalId(shards.get(shard).createExpenseWithSplits(expense, memberIds, shares), shard);
+        feed.expenseRecorded(expenseId, expense, memberIds, shares);
+        return expenseId;
+    }
+
+    @Override
+    public long recordSettlement(Settlement settlement) {
+        int shard = router.shardOf(settlement);
+        long settlementId = router.globalId(shards.get(shard).recordSettlement(settlement), shard);
+        feed.settlementRecorded(settlementId, settlement);
+        return settlementId;
+    }
+
+    /**
+     * Imports each shard's part of the batch in shard order; each part is atomic on its shard.
+     * @throws PartialImportException if a shard fails after earlier shards committed their part,
+     *         telling which rows were stored; a failure on the first part stores nothing.
+     */
+    @Override
+    public void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements) {
+        int n = shards.size();
+        List<List<Expense>> shardExpenses = new ArrayList<>(n);
+        List<List<List<Integer>>> shardParticipants = new ArrayList<>(n);
+        List<List<Settlement>> shardSettlements = new ArrayList<>(n);
+        for (int s = 0; s < n; s++) {
+            shardExpenses.add(new ArrayList<>());
+            shardParticipants.add(new ArrayList<>());
+            shardSettlements.add(new ArrayList<>());
+        }
+        int[] expenseShards = new int[expenses.size()];
+        for (int i = 0; i < expenses.size(); i++) {
+            int shard = expenseShards[i] = router.shardOf(expenses.get(i));
+            shardExpenses.get(shard).add(expenses.get(i));
+            shardParticipants.get(shard).add(participants.get(i));
+        }
+        int[] settlementShards = new int[settlements.size()];
+        for (int i = 0; i < settlements.size(); i++) {
+            int shard = settlementShards[i] = router.shardOf(settlements.get(i));
+            shardSettlements.get(shard).add(settlements.get(i));
+        }
+
+        boolean[] committed = new boolean[n];
+        boolean anyCommitted = false;
+        for (int s = 0; s < n; s++) {
+            if (shardExpenses.get(s).isEmpty() && shardSettlements.get(s).isEmpty()) continue;
+            try {
+                shards.get(s).importBatch(shardExpenses.get(s), shardParticipants.get(s), shardSettlements.get(s));
+            } catch (RuntimeException e) {
+                if (!anyCommitted) throw e;
+                boolean[] expensesCommitted = new boolean[expenseShards.length];
+                for (int i = 0; i < expenseShards.length; i++) expensesCommitted[i] = committed[expenseShards[i]];
+                boolean[] settlementsCommitted = new boolean[settlementShards.length];
+                for (int i = 0; i < settlementShards.length; i++) settlementsCommitted[i] = committed[settlementShards[i]];
+                feed.refresh("import");
+                throw new PartialImportException("Import failed on shard " + s + " after earlier shards had committed their part.",
+                                                 e, expensesCommitted, settlementsCommitted);
+            }
+            committed[s] = true;
+            anyCommitted = true;
+        }
+        feed.refresh("import");
+    }
+
+    @Override
+    public List<Expense> listAllExpenses() {
+        List<Expense> all = new ArrayList<>();
+        List<List<Expense>> parts = onEveryShard(s -> shards.get(s).listAllExpenses());
+        for (int s = 0; s < parts.size(); s++) {
+            for (Expense expense : parts.get(s)) all.add(global(expense, s));
+        }
+        all.sort(Comparator.comparingLong(Expense::getExpenseId));
+        return all;
+    }
+
+    /**
+     * Rows with global ids above afterId, in global id order. As a cursor a global id can skip a
+     * row written meanwhile on a shard with fewer rows; clients page with {@link #pageExpenses}.
+     */
+    @Override
+    public List<Expense> listExpensesPage(long afterId, int limit) {
+        return page(positions(afterId), limit, (s, after) -> shards.get(s).listExpensesPage(after, limit),
+                    this::global, Expense::getExpenseId).getRows();
+    }
+
+    /**
+     * Pages with a keyset position per shard: the cursor is each shard's last local id served,
+     * joined by '.'. A row a shard stores after a page was served is still after that shard's
+     * position, so paging on from a held cursor misses nothing. Within a page rows are in global
+     * id order; a row written late on a shard with fewer rows comes on a later page than higher
+     * ids. A plain global id is accepted as a starting point.
+     */
+    @Override
+    public KeysetPage<Expense> pageExpenses(String cursor, int limit) {
+        return page(positions(cursor), limit, (s, after) -> shards.get(s).listExpensesPage(after, limit),
+                    this::global, Expense::getExpenseId);
+    }
+
+    // Paged by per-shard positions, so rows written while streaming are not skipped either
+    @Override
+    public void streamExpenses(Consumer<Expense> consumer) {
+        String cursor = null;
+        KeysetPage<Expense> page;
+        do {
+            page = pageExpenses(cursor, STREAM_PAGE);
+            page.getRows().forEach(consumer);
+            cursor = page.getNextCursor();
+        } while (page.getRows().size() == STREAM_PAGE);
+    }
+
+    @Override
+    public List<ExpenseSplit> listExpenseSplits(long expenseId) {
+        int shard = router.shardOfId(expenseId);
+        List<ExpenseSplit> splits = new ArrayList<>();
+        for (ExpenseSplit split : shards.get(shard).listExpenseSplits(router.localId(expenseId))) {
+            splits.add(new ExpenseSplit(router.globalId(split.getSplitId(), shard), expenseId, split.getMemberId(),
+                                        Money.ofCents(split.getOwedAmountCents())));
+        }
+        return splits;
+    }
+
+    @Override
+    public List<Settlement> listAllSettlements() {
+        List<Settlement> all = new ArrayList<>();
+        List<List<Settlement>> parts = onEveryShard(s -> shards.get(s).listAllSettlements());
+        for (int s = 0; s < parts.size(); s++) {
+            for (Settlement settlement : parts.get(s)) all.add(global(settlement, s));
+        }
+        all.sort(Comparator.comparingLong(Settlement::getSettlementId));
+        return all;
+    }
+
+    @Override
+    public List<Settlement> listSettlementsPage(long afterId, int limit) {
+        return page(positions(afterId), limit, (s, after) -> shards.get(s).listSettlementsPage(after, limit),
+                    this::global, Settlement::getSettlementId).getRows();
+    }
+
+    @Override
+    public KeysetPage<Settlement> pageSettlements(String cursor, int limit) {
+        return page(positions(cursor), limit, (s, after) -> shards.get(s).listSettlementsPage(after, limit),
+                    this::global, Settlement::getSettlementId);
+    }
+
+    @Override
+    public void streamSettlements(Consumer<Settlement> consumer) {
+        String cursor = null;
+        KeysetPage<Settlement> page;
+        do {
+            page = pageSettlements(cursor, STREAM_PAGE);
+            page.getRows().forEach(consumer);
+            cursor = page.getNextCursor();
+        } while (page.getRows().size() == STREAM_PAGE);
+    }
+
+    // Summed per user on each shard in parallel, then handed over from the caller's thread.
+    @Override
+    public void streamBalanceDeltas(ExpenseRepository.BalanceDeltaConsumer consumer) {
+        merge(onEveryShard(s -> {
+            IntLongMap deltas = new IntLongMap(256);
+            shards.get(s).streamBalanceDeltas(deltas::addTo);
+            return deltas;
+        })).forEach(consumer::accept);
+    }
+
+    // --- BALANCES ---
+
+    @Override
+    public IntLongMap readBalanceCents() {
+        return merge(onEveryShard(s -> shards.get(s).readBalanceCents())).withoutZeros();
+    }
+
+    @Override
+    public IntLongMap readBalanceCentsAsOf(LocalDate date) {
+        return merge(onEveryShard(s -> shards.get(s).readBalanceCentsAsOf(date))).withoutZeros();
+    }
+
+    // One shard holds the group; group 0 (no group) is spread by payer and gathered from all.
+    @Override
+    public IntLongMap readGroupBalanceCents(int groupId) {
+        if (router.isSingleShard(groupId)) {
+            return shards.get(router.shardOf(groupId, 0)).readGroupBalanceCents(groupId);
+        }
+        return merge(onEveryShard(s -> shards.get(s).readGroupBalanceCents(groupId))).withoutZeros();
+    }
+
+    @Override
+    public PairDebts readPairDebts() {
+        PairDebts pairs = new PairDebts(256);
+        for (PairDebts part : onEveryShard(s -> shards.get(s).readPairDebts())) pairs.addAll(part);
+        return pairs;
+    }
+
+    @Override
+    public PairDebts readPairDebts(int userId) {
+        PairDebts pairs = new PairDebts();
+        for (PairDebts part : onEveryShard(s -> shards.get(s).readPairDebts(userId))) pairs.addAll(part);
+        return pairs;
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> verifyBalances() {
+        return concat(onEveryShard(s -> shards.get(s).verifyBalances()));
+    }
+
+    @Override
+    public List<BalanceLedger.Drift> rebuildBalances() {
+        List<BalanceLedger.Drift> drift = concat(onEveryShard(s -> shards.get(s).rebuildBalances()));
+        if (!drift.isEmpty()) feed.refresh("rebuild");
+        return drift;
+    }
+
+    // --- REPORTS ---
+
+    // A user's buckets for a period can come from several shards (one per group); they are summed.
+    @Override
+    public SpendingReport readSpendingReport(SpendingReport.Request request) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (SpendingReport part : onEveryShard(s -> shards.get(s).readSpendingReport(request))) {
+            for (SpendingReport.Bucket bucket : part.getBuckets()) {
+                long[] total = totals.computeIfAbsent(bucket.getPeriod() + "/" + bucket.getUserId(), key -> new long[3]);
+                total[0] += Money.toCents(bucket.getPaid());
+                total[1] += Money.toCents(bucket.getOwed());
+                total[2] += bucket.getExpenses();
+            }
+        }
+        List<SpendingReport.Bucket> buckets = new ArrayList<>(totals.size());
+        totals.forEach((key, total) -> {
+            int slash = key.indexOf('/');
+            buckets.add(new SpendingReport.Bucket(Integer.parseInt(key.substring(slash + 1)),
+                                                  LocalDate.parse(key.substring(0, slash)), total[0], total[1], (int) total[2]));
+        });
+        buckets.sort(Comparator.comparing(SpendingReport.Bucket::getPeriod).thenComparingInt(SpendingReport.Bucket::getUserId));
+        return new SpendingReport(request, buckets);
+    }
+
+    /**
+     * @return The (user, day) buckets stored across all shards.
+     */
+    @Override
+    public int rebuildSpendingRollups() {
+        int buckets = 0;
+        for (int shardBuckets : onEveryShard(s -> shards.get(s).rebuildSpendingRollups())) buckets += shardBuckets;
+        return buckets;
+    }
+
+    // --- ADMIN ---
+
+    @Override
+    public void clearAll() {
+        synchronized (userWrites) {
+            onEveryShard(s -> { shards.get(s).clearAll(); return null; });
+        }
+        feed.refresh("reset");
+    }
+
+    @Override
+    public UserCache.Stats getUserCacheStats() {
+        return shards.get(0).getUserCacheStats();
+    }
+
+    @Override
+    public void close() {
+        if (fanOut != null) fanOut.shutdownNow();
+        for (StorageEngine shard : shards) {
+            shard.close();
+        }
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Runs the call for every shard index at once (shard 0 on the calling thread) and returns the
+     * results in shard order. The first failure is rethrown once every call has finished.
+     */
+    private <T> List<T> onEveryShard(IntFunction<T> call) {
+        return FAN_OUT.time(() -> {
+            int n = shards.size();
+            List<Future<T>> others = new ArrayList<>(n - 1);
+            for (int s = 1; s < n; s++) {
+                int shard = s;
+                others.add(fanOut.submit(() -> call.apply(shard)));
+            }
+            List<T> results = new ArrayList<>(n);
+            RuntimeException failure = null;
+            try {
+                results.add(call.apply(0));
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (Future<T> other : others) {
+                try {
+                    results.add(other.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                                : new DatabaseException("Shard call failed.", e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    others.forEach(pending -> pending.cancel(true));
+                    throw new StorageUnavailableException("Interrupted while waiting for the shards.", e);
+                }
+            }
+            if (failure != null) throw failure;
+            FAN_OUT.rows(n);
+            return results;
+        });
+    }
+
+    /**
+     * Deletes the user from every shard or from none. History on any shard rejects the delete
+     * before a row is removed; if a shard still fails (history written since the check, or the
+     * shard is down), the user is restored under the same id on the shards already done.
+     */
+    private void deleteEverywhere(int userId) {
+        int holder = onEveryShard(s -> shards.get(s).isUserReferenced(userId)).indexOf(true);
+        if (holder >= 0) {
+            throw new DatabaseException("Failed to delete user with ID: " + userId
+                    + " (still referenced by expenses or settlements on shard " + holder + ")");
+        }
+        User user = null;
+        for (User candidate : shards.get(0).listAllUsers()) { // the only read with the password hash
+            if (candidate.getUserId() == userId) user = candidate;
+        }
+        int deleted = 0;
+        try {
+            for (; deleted < shards.size(); deleted++) {
+                shards.get(deleted).deleteUserById(userId);
+            }
+        } catch (RuntimeException e) {
+            for (int s = 0; s < deleted; s++) {
+                try {
+                    shards.get(s).restoreUser(user);
+                } catch (RuntimeException undo) {
+                    e.addSuppressed(undo);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static DatabaseException diverged(String username, int shard, String what) {
+        return new DatabaseException("User '" + username + "': shard " + shard + " " + what
+                + "; the shards' user tables have diverged.");
+    }
+
+    /**
+     * Each shard's next rows after its position, merged in global id order and cut to the limit.
+     * Those are the smallest remaining global ids, and the positions advance past the rows served.
+     */
+    private <T> KeysetPage<T> page(long[] after, int limit, ShardPage<T> read, BiFunction<T, Integer, T> global,
+                                   ToLongFunction<T> id) {
+        List<T> page = new ArrayList<>();
+        List<List<T>> parts = onEveryShard(s -> read.rows(s, after[s]));
+        for (int s = 0; s < parts.size(); s++) {
+            for (T row : parts.get(s)) page.add(global.apply(row, s));
+        }
+        page.sort(Comparator.comparingLong(id));
+        if (page.size() > limit) page = new ArrayList<>(page.subList(0, limit));
+        for (T row : page) {
+            long globalId = id.applyAsLong(row);
+            after[router.shardOfId(globalId)] = router.localId(globalId);
+        }
+        StringBuilder cursor = new StringBuilder();
+        for (int s = 0; s < after.length; s++) {
+            if (s > 0) cursor.append('.');
+            cursor.append(after[s]);
+        }
+        return new KeysetPage<>(page, cursor.toString());
+    }
+
+    private long[] positions(long afterId) {
+        long[] after = new long[shards.size()];
+        for (int s = 0; s < after.length; s++) after[s] = router.localAfter(afterId, s);
+        return after;
+    }
+
+    // From a cursor of pageExpenses/pageSettlements, or a plain global id
+    private long[] positions(String cursor) {
+        if (cursor == null || cursor.indexOf('.') < 0) return positions(KeysetPage.afterId(cursor));
+        String[] parts = cursor.split("\\.", -1);
+        if (parts.length != shards.size()) {
+            throw new IllegalArgumentException("Page cursor '" + cursor + "' is not for " + shards.size() + " shards.");
+        }
+        long[] after = new long[parts.length];
+        for (int s = 0; s < parts.length; s++) after[s] = KeysetPage.afterId(parts[s]);
+        return after;
+    }
+
+    private static IntLongMap merge(List<IntLongMap> parts) {
+        IntLongMap merged = new IntLongMap(256);
+        for (IntLongMap part : parts) merged.addAll(part);
+        return merged;
+    }
+
+    private static List<BalanceLedger.Drift> concat(List<List<BalanceLedger.Drift>> parts) {
+        List<BalanceLedger.Drift> all = new ArrayList<>();
+        for (List<BalanceLedger.Drift> part : parts) all.addAll(part);
+        return all;
+    }
+
+    private static Expense withId(Expense expense, long expenseId) {
+        return new Expense(expenseId, Money.ofCents(expense.getAmountCents()), expense.getDescription(),
+                           expense.getPayerId(), expense.getDate(), expense.getGroupId());
+    }
+
+    private Expense global(Expense expense, int shard) {
+        return withId(expense, router.globalId(expense.getExpenseId(), shard));
+    }
+
+    private Settlement global(Settlement settlement, int shard) {
+        return new Settlement(router.globalId(settlement.getSettlementId(), shard), settlement.getGroupId(),
+                              settlement.getPayerId(), settlement.getReceiverId(),
+                              Money.ofCents(settlement.getAmountCents()), settlement.getSettlementDate());
+    }
+}
@@ -0,0 +1,60 @@
+package com.app;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent calls with the same key into one computation: the first caller (the
+ * leader) runs the work, callers arriving while it runs wait for it and share its result or
+ * exception. The key is forgotten as soon as the work finishes, so nothing is cached; callers
+ * that want a fresh result after a write must put the DataVersion into the key.
+ */
+public final class SingleFlight {
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Runs work, or waits for the identical computation already running under key.
+     * An interrupted waiter stops waiting (the leader carries on for the others).
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T run(String key, Callable<T> work) throws Exception {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            shared.incrementAndGet();
+            try {
+                return (T) running.get();
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+
+        executed.incrementAndGet();
+        try {
+            T result = work.call();
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // Computations actually run, and calls answered by another caller's computation
+    public long getExecuted() { return executed.get(); }
+    public long getShared() { return shared.get(); }
+
+    private static Exception rethrow(Throwable cause) {
+        if (cause instanceof Error) throw (Error) cause;
+        return (Exception) cause;
+    }
+}
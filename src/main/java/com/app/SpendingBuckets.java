@@ -0,0 +1,175 @@
+package com.app;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory spending rollup behind InMemoryStorageEngine's SpendingReport: paid and owed cents
+ * and the number of expenses paid per (user, day), updated by every expense and split written.
+ * - Buckets are rows of parallel primitive arrays, found through an open-addressing hash of
+ *   (user, epoch day).
+ * - Each day chains its buckets (a head array indexed by day plus a next-bucket array), so a
+ *   report visits only the buckets of the days in range.
+ * Not thread-safe: the engine's lock guards it.
+ */
+final class SpendingBuckets {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_BUCKETS = 1_024;
+
+    // --- bucket columns ---
+    private int[] bucketUser = new int[INITIAL_BUCKETS];
+    private int[] bucketDay = new int[INITIAL_BUCKETS];
+    private long[] bucketPaid = new long[INITIAL_BUCKETS];
+    private long[] bucketOwed = new long[INITIAL_BUCKETS];
+    private int[] bucketExpenses = new int[INITIAL_BUCKETS];
+    private int[] bucketNextOfDay = new int[INITIAL_BUCKETS];
+    private int size;
+
+    // (user, day) -> bucket + 1; 0 marks an empty slot. At most half full.
+    private int[] slots = new int[INITIAL_BUCKETS * 2];
+
+    // dayHead[day - firstDay] = the day's most recent bucket
+    private int[] dayHead = new int[0];
+    private int firstDay;
+
+    int size() { return size; }
+
+    /**
+     * Adds to the user's totals for the day.
+     */
+    void add(int userId, int epochDay, long paidCents, long owedCents, int expenses) {
+        int bucket = find(userId, epochDay);
+        if (bucket == NONE) bucket = insert(userId, epochDay);
+        bucketPaid[bucket] += paidCents;
+        bucketOwed[bucket] += owedCents;
+        bucketExpenses[bucket] += expenses;
+    }
+
+    /**
+     * Totals per user and period between request.getFrom() and request.getTo() (inclusive).
+     */
+    List<SpendingReport.Bucket> report(SpendingReport.Request request) {
+        List<SpendingReport.Bucket> rows = new ArrayList<>();
+        if (size == 0) return rows;
+        long first = Math.max(request.getFrom().toEpochDay(), firstDay);
+        long last = Math.min(request.getTo().toEpochDay(), (long) firstDay + dayHead.length - 1);
+        SpendingReport.Granularity granularity = request.getGranularity();
+        int userId = request.getUserId();
+
+        // (user << 32 | bucket) for every bucket of the current period, sorted to group by user
+        long[] keys = new long[64];
+        for (long day = first; day <= last; ) {
+            LocalDate period = granularity.start(LocalDate.ofEpochDay(day));
+            long periodLast = Math.min(last, granularity.next(period).toEpochDay() - 1);
+            int count = 0;
+            for (; day <= periodLast; day++) {
+                if (userId != 0) {
+                    int bucket = find(userId, (int) day);
+                    if (bucket == NONE) continue;
+                    if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+                    keys[count++] = (long) userId << 32 | bucket;
+                    continue;
+                }
+                for (int bucket = dayHead[(int) (day - firstDay)]; bucket != NONE; bucket = bucketNextOfDay[bucket]) {
+                    if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+                    keys[count++] = (long) bucketUser[bucket] << 32 | bucket;
+                }
+            }
+            Arrays.sort(keys, 0, count);
+
+            for (int i = 0; i < count; ) {
+                int user = (int) (keys[i] >>> 32);
+                long paid = 0;
+                long owed = 0;
+                int expenses = 0;
+                for (; i < count && (int) (keys[i] >>> 32) == user; i++) {
+                    int bucket = (int) keys[i];
+                    paid += bucketPaid[bucket];
+                    owed += bucketOwed[bucket];
+                    expenses += bucketExpenses[bucket];
+                }
+                rows.add(new SpendingReport.Bucket(user, period, paid, owed, expenses));
+            }
+        }
+        return rows;
+    }
+
+    private int find(int userId, int epochDay) {
+        int mask = slots.length - 1;
+        for (int slot = hash(userId, epochDay) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int bucket = slots[slot] - 1;
+            if (bucketUser[bucket] == userId && bucketDay[bucket] == epochDay) return bucket;
+        }
+        return NONE;
+    }
+
+    private int insert(int userId, int epochDay) {
+        int bucket = size;
+        if (bucket == bucketUser.length) grow(bucket * 2);
+        if ((bucket + 1) * 2 > slots.length) rehash(slots.length * 2);
+        int day = dayIndex(epochDay);
+        bucketUser[bucket] = userId;
+        bucketDay[bucket] = epochDay;
+        bucketPaid[bucket] = 0;
+        bucketOwed[bucket] = 0;
+        bucketExpenses[bucket] = 0;
+        bucketNextOfDay[bucket] = dayHead[day];
+        dayHead[day] = bucket;
+        size = bucket + 1;
+        place(bucket);
+        return bucket;
+    }
+
+    private void place(int bucket) {
+        int mask = slots.length - 1;
+        int slot = hash(bucketUser[bucket], bucketDay[bucket]) & mask;
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        slots[slot] = bucket + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int bucket = 0; bucket < size; bucket++) place(bucket);
+    }
+
+    // Grows the day index towards the new day, with room to spare on that side.
+    private int dayIndex(int epochDay) {
+        if (dayHead.length == 0) {
+            dayHead = new int[64];
+            Arrays.fill(dayHead, NONE);
+            firstDay = epochDay - dayHead.length / 2;
+        }
+        long index = (long) epochDay - firstDay;
+        if (index < 0) {
+            int extra = Math.toIntExact(Math.max(-index, dayHead.length));
+            int[] grown = new int[dayHead.length + extra];
+            Arrays.fill(grown, 0, extra, NONE);
+            System.arraycopy(dayHead, 0, grown, extra, dayHead.length);
+            dayHead = grown;
+            firstDay -= extra;
+            index += extra;
+        } else if (index >= dayHead.length) {
+            int previous = dayHead.length;
+            dayHead = Arrays.copyOf(dayHead, Math.toIntExact(Math.max(index + 1, previous * 2L)));
+            Arrays.fill(dayHead, previous, dayHead.length, NONE);
+        }
+        return (int) index;
+    }
+
+    private void grow(int capacity) {
+        bucketUser = Arrays.copyOf(bucketUser, capacity);
+        bucketDay = Arrays.copyOf(bucketDay, capacity);
+        bucketPaid = Arrays.copyOf(bucketPaid, capacity);
+        bucketOwed = Arrays.copyOf(bucketOwed, capacity);
+        bucketExpenses = Arrays.copyOf(bucketExpenses, capacity);
+        bucketNextOfDay = Arrays.copyOf(bucketNextOfDay, capacity);
+    }
+
+    private static int hash(int userId, int epochDay) {
+        long h = ((long) userId << 32 | (epochDay & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,193 @@
+package com.app;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Spending per user and period for GET /api/reports/spending, answered from the rollups the
+ * engines maintain on every write (SpendingRollups in PostgreSQL, SpendingBuckets in memory):
+ * one row per (user, day) in the range is read, however many expenses those days hold.
+ * - paid: the amounts of the expenses the user paid, dated in the period.
+ * - owed: the user's split shares of expenses dated in the period (a payer's own share is not
+ *   recorded as a split, so it is not counted).
+ * - expenses: how many of those expenses the user paid.
+ * Weeks start on Monday (ISO, like PostgreSQL's date_trunc) and months on the 1st; the first and
+ * last periods only count the days inside the range. Buckets are ordered by period, then user.
+ */
+public class SpendingReport {
+
+    // Periods covered when the request gives no start date
+    private static final int DEFAULT_PERIODS = 12;
+
+    public enum Granularity {
+        DAY, WEEK, MONTH;
+
+        /**
+         * @param name day, week or month (case-insensitive); null or blank means month.
+         * @throws IllegalArgumentException for any other name.
+         */
+        public static Granularity parse(String name) {
+            if (name == null || name.isBlank()) return MONTH;
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+                case "day":
+                    return DAY;
+                case "week":
+                    return WEEK;
+                case "month":
+                    return MONTH;
+                default:
+                    throw new IllegalArgumentException("Unknown granularity '" + name + "' (expected day, week or month)");
+            }
+        }
+
+        /**
+         * First day of the period containing the date.
+         */
+        public LocalDate start(LocalDate date) {
+            switch (this) {
+                case DAY:
+                    return date;
+                case WEEK:
+                    return date.with(DayOfWeek.MONDAY);
+                default:
+                    return date.withDayOfMonth(1);
+            }
+        }
+
+        /**
+         * First day of the period after the one starting on the date.
+         */
+        public LocalDate next(LocalDate start) {
+            switch (this) {
+                case DAY:
+                    return start.plusDays(1);
+                case WEEK:
+                    return start.plusWeeks(1);
+                default:
+                    return start.plusMonths(1);
+            }
+        }
+
+        /**
+         * The unit name for PostgreSQL's date_trunc.
+         */
+        public String sqlUnit() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * One user's totals for one period.
+     */
+    public static class Bucket {
+        private final int userId;
+        private final String period; // first day of the period, ISO date
+        private final double paid;
+        private final double owed;
+        private final int expenses;
+
+        public Bucket(int userId, LocalDate period, long paidCents, long owedCents, int expenses) {
+            this.userId = userId;
+            this.period = period.toString();
+            this.paid = Money.toDouble(paidCents);
+            this.owed = Money.toDouble(owedCents);
+            this.expenses = expenses;
+        }
+
+        public int getUserId() { return userId; }
+        public String getPeriod() { return period; }
+        public double getPaid() { return paid; }
+        public double getOwed() { return owed; }
+        public int getExpenses() { return expenses; }
+    }
+
+    /**
+     * The parameters of a report request.
+     */
+    public static class Request {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final Granularity granularity;
+        private final int userId;
+
+        public Request(LocalDate from, LocalDate to, Granularity granularity, int userId) {
+            if (to.isBefore(from)) {
+                throw new IllegalArgumentException("to (" + to + ") must not be before from (" + from + ").");
+            }
+            this.from = from;
+            this.to = to;
+            this.granularity = granularity;
+            this.userId = userId;
+        }
+
+        /**
+         * Reads the query parameters of GET /api/reports/spending. to defaults to today and from to
+         * the start of the period DEFAULT_PERIODS - 1 periods earlier (e.g. the last 12 months);
+         * userId is optional (every user when absent).
+         * @throws IllegalArgumentException with a message for the client if a parameter is invalid.
+         */
+        public static Request parse(String from, String to, String granularity, String userId) {
+            Granularity unit = Granularity.parse(granularity);
+            LocalDate end = to == null || to.isBlank() ? LocalDate.now() : parseDate("to", to);
+            LocalDate start;
+            if (from == null || from.isBlank()) {
+                start = unit.start(end);
+                for (int i = 1; i < DEFAULT_PERIODS; i++) {
+                    start = unit.start(start.minusDays(1));
+                }
+            } else {
+                start = parseDate("from", from);
+            }
+            int user = 0;
+            if (userId != null && !userId.isBlank()) {
+                try {
+                    user = Integer.parseInt(userId.trim());
+                } catch (NumberFormatException e) {
+                    user = -1;
+                }
+                if (user <= 0) throw new IllegalArgumentException("userId must be a positive number: " + userId);
+            }
+            return new Request(start, end, unit, user);
+        }
+
+        private static LocalDate parseDate(String name, String value) {
+            try {
+                return LocalDate.parse(value.trim());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException(name + " must be a date like 2024-12-31.");
+            }
+        }
+
+        public LocalDate getFrom() { return from; }
+        public LocalDate getTo() { return to; }
+        public Granularity getGranularity() { return granularity; }
+        public int getUserId() { return userId; } // 0 = every user
+
+        /**
+         * Key for the per-version response body cache.
+         */
+        public String cacheKey() {
+            return "spending@" + from + ".." + to + "/" + granularity.sqlUnit() + "/" + userId;
+        }
+    }
+
+    private final String from;
+    private final String to;
+    private final String granularity;
+    private final List<Bucket> buckets;
+
+    public SpendingReport(Request request, List<Bucket> buckets) {
+        this.from = request.getFrom().toString();
+        this.to = request.getTo().toString();
+        this.granularity = request.getGranularity().sqlUnit();
+        this.buckets = buckets;
+    }
+
+    public String getFrom() { return from; }
+    public String getTo() { return to; }
+    public String getGranularity() { return granularity; }
+    public List<Bucket> getBuckets() { return buckets; }
+}
@@ -0,0 +1,214 @@
+package com.app;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Daily spending totals per user stored in the 'spending_rollups' table, for SpendingReport.
+ * ExpenseRepository applies every expense and split to it inside the same transaction as the
+ * write itself (like BalanceLedger), so a report reads one row per (user, day) in the range and
+ * rolls days up into weeks or months with date_trunc, instead of scanning expenses and splits.
+ * Totals are always taken from the rows just written. Settlements are transfers, not spending,
+ * and are not counted.
+ */
+public class SpendingRollups {
+
+    private static final Logger LOGGER = Logger.getLogger(SpendingRollups.class.getName());
+
+    // Every expense (for its payer) and split (for its member), one row per user and day.
+    private static final String RECOMPUTE_SQL =
+            "SELECT user_id, day, SUM(paid), SUM(owed), SUM(expenses) FROM ("
+            + " SELECT payer_id AS user_id, expense_date AS day, amount AS paid, 0 AS owed, 1 AS expenses FROM public.expenses"
+            + " UNION ALL SELECT s.member_id, e.expense_date, 0, s.owed_amount, 0"
+            + " FROM public.expense_splits s JOIN public.expenses e ON e.expense_id = s.expense_id"
+            + ") movements GROUP BY user_id, day";
+
+    private static final String INSERT_PREFIX = "INSERT INTO public.spending_rollups (user_id, day, paid, owed, expenses) ";
+
+    private static final String UPSERT_SUFFIX = " ON CONFLICT (user_id, day) DO UPDATE SET"
+            + " paid = public.spending_rollups.paid + EXCLUDED.paid,"
+            + " owed = public.spending_rollups.owed + EXCLUDED.owed,"
+            + " expenses = public.spending_rollups.expenses + EXCLUDED.expenses";
+
+    private static final OperationTimer READ_REPORT = MetricsRegistry.query("SpendingRollups.read");
+
+    private final boolean enabled;
+    private volatile boolean schemaReady = false;
+
+    public SpendingRollups() {
+        this(true);
+    }
+
+    private SpendingRollups(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Rollups that ignore writes, for stand-in databases that lack the PostgreSQL upsert syntax
+     * (e.g. the in-process database used by the benchmarks). Reads are not supported.
+     */
+    public static SpendingRollups disabled() {
+        return new SpendingRollups(false);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    // --- WRITE PATH (called by ExpenseRepository inside the write transaction) ---
+
+    /**
+     * Adds freshly inserted expenses to their payers' days.
+     */
+    public void recordExpenses(Connection conn, long[] expenseIds) throws SQLException {
+        if (!enabled || expenseIds.length == 0) return;
+        String sql = INSERT_PREFIX
+                + "SELECT payer_id, expense_date, SUM(amount), 0, COUNT(*) FROM public.expenses WHERE expense_id = ANY(?) "
+                + "GROUP BY payer_id, expense_date" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, expenseIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Adds the given, freshly inserted split rows to their members' days (the expense's date).
+     */
+    public void recordSplits(Connection conn, long[] splitIds) throws SQLException {
+        if (!enabled || splitIds.length == 0) return;
+        String sql = INSERT_PREFIX
+                + "SELECT s.member_id, e.expense_date, 0, SUM(s.owed_amount), 0"
+                + " FROM public.expense_splits s JOIN public.expenses e ON e.expense_id = s.expense_id"
+                + " WHERE s.split_id = ANY(?) GROUP BY s.member_id, e.expense_date" + UPSERT_SUFFIX;
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setArray(1, toBigintArray(conn, splitIds));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * SQL for an extra data-modifying CTE that adds to the rollups as part of a larger statement
+     * (see ExpenseRepository.createExpenseWithSplits).
+     * @param rowsSql A SELECT yielding (user_id, day, paid, owed, expenses) rows, typically over other CTEs' RETURNING output.
+     * @return ", spending_update AS (...)" to append to a WITH list, or "" when the rollups are disabled.
+     */
+    public String rollupCte(String rowsSql) {
+        if (!enabled) return "";
+        return ", spending_update AS (" + INSERT_PREFIX
+                + "SELECT user_id, day, SUM(paid), SUM(owed), SUM(expenses) FROM (" + rowsSql + ") new_rows"
+                + " GROUP BY user_id, day" + UPSERT_SUFFIX + ")";
+    }
+
+    // --- READ PATH ---
+
+    /**
+     * Totals per user and period in the request's range, ordered by period, then user.
+     * @param conn The active database connection.
+     */
+    public List<SpendingReport.Bucket> read(Connection conn, SpendingReport.Request request) {
+        if (!enabled) throw new IllegalStateException("The spending rollups are disabled.");
+        return READ_REPORT.time(() -> {
+            String sql = "SELECT user_id, date_trunc(?, day::timestamp)::date AS period,"
+                    + " SUM(paid) AS paid, SUM(owed) AS owed, SUM(expenses) AS expenses"
+                    + " FROM public.spending_rollups WHERE day BETWEEN ? AND ?"
+                    + (request.getUserId() != 0 ? " AND user_id = ?" : "")
+                    + " GROUP BY 1, 2 ORDER BY 2, 1";
+            List<SpendingReport.Bucket> buckets = new ArrayList<>();
+
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                statement.setString(1, request.getGranularity().sqlUnit());
+                statement.setDate(2, java.sql.Date.valueOf(request.getFrom()));
+                statement.setDate(3, java.sql.Date.valueOf(request.getTo()));
+                if (request.getUserId() != 0) statement.setInt(4, request.getUserId());
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        // Periods starting before 'from' are labelled with their real start, like the in-memory engine
+                        buckets.add(new SpendingReport.Bucket(resultSet.getInt("user_id"),
+                                resultSet.getDate("period").toLocalDate(),
+                                Money.toCents(resultSet.getBigDecimal("paid")),
+                                Money.toCents(resultSet.getBigDecimal("owed")),
+                                resultSet.getInt("expenses")));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DatabaseException("Failed to read the spending rollups.", e);
+            }
+            READ_REPORT.rows(buckets.size());
+            return buckets;
+        });
+    }
+
+    // --- MAINTENANCE ---
+
+    /**
+     * Replaces the rollups with totals recomputed from the history (backfill).
+     * The table is locked for the duration, so concurrent writers wait and then add their own
+     * rows on top of the rebuilt state.
+     * @param conn The active database connection.
+     * @return The number of (user, day) rows.
+     */
+    public int rebuild(Connection conn) {
+        try {
+            ensureSchema(conn);
+            int rows = Transactions.inTransaction(conn, () -> {
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("LOCK TABLE public.spending_rollups IN EXCLUSIVE MODE");
+                    statement.executeUpdate("DELETE FROM public.spending_rollups");
+                    return statement.executeUpdate(INSERT_PREFIX + RECOMPUTE_SQL);
+                }
+            });
+            System.out.printf("  [ROLLUP] Rebuilt spending rollups: %d user-days.\n", rows);
+            return rows;
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to rebuild the spending rollups.", e);
+        }
+    }
+
+    /**
+     * Creates the rollup table and backfills it from the existing history, once, before the first
+     * write (see ExpenseRepository.migrate). The connection must be in auto-commit mode: both run in
+     * a transaction of their own, and the flag is set only after it commits.
+     */
+    public void ensureSchema(Connection conn) throws SQLException {
+        if (schemaReady) return;
+        if (!enabled) throw new IllegalStateException("The spending rollups are disabled.");
+        if (!conn.getAutoCommit()) throw new IllegalStateException("The rollup schema must be created outside a transaction.");
+
+        Transactions.inTransaction(conn, () -> {
+            try (Statement statement = conn.createStatement()) {
+                boolean exists;
+                try (ResultSet rs = statement.executeQuery("SELECT to_regclass('public.spending_rollups') IS NOT NULL")) {
+                    exists = rs.next() && rs.getBoolean(1);
+                }
+
+                if (!exists) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS public.spending_rollups ("
+                            + "user_id INT NOT NULL, day DATE NOT NULL, paid NUMERIC NOT NULL DEFAULT 0,"
+                            + " owed NUMERIC NOT NULL DEFAULT 0, expenses INT NOT NULL DEFAULT 0,"
+                            + " PRIMARY KEY (user_id, day))");
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS spending_rollups_day ON public.spending_rollups (day)");
+                    statement.executeUpdate(INSERT_PREFIX + RECOMPUTE_SQL + " ON CONFLICT (user_id, day) DO NOTHING");
+                    LOGGER.info("Created spending_rollups and backfilled it from history.");
+                }
+            }
+            return null;
+        });
+        schemaReady = true;
+    }
+
+    private static Array toBigintArray(Connection conn, long[] values) throws SQLException {
+        Long[] boxed = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return conn.createArrayOf("bigint", boxed);
+    }
+}
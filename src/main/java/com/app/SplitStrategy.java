@@ -0,0 +1,101 @@
+package com.app;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How an expense is divided among its participants. Every strategy returns one share in exact
+ * cents per participant, adding up to the expense total; leftover cents are handed out
+ * deterministically (see MathOperations.allocateByWeight), so a request always yields the same splits.
+ * - EQUAL: the same amount each, give or take a cent. Takes no values.
+ * - PERCENTAGE: one percentage per participant, adding up to 100 (within 0.01).
+ * - SHARES: one non-negative share count per participant, e.g. 2 for a couple and 1 for a single.
+ * - EXACT: one amount per participant, adding up to the expense total. "custom" is accepted too.
+ * Percentages and share counts keep up to 4 decimals.
+ */
+public enum SplitStrategy {
+    EQUAL, PERCENTAGE, SHARES, EXACT;
+
+    private static final int WEIGHT_SCALE = 4;
+    private static final long WEIGHT_UNITS = 10_000; // 10^WEIGHT_SCALE
+    private static final long HUNDRED_PERCENT = 100 * WEIGHT_UNITS;
+    private static final long PERCENT_TOLERANCE = 100; // 0.01 percent
+    // Keeps each value, scaled to cents or weight units, far inside a long
+    private static final double MAX_VALUE = 1e9;
+
+    /**
+     * @param name equal, percentage, shares, exact or custom (case-insensitive); null or blank means equal.
+     * @throws IllegalArgumentException for any other name.
+     */
+    public static SplitStrategy parse(String name) {
+        if (name == null || name.isBlank()) return EQUAL;
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "equal":
+                return EQUAL;
+            case "percentage":
+                return PERCENTAGE;
+            case "shares":
+                return SHARES;
+            case "exact":
+            case "custom":
+                return EXACT;
+            default:
+                throw new IllegalArgumentException("Unknown split type '" + name + "' (expected equal, percentage, shares or exact)");
+        }
+    }
+
+    /**
+     * Equal shares of the total, one per participant (all zero when there is nothing to split).
+     */
+    public static long[] equalShares(long totalCents, int participants) {
+        return participants == 0 || totalCents <= 0 ? new long[participants] : MathOperations.calculateSplit(totalCents, participants);
+    }
+
+    /**
+     * Splits the total among the participants.
+     * @param values One value per participant (percentages, share counts or amounts); ignored for EQUAL.
+     * @return One share in cents per participant (all zero when there is nothing to split).
+     * @throws IllegalArgumentException if the values are missing, negative or do not add up.
+     */
+    public long[] allocate(long totalCents, int participants, List<? extends Number> values) {
+        if (this == EQUAL) return equalShares(totalCents, participants);
+        if (values == null || values.size() != participants) {
+            throw new IllegalArgumentException("A " + name().toLowerCase(Locale.ROOT) + " split needs one value per participant ("
+                    + participants + "), got " + (values == null ? 0 : values.size()));
+        }
+        if (participants == 0 || totalCents <= 0) return new long[participants];
+
+        long[] units = new long[participants];
+        long sum = 0;
+        for (int i = 0; i < participants; i++) {
+            Number value = values.get(i);
+            if (value == null || value.doubleValue() < 0 || !Double.isFinite(value.doubleValue())) {
+                throw new IllegalArgumentException("Split value " + (i + 1) + " must be a non-negative number: " + value);
+            }
+            if (value.doubleValue() > MAX_VALUE) {
+                throw new IllegalArgumentException("Split value " + (i + 1) + " is too large: " + value);
+            }
+            units[i] = this == EXACT ? Money.toCents(value.doubleValue()) : Math.round(value.doubleValue() * WEIGHT_UNITS);
+            sum = Math.addExact(sum, units[i]);
+        }
+
+        switch (this) {
+            case PERCENTAGE:
+                if (Math.abs(sum - HUNDRED_PERCENT) > PERCENT_TOLERANCE) {
+                    throw new IllegalArgumentException("Percentages must add up to 100, got "
+                            + BigDecimal.valueOf(sum, WEIGHT_SCALE).stripTrailingZeros().toPlainString());
+                }
+                return MathOperations.allocateByWeight(totalCents, units);
+            case SHARES:
+                if (sum == 0) throw new IllegalArgumentException("At least one participant must have a positive share.");
+                return MathOperations.allocateByWeight(totalCents, units);
+            default:
+                if (sum != totalCents) {
+                    throw new IllegalArgumentException("Exact amounts add up to $" + Money.ofCents(sum)
+                            + ", expected $" + Money.ofCents(totalCents));
+                }
+                return units;
+        }
+    }
+}
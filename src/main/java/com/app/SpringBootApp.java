@@ -1,11 +1,47 @@
 package com.app;
 
+import java.util.Map;
+import java.util.logging.Logger;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
 
-@SpringBootApplication
+/**
+ * Spring Boot entry point. Only com.app.controller is component-scanned (the rest of com.app holds
+ * no Spring components), and the 'prod' profile (application-prod.properties) initializes beans
+ * lazily, so a deploy starts serving before the storage engine and controller are built. Phases
+ * are recorded in the StartupReport.
+ * HTTP_THREADS=virtual runs request handling on virtual threads (Spring Boot's own
+ * spring.threads.virtual.enabled, Java 21+); otherwise, or when they are unavailable, Tomcat keeps
+ * a pool of HTTP_THREADS_MAX platform threads. See RequestThreads.
+ */
+@SpringBootApplication(scanBasePackages = "com.app.controller")
 public class SpringBootApp {
+
+    private static final Logger LOGGER = Logger.getLogger(SpringBootApp.class.getName());
+
     public static void main(String[] args) {
-        SpringApplication.run(SpringBootApp.class, args);
+        StartupReport.phase("main entered");
+        SpringApplication application = new SpringApplication(SpringBootApp.class);
+        RequestThreads requestThreads = RequestThreads.fromConfig();
+        // Defaults only: application properties and command-line arguments still win
+        application.setDefaultProperties(Map.of(
+                "spring.threads.virtual.enabled", requestThreads.isVirtual(),
+                "server.tomcat.threads.max", requestThreads.getMaxPlatformThreads()));
+        LOGGER.info("Requests run on " + requestThreads.describe());
+        application.addListeners(event -> {
+            if (event instanceof ApplicationReadyEvent) StartupReport.phase("spring context ready");
+        });
+        application.run(args);
+    }
+
+    // STORAGE_ENGINE=jdbc (default) or memory; closed with the context, which shuts the pool down
+    @Bean
+    public StorageEngine storageEngine() {
+        StorageEngine storage = StorageEngine.fromConfig();
+        StartupReport.phase("storage engine ready");
+        return storage;
     }
 }
@@ -0,0 +1,104 @@
+package com.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide start-up timeline, from JVM start to the first served request.
+ * The entry points mark phases as they complete (main entered, storage engine built, routes or
+ * Spring context ready, demo data seeded); the first request handled by any /api route closes the
+ * timeline and prints the breakdown as [STARTUP] lines. Served as JSON at /api/admin/startup.
+ * Times are milliseconds since the JVM started (RuntimeMXBean), so class loading before main is
+ * part of the first phase. Phases that run in the background (e.g. seeding) are listed with the
+ * time they finished and do not delay the first request.
+ */
+public final class StartupReport {
+
+    private static final long JVM_START_NANOS = System.nanoTime()
+            - ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000L;
+
+    private static final List<Phase> PHASES = new ArrayList<>();
+    private static final AtomicBoolean FIRST_REQUEST = new AtomicBoolean();
+    private static volatile Phase firstRequest;
+
+    private StartupReport() {}
+
+    /**
+     * One completed phase: when it ended and how long since the previous phase ended.
+     */
+    public static class Phase {
+        private final String name;
+        private final long atMillis;
+        private final long tookMillis;
+
+        Phase(String name, long atMillis, long tookMillis) {
+            this.name = name;
+            this.atMillis = atMillis;
+            this.tookMillis = tookMillis;
+        }
+
+        public String getName() { return name; }
+        public long getAtMillis() { return atMillis; }
+        public long getTookMillis() { return tookMillis; }
+    }
+
+    /**
+     * The timeline so far, serialized as-is by the admin endpoints.
+     */
+    public static class Snapshot {
+        private final List<Phase> phases;
+        private final long firstRequestMillis; // -1 until a request was served
+        private final String firstRoute;
+
+        Snapshot(List<Phase> phases, Phase firstRequest) {
+            this.phases = phases;
+            this.firstRequestMillis = firstRequest != null ? firstRequest.atMillis : -1;
+            this.firstRoute = firstRequest != null ? firstRequest.name : null;
+        }
+
+        public List<Phase> getPhases() { return phases; }
+        public long getFirstRequestMillis() { return firstRequestMillis; }
+        public String getFirstRoute() { return firstRoute; }
+    }
+
+    /**
+     * Records that a phase has just completed.
+     */
+    public static void phase(String name) {
+        long at = sinceJvmStart();
+        synchronized (PHASES) {
+            long previous = PHASES.isEmpty() ? 0 : PHASES.get(PHASES.size() - 1).atMillis;
+            PHASES.add(new Phase(name, at, Math.max(0, at - previous)));
+        }
+    }
+
+    /**
+     * Called when a request has been served; the first call prints the report.
+     */
+    public static void requestServed(String route) {
+        if (FIRST_REQUEST.get() || !FIRST_REQUEST.compareAndSet(false, true)) return;
+        firstRequest = new Phase(route, sinceJvmStart(), 0);
+        print();
+    }
+
+    public static Snapshot snapshot() {
+        synchronized (PHASES) {
+            return new Snapshot(new ArrayList<>(PHASES), firstRequest);
+        }
+    }
+
+    private static void print() {
+        Snapshot snapshot = snapshot();
+        System.out.printf("  [STARTUP] First request (%s) served %d ms after JVM start:\n",
+                snapshot.getFirstRoute(), snapshot.getFirstRequestMillis());
+        for (Phase phase : snapshot.getPhases()) {
+            System.out.printf("  [STARTUP]   %-28s at %6d ms (+%d ms)\n", phase.getName(), phase.getAtMillis(), phase.getTookMillis());
+        }
+    }
+
+    private static long sinceJvmStart() {
+        return (System.nanoTime() - JVM_START_NANOS) / 1_000_000L;
+    }
+}
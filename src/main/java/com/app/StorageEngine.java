@@ -0,0 +1,297 @@
+package com.app;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Storage behind the entry points (SpringBootApp, WebApp, App): users, expenses, splits,
+ * settlements and the balances derived from them. Unlike the repositories, no method takes a
+ * Connection; each implementation manages its own resources.
+ * - JdbcStorageEngine: the PostgreSQL repositories and balance ledger (default).
+ * - InMemoryStorageEngine: primitive-array columns in process memory, nothing persisted.
+ * - EventLogStorageEngine: the in-memory engine, persisted to a local memory-mapped event log.
+ * - ShardedStorageEngine: groups spread over several PostgreSQL databases (DB_SHARDS).
+ * Pick one at startup with STORAGE_ENGINE / -Dstorage.engine=jdbc|memory|eventlog|sharded, see {@link #fromConfig()}.
+ * Every successful write bumps the DataVersion. Failures throw DatabaseException.
+ */
+public interface StorageEngine extends AutoCloseable {
+
+    String JDBC = "jdbc";
+    String MEMORY = "memory";
+    String EVENT_LOG = "eventlog";
+    String SHARDED = "sharded";
+
+    /**
+     * The engine selected by the storage.engine setting (default jdbc).
+     */
+    static StorageEngine fromConfig() {
+        String name = AppConfig.getString("storage.engine", JDBC).toLowerCase(Locale.ROOT);
+        switch (name) {
+            case JDBC:
+                return new JdbcStorageEngine();
+            case MEMORY:
+                return new InMemoryStorageEngine();
+            case EVENT_LOG:
+                return EventLogStorageEngine.fromConfig();
+            case SHARDED:
+                return ShardedStorageEngine.fromConfig();
+            default:
+                throw new IllegalArgumentException("Unknown storage engine '" + name + "' (expected jdbc, memory, eventlog or sharded)");
+        }
+    }
+
+    /**
+     * Short name for logs and admin endpoints: "jdbc", "memory", "eventlog" or "sharded".
+     */
+    String getName();
+
+    // --- USERS ---
+
+    /**
+     * Registers a user; a duplicate username or email is reported and ignored.
+     */
+    void registerNewUser(User user);
+
+    /**
+     * Every user, including password hashes, in user_id order.
+     */
+    List<User> listAllUsers();
+
+    /**
+     * Every user without the password hash, in user_id order.
+     */
+    List<User> listUserDirectory();
+
+    /**
+     * @return The user (without the password hash), or null if no such user exists.
+     */
+    User findUserById(int userId);
+
+    /**
+     * @return The user (without the password hash), or null if no such user exists.
+     */
+    User findUserByUsername(String username);
+
+    /**
+     * Updates email and full name of the user with the same username.
+     */
+    void updateUser(User user);
+
+    void deleteUser(String username);
+
+    /**
+     * @return true if a user was deleted.
+     */
+    boolean deleteUserById(int userId);
+
+    /**
+     * True if an expense, split or settlement names the user, so deleting the user is rejected.
+     */
+    boolean isUserReferenced(int userId);
+
+    /**
+     * Puts a deleted user back under its old user_id, password hash included (as listAllUsers
+     * returns it), e.g. to undo a delete that another shard rejected.
+     * @throws DatabaseException if the id, username or email is taken.
+     */
+    void restoreUser(User user);
+
+    /**
+     * @return The generated group_id.
+     */
+    long createGroup(String groupName, int creatorId);
+
+    // --- EXPENSES AND SETTLEMENTS ---
+
+    /**
+     * Records an expense without splits and credits the payer.
+     * @return The generated expense_id, or -1 if creation failed.
+     */
+    long addExpense(Expense expense);
+
+    /**
+     * Records equal exact-cent splits for an existing expense (the payer owes nothing).
+     */
+    default void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds) {
+        splitExpenseAndRecordDebts(expense, memberIds, SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+    }
+
+    /**
+     * Records splits for an existing expense: shares[i] cents owed by memberIds.get(i), computed
+     * with a SplitStrategy. The payer's own share is not recorded.
+     */
+    void splitExpenseAndRecordDebts(Expense expense, List<Integer> memberIds, long[] shares);
+
+    /**
+     * Records an expense and its equal splits atomically.
+     * @return The generated expense_id, or -1 if creation failed.
+     */
+    default long createExpenseWithSplits(Expense expense, List<Integer> memberIds) {
+        return createExpenseWithSplits(expense, memberIds, SplitStrategy.equalShares(expense.getAmountCents(), memberIds.size()));
+    }
+
+    /**
+     * Records an expense and its splits (shares[i] cents owed by memberIds.get(i), payer excluded)
+     * atomically, however many members there are.
+     * @return The generated expense_id, or -1 if creation failed.
+     */
+    long createExpenseWithSplits(Expense expense, List<Integer> memberIds, long[] shares);
+
+    /**
+     * @return The generated settlement_id, or -1 if recording failed.
+     */
+    long recordSettlement(Settlement settlement);
+
+    /**
+     * Writes a batch of expenses (each split equally among its participants, empty = no splits)
+     * and settlements as one unit: either every row is stored or none is.
+     */
+    void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements);
+
+    List<Expense> listAllExpenses();
+
+    /**
+     * One keyset page of expenses in expense_id order; pass afterId 0 for the first page.
+     */
+    List<Expense> listExpensesPage(long afterId, int limit);
+
+    /**
+     * The page after a cursor a client holds (null for the first page) and the cursor of the one
+     * after it. Here the cursor is the last row's expense_id; ShardedStorageEngine, whose ids do
+     * not grow in write order across shards, keeps a position per shard instead.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    default KeysetPage<Expense> pageExpenses(String cursor, int limit) {
+        List<Expense> rows = listExpensesPage(KeysetPage.afterId(cursor), limit);
+        return new KeysetPage<>(rows, rows.isEmpty() ? cursor : String.valueOf(rows.get(rows.size() - 1).getExpenseId()));
+    }
+
+    /**
+     * Hands every expense to the consumer in expense_id order, in bounded memory.
+     */
+    void streamExpenses(Consumer<Expense> consumer);
+
+    List<ExpenseSplit> listExpenseSplits(long expenseId);
+
+    List<Settlement> listAllSettlements();
+
+    /**
+     * One keyset page of settlements in settlement_id order; pass afterId 0 for the first page.
+     */
+    List<Settlement> listSettlementsPage(long afterId, int limit);
+
+    /**
+     * Like {@link #pageExpenses(String, int)}, for settlements.
+     */
+    default KeysetPage<Settlement> pageSettlements(String cursor, int limit) {
+        List<Settlement> rows = listSettlementsPage(KeysetPage.afterId(cursor), limit);
+        return new KeysetPage<>(rows, rows.isEmpty() ? cursor : String.valueOf(rows.get(rows.size() - 1).getSettlementId()));
+    }
+
+    /**
+     * Hands every settlement to the consumer in settlement_id order, in bounded memory.
+     */
+    void streamSettlements(Consumer<Settlement> consumer);
+
+    /**
+     * Every balance movement (payer credits, split debits, settlements) in cents, recomputed
+     * from the history rather than read from maintained balances.
+     */
+    void streamBalanceDeltas(ExpenseRepository.BalanceDeltaConsumer consumer);
+
+    // --- BALANCES ---
+
+    /**
+     * Current net balance per user in cents (positive = owed money); settled users are omitted.
+     */
+    IntLongMap readBalanceCents();
+
+    /**
+     * Same as {@link #readBalanceCents()}, in currency units for the JSON API.
+     */
+    default Map<Integer, Double> readBalances() {
+        return readBalanceCents().toDecimalMap();
+    }
+
+    /**
+     * Net balance per user in cents as of the end of the date: expenses dated on or before it and
+     * settlements made before the next day. Settled users are omitted.
+     */
+    IntLongMap readBalanceCentsAsOf(LocalDate date);
+
+    /**
+     * Same as {@link #readBalanceCentsAsOf(LocalDate)}, in currency units for the JSON API.
+     */
+    default Map<Integer, Double> readBalancesAsOf(LocalDate date) {
+        return readBalanceCentsAsOf(date).toDecimalMap();
+    }
+
+    /**
+     * Net balance per user within one group in cents: the group's expenses, their splits and the
+     * group's settlements. Group 0 is everything recorded outside a group. Settled users are omitted.
+     */
+    IntLongMap readGroupBalanceCents(int groupId);
+
+    /**
+     * Same as {@link #readGroupBalanceCents(int)}, in currency units for the JSON API.
+     */
+    default Map<Integer, Double> readGroupBalances(int groupId) {
+        return readGroupBalanceCents(groupId).toDecimalMap();
+    }
+
+    /**
+     * Net debt between every pair of users who shared an expense or a settlement, in cents:
+     * split shares owed by members to the payer, minus settlements from payer to receiver.
+     * The result is a copy the caller owns.
+     */
+    PairDebts readPairDebts();
+
+    /**
+     * The user's pairs from {@link #readPairDebts()}, as debtor or creditor.
+     */
+    PairDebts readPairDebts(int userId);
+
+    /**
+     * Compares the maintained balances with balances recomputed from the history.
+     * @return Users whose balance drifted; empty when consistent.
+     */
+    List<BalanceLedger.Drift> verifyBalances();
+
+    /**
+     * Replaces the maintained balances with recomputed ones.
+     * @return The drift that existed before the rebuild.
+     */
+    List<BalanceLedger.Drift> rebuildBalances();
+
+    // --- REPORTS ---
+
+    /**
+     * Spending per user and period from the maintained rollups; costs one step per (user, day)
+     * bucket in the range, not per expense.
+     */
+    SpendingReport readSpendingReport(SpendingReport.Request request);
+
+    /**
+     * Replaces the spending rollups with totals recomputed from the history (backfill).
+     * @return The number of (user, day) buckets.
+     */
+    int rebuildSpendingRollups();
+
+    // --- ADMIN ---
+
+    /**
+     * Deletes all users, expenses, splits, settlements, balances and rollups, and restarts id generation.
+     */
+    void clearAll();
+
+    /**
+     * @return User cache counters, or null when the engine does not cache users.
+     */
+    UserCache.Stats getUserCacheStats();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,12 @@
+package com.app;
+
+/**
+ * Thrown when the storage engine cannot be reached at all (e.g. no database connection could be
+ * obtained), as opposed to a single write being rejected.
+ */
+public class StorageUnavailableException extends DatabaseException {
+
+    public StorageUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,59 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Small helper for running several statements as one unit of work on a single connection.
+ * If the caller already has a transaction open (auto-commit off), the work simply joins it.
+ * Every commit made here bumps the DataVersion.
+ */
+public final class Transactions {
+
+    private static final Logger LOGGER = Logger.getLogger(Transactions.class.getName());
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    private Transactions() {}
+
+    /**
+     * Runs the work in a transaction, committing on success and rolling back on any failure.
+     * @param conn The active database connection.
+     * @param work The statements to run.
+     * @return Whatever the work returns.
+     */
+    public static <T> T inTransaction(Connection conn, SqlWork<T> work) throws SQLException {
+        if (!conn.getAutoCommit()) {
+            return work.run(); // Caller owns the transaction boundary
+        }
+
+        conn.setAutoCommit(false);
+        try {
+            T result = work.run();
+            conn.commit();
+            DataVersion.bump(); // readers may now see the new data
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            rollbackQuietly(conn);
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOGGER.warning("Could not restore auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            LOGGER.warning("Rollback failed: " + e.getMessage());
+        }
+    }
+}
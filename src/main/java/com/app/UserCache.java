@@ -0,0 +1,162 @@
+package com.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-process user directory cache used by UserRepository.
+ * - Users are indexed by id (bounded, least-recently-used eviction) and by username.
+ * - The full directory listing is cached as one entry while it fits within the bound.
+ * - Only directory fields are ever cached: entries never carry a password hash.
+ * Every write invalidates the affected entries and bumps a generation counter; a read-through
+ * fill that started before a write is discarded, so a slow reader cannot re-insert stale data.
+ */
+public class UserCache {
+
+    /**
+     * Point-in-time cache counters, serialized as-is by the admin endpoints.
+     */
+    public static class Stats {
+        private final int size;
+        private final int maxSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+
+        Stats(int size, int maxSize, long hits, long misses, long evictions, long invalidations) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() { return size; }
+        public int getMaxSize() { return maxSize; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getInvalidations() { return invalidations; }
+        public double getHitRate() { return hits + misses == 0 ? 0 : hits / (double) (hits + misses); }
+    }
+
+    private final int maxSize;
+    private final LinkedHashMap<Integer, User> byId;
+    private final Map<String, Integer> idByUsername = new HashMap<>();
+    private List<User> directory; // null until listed, or after any write
+
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public UserCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        this.maxSize = maxSize;
+        this.byId = new LinkedHashMap<Integer, User>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, User> eldest) {
+                if (size() <= UserCache.this.maxSize) return false;
+                idByUsername.remove(eldest.getValue().getUsername());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Cache size from config: USERS_CACHE_SIZE (default 10000 users).
+     */
+    public static UserCache fromConfig() {
+        return new UserCache(AppConfig.getInt("users.cache.size", 10_000));
+    }
+
+    /**
+     * Current generation; pass it back to the put methods so fills racing a write are dropped.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized User getById(int userId) {
+        User user = byId.get(userId);
+        if (user != null) hits++; else misses++;
+        return user;
+    }
+
+    public synchronized User getByUsername(String username) {
+        Integer userId = idByUsername.get(username);
+        User user = userId == null ? null : byId.get(userId);
+        if (user != null) hits++; else misses++;
+        return user;
+    }
+
+    public synchronized List<User> getDirectory() {
+        if (directory != null) hits++; else misses++;
+        return directory;
+    }
+
+    public synchronized void put(User user, long seenGeneration) {
+        if (seenGeneration != generation) return;
+        store(user);
+    }
+
+    /**
+     * Caches the full listing (and indexes every user in it) unless it exceeds the size bound.
+     */
+    public synchronized void putDirectory(List<User> users, long seenGeneration) {
+        if (seenGeneration != generation || users.size() > maxSize) return;
+        directory = Collections.unmodifiableList(new ArrayList<>(users));
+        for (User user : users) {
+            store(user);
+        }
+    }
+
+    public synchronized void invalidateById(int userId) {
+        User removed = byId.remove(userId);
+        if (removed != null) idByUsername.remove(removed.getUsername());
+        afterWrite();
+    }
+
+    public synchronized void invalidateByUsername(String username) {
+        Integer userId = idByUsername.remove(username);
+        if (userId != null) byId.remove(userId);
+        afterWrite();
+    }
+
+    /**
+     * Drops everything, e.g. after the users table was truncated.
+     */
+    public synchronized void invalidateAll() {
+        byId.clear();
+        idByUsername.clear();
+        afterWrite();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(byId.size(), maxSize, hits, misses, evictions, invalidations);
+    }
+
+    private void store(User user) {
+        User previous = byId.put(user.getUserId(), user);
+        if (previous != null && !Objects.equals(previous.getUsername(), user.getUsername())) {
+            idByUsername.remove(previous.getUsername());
+        }
+        idByUsername.put(user.getUsername(), user.getUserId());
+    }
+
+    // Any write can change the listing, and must fence off fills that read the old state.
+    private void afterWrite() {
+        directory = null;
+        generation++;
+        invalidations++;
+    }
+}
@@ -16,6 +16,19 @@ public class UserRepository {
 
     private static final Logger LOGGER = Logger.getLogger(UserRepository.class.getName());
 
+    // Directory columns only: password_hash never leaves the repository through the cached reads.
+    private static final String DIRECTORY_COLUMNS = "SELECT user_id, username, email, full_name FROM public.users";
+
+    private final UserCache cache;
+
+    public UserRepository() {
+        this(UserCache.fromConfig());
+    }
+
+    public UserRepository(UserCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Inserts a new user record into the 'users' table.
      */
@@ -29,6 +42,7 @@ public class UserRepository {
             statement.setString(4, user.getFullName());
 
             int rowsAffected = statement.executeUpdate();
+            DataVersion.afterWrite(conn);
             
             if (rowsAffected > 0) {
                 try (ResultSet rs = statement.getGeneratedKeys()) {
@@ -37,6 +51,7 @@ public class UserRepository {
                         System.out.printf("  [CREATE] Successfully registered user '%s' with ID: %d.\n", user.getUsername(), userId);
                     }
                 }
+                cache.invalidateByUsername(user.getUsername());
             }
         } catch (SQLException e) {
             if (e.getSQLState().equals("23505")) { 
@@ -47,6 +62,30 @@ public class UserRepository {
         }
     }
 
+    /**
+     * Inserts a deleted user again under its old user_id (the sequence is already past it).
+     * @throws DatabaseException if the id, username or email is taken.
+     */
+    public void restoreUser(Connection conn, User user) {
+        String sql = "INSERT INTO public.users (user_id, username, email, password_hash, full_name) VALUES (?, ?, ?, ?, ?)";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, user.getUserId());
+            statement.setString(2, user.getUsername());
+            statement.setString(3, user.getEmail());
+            statement.setString(4, user.getPasswordHash());
+            statement.setString(5, user.getFullName());
+
+            statement.executeUpdate();
+            DataVersion.afterWrite(conn);
+            cache.invalidateById(user.getUserId());
+            cache.invalidateByUsername(user.getUsername());
+            System.out.printf("  [CREATE] Restored user '%s' with ID: %d.\n", user.getUsername(), user.getUserId());
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to restore user: " + user.getUsername() + " (ID " + user.getUserId() + ")", e);
+        }
+    }
+
     /**
      * Retrieves all user records.
      */
@@ -73,6 +112,58 @@ public class UserRepository {
         return userList;
     }
     
+    /**
+     * Lists every user without the password hash, from the cache when possible.
+     */
+    public List<User> listUserDirectory(Connection conn) {
+        List<User> cached = cache.getDirectory();
+        if (cached != null) return cached;
+
+        long generation = cache.generation();
+        List<User> userList = new ArrayList<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet resultSet = statement.executeQuery(DIRECTORY_COLUMNS + " ORDER BY user_id")) {
+
+            while (resultSet.next()) {
+                userList.add(mapDirectoryUser(resultSet));
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to list the user directory.", e);
+        }
+        cache.putDirectory(userList, generation);
+        return userList;
+    }
+
+    /**
+     * Looks up one user by id (without the password hash), from the cache when possible.
+     * @return The user, or null if no such user exists.
+     */
+    public User findUserById(Connection conn, int userId) {
+        User cached = cache.getById(userId);
+        if (cached != null) return cached;
+
+        long generation = cache.generation();
+        User user = findOne(conn, DIRECTORY_COLUMNS + " WHERE user_id = ?", statement -> statement.setInt(1, userId),
+                            "Failed to find user with ID: " + userId);
+        if (user != null) cache.put(user, generation);
+        return user;
+    }
+
+    /**
+     * Looks up one user by username (without the password hash), from the cache when possible.
+     * @return The user, or null if no such user exists.
+     */
+    public User findUserByUsername(Connection conn, String username) {
+        User cached = cache.getByUsername(username);
+        if (cached != null) return cached;
+
+        long generation = cache.generation();
+        User user = findOne(conn, DIRECTORY_COLUMNS + " WHERE username = ?", statement -> statement.setString(1, username),
+                            "Failed to find user: " + username);
+        if (user != null) cache.put(user, generation);
+        return user;
+    }
+
     /**
      * Updates an existing user record.
      */
@@ -85,6 +176,8 @@ public class UserRepository {
             statement.setString(3, user.getUsername());
             
             int rowsAffected = statement.executeUpdate();
+            DataVersion.afterWrite(conn);
+            cache.invalidateByUsername(user.getUsername());
             
             if (rowsAffected > 0) {
                 System.out.printf("  [UPDATE] Successfully updated user details for '%s'.\n", user.getUsername());
@@ -106,6 +199,8 @@ public class UserRepository {
             statement.setString(1, username);
             
             int rowsAffected = statement.executeUpdate();
+            DataVersion.afterWrite(conn);
+            cache.invalidateByUsername(username);
             
             if (rowsAffected > 0) {
                 System.out.printf("  [DELETE] Successfully deleted user: '%s'.\n", username);
@@ -117,6 +212,42 @@ public class UserRepository {
         }
     }
     
+    /**
+     * Deletes a user record by id, without looking the user up first.
+     * @return true if a user was deleted.
+     */
+    public boolean deleteUserById(Connection conn, int userId) {
+        String sql = "DELETE FROM public.users WHERE user_id = ?";
+
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, userId);
+
+            int rowsAffected = statement.executeUpdate();
+            DataVersion.afterWrite(conn);
+            cache.invalidateById(userId);
+
+            if (rowsAffected > 0) {
+                System.out.printf("  [DELETE] Successfully deleted user with ID: %d.\n", userId);
+            } else {
+                System.err.printf("  [WARNING] Could not find user to delete with ID: %d.\n", userId);
+            }
+            return rowsAffected > 0;
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to delete user with ID: " + userId, e);
+        }
+    }
+
+    /**
+     * Drops every cached user, for writes that bypass this repository (e.g. a table truncate).
+     */
+    public void invalidateCache() {
+        cache.invalidateAll();
+    }
+
+    public UserCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
+
     /**
      * Creates a new group and returns its generated ID.
      * This is required for the settlements foreign key constraint.
@@ -134,6 +265,7 @@ public class UserRepository {
             statement.setInt(2, creatorId);
 
             int rowsAffected = statement.executeUpdate();
+            DataVersion.afterWrite(conn);
             
             if (rowsAffected > 0) {
                 try (ResultSet rs = statement.getGeneratedKeys()) {
@@ -148,4 +280,25 @@ public class UserRepository {
         }
         return groupId;
     }
+
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    private static User findOne(Connection conn, String sql, ParameterBinder parameters, String errorMessage) {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            parameters.bind(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? mapDirectoryUser(resultSet) : null;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException(errorMessage, e);
+        }
+    }
+
+    private static User mapDirectoryUser(ResultSet resultSet) throws SQLException {
+        return new User(resultSet.getInt("user_id"), resultSet.getString("username"),
+                        resultSet.getString("email"), null, resultSet.getString("full_name"));
+    }
 }
\ No newline at end of file
@@ -1,16 +1,26 @@
 package com.app;
 
-import java.sql.Connection;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.Arrays;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
 import com.google.gson.Gson;
 
+import spark.Request;
+import spark.Response;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 /**
  * This class serves as the embedded REST API (Controller Layer) using Spark Java.
@@ -22,37 +32,46 @@ public class WebApp {
     private static final int PORT = 4567; // Default Spark port
 
     public static void main(String[] args) {
+        StartupReport.phase("main entered");
         
         // Configuration: Set up Gson for JSON serialization
         Gson gson = new Gson();
         
-        // Initialize modular components
-        UserRepository userRepository = new UserRepository();
-        ExpenseRepository expenseRepository = new ExpenseRepository();
-        BalanceService balanceService = new BalanceService(expenseRepository, userRepository);
+        // Initialize modular components (STORAGE_ENGINE=jdbc by default, or memory)
+        StorageEngine storage = StorageEngine.fromConfig();
+        SettlementPlanner settlementPlanner = new SettlementPlanner();
+        ResponseBodyCache bodyCache = ResponseBodyCache.fromConfig();
+        ChangeFeed changeFeed = ChangeFeed.get();
+        StartupReport.phase("storage engine ready");
         
         // Configure Spark Server
+        RequestThreads requestThreads = RequestThreads.fromConfig();
+        configureThreads(requestThreads);
         Spark.port(PORT);
     Spark.staticFiles.location("/public"); // Serves index.html from src/main/resources/public
         
         // Enable CORS (Critical for running React and Java on different ports/addresses)
         enableCORS("*", "*", "*");
+        enableRequestMetrics();
 
-        LOGGER.info("Spark Server starting on port " + PORT);
+        LOGGER.info("Spark Server starting on port " + PORT + " with the " + storage.getName() + " storage engine");
+        LOGGER.info("Requests run on " + requestThreads.describe());
         
-        // --- DATA SETUP (Initial demo data run to populate the DB) ---
-        // This is done once when the server starts to ensure data exists for the frontend demo.
-        setupInitialData(userRepository, expenseRepository, balanceService);
+        // --- DATA SETUP (demo data for the frontend, see DemoData) ---
+        // DEMO_SEED=sync writes it here, before any route is live; background (default) waits for the routes.
+        boolean seedNow = DemoData.SYNC.equalsIgnoreCase(AppConfig.getString("demo.seed", DemoData.BACKGROUND));
+        if (seedNow) DemoData.start(storage);
 
 
         // ----------------- API ENDPOINTS -----------------
 
-        // Endpoint 1: Get list of all users
+        // Endpoint 1: Get list of all users (conditional GET, see conditionalJson)
         Spark.get("/api/users", "application/json", (req, res) -> {
-            try (Connection conn = DatabaseConnector.getConnection()) {
-                List<User> users = userRepository.listAllUsers(conn);
-                res.status(200);
-                return gson.toJson(users);
+            try {
+                return conditionalJson(req, res, bodyCache, "users", () -> {
+                    List<User> users = storage.listUserDirectory();
+                    return gson.toJson(users).getBytes(StandardCharsets.UTF_8);
+                });
             } catch (DatabaseException e) {
                 res.status(500);
                 LOGGER.log(Level.SEVERE, "Database error fetching users.", e);
@@ -60,12 +79,26 @@ public class WebApp {
             }
         });
 
-        // Endpoint 2: Get Net Balances Report
+        // Endpoint 2: Get Net Balances Report (conditional GET, see conditionalJson);
+        // ?asOf=YYYY-MM-DD for the balances at the end of that day
         Spark.get("/api/balances", "application/json", (req, res) -> {
-            try (Connection conn = DatabaseConnector.getConnection()) {
-                Map<Integer, Double> balances = balanceService.calculateNetBalances(conn);
-                res.status(200);
-                return gson.toJson(balances);
+            try {
+                String asOf = req.queryParams("asOf");
+                if (asOf != null) {
+                    LocalDate date;
+                    try {
+                        date = LocalDate.parse(asOf);
+                    } catch (DateTimeParseException e) {
+                        res.status(400);
+                        return gson.toJson(Map.of("error", "asOf must be a date like 2024-12-31."));
+                    }
+                    return conditionalJson(req, res, bodyCache, "balances@" + date,
+                            () -> gson.toJson(storage.readBalancesAsOf(date)).getBytes(StandardCharsets.UTF_8));
+                }
+                return conditionalJson(req, res, bodyCache, "balances", () -> {
+                    Map<Integer, Double> balances = storage.readBalances();
+                    return gson.toJson(balances).getBytes(StandardCharsets.UTF_8);
+                });
             } catch (DatabaseException e) {
                 res.status(500);
                 LOGGER.log(Level.SEVERE, "Database error calculating balances.", e);
@@ -73,6 +106,97 @@ public class WebApp {
             }
         });
 
+        // Endpoint 2a: Net debt per pair of users ({debtorId, creditorId, amount}; conditional GET, see conditionalJson)
+        Spark.get("/api/balances/pairs", "application/json", (req, res) -> {
+            try {
+                return conditionalJson(req, res, bodyCache, "pairs",
+                        () -> gson.toJson(storage.readPairDebts().toList()).getBytes(StandardCharsets.UTF_8));
+            } catch (DatabaseException e) {
+                res.status(500);
+                LOGGER.log(Level.SEVERE, "Database error reading pair debts.", e);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+        });
+
+        // The user's pairs only, as debtor or creditor (empty for unknown users)
+        Spark.get("/api/balances/:userId/pairs", "application/json", (req, res) -> {
+            int userId;
+            try {
+                userId = Integer.parseInt(req.params(":userId"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "userId must be a number: " + req.params(":userId")));
+            }
+            try {
+                return conditionalJson(req, res, bodyCache, "pairs/" + userId,
+                        () -> gson.toJson(storage.readPairDebts(userId).toList()).getBytes(StandardCharsets.UTF_8));
+            } catch (DatabaseException e) {
+                res.status(500);
+                LOGGER.log(Level.SEVERE, "Database error reading pair debts.", e);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+        });
+
+        // Endpoint 2b: Suggested settle-up transfers (?mode=exact for the minimum count in small groups)
+        Spark.get("/api/settlements/plan", "application/json", (req, res) -> {
+            try {
+                IntLongMap balances = storage.readBalanceCents();
+                List<Settlement> plan = "exact".equalsIgnoreCase(req.queryParams("mode"))
+                        ? settlementPlanner.planExact(balances)
+                        : settlementPlanner.planGreedy(balances);
+                res.status(200);
+                // Gson cannot reflect into java.time on Java 17, so send only the transfer fields
+                return gson.toJson(plan.stream()
+                        .map(s -> Map.of("payerId", s.getPayerId(), "receiverId", s.getReceiverId(), "amount", s.getAmount()))
+                        .collect(Collectors.toList()));
+            } catch (DatabaseException e) {
+                res.status(500);
+                LOGGER.log(Level.SEVERE, "Database error planning settlements.", e);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+        });
+
+        // Endpoint 2c: Spending per user and period from the rollups (conditional GET, see conditionalJson);
+        // ?from&to (dates, default: the last 12 periods up to today), granularity=day|week|month (month), userId (optional)
+        Spark.get("/api/reports/spending", "application/json", (req, res) -> {
+            SpendingReport.Request request;
+            try {
+                request = SpendingReport.Request.parse(req.queryParams("from"), req.queryParams("to"),
+                        req.queryParams("granularity"), req.queryParams("userId"));
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+            try {
+                return conditionalJson(req, res, bodyCache, request.cacheKey(),
+                        () -> gson.toJson(storage.readSpendingReport(request)).getBytes(StandardCharsets.UTF_8));
+            } catch (DatabaseException e) {
+                res.status(500);
+                LOGGER.log(Level.SEVERE, "Database error reading the spending report.", e);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+        });
+
+        // Endpoint 2d: Net balance per user within one group (conditional GET, see conditionalJson);
+        // the group's expenses, their splits and its settlements, empty for unknown groups
+        Spark.get("/api/groups/:groupId/balances", "application/json", (req, res) -> {
+            int groupId;
+            try {
+                groupId = Integer.parseInt(req.params(":groupId"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "groupId must be a number: " + req.params(":groupId")));
+            }
+            try {
+                return conditionalJson(req, res, bodyCache, "groups/" + groupId + "/balances",
+                        () -> gson.toJson(storage.readGroupBalances(groupId)).getBytes(StandardCharsets.UTF_8));
+            } catch (DatabaseException e) {
+                res.status(500);
+                LOGGER.log(Level.SEVERE, "Database error reading group balances.", e);
+                return gson.toJson(Map.of("error", e.getMessage()));
+            }
+        });
+
         // Endpoint 3: Record a new expense (POST request)
         Spark.post("/api/expense", "application/json", (req, res) -> {
             try {
@@ -82,19 +206,40 @@ public class WebApp {
                 double amount = ((Number) expenseData.get("amount")).doubleValue();
                 String description = (String) expenseData.get("description");
                 int payerId = ((Number) expenseData.get("payerId")).intValue();
+                // Optional group; 0 = not in a group
+                int groupId = expenseData.get("groupId") instanceof Number ? ((Number) expenseData.get("groupId")).intValue() : 0;
+
+                // Optional split participants; Gson parses JSON numbers as Double
+                List<Integer> participantIds = new ArrayList<>();
+                if (expenseData.get("participantIds") instanceof List) {
+                    for (Object id : (List<?>) expenseData.get("participantIds")) {
+                        participantIds.add(((Number) id).intValue());
+                    }
+                }
+                // splitType equal|percentage|shares|exact with one splitValues entry per participant
+                List<Number> splitValues = new ArrayList<>();
+                if (expenseData.get("splitValues") instanceof List) {
+                    for (Object value : (List<?>) expenseData.get("splitValues")) {
+                        splitValues.add((Number) value);
+                    }
+                }
 
                 // Create Expense Model (Date defaults to today)
-                Expense newExpense = new Expense(amount, description, payerId, LocalDate.now());
+                Expense newExpense = new Expense(amount, description, payerId, LocalDate.now(), groupId);
                 
-                try (Connection conn = DatabaseConnector.getConnection()) {
-                    long newExpenseId = expenseRepository.addExpense(conn, newExpense);
-                    
-                    if (newExpenseId > 0) {
-                        // After creating the expense, usually we'd go straight to the split endpoint
-                        // For simplicity here, we just confirm creation.
-                        res.status(201);
-                        return gson.toJson(Map.of("message", "Expense recorded successfully.", "id", newExpenseId));
-                    }
+                // Expense and its splits are written atomically
+                long newExpenseId;
+                if (participantIds.isEmpty()) {
+                    newExpenseId = storage.addExpense(newExpense);
+                } else {
+                    long[] shares = SplitStrategy.parse((String) expenseData.get("splitType"))
+                            .allocate(newExpense.getAmountCents(), participantIds.size(), splitValues);
+                    newExpenseId = storage.createExpenseWithSplits(newExpense, participantIds, shares);
+                }
+
+                if (newExpenseId > 0) {
+                    res.status(201);
+                    return gson.toJson(Map.of("message", "Expense recorded successfully.", "id", newExpenseId));
                 }
                 res.status(500);
                 return gson.toJson(Map.of("error", "Failed to record expense."));
@@ -106,6 +251,142 @@ public class WebApp {
             }
         });
 
+        // Endpoint 3a: Server-sent events for every committed change (see ChangeFeed). Spark has no
+        // async responses, so each open stream holds a Jetty thread until the client goes away;
+        // the Spring Boot server is the one that scales to thousands of subscribers.
+        Spark.get("/api/stream", (req, res) -> {
+            javax.servlet.http.HttpServletResponse raw = res.raw();
+            raw.setStatus(200);
+            raw.setContentType("text/event-stream");
+            raw.setCharacterEncoding("UTF-8");
+            raw.setHeader("Cache-Control", "no-store");
+            OutputStream out = raw.getOutputStream();
+            ChangeFeed.Subscription subscription = changeFeed.subscribe(new ChangeFeed.Sink() {
+                @Override
+                public void send(List<ChangeFeed.Event> events) throws IOException {
+                    for (ChangeFeed.Event event : events) {
+                        out.write(event.toFrame().getBytes(StandardCharsets.UTF_8));
+                    }
+                    out.flush();
+                }
+
+                @Override
+                public void close() {}
+            });
+            if (subscription == null) {
+                // Nothing written yet, so the headers can still change
+                res.status(503);
+                res.header("Retry-After", "5");
+                res.type("application/json");
+                return gson.toJson(Map.of("error", "Too many open streams; retry shortly."));
+            }
+            try {
+                subscription.awaitClosed();
+            } finally {
+                subscription.close();
+            }
+            return "";
+        });
+
+        // Endpoint 3b: Stream subscribers and events published, delivered and dropped (slow consumers)
+        Spark.get("/api/admin/stream", "application/json", (req, res) -> {
+            res.status(200);
+            return gson.toJson(changeFeed.getStats());
+        });
+
+        // Endpoint 4: Connection pool metrics (active, idle, waiters, acquire latency); JDBC engine only
+        Spark.get("/api/admin/pool", "application/json", (req, res) -> {
+            if (!storage.getName().equals(StorageEngine.JDBC)) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "The " + storage.getName() + " storage engine has no connection pool."));
+            }
+            res.status(200);
+            return gson.toJson(DatabaseConnector.getPoolMetrics());
+        });
+
+        // Endpoint 4a: Balance snapshots (GET lists them, POST takes one now); JDBC engine with snapshots enabled only
+        Spark.get("/api/admin/snapshots", "application/json", (req, res) -> {
+            if (!hasSnapshots(storage)) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "Balance snapshots are not enabled for the " + storage.getName() + " storage engine."));
+            }
+            res.status(200);
+            return gson.toJson(((JdbcStorageEngine) storage).listBalanceSnapshots());
+        });
+        Spark.post("/api/admin/snapshots", "application/json", (req, res) -> {
+            if (!hasSnapshots(storage)) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "Balance snapshots are not enabled for the " + storage.getName() + " storage engine."));
+            }
+            res.status(200);
+            return gson.toJson(((JdbcStorageEngine) storage).checkpointBalances());
+        });
+
+        // Endpoint 4b: Event log recovery report (events replayed, torn bytes discarded); event log engine only
+        Spark.get("/api/admin/eventlog", "application/json", (req, res) -> {
+            if (!(storage instanceof EventLogStorageEngine)) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "The " + storage.getName() + " storage engine has no event log."));
+            }
+            res.status(200);
+            return gson.toJson(((EventLogStorageEngine) storage).getEventLog().getRecoveryReport());
+        });
+
+        // Endpoint 4c: Group commit counters (writes, batches, mean batch, fallbacks); JDBC engine with WRITE_BATCH_SIZE > 1 only
+        Spark.get("/api/admin/writes", "application/json", (req, res) -> {
+            WriteBatcher batcher = storage instanceof JdbcStorageEngine ? ((JdbcStorageEngine) storage).getWriteBatcher() : null;
+            if (batcher == null) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "Write batching is off (set WRITE_BATCH_SIZE above 1 on the jdbc storage engine)."));
+            }
+            res.status(200);
+            return gson.toJson(batcher.getStats());
+        });
+
+        // Endpoint 4d: Connection pool metrics per shard, in shard order; sharded engine only
+        Spark.get("/api/admin/shards", "application/json", (req, res) -> {
+            if (!(storage instanceof ShardedStorageEngine)) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "The " + storage.getName() + " storage engine is not sharded."));
+            }
+            res.status(200);
+            return gson.toJson(((ShardedStorageEngine) storage).getShardPoolMetrics());
+        });
+
+        // Endpoint 5: Per-method and per-route timers (?format=prometheus for the text exposition format)
+        Spark.get("/api/admin/metrics", (req, res) -> {
+            res.status(200);
+            if ("prometheus".equalsIgnoreCase(req.queryParams("format"))) {
+                res.type("text/plain; version=0.0.4; charset=utf-8");
+                return MetricsRegistry.prometheus();
+            }
+            res.type("application/json");
+            return gson.toJson(MetricsRegistry.snapshot());
+        });
+
+        // Endpoint 5b: Read admission (running, queued, admitted, rejected) and body cache hits, misses and coalesced misses
+        Spark.get("/api/admin/reads", "application/json", (req, res) -> {
+            res.status(200);
+            return gson.toJson(Map.of("admission", AdmissionControl.get().getStats(),
+                                      "cacheHits", bodyCache.getHits(),
+                                      "cacheMisses", bodyCache.getMisses(),
+                                      "coalesced", bodyCache.getCoalesced()));
+        });
+
+        // A read that could not be admitted (see AdmissionControl) fails fast from any route
+        Spark.exception(AdmissionControl.OverloadedException.class, (e, req, res) -> {
+            res.status(503);
+            res.header("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            res.type("application/json");
+            res.body(gson.toJson(Map.of("error", e.getMessage())));
+        });
+
+        // Endpoint 5a: Start-up timeline up to the first served request (see StartupReport)
+        Spark.get("/api/admin/startup", "application/json", (req, res) -> {
+            res.status(200);
+            return gson.toJson(StartupReport.snapshot());
+        });
+
         // Root route -> serve frontend
         Spark.get("/", (req, res) -> {
             res.redirect("/index.html");
@@ -114,43 +395,72 @@ public class WebApp {
         
         // Force the main thread to wait for the server to initialize and stay running
     Spark.awaitInitialization();
+    StartupReport.phase("routes live");
     LOGGER.info("Spark Server started. Open http://localhost:" + PORT + "/index.html");
+
+        // Background seeding (or none with DEMO_SEED=off) once requests are already being served
+        if (!seedNow) DemoData.start(storage);
+
+        // Virtual threads are daemons, so with them no Jetty thread keeps the JVM alive: main does
+        if (requestThreads.isVirtual()) {
+            try {
+                Thread.currentThread().join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // HTTP_THREADS=virtual: Jetty's workers (which run the routes) are virtual threads, so a route
+    // blocked on JDBC holds no platform thread. Otherwise a pool of HTTP_THREADS_MAX platform threads.
+    private static void configureThreads(RequestThreads threads) {
+        if (!threads.isVirtual()) {
+            Spark.threadPool(threads.getMaxThreads());
+            return;
+        }
+        QueuedThreadPool pool = new QueuedThreadPool(threads.getMaxThreads(), 8, 60_000) {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return threads.getVirtualThreadFactory().newThread(runnable);
+            }
+        };
+        pool.setDaemon(true); // Jetty sets this on every thread; virtual threads reject false
+        pool.setName("request");
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory().withThreadPool(pool));
     }
     
-    // --- Helper for Initial Setup ---
-    
-    // This method ensures demo data exists when the server first starts.
-    private static void setupInitialData(UserRepository userRepository, ExpenseRepository expenseRepository, BalanceService balanceService) {
-         try (Connection connection = DatabaseConnector.getConnection()) {
-            
-            // Define user IDs for consistent demo (from console demo)
-            int aliceUserId = 1; 
-            int bobUserId = 6; 
-            List<Integer> partyMembers = Arrays.asList(aliceUserId, bobUserId); 
-
-            // 1. Setup (Run once, errors ignored)
-            userRepository.registerNewUser(connection, new User("alice_j", "alice.j@example.com", "hash1", "Alice Johnson"));
-            userRepository.registerNewUser(connection, new User("bob_s", "bob.s@example.com", "hash2", "Bob Smith"));
-            userRepository.createGroup(connection, "Web Demo Group", aliceUserId); // Creates Group ID 1
-            
-            // 2. Demo Transaction (Run once, errors ignored)
-            Expense dinnerExpense = new Expense(90.00, "Initial Web Demo Dinner", aliceUserId, LocalDate.now());
-            long expenseId = expenseRepository.addExpense(connection, dinnerExpense);
-            
-            if (expenseId > 0) {
-                Expense recordedExpense = new Expense(expenseId, dinnerExpense.getAmount(), dinnerExpense.getDescription(), dinnerExpense.getPayerId(), dinnerExpense.getDate());
-                expenseRepository.splitExpenseAndRecordDebts(connection, recordedExpense, partyMembers);
-            }
-            
-            // 3. Record Initial Settlement (to ensure the balance report isn't massive)
-            // Bob owes Alice $45.00 for the dinner split.
-            Settlement initialPayment = new Settlement(1, bobUserId, aliceUserId, 45.00); 
-            expenseRepository.recordSettlement(connection, initialPayment);
-
-        } catch (Exception e) {
-             // We catch all exceptions here because setup must not crash the web server startup
-             LOGGER.log(Level.WARNING, "Initial data setup failed (Likely duplicate expense records). Proceeding with server start.", e);
+    // Only the JDBC engine with snapshots enabled can list and take balance snapshots.
+    private static boolean hasSnapshots(StorageEngine storage) {
+        return storage instanceof JdbcStorageEngine && ((JdbcStorageEngine) storage).getSnapshots().isEnabled();
+    }
+
+    // ETag from the data version: 304 without a database round trip when the client is current,
+    // otherwise the body cached for this version (built on a miss). Spark writes byte[] as-is.
+    private static Object conditionalJson(Request req, Response res, ResponseBodyCache cache, String key,
+                                          ResponseBodyCache.BodySupplier body) throws Exception {
+        long version = DataVersion.current(); // sampled before any read, see DataVersion
+        String etag = DataVersion.etag(version);
+        res.header("ETag", etag);
+        res.header("Cache-Control", "no-cache");
+        if (DataVersion.matches(req.headers("If-None-Match"), etag)) {
+            res.status(304);
+            return "";
         }
+        res.status(200);
+        return cache.getOrCompute(key, version, body);
+    }
+
+    // Times every /api request into a per-route endpoint timer; numeric path segments are
+    // folded into {id} so ids do not create one timer each. 5xx responses count as errors.
+    private static void enableRequestMetrics() {
+        Spark.before((request, response) -> request.attribute("metrics.start", System.nanoTime()));
+        Spark.afterAfter((request, response) -> {
+            Long start = request.attribute("metrics.start");
+            if (start == null || !request.uri().startsWith("/api/")) return;
+            String route = request.requestMethod() + " " + request.uri().replaceAll("/\\d+(?=/|$)", "/{id}");
+            MetricsRegistry.endpoint(route).record(System.nanoTime() - start, response.status() >= 500);
+            StartupReport.requestServed(route);
+        });
     }
 
     // Utility method to enable CORS (allows frontend access)
@@ -159,6 +469,7 @@ public class WebApp {
             response.header("Access-Control-Allow-Origin", origin);
             response.header("Access-Control-Request-Method", methods);
             response.header("Access-Control-Allow-Headers", headers);
+            response.header("Access-Control-Expose-Headers", "ETag");
             // Handle preflight requests
             if (request.requestMethod().equals("OPTIONS")) {
                 response.header("Access-Control-Allow-Methods", methods);
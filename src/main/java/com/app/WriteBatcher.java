@@ -0,0 +1,306 @@
+package com.app;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for concurrent writes (expenses, splits, settlements). Callers hand their write to
+ * submit() and block; flusher threads take up to maxBatch queued writes, waiting at most
+ * lingerMicros after the first one for more to arrive, and run them on one connection in one
+ * transaction, so a burst of N writes pays one commit (and one WAL flush) instead of N.
+ * The repository methods join the batch's transaction (see Transactions), so each write runs
+ * exactly as it would alone and its caller gets its own generated id back.
+ * If a write fails, its caller gets that error and the batch is rolled back and rerun without it,
+ * so one bad write never fails its neighbours.
+ * If the commit itself fails, every caller in the batch gets that error (the outcome is unknown,
+ * so nothing is retried).
+ */
+public final class WriteBatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteBatcher.class.getName());
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final OperationTimer FLUSH = MetricsRegistry.query("WriteBatcher.flush");
+
+    /**
+     * One write, run on the batch's connection. Failures are thrown as DatabaseException
+     * (or any other RuntimeException) and reach only this write's caller.
+     */
+    @FunctionalInterface
+    public interface Write<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Runs after each commit on the same connection, back in auto-commit (e.g. snapshot checkpoints).
+     */
+    @FunctionalInterface
+    public interface AfterCommit {
+        void committed(Connection conn, int writes);
+    }
+
+    /**
+     * Counters for the admin endpoints, serialized as-is.
+     */
+    public static class Stats {
+        private final int maxBatch;
+        private final long lingerMicros;
+        private final long writes;
+        private final long batches;
+        private final long fallbacks;
+        private final int queued;
+
+        Stats(int maxBatch, long lingerMicros, long writes, long batches, long fallbacks, int queued) {
+            this.maxBatch = maxBatch;
+            this.lingerMicros = lingerMicros;
+            this.writes = writes;
+            this.batches = batches;
+            this.fallbacks = fallbacks;
+            this.queued = queued;
+        }
+
+        public int getMaxBatch() { return maxBatch; }
+        public long getLingerMicros() { return lingerMicros; }
+        public long getWrites() { return writes; }
+        public long getBatches() { return batches; }
+        public long getFallbacks() { return fallbacks; }
+        public int getQueued() { return queued; }
+        public double getMeanBatch() { return batches == 0 ? 0 : writes / (double) batches; }
+    }
+
+    private static final class Pending<T> {
+        final Write<T> write;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Pending(Write<T> write) {
+            this.write = write;
+        }
+    }
+
+    private final ConnectionPool.ConnectionFactory connections;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final AfterCommit afterCommit;
+    private final BlockingQueue<Pending<?>> queue;
+    private final List<Thread> flushers = new ArrayList<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param maxBatch Most writes committed together.
+     * @param lingerMicros How long a flusher waits for more writes after the first (0 = take only what is queued).
+     * @param flushers Flusher threads, i.e. connections in use for writes at once.
+     * @param queueCapacity Writes waiting beyond this block their callers.
+     */
+    public WriteBatcher(ConnectionPool.ConnectionFactory connections, int maxBatch, long lingerMicros, int flushers,
+                        int queueCapacity, AfterCommit afterCommit) {
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be at least 1: " + maxBatch);
+        if (flushers < 1) throw new IllegalArgumentException("flushers must be at least 1: " + flushers);
+        this.connections = connections;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+        this.afterCommit = afterCommit;
+        this.queue = new LinkedBlockingQueue<>(Math.max(maxBatch, queueCapacity));
+        for (int i = 0; i < flushers; i++) {
+            Thread flusher = new Thread(this::flushLoop, "write-batcher-" + i);
+            flusher.setDaemon(true);
+            flusher.start();
+            this.flushers.add(flusher);
+        }
+    }
+
+    /**
+     * Batcher configured by WRITE_BATCH_SIZE (1, i.e. off), WRITE_BATCH_LINGER_MICROS (0),
+     * WRITE_BATCH_FLUSHERS (2) and WRITE_BATCH_QUEUE (1024).
+     * @return null when batching is off.
+     */
+    public static WriteBatcher fromConfig(ConnectionPool.ConnectionFactory connections, AfterCommit afterCommit) {
+        int maxBatch = AppConfig.getInt("write.batch.size", 1);
+        if (maxBatch <= 1) return null;
+        return new WriteBatcher(connections, maxBatch,
+                                AppConfig.getLong("write.batch.linger.micros", 0),
+                                AppConfig.getInt("write.batch.flushers", 2),
+                                AppConfig.getInt("write.batch.queue", 1_024),
+                                afterCommit);
+    }
+
+    /**
+     * Queues the write and waits until its batch has committed (or it failed).
+     * @return What the write returned, e.g. the generated id.
+     */
+    public <T> T submit(Write<T> write) {
+        if (closed) throw new IllegalStateException("The write batcher is closed.");
+        Pending<T> pending = new Pending<>(write);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageUnavailableException("Interrupted while queueing a write.", e);
+        }
+        try {
+            return pending.result.join(); // uninterruptible: the write may already be committing
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(maxBatch, TimeUnit.NANOSECONDS.toMicros(lingerNanos), writes.get(), batches.get(),
+                         fallbacks.get(), queue.size());
+    }
+
+    /**
+     * Stops accepting writes, commits what is queued and waits for the flushers.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread flusher : flushers) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        // Submitted while closing, after the flushers had drained the queue
+        List<Pending<?>> late = new ArrayList<>();
+        queue.drainTo(late);
+        failAll(late, new IllegalStateException("The write batcher is closed."));
+    }
+
+    // Polls rather than blocks, so close() never has to interrupt a flusher in the middle of JDBC work.
+    private void flushLoop() {
+        List<Pending<?>> batch = new ArrayList<>(maxBatch);
+        boolean interrupted = false;
+        while (!interrupted) {
+            try {
+                Pending<?> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) return; // drained
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch && !closed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Pending<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e) {
+                interrupted = true; // not expected: flush what was taken and stop
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending<?>> batch) {
+        FLUSH.run(() -> {
+            Connection conn;
+            try {
+                conn = connections.open();
+            } catch (SQLException e) {
+                failAll(batch, new StorageUnavailableException("Failed to get a database connection.", e));
+                return;
+            }
+            try (conn) {
+                commitTogether(conn, batch);
+                FLUSH.rows(batch.size());
+                writes.addAndGet(batch.size());
+                batches.incrementAndGet();
+            } catch (SQLException e) {
+                failAll(batch, new DatabaseException("Database operation failed.", e));
+            } catch (RuntimeException e) {
+                failAll(batch, e);
+            } catch (Error e) {
+                failAll(batch, new IllegalStateException("Write batch failed.", e));
+                throw e;
+            }
+        });
+    }
+
+    // One transaction for the batch. A write that fails gets its own error; the rest are rolled
+    // back and rerun together without it.
+    private void commitTogether(Connection conn, List<Pending<?>> batch) throws SQLException {
+        List<Pending<?>> remaining = new ArrayList<>(batch);
+        List<Object> results = new ArrayList<>(batch.size());
+        conn.setAutoCommit(false);
+        try {
+            while (!remaining.isEmpty()) {
+                results.clear();
+                int failed = -1;
+                for (int i = 0; i < remaining.size() && failed < 0; i++) {
+                    try {
+                        results.add(remaining.get(i).write.run(conn));
+                    } catch (SQLException e) {
+                        failed = i;
+                        remaining.get(i).result.completeExceptionally(new DatabaseException("Database operation failed.", e));
+                    } catch (RuntimeException e) {
+                        failed = i;
+                        remaining.get(i).result.completeExceptionally(e);
+                    }
+                }
+                if (failed < 0) break;
+                conn.rollback();
+                fallbacks.incrementAndGet();
+                remaining.remove(failed);
+            }
+            if (!remaining.isEmpty()) {
+                try {
+                    conn.commit();
+                } catch (SQLException e) {
+                    rollbackQuietly(conn);
+                    throw new DatabaseException("Failed to commit a batch of " + remaining.size() + " writes.", e);
+                }
+            }
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        if (remaining.isEmpty()) return;
+        DataVersion.bump(); // readers may now see the whole batch
+        completeAll(remaining, results);
+        afterCommit.committed(conn, remaining.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void completeAll(List<Pending<?>> batch, List<Object> results) {
+        for (int i = 0; i < batch.size(); i++) {
+            ((Pending<Object>) batch.get(i)).result.complete(results.get(i));
+        }
+    }
+
+    // Writes already completed (e.g. before a failing afterCommit) keep their result
+    private static void failAll(List<Pending<?>> batch, RuntimeException e) {
+        for (Pending<?> pending : batch) {
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            LOGGER.warning("Rollback failed: " + e.getMessage());
+        }
+    }
+}
@@ -1,128 +1,506 @@
 package com.app.controller;
 
-import java.sql.Connection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.app.BalanceService;
+import com.app.AdmissionControl;
+import com.app.AppConfig;
+import com.app.BalanceLedger;
+import com.app.BalanceSnapshots;
+import com.app.BulkImporter;
+import com.app.ChangeFeed;
+import com.app.ConnectionPool;
+import com.app.DataVersion;
 import com.app.DatabaseConnector;
+import com.app.EventLog;
+import com.app.EventLogStorageEngine;
 import com.app.Expense;
-import com.app.ExpenseRepository;
+import com.app.IntLongMap;
+import com.app.JdbcStorageEngine;
+import com.app.KeysetPage;
+import com.app.MetricsRegistry;
+import com.app.ResponseBodyCache;
 import com.app.Settlement;
+import com.app.SettlementPlanner;
+import com.app.ShardedStorageEngine;
+import com.app.SpendingReport;
+import com.app.SplitStrategy;
+import com.app.StartupReport;
+import com.app.StorageEngine;
 import com.app.User;
-import com.app.UserRepository;
+import com.app.UserCache;
+import com.app.WriteBatcher;
 import com.app.dto.ExpenseRequest;
 import com.app.dto.FriendRequest;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RestController
 @RequestMapping("/api")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = {"X-Next-Cursor", "ETag"})
 public class ExpenseController {
 
-    private final ExpenseRepository expenseRepository = new ExpenseRepository();
-    private final UserRepository userRepository = new UserRepository();
-    private final BalanceService balanceService = new BalanceService(expenseRepository, userRepository);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1_000;
+    // 0 = never; idle streams are kept alive (and dead clients found) by ChangeFeed's comments
+    private static final long STREAM_TIMEOUT_MILLIS = AppConfig.getLong("stream.timeout.millis", 0);
+
+    private final ObjectMapper objectMapper;
+    // JDBC or in-memory, chosen at startup (see SpringBootApp#storageEngine)
+    private final StorageEngine storage;
+    private final SettlementPlanner settlementPlanner = new SettlementPlanner();
+    private final BulkImporter bulkImporter;
+    private final ResponseBodyCache bodyCache = ResponseBodyCache.fromConfig();
+    private final ChangeFeed changeFeed = ChangeFeed.get();
+
+    public ExpenseController(ObjectMapper objectMapper, StorageEngine storage) {
+        this.objectMapper = objectMapper;
+        this.storage = storage;
+        this.bulkImporter = new BulkImporter(storage);
+    }
 
     // --- FRIENDS ---
     @PostMapping("/friends")
-    public Map<String, String> addFriend(@RequestBody FriendRequest req) throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            // Map FriendRequest to existing User model: username=name, email, passwordHash blank, fullName=name
-            User user = new User(req.getName(), req.getEmail(), "", req.getName());
-            userRepository.registerNewUser(conn, user);
-            return Map.of("status", "ok");
-        }
+    public Map<String, String> addFriend(@RequestBody FriendRequest req) {
+        // Map FriendRequest to existing User model: username=name, email, passwordHash blank, fullName=name
+        User user = new User(req.getName(), req.getEmail(), "", req.getName());
+        storage.registerNewUser(user);
+        return Map.of("status", "ok");
     }
 
     @GetMapping("/friends")
-    public List<User> getAllFriends() throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            return userRepository.listAllUsers(conn);
-        }
+    public ResponseEntity<byte[]> getAllFriends(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        return conditionalJson(ifNoneMatch, "friends", () -> objectMapper.writeValueAsBytes(storage.listUserDirectory()));
     }
 
     @DeleteMapping("/friends/{id}")
-    public Map<String, String> deleteFriend(@PathVariable int id) throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            List<User> users = userRepository.listAllUsers(conn);
-            User target = users.stream().filter(u -> u.getUserId() == id).findFirst().orElse(null);
-            if (target == null) {
-                return Map.of("status", "not_found");
-            }
-            userRepository.deleteUser(conn, target.getUsername());
-            return Map.of("status", "deleted");
-        }
+    public Map<String, String> deleteFriend(@PathVariable int id) {
+        boolean deleted = storage.deleteUserById(id);
+        return Map.of("status", deleted ? "deleted" : "not_found");
     }
 
     // --- EXPENSES ---
+    /**
+     * Split among participantIds if provided, by splitType (equal by default) and one splitValues
+     * entry per participant; invalid values are a 400. Expense and splits are written atomically.
+     * groupId (optional) files the expense under a group for GET /groups/{id}/balances.
+     */
     @PostMapping("/expenses")
-    public Map<String, Object> saveExpense(@RequestBody ExpenseRequest req) throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            Expense expense = new Expense(req.getAmount(), req.getDescription(), req.getPayerId(), req.getDate());
-            long id = expenseRepository.addExpense(conn, expense);
-
-            // Equal split among participants if provided
-            if (req.getParticipantIds() != null && !req.getParticipantIds().isEmpty()) {
-                Expense persisted = new Expense(id, req.getAmount(), req.getDescription(), req.getPayerId(), req.getDate());
-                expenseRepository.splitExpenseAndRecordDebts(conn, persisted, req.getParticipantIds());
-            }
+    public ResponseEntity<Map<String, Object>> saveExpense(@RequestBody ExpenseRequest req) {
+        Expense expense = new Expense(req.getAmount(), req.getDescription(), req.getPayerId(), req.getDate(), req.getGroupId());
+        List<Integer> participantIds = req.getParticipantIds();
+        if (participantIds == null || participantIds.isEmpty()) {
+            return ResponseEntity.ok(Map.of("expenseId", storage.addExpense(expense)));
+        }
 
-            return Map.of("expenseId", id);
+        long[] shares;
+        try {
+            shares = SplitStrategy.parse(req.getSplitType())
+                    .allocate(expense.getAmountCents(), participantIds.size(), req.getSplitValues());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
+        return ResponseEntity.ok(Map.of("expenseId", storage.createExpenseWithSplits(expense, participantIds, shares)));
     }
 
+    /**
+     * Without parameters returns every expense (as before).
+     * ?limit=N[&after=CURSOR] returns one keyset page; the X-Next-Cursor header carries the 'after'
+     * value for the next page and is absent on the last one. Cursors are opaque (an id, or on the
+     * sharded engine one position per shard); a malformed one is a 400.
+     * ?stream=true writes the JSON array row by row from a cursor, in constant memory.
+     * The full list and pages carry an ETag and answer a matching If-None-Match with 304.
+     */
     @GetMapping("/expenses")
-    public List<Expense> getAllExpenses() throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            return expenseRepository.listAllExpenses(conn);
+    public ResponseEntity<?> getAllExpenses(@RequestParam(required = false) String after,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestParam(defaultValue = "false") boolean stream,
+                                            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        if (stream) {
+            return streamJson(json -> storage.streamExpenses(row -> writeRow(json, row)));
+        }
+        if (after == null && limit == null) {
+            return conditionalJson(ifNoneMatch, "expenses", () -> objectMapper.writeValueAsBytes(storage.listAllExpenses()));
+        }
+
+        long version = DataVersion.current();
+        if (DataVersion.matches(ifNoneMatch, DataVersion.etag(version))) {
+            return notModified(version);
         }
+        int pageSize = pageSize(limit);
+        try {
+            KeysetPage<Expense> page = bodyCache.compute("expenses?after=" + (after == null ? "" : after) + "&limit=" + pageSize, version,
+                    () -> storage.pageExpenses(after, pageSize));
+            return pageResponse(page, pageSize, version);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // --- IMPORT ---
+
+    /**
+     * Bulk import of historic expenses and settlements, streamed as CSV (text/csv or ?format=csv)
+     * or NDJSON (default). Rows are written in chunks of ?chunkSize (default import.chunk.size);
+     * rejected rows are listed in the report and do not abort the import.
+     */
+    @PostMapping("/import")
+    public ResponseEntity<?> importRows(InputStream body,
+                                        @RequestHeader(value = "Content-Type", required = false) String contentType,
+                                        @RequestParam(required = false) String format,
+                                        @RequestParam(required = false) Integer chunkSize) throws Exception {
+        BulkImporter.Format resolved;
+        try {
+            resolved = BulkImporter.Format.resolve(format, contentType);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        int size = chunkSize != null ? chunkSize : AppConfig.getInt("import.chunk.size", BulkImporter.DEFAULT_CHUNK_SIZE);
+        return ResponseEntity.ok(bulkImporter.importStream(body, resolved, size));
     }
 
     // --- BALANCES ---
+    // ?asOf=YYYY-MM-DD: balances at the end of that day (expenses dated up to it, settlements made by then)
     @GetMapping("/balances")
-    public Map<Integer, Double> getBalances() throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            return balanceService.calculateNetBalances(conn);
+    public ResponseEntity<byte[]> getBalances(@RequestParam(required = false) String asOf,
+                                              @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        if (asOf == null) {
+            return conditionalJson(ifNoneMatch, "balances", () -> objectMapper.writeValueAsBytes(storage.readBalances()));
+        }
+        LocalDate date;
+        try {
+            date = LocalDate.parse(asOf);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(objectMapper.writeValueAsBytes(Map.of("error", "asOf must be a date like 2024-12-31.")));
         }
+        return conditionalJson(ifNoneMatch, "balances@" + date, () -> objectMapper.writeValueAsBytes(storage.readBalancesAsOf(date)));
+    }
+
+    // Net debt per pair of users ({debtorId, creditorId, amount}), from every split and settlement
+    @GetMapping("/balances/pairs")
+    public ResponseEntity<byte[]> getPairDebts(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        return conditionalJson(ifNoneMatch, "pairs", () -> objectMapper.writeValueAsBytes(storage.readPairDebts().toList()));
+    }
+
+    // The user's pairs only, as debtor or creditor (empty for unknown users)
+    @GetMapping("/balances/{userId}/pairs")
+    public ResponseEntity<byte[]> getUserPairDebts(@PathVariable int userId,
+                                                   @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        return conditionalJson(ifNoneMatch, "pairs/" + userId, () -> objectMapper.writeValueAsBytes(storage.readPairDebts(userId).toList()));
+    }
+
+    // Net balance per user within one group: its expenses, their splits and its settlements (empty for unknown groups)
+    @GetMapping("/groups/{groupId}/balances")
+    public ResponseEntity<byte[]> getGroupBalances(@PathVariable int groupId,
+                                                   @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        return conditionalJson(ifNoneMatch, "groups/" + groupId + "/balances",
+                () -> objectMapper.writeValueAsBytes(storage.readGroupBalances(groupId)));
     }
 
     // --- SETTLEMENTS ---
+    // Same parameters (and ETag handling) as GET /expenses: limit/after for keyset pages, stream=true for a streamed array
     @GetMapping("/settlements")
-    public List<Settlement> getSettlements() throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            return expenseRepository.listAllSettlements(conn);
+    public ResponseEntity<?> getSettlements(@RequestParam(required = false) String after,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestParam(defaultValue = "false") boolean stream,
+                                            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        if (stream) {
+            return streamJson(json -> storage.streamSettlements(row -> writeRow(json, row)));
+        }
+        if (after == null && limit == null) {
+            return conditionalJson(ifNoneMatch, "settlements", () -> objectMapper.writeValueAsBytes(storage.listAllSettlements()));
+        }
+
+        long version = DataVersion.current();
+        if (DataVersion.matches(ifNoneMatch, DataVersion.etag(version))) {
+            return notModified(version);
+        }
+        int pageSize = pageSize(limit);
+        try {
+            KeysetPage<Settlement> page = bodyCache.compute("settlements?after=" + (after == null ? "" : after) + "&limit=" + pageSize, version,
+                    () -> storage.pageSettlements(after, pageSize));
+            return pageResponse(page, pageSize, version);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // --- LIVE UPDATES ---
+
+    /**
+     * Server-sent events for every change committed after connecting (see ChangeFeed for the event
+     * types). The first event is "ready": fetch the lists then and apply the deltas that follow,
+     * refetching on "refresh". The response is asynchronous, so an idle stream holds no thread.
+     * 503 with Retry-After once stream.max.subscribers streams are open.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream() {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        ChangeFeed.Subscription subscription = changeFeed.subscribe(new ChangeFeed.Sink() {
+            @Override
+            public void send(List<ChangeFeed.Event> events) throws IOException {
+                for (ChangeFeed.Event event : events) {
+                    emitter.send(event.isKeepAlive()
+                            ? SseEmitter.event().comment("keep-alive")
+                            : SseEmitter.event().id(Long.toString(event.getId())).name(event.getType()).data(event.getData()));
+                }
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        if (subscription == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "5").build();
         }
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(emitter);
+    }
+
+    // Suggested transfers that clear every balance; mode=exact minimises the count for small groups
+    @GetMapping("/settlements/plan")
+    public List<Settlement> getSettlementPlan(@RequestParam(defaultValue = "greedy") String mode) {
+        IntLongMap balances = storage.readBalanceCents();
+        return mode.equalsIgnoreCase("exact")
+                ? settlementPlanner.planExact(balances)
+                : settlementPlanner.planGreedy(balances);
+    }
+
+    // --- REPORTS ---
+    // ?from&to (dates, default: the last 12 periods up to today), granularity=day|week|month (month), userId (optional)
+    @GetMapping("/reports/spending")
+    public ResponseEntity<byte[]> getSpendingReport(@RequestParam(required = false) String from,
+                                                    @RequestParam(required = false) String to,
+                                                    @RequestParam(required = false) String granularity,
+                                                    @RequestParam(required = false) String userId,
+                                                    @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
+        SpendingReport.Request request;
+        try {
+            request = SpendingReport.Request.parse(from, to, granularity, userId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(objectMapper.writeValueAsBytes(Map.of("error", e.getMessage())));
+        }
+        return conditionalJson(ifNoneMatch, request.cacheKey(), () -> objectMapper.writeValueAsBytes(storage.readSpendingReport(request)));
     }
 
     // --- ADMIN / MAINTENANCE ---
     @PostMapping("/admin/reset")
-    public Map<String, Object> resetAllData() throws Exception {
-        try (Connection conn = DatabaseConnector.getConnection();
-             java.sql.Statement st = conn.createStatement()) {
-
-            // Order matters due to foreign keys (splits, settlements depend on expenses/users)
-            try {
-                st.executeUpdate("TRUNCATE TABLE public.expense_splits RESTART IDENTITY CASCADE");
-            } catch (Exception ignore) {}
-            try {
-                st.executeUpdate("TRUNCATE TABLE public.settlements RESTART IDENTITY CASCADE");
-            } catch (Exception ignore) {}
-            try {
-                st.executeUpdate("TRUNCATE TABLE public.expenses RESTART IDENTITY CASCADE");
-            } catch (Exception ignore) {}
-            try {
-                st.executeUpdate("TRUNCATE TABLE public.users RESTART IDENTITY CASCADE");
-            } catch (Exception ignore) {}
-            return Map.of("status", "reset", "message", "All primary tables truncated.");
+    public Map<String, Object> resetAllData() {
+        storage.clearAll();
+        return Map.of("status", "reset", "message", "All primary tables truncated.");
+    }
+
+    // 404 on the in-memory engine, which never opens the pool
+    @GetMapping("/admin/pool")
+    public ResponseEntity<ConnectionPool.Metrics> getPoolMetrics() {
+        if (!storage.getName().equals(StorageEngine.JDBC)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(DatabaseConnector.getPoolMetrics());
+    }
+
+    // Each shard's pool metrics, in shard order; 404 unless the sharded engine is in use
+    @GetMapping("/admin/shards")
+    public ResponseEntity<List<ConnectionPool.Metrics>> getShardPoolMetrics() {
+        if (!(storage instanceof ShardedStorageEngine)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(((ShardedStorageEngine) storage).getShardPoolMetrics());
+    }
+
+    // Group commit counters (writes, batches, mean batch, fallbacks); 404 unless WRITE_BATCH_SIZE > 1 on the JDBC engine
+    @GetMapping("/admin/writes")
+    public ResponseEntity<WriteBatcher.Stats> getWriteBatchStats() {
+        WriteBatcher batcher = storage instanceof JdbcStorageEngine ? ((JdbcStorageEngine) storage).getWriteBatcher() : null;
+        if (batcher == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(batcher.getStats());
+    }
+
+    // Stored balance snapshots, newest first; POST takes one now. 404 unless the JDBC engine has snapshots enabled
+    @GetMapping("/admin/snapshots")
+    public ResponseEntity<List<BalanceSnapshots.Summary>> getBalanceSnapshots() {
+        if (!hasSnapshots()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(((JdbcStorageEngine) storage).listBalanceSnapshots());
+    }
+
+    @PostMapping("/admin/snapshots")
+    public ResponseEntity<BalanceSnapshots.Summary> takeBalanceSnapshot() {
+        if (!hasSnapshots()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(((JdbcStorageEngine) storage).checkpointBalances());
+    }
+
+    private boolean hasSnapshots() {
+        return storage instanceof JdbcStorageEngine && ((JdbcStorageEngine) storage).getSnapshots().isEnabled();
+    }
+
+    // What the event log engine found on startup (events replayed, torn bytes discarded); 404 on other engines
+    @GetMapping("/admin/eventlog")
+    public ResponseEntity<EventLog.RecoveryReport> getEventLogRecovery() {
+        if (!(storage instanceof EventLogStorageEngine)) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(((EventLogStorageEngine) storage).getEventLog().getRecoveryReport());
+    }
+
+    // Open /api/stream subscribers and events published, delivered and dropped (slow consumers)
+    @GetMapping("/admin/stream")
+    public ChangeFeed.Stats getStreamStats() {
+        return changeFeed.getStats();
+    }
+
+    // Per-method and per-route timers: JSON by default, ?format=prometheus for the text exposition format
+    @GetMapping("/admin/metrics")
+    public ResponseEntity<?> getMetrics(@RequestParam(defaultValue = "json") String format) {
+        if (format.equalsIgnoreCase("prometheus")) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8"))
+                    .body(MetricsRegistry.prometheus());
+        }
+        return ResponseEntity.ok(MetricsRegistry.snapshot());
+    }
+
+    // Start-up timeline up to the first served request (see StartupReport)
+    @GetMapping("/admin/startup")
+    public StartupReport.Snapshot getStartupReport() {
+        return StartupReport.snapshot();
+    }
+
+    // Read admission (running, queued, admitted, rejected) and body cache hits, misses and coalesced misses
+    @GetMapping("/admin/reads")
+    public Map<String, Object> getReadStats() {
+        return Map.of("admission", AdmissionControl.get().getStats(),
+                      "cacheHits", bodyCache.getHits(),
+                      "cacheMisses", bodyCache.getMisses(),
+                      "coalesced", bodyCache.getCoalesced());
+    }
+
+    // 404 when the storage engine keeps no user cache (the in-memory engine)
+    @GetMapping("/admin/cache/users")
+    public ResponseEntity<UserCache.Stats> getUserCacheStats() {
+        UserCache.Stats stats = storage.getUserCacheStats();
+        return stats != null ? ResponseEntity.ok(stats) : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/admin/ledger/verify")
+    public Map<String, Object> verifyLedger() {
+        List<BalanceLedger.Drift> drift = storage.verifyBalances();
+        return Map.of("consistent", drift.isEmpty(), "drift", drift);
+    }
+
+    @PostMapping("/admin/ledger/rebuild")
+    public Map<String, Object> rebuildLedger() {
+        List<BalanceLedger.Drift> drift = storage.rebuildBalances();
+        return Map.of("status", "rebuilt", "corrected", drift.size(), "drift", drift);
+    }
+
+    // Backfills the spending rollups from the history
+    @PostMapping("/admin/reports/rebuild")
+    public Map<String, Object> rebuildSpendingRollups() {
+        return Map.of("status", "rebuilt", "buckets", storage.rebuildSpendingRollups());
+    }
+
+    // A read could not be admitted (see AdmissionControl): fail fast rather than queue without bound
+    @ExceptionHandler(AdmissionControl.OverloadedException.class)
+    public ResponseEntity<Map<String, String>> overloaded(AdmissionControl.OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    // --- STREAMING / PAGING HELPERS ---
+
+    @FunctionalInterface
+    private interface JsonRowWriter {
+        void writeRows(JsonGenerator json);
+    }
+
+    // Rows are read on the response thread and written as the storage engine yields them
+    private ResponseEntity<StreamingResponseBody> streamJson(JsonRowWriter rows) {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                json.writeStartArray();
+                rows.writeRows(json);
+                json.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // client went away mid-stream
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static void writeRow(JsonGenerator json, Object row) {
+        try {
+            json.writeObject(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
+
+    private static int pageSize(Integer limit) {
+        if (limit == null) return DEFAULT_PAGE_SIZE;
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    private static <T> ResponseEntity<List<T>> pageResponse(KeysetPage<T> page, int pageSize, long version) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(DataVersion.etag(version))
+                .cacheControl(CacheControl.noCache());
+        if (page.getRows().size() == pageSize) {
+            response.header("X-Next-Cursor", page.getNextCursor());
+        }
+        return response.body(page.getRows());
+    }
+
+    // --- CONDITIONAL GET HELPERS ---
+
+    /**
+     * Serves a JSON body tagged with the current DataVersion: 304 without touching the database
+     * when If-None-Match already names it, otherwise the cached body for this version (built on a miss).
+     * Cache-Control: no-cache makes browsers revalidate every poll with the ETag they hold.
+     */
+    private ResponseEntity<byte[]> conditionalJson(String ifNoneMatch, String cacheKey,
+                                                   ResponseBodyCache.BodySupplier body) throws Exception {
+        long version = DataVersion.current(); // sampled before any read, see DataVersion
+        if (DataVersion.matches(ifNoneMatch, DataVersion.etag(version))) {
+            return notModified(version);
+        }
+        byte[] json = bodyCache.getOrCompute(cacheKey, version, body);
+        return ResponseEntity.ok()
+                .eTag(DataVersion.etag(version))
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(json);
+    }
+
+    private static <T> ResponseEntity<T> notModified(long version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(DataVersion.etag(version))
+                .cacheControl(CacheControl.noCache())
+                .build();
+    }
 }
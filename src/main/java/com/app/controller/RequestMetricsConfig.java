@@ -0,0 +1,55 @@
+package com.app.controller;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.app.MetricsRegistry;
+import com.app.StartupReport;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Times every /api request into a per-route MetricsRegistry.endpoint timer.
+ * Routes are labelled by their mapping template (GET /api/friends/{id}), not the raw path,
+ * so ids in URLs do not create one timer each. Requests that throw or end with a 5xx status
+ * count as errors. Streamed responses are timed until the stream completes.
+ * The first completed request also closes the StartupReport.
+ */
+@Configuration
+public class RequestMetricsConfig implements WebMvcConfigurer {
+
+    private static final String START_ATTRIBUTE = RequestMetricsConfig.class.getName() + ".start";
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new TimingInterceptor()).addPathPatterns("/api/**");
+    }
+
+    private static class TimingInterceptor implements HandlerInterceptor {
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            // Async dispatches (streamed bodies) come through again; keep the original start time.
+            if (request.getAttribute(START_ATTRIBUTE) == null) {
+                request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            }
+            return true;
+        }
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+            Object start = request.getAttribute(START_ATTRIBUTE);
+            if (start == null) return;
+
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String route = request.getMethod() + " " + (pattern != null ? pattern : "(unmatched)");
+            MetricsRegistry.endpoint(route).record(System.nanoTime() - (Long) start,
+                                                   ex != null || response.getStatus() >= 500);
+            StartupReport.requestServed(route);
+        }
+    }
+}
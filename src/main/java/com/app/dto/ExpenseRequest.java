@@ -8,8 +8,10 @@ public class ExpenseRequest {
     private String description;
     private int payerId;
     private LocalDate date; // ISO yyyy-MM-dd
-    private List<Integer> participantIds; // members to split with (equal)
-    private String splitType; // equal|percentage|custom (currently equal only)
+    private List<Integer> participantIds; // members to split with
+    private String splitType; // equal|percentage|shares|exact (custom = exact); default equal
+    private List<Double> splitValues; // one per participant: percentages, share counts or amounts
+    private int groupId; // optional; 0 = not in a group
 
     public ExpenseRequest() {}
 
@@ -30,4 +32,10 @@ public class ExpenseRequest {
 
     public String getSplitType() { return splitType; }
     public void setSplitType(String splitType) { this.splitType = splitType; }
+
+    public List<Double> getSplitValues() { return splitValues; }
+    public void setSplitValues(List<Double> splitValues) { this.splitValues = splitValues; }
+
+    public int getGroupId() { return groupId; }
+    public void setGroupId(int groupId) { this.groupId = groupId; }
 }
@@ -0,0 +1,201 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Snapshot plus replay against a full recompute over the same rows, for current and as-of
+ * reads, on an in-process H2 database (which has no LOCK TABLE, so checkpoints take the
+ * write fence instead).
+ */
+public class BalanceSnapshotsTest {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final int USERS = 8;
+    private static final LocalDate START = LocalDate.of(2024, 1, 1);
+
+    private final Random random = new Random(7);
+    private Connection conn;
+
+    @Before
+    public void createSchema() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:snapshots" + NEXT_ID.incrementAndGet()
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE public.expenses (expense_id BIGSERIAL PRIMARY KEY, amount NUMERIC(12,2) NOT NULL, "
+                    + "description VARCHAR(500), payer_id INT NOT NULL, expense_date DATE NOT NULL, group_id INT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE public.expense_splits (split_id BIGSERIAL PRIMARY KEY, expense_id BIGINT NOT NULL, "
+                    + "member_id INT NOT NULL, owed_amount NUMERIC(12,2) NOT NULL)");
+            statement.execute("CREATE TABLE public.settlements (settlement_id BIGSERIAL PRIMARY KEY, group_id INT, "
+                    + "payer_id INT NOT NULL, receiver_id INT NOT NULL, amount NUMERIC(12,2) NOT NULL, settlement_date TIMESTAMP NOT NULL)");
+        }
+    }
+
+    @After
+    public void dropDatabase() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    public void snapshotPlusReplayMatchesAFullRecompute() throws SQLException {
+        BalanceSnapshots snapshots = new BalanceSnapshots(25, 3);
+        for (int i = 0; i < 200; i++) {
+            writeRandomRow(START.plusDays(i % 60));
+            snapshots.afterWrites(conn, 1);
+        }
+
+        BalanceSnapshots.State state = snapshots.read(conn);
+        assertNotEquals("checkpoints were taken along the way", 0, state.getSnapshotId());
+        assertTrue("only the rows after the last checkpoint are replayed", state.getReplayedRows() < 25 * 4);
+        assertEquals("older snapshots are pruned", 3, snapshots.list(conn).size());
+        assertSameState(BalanceSnapshots.disabled().read(conn), state);
+
+        // Rows written after a manual checkpoint are replayed on top of it
+        BalanceSnapshots.Summary latest = snapshots.checkpoint(conn);
+        writeRandomRow(START);
+        writeRandomRow(START.plusDays(90));
+        BalanceSnapshots.State after = snapshots.read(conn);
+        assertEquals(latest.getSnapshotId(), after.getSnapshotId());
+        assertTrue(after.getReplayedRows() >= 2);
+        assertSameState(BalanceSnapshots.disabled().read(conn), after);
+    }
+
+    @Test
+    public void asOfReadsMatchAFilteredRecomputeIncludingBackdatedRows() throws SQLException {
+        BalanceSnapshots snapshots = new BalanceSnapshots(20, 10);
+        for (int i = 0; i < 120; i++) {
+            writeRandomRow(START.plusDays(i / 2));
+            snapshots.afterWrites(conn, 1);
+        }
+        // Back-dated after the checkpoints: as-of reads must fall back to an older snapshot
+        for (int i = 0; i < 10; i++) {
+            writeRandomRow(START.plusDays(5 + i));
+        }
+
+        for (int day : new int[] {-1, 0, 7, 20, 33, 59, 61, 200}) {
+            LocalDate date = START.plusDays(day);
+            assertSameState(BalanceSnapshots.disabled().readAsOf(conn, date), snapshots.readAsOf(conn, date));
+        }
+        BalanceSnapshots.State early = snapshots.readAsOf(conn, START.minusDays(1));
+        assertTrue(early.getBalances().withoutZeros().isEmpty());
+    }
+
+    @Test
+    public void checkpointWaitsForWritesHoldingTheFence() throws Exception {
+        BalanceSnapshots snapshots = new BalanceSnapshots(1_000, 3);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (Connection other = DriverManager.getConnection(conn.getMetaData().getURL())) {
+            // A write in flight: its row is inserted but not committed while it holds the fence
+            Future<?> writer = executor.submit(() -> {
+                Lock fence = snapshots.writeFence();
+                fence.lock();
+                try {
+                    conn.setAutoCommit(false);
+                    try (Statement statement = conn.createStatement()) {
+                        statement.executeUpdate("INSERT INTO public.expenses (amount, payer_id, expense_date) VALUES (5.00, 1, DATE '2024-01-01')");
+                    }
+                    inserted.countDown();
+                    release.await();
+                    conn.commit();
+                    conn.setAutoCommit(true);
+                } finally {
+                    fence.unlock();
+                }
+                return null;
+            });
+            assertTrue(inserted.await(10, TimeUnit.SECONDS));
+
+            Future<BalanceSnapshots.Summary> checkpoint = executor.submit(() -> snapshots.checkpoint(other));
+            try {
+                checkpoint.get(200, TimeUnit.MILLISECONDS);
+                throw new AssertionError("the checkpoint did not wait for the write in flight");
+            } catch (TimeoutException expected) {
+                assertFalse(checkpoint.isDone());
+            }
+
+            release.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+            assertEquals("the committed row is covered", 1, checkpoint.get(10, TimeUnit.SECONDS).getLastExpenseId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // One expense split between 1-3 random users, or (one time in five) a settlement
+    private void writeRandomRow(LocalDate date) throws SQLException {
+        int payer = 1 + random.nextInt(USERS);
+        long cents = 100 + random.nextInt(50_000);
+        if (random.nextInt(5) == 0) {
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "INSERT INTO public.settlements (group_id, payer_id, receiver_id, amount, settlement_date) VALUES (0, ?, ?, ?, ?)")) {
+                statement.setInt(1, payer);
+                statement.setInt(2, 1 + (payer % USERS));
+                statement.setBigDecimal(3, BigDecimal.valueOf(cents, 2));
+                statement.setTimestamp(4, Timestamp.valueOf(date.atTime(12, 0)));
+                statement.executeUpdate();
+            }
+            return;
+        }
+
+        long expenseId;
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO public.expenses (amount, description, payer_id, expense_date) VALUES (?, 'x', ?, ?)",
+                new String[] {"expense_id"})) {
+            statement.setBigDecimal(1, BigDecimal.valueOf(cents, 2));
+            statement.setInt(2, payer);
+            statement.setDate(3, java.sql.Date.valueOf(date));
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                expenseId = keys.getLong(1);
+            }
+        }
+        int members = 1 + random.nextInt(3);
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO public.expense_splits (expense_id, member_id, owed_amount) VALUES (?, ?, ?)")) {
+            for (int m = 0; m < members; m++) {
+                statement.setLong(1, expenseId);
+                statement.setInt(2, 1 + random.nextInt(USERS));
+                statement.setBigDecimal(3, BigDecimal.valueOf(cents / members, 2));
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static void assertSameState(BalanceSnapshots.State expected, BalanceSnapshots.State actual) {
+        assertEquals(expected.getBalances().withoutZeros().toDecimalMap(), actual.getBalances().withoutZeros().toDecimalMap());
+        for (int debtor = 1; debtor <= USERS; debtor++) {
+            for (int creditor = 1; creditor <= USERS; creditor++) {
+                assertEquals("owed by " + debtor + " to " + creditor,
+                        expected.getPairs().owed(debtor, creditor), actual.getPairs().owed(debtor, creditor));
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.app.controller.ExpenseController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * CSV and NDJSON parsing, per-row errors that do not abort the import, the row-by-row replay of
+ * a chunk the engine rejected, and the rejection of an unknown ?format=.
+ */
+public class BulkImporterTest {
+
+    private InMemoryStorageEngine storage;
+    private BulkImporter importer;
+
+    @Before
+    public void registerUsers() {
+        storage = new InMemoryStorageEngine();
+        for (int u = 1; u <= 3; u++) {
+            storage.registerNewUser(new User("user" + u, "user" + u + "@example.com", "hash", "User " + u));
+        }
+        importer = new BulkImporter(storage);
+    }
+
+    @After
+    public void close() {
+        storage.close();
+    }
+
+    @Test
+    public void csvRowsAreImportedWithQuotingAndAnyHeaderSpelling() throws IOException {
+        BulkImporter.Report report = importer.importStream(stream(
+                "\uFEFFtype,amount,Description,payerId,DATE,participant_ids,receiver_id\n"
+                + "expense,9.00,\"Dinner, \"\"late\"\"\",1,2024-03-01,1;2 3,\n"
+                + "\n"
+                + "settlement,3.00,,2,2024-03-02,,1\n"
+                + "expense,5,Taxi,3,,,\n"), BulkImporter.Format.CSV, 10);
+
+        assertEquals(3, report.getRowsRead());
+        assertEquals(2, report.getExpensesImported());
+        assertEquals(1, report.getSettlementsImported());
+        assertEquals(0, report.getRowsFailed());
+        assertEquals(1, report.getChunks());
+
+        Expense dinner = storage.listAllExpenses().get(0);
+        assertEquals("Dinner, \"late\"", dinner.getDescription());
+        assertEquals(LocalDate.of(2024, 3, 1), dinner.getDate());
+        assertEquals(2, storage.listExpenseSplits(dinner.getExpenseId()).size());
+        assertEquals(1, storage.listAllSettlements().size());
+        assertTrue(storage.verifyBalances().isEmpty());
+    }
+
+    @Test
+    public void ndjsonRowsAreImportedWithArraysAndNulls() throws IOException {
+        BulkImporter.Report report = importer.importStream(stream(
+                "{\"amount\": 6, \"description\": \"Lunch\", \"payer_id\": 1, \"participantIds\": [1, 2, 3], \"groupId\": null}\n"
+                + "{\"type\": \"settlement\", \"amount\": \"2.00\", \"payerId\": 2, \"receiverId\": 1, \"group_id\": 4}\n"),
+                BulkImporter.Format.NDJSON, 10);
+
+        assertEquals(2, report.getRowsImported());
+        assertEquals(0, report.getRowsFailed());
+        assertEquals(2, storage.listExpenseSplits(1).size());
+        Settlement settlement = storage.listAllSettlements().get(0);
+        assertEquals(4, settlement.getGroupId());
+        assertEquals(200, settlement.getAmountCents());
+    }
+
+    @Test
+    public void badRowsAreReportedByLineAndTheRestIsImported() throws IOException {
+        BulkImporter.Report report = importer.importStream(stream(
+                "amount,description,payer_id,date\n"
+                + "1e30,Too much,1,\n"
+                + "-4,Negative,1,\n"
+                + "4,No payer,,\n"
+                + "4,Bad date,1,2024-13-01\n"
+                + "4,\"Unterminated,1,\n"
+                + "4,Kept,1,\n"), BulkImporter.Format.CSV, 10);
+
+        assertEquals(6, report.getRowsRead());
+        assertEquals(1, report.getExpensesImported());
+        assertEquals(5, report.getRowsFailed());
+        List<BulkImporter.RowError> errors = report.getErrors();
+        for (int i = 0; i < errors.size(); i++) {
+            assertEquals("line numbers count the header", i + 2, errors.get(i).getLine());
+        }
+        assertEquals("Kept", storage.listAllExpenses().get(0).getDescription());
+
+        BulkImporter.Report json = importer.importStream(stream("not json\n[1]\n{\"amount\": 1e30, \"payerId\": 1, \"description\": \"x\"}\n"),
+                BulkImporter.Format.NDJSON, 10);
+        assertEquals(3, json.getRowsFailed());
+        assertEquals(0, json.getRowsImported());
+    }
+
+    @Test
+    public void aRejectedChunkIsReplayedRowByRow() throws IOException {
+        // User 9 does not exist: the engine rejects the whole chunk, the replay only that row
+        BulkImporter.Report report = importer.importStream(stream(
+                "{\"amount\": 3, \"description\": \"a\", \"payerId\": 1, \"participantIds\": [1, 2]}\n"
+                + "{\"amount\": 3, \"description\": \"b\", \"payerId\": 9}\n"
+                + "{\"type\": \"settlement\", \"amount\": 1, \"payerId\": 2, \"receiverId\": 1}\n"
+                + "{\"amount\": 3, \"description\": \"c\", \"payerId\": 2}\n"
+                + "{\"amount\": 3, \"description\": \"d\", \"payerId\": 3}\n"), BulkImporter.Format.NDJSON, 2);
+
+        assertEquals(3, report.getChunks());
+        assertEquals(1, report.getChunksReplayed());
+        assertEquals(3, report.getExpensesImported());
+        assertEquals(1, report.getSettlementsImported());
+        assertEquals(1, report.getRowsFailed());
+        assertEquals(2, report.getErrors().get(0).getLine());
+        assertEquals(3, storage.listAllExpenses().size());
+        assertTrue(storage.verifyBalances().isEmpty());
+    }
+
+    @Test
+    public void formatComesFromTheNameOrElseTheContentType() {
+        assertEquals(BulkImporter.Format.CSV, BulkImporter.Format.resolve(" csv ", null));
+        assertEquals(BulkImporter.Format.NDJSON, BulkImporter.Format.resolve("NDJSON", "text/csv"));
+        assertEquals(BulkImporter.Format.CSV, BulkImporter.Format.resolve(null, "text/csv; charset=utf-8"));
+        assertEquals(BulkImporter.Format.NDJSON, BulkImporter.Format.resolve("", "application/x-ndjson"));
+        try {
+            BulkImporter.Format.resolve("xml", null);
+            fail("xml is not an import format");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("csv or ndjson"));
+        }
+    }
+
+    @Test
+    public void unknownFormatIsABadRequest() throws Exception {
+        ExpenseController controller = new ExpenseController(new ObjectMapper(), storage);
+
+        ResponseEntity<?> response = controller.importRows(stream("{}\n"), "application/json", "xml", null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(((Map<?, ?>) response.getBody()).get("error").toString().contains("csv or ndjson"));
+        assertTrue(storage.listAllExpenses().isEmpty());
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,175 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Delivery of the change feed: every subscriber sees the same events in publish order, one that
+ * stops draining its queue is dropped as a slow consumer, and one whose write blocks is dropped
+ * as stalled while the others keep receiving.
+ */
+public class ChangeFeedTest {
+
+    private ChangeFeed feed;
+
+    @After
+    public void closeFeed() {
+        if (feed != null) feed.close();
+    }
+
+    @Test
+    public void everySubscriberSeesTheSameEventsInPublishOrder() throws Exception {
+        feed = new ChangeFeed(1_000, 10, 2, 0, 10_000);
+        RecordingSink first = new RecordingSink();
+        RecordingSink second = new RecordingSink();
+        assertNotNull(feed.subscribe(first));
+        assertNotNull(feed.subscribe(second));
+
+        for (int i = 0; i < 200; i++) {
+            if (i % 2 == 0) {
+                feed.settlementRecorded(i + 1, new Settlement(0, 1, 2, Money.ofCents(100 + i)));
+            } else {
+                feed.refresh("r" + i);
+            }
+        }
+
+        // 100 settlements (each followed by its balances event) and 100 refreshes, after "ready"
+        List<ChangeFeed.Event> a = first.take(301);
+        List<ChangeFeed.Event> b = second.take(301);
+        assertEquals("ready", a.get(0).getType());
+        assertEquals("settlement", a.get(1).getType());
+        assertEquals("balances", a.get(2).getType());
+        assertEquals("refresh", a.get(3).getType());
+        for (int i = 1; i < a.size(); i++) {
+            assertEquals("ids increase one by one", a.get(i - 1).getId() + 1, a.get(i).getId());
+            assertEquals(a.get(i).getId(), b.get(i).getId());
+            assertEquals(a.get(i).getData(), b.get(i).getData());
+        }
+        assertEquals(300, feed.getStats().getPublished());
+    }
+
+    @Test
+    public void subscriberThatFallsBehindIsDroppedAsASlowConsumer() throws Exception {
+        feed = new ChangeFeed(4, 10, 2, 0, 10_000);
+        BlockingSink slow = new BlockingSink();
+        ChangeFeed.Subscription slowSubscription = feed.subscribe(slow);
+        assertTrue("the slow sink is stuck sending 'ready'", slow.sending.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 4; i++) {
+            feed.refresh("r" + i);
+        }
+        assertFalse("4 events fit in its queue", slowSubscription.isClosed());
+        feed.refresh("overflow");
+
+        assertTrue(slowSubscription.isClosed());
+        assertEquals("slow consumer", slowSubscription.getCloseReason());
+        assertEquals(1, feed.getStats().getDropped());
+        assertEquals(0, feed.getStats().getSubscribers());
+        slow.release.countDown();
+        assertTrue("the sink is closed once its send returns", slow.closed.await(10, TimeUnit.SECONDS));
+
+        // Publishing goes on for everyone else
+        RecordingSink healthy = new RecordingSink();
+        ChangeFeed.Subscription healthySubscription = feed.subscribe(healthy);
+        feed.refresh("after");
+        assertEquals("refresh", healthy.take(2).get(1).getType());
+        assertFalse(healthySubscription.isClosed());
+    }
+
+    @Test
+    public void stalledWriteIsDroppedWhileOthersKeepReceiving() throws Exception {
+        feed = new ChangeFeed(1_000, 10, 1, 0, 50);
+        BlockingSink stalled = new BlockingSink();
+        ChangeFeed.Subscription stalledSubscription = feed.subscribe(stalled);
+        assertTrue(stalled.sending.await(10, TimeUnit.SECONDS));
+
+        // The only dispatcher thread is blocked; the pool grows so this one is still served
+        RecordingSink healthy = new RecordingSink();
+        ChangeFeed.Subscription healthySubscription = feed.subscribe(healthy);
+        feed.refresh("after-stall");
+        List<ChangeFeed.Event> events = healthy.take(2);
+        assertEquals("refresh", events.get(1).getType());
+
+        awaitClosed(stalledSubscription);
+        assertEquals("stalled", stalledSubscription.getCloseReason());
+        assertEquals(1, feed.getStats().getDropped());
+        assertFalse(healthySubscription.isClosed());
+
+        stalled.release.countDown();
+        assertTrue(stalled.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void subscribersBeyondTheLimitAreRejected() {
+        feed = new ChangeFeed(16, 1, 1, 0, 10_000);
+        assertNotNull(feed.subscribe(new RecordingSink()));
+        assertNull(feed.subscribe(new RecordingSink()));
+        assertEquals(1, feed.getStats().getRejected());
+    }
+
+    private static void awaitClosed(ChangeFeed.Subscription subscription) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!subscription.isClosed()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("subscription still open");
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class RecordingSink implements ChangeFeed.Sink {
+        private final LinkedBlockingQueue<ChangeFeed.Event> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(List<ChangeFeed.Event> batch) {
+            events.addAll(batch);
+        }
+
+        @Override
+        public void close() {}
+
+        List<ChangeFeed.Event> take(int count) throws InterruptedException {
+            List<ChangeFeed.Event> taken = new ArrayList<>(count);
+            while (taken.size() < count) {
+                ChangeFeed.Event event = events.poll(10, TimeUnit.SECONDS);
+                if (event == null) throw new AssertionError("got " + taken.size() + " of " + count + " events");
+                taken.add(event);
+            }
+            return taken;
+        }
+    }
+
+    // Blocks in its first send until released, like a client that stopped reading.
+    private static final class BlockingSink implements ChangeFeed.Sink {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void send(List<ChangeFeed.Event> batch) throws IOException {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
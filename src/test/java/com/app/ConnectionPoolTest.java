@@ -0,0 +1,250 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The pool's bound, the proxy whose close() hands the connection back, LIFO reuse, the reset of
+ * a returned transaction, and the replacement of idle connections that broke or idled too long.
+ * The physical connections are fakes that name themselves through getCatalog().
+ */
+public class ConnectionPoolTest {
+
+    private final FakeDriver driver = new FakeDriver();
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+        pools.forEach(ConnectionPool::close);
+    }
+
+    @Test
+    public void borrowersBeyondTheSizeTimeOutUntilOneIsReturned() throws SQLException {
+        ConnectionPool pool = pool(2, 100, 300_000, 5_000);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+
+        long began = System.nanoTime();
+        try {
+            pool.getConnection();
+            fail("only two connections may be out");
+        } catch (SQLTransientConnectionException expected) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) >= 90);
+        }
+        assertEquals(1, pool.getMetrics().getTimeouts());
+        assertEquals(2, pool.getMetrics().getActive());
+
+        String firstName = first.getCatalog();
+        first.close();
+        try (Connection third = pool.getConnection()) {
+            assertEquals("the returned connection is reused", firstName, third.getCatalog());
+        }
+        second.close();
+        assertEquals(2, driver.opened.get());
+        assertEquals(0, pool.getMetrics().getActive());
+        assertEquals(2, pool.getMetrics().getIdle());
+    }
+
+    @Test
+    public void concurrentBorrowersNeverExceedTheSize() throws Exception {
+        ConnectionPool pool = pool(3, 5_000, 300_000, 5_000);
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger mostInUse = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> borrowers = new ArrayList<>();
+        for (int t = 0; t < 12; t++) {
+            borrowers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 50; i++) {
+                    try (Connection connection = pool.getConnection()) {
+                        mostInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                        connection.getCatalog();
+                        Thread.yield();
+                        inUse.decrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> borrower : borrowers) borrower.get(30, TimeUnit.SECONDS);
+
+        assertTrue("at most 3 at once, saw " + mostInUse.get(), mostInUse.get() <= 3);
+        assertTrue("at most 3 opened, saw " + driver.opened.get(), driver.opened.get() <= 3);
+        assertEquals(600, pool.getMetrics().getAcquired());
+        assertEquals(0, pool.getMetrics().getTimeouts());
+        assertEquals(0, pool.getMetrics().getActive());
+    }
+
+    @Test
+    public void closingTheProxyReturnsTheConnectionWithoutClosingIt() throws SQLException {
+        ConnectionPool pool = pool(2, 100, 300_000, 5_000);
+        Connection borrowed = pool.getConnection();
+        String name = borrowed.getCatalog();
+        borrowed.setAutoCommit(false);
+
+        borrowed.close();
+        borrowed.close(); // a second close must not return it twice
+
+        assertTrue(borrowed.isClosed());
+        try {
+            borrowed.getCatalog();
+            fail("a returned connection must not be usable");
+        } catch (SQLException expected) {
+            // already back in the pool
+        }
+        FakeConnection physical = driver.connections.get(0);
+        assertFalse(physical.closed);
+        assertEquals("the open transaction was rolled back", 1, physical.rollbacks);
+        assertTrue(physical.autoCommit);
+        assertEquals(1, pool.getMetrics().getIdle());
+
+        try (Connection again = pool.getConnection(); Connection other = pool.getConnection()) {
+            assertEquals(name, again.getCatalog());
+            assertNotEquals(name, other.getCatalog());
+        }
+    }
+
+    @Test
+    public void theMostRecentlyReturnedConnectionIsReusedFirst() throws SQLException {
+        ConnectionPool pool = pool(2, 100, 300_000, 5_000);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        String secondName = second.getCatalog();
+        first.close();
+        second.close();
+
+        try (Connection next = pool.getConnection()) {
+            assertEquals(secondName, next.getCatalog());
+        }
+    }
+
+    @Test
+    public void brokenIdleConnectionIsClosedAndReplaced() throws SQLException {
+        ConnectionPool pool = pool(2, 100, 300_000, 0); // validate every reuse
+        Connection borrowed = pool.getConnection();
+        String brokenName = borrowed.getCatalog();
+        borrowed.close();
+        driver.connections.get(0).valid = false;
+
+        try (Connection next = pool.getConnection()) {
+            assertNotEquals(brokenName, next.getCatalog());
+        }
+        assertTrue(driver.connections.get(0).closed);
+        assertEquals(1, pool.getMetrics().getEvicted());
+        assertEquals(2, pool.getMetrics().getCreated());
+    }
+
+    @Test
+    public void evictorClosesConnectionsIdlePastTheTimeout() throws Exception {
+        ConnectionPool pool = pool(2, 100, 50, 5_000); // the evictor runs every second
+        pool.getConnection().close();
+        assertEquals(1, pool.getMetrics().getIdle());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getMetrics().getEvicted() == 0) {
+            if (System.nanoTime() > deadline) fail("the idle connection was never evicted");
+            Thread.sleep(20);
+        }
+        assertTrue(driver.connections.get(0).closed);
+        assertEquals(0, pool.getMetrics().getIdle());
+    }
+
+    @Test
+    public void closedPoolRefusesBorrowers() throws SQLException {
+        ConnectionPool pool = pool(1, 100, 300_000, 5_000);
+        pool.getConnection().close();
+        pool.close();
+
+        assertTrue("idle connections are closed with the pool", driver.connections.get(0).closed);
+        try {
+            pool.getConnection();
+            fail("the pool is closed");
+        } catch (SQLException expected) {
+            // closed
+        }
+    }
+
+    private ConnectionPool pool(int size, long acquireTimeoutMillis, long idleTimeoutMillis, long validateAfterMillis) {
+        ConnectionPool pool = new ConnectionPool(driver::open,
+                new ConnectionPool.Settings(size, acquireTimeoutMillis, idleTimeoutMillis, validateAfterMillis, 1));
+        pools.add(pool);
+        return pool;
+    }
+
+    private static final class FakeDriver {
+        final AtomicInteger opened = new AtomicInteger();
+        final List<FakeConnection> connections = new ArrayList<>();
+
+        synchronized Connection open() {
+            FakeConnection connection = new FakeConnection("fake-" + opened.incrementAndGet());
+            connections.add(connection);
+            return connection.proxy();
+        }
+    }
+
+    /**
+     * A physical connection that tracks what the pool does to it.
+     */
+    private static final class FakeConnection {
+        final String name;
+        volatile boolean closed;
+        volatile boolean valid = true;
+        volatile boolean autoCommit = true;
+        volatile int rollbacks;
+
+        FakeConnection(String name) {
+            this.name = name;
+        }
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getCatalog":
+                                return name;
+                            case "isValid":
+                                return valid && !closed;
+                            case "isClosed":
+                                return closed;
+                            case "close":
+                                closed = true;
+                                return null;
+                            case "getAutoCommit":
+                                return autoCommit;
+                            case "setAutoCommit":
+                                autoCommit = (Boolean) args[0];
+                                return null;
+                            case "rollback":
+                                rollbacks++;
+                                return null;
+                            case "toString":
+                                return name;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.app.controller.ExpenseController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * If-None-Match matching against the data version's ETag, the version moving once per committed
+ * write (and not for writes inside a caller's transaction or rolled back ones), and the
+ * conditional GETs answering 304 until a write changes the data.
+ */
+public class DataVersionTest {
+
+    @Test
+    public void ifNoneMatchMatchesTheTagInAnyForm() {
+        String etag = DataVersion.etag(41);
+        String opaque = etag.substring(2);
+
+        assertTrue(DataVersion.matches(etag, etag));
+        assertTrue("weak comparison ignores W/", DataVersion.matches(opaque, etag));
+        assertTrue(DataVersion.matches("\"other\", " + etag, etag));
+        assertTrue(DataVersion.matches("\"a\",\"b\" ,  " + opaque + " ", etag));
+        assertTrue(DataVersion.matches("*", etag));
+        assertTrue(DataVersion.matches("\"a\", *", etag));
+    }
+
+    @Test
+    public void ifNoneMatchRejectsOtherVersionsAndEmptyHeaders() {
+        String etag = DataVersion.etag(41);
+
+        assertFalse(DataVersion.matches(null, etag));
+        assertFalse(DataVersion.matches("", etag));
+        assertFalse(DataVersion.matches("   ", etag));
+        assertFalse(DataVersion.matches(DataVersion.etag(40), etag));
+        assertFalse(DataVersion.matches(DataVersion.etag(410), etag));
+        assertFalse(DataVersion.matches("\"a\", \"b\"", etag));
+        assertNotEquals(DataVersion.etag(1), DataVersion.etag(2));
+        assertTrue("the ETag is weak", etag.startsWith("W/\""));
+    }
+
+    @Test
+    public void autoCommitWriteBumpsButAWriteInsideATransactionDoesNot() throws SQLException {
+        long before = DataVersion.current();
+        DataVersion.afterWrite(new FakeConnection(true).proxy());
+        assertEquals(before + 1, DataVersion.current());
+
+        DataVersion.afterWrite(new FakeConnection(false).proxy());
+        assertEquals("the transaction's owner bumps on commit", before + 1, DataVersion.current());
+    }
+
+    @Test
+    public void transactionBumpsOnceAfterItsCommit() throws SQLException {
+        FakeConnection conn = new FakeConnection(true);
+        long before = DataVersion.current();
+
+        long seenInside = Transactions.inTransaction(conn.proxy(), () -> {
+            DataVersion.afterWrite(conn.proxy());
+            DataVersion.afterWrite(conn.proxy());
+            return DataVersion.current();
+        });
+
+        assertEquals("nothing moves before the commit", before, seenInside);
+        assertEquals(before + 1, DataVersion.current());
+        assertEquals(1, conn.commits);
+        assertTrue(conn.autoCommit);
+    }
+
+    @Test
+    public void rolledBackOrJoinedTransactionDoesNotBump() throws SQLException {
+        FakeConnection conn = new FakeConnection(true);
+        long before = DataVersion.current();
+        try {
+            Transactions.inTransaction(conn.proxy(), () -> {
+                throw new SQLException("constraint violated");
+            });
+            fail("the work's exception must reach the caller");
+        } catch (SQLException expected) {
+            assertEquals(1, conn.rollbacks);
+        }
+        assertEquals(before, DataVersion.current());
+
+        FakeConnection joined = new FakeConnection(false);
+        Transactions.inTransaction(joined.proxy(), () -> null);
+        assertEquals("the caller owns the commit", before, DataVersion.current());
+        assertEquals(0, joined.commits);
+    }
+
+    @Test
+    public void conditionalGetAnswers304UntilAWrite() throws Exception {
+        try (InMemoryStorageEngine storage = new InMemoryStorageEngine()) {
+            ExpenseController controller = new ExpenseController(new ObjectMapper(), storage);
+            storage.registerNewUser(new User("ann", "ann@example.com", "", "Ann"));
+
+            ResponseEntity<byte[]> first = controller.getAllFriends(null);
+            String etag = first.getHeaders().getETag();
+            assertEquals(HttpStatus.OK, first.getStatusCode());
+            assertEquals(DataVersion.etag(DataVersion.current()), etag);
+
+            ResponseEntity<byte[]> unchanged = controller.getAllFriends(etag);
+            assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+            assertEquals(etag, unchanged.getHeaders().getETag());
+
+            storage.registerNewUser(new User("bob", "bob@example.com", "", "Bob"));
+            ResponseEntity<byte[]> changed = controller.getAllFriends(etag);
+            assertEquals(HttpStatus.OK, changed.getStatusCode());
+            assertNotEquals(etag, changed.getHeaders().getETag());
+            assertTrue(new String(changed.getBody()).contains("bob"));
+        }
+    }
+
+    /**
+     * Just enough of a Connection for DataVersion and Transactions.
+     */
+    private static final class FakeConnection {
+        boolean autoCommit;
+        int commits;
+        int rollbacks;
+
+        FakeConnection(boolean autoCommit) {
+            this.autoCommit = autoCommit;
+        }
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getAutoCommit":
+                                return autoCommit;
+                            case "setAutoCommit":
+                                autoCommit = (Boolean) args[0];
+                                return null;
+                            case "commit":
+                                commits++;
+                                return null;
+                            case "rollback":
+                                rollbacks++;
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
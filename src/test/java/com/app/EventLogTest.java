@@ -0,0 +1,335 @@
+package com.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Crash recovery of the event log: the last segment is damaged the way a crash would leave it
+ * (cut part way through the last record, inside its header, exactly at a record boundary, or with
+ * a flipped payload byte) and the log is reopened; and every engine event replays to the state it
+ * was written from. Small segments make the records span several files.
+ */
+public class EventLogTest {
+
+    private static final int SEGMENT_BYTES = 4_096;
+    private static final byte TYPE = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @FunctionalInterface
+    private interface Damage {
+        void apply(Path segment, int recordStart, int recordEnd) throws IOException;
+    }
+
+    @Test
+    public void cleanShutdownReplaysEveryRecord() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        long[] ends = write(directory, 1_000);
+
+        List<byte[]> replayed = new ArrayList<>();
+        try (EventLog log = open(directory, replayed)) {
+            EventLog.RecoveryReport report = log.getRecoveryReport();
+            assertEquals(1_000, report.getRecords());
+            assertEquals(EventLog.segmentOf(ends[999]), report.getSegments());
+            assertTrue("expected several segments, got " + report.getSegments(), report.getSegments() >= 3);
+            assertEquals(0, report.getTornBytes());
+            assertEquals(-1, report.getTornSegment());
+            assertEquals(ends[999], log.endPosition());
+        }
+        for (int i = 0; i < replayed.size(); i++) {
+            assertArrayEquals(payload(i), replayed.get(i));
+        }
+    }
+
+    @Test
+    public void recordCutInTheMiddleIsDiscarded() throws IOException {
+        assertTornTailRecovered((segment, start, end) -> truncate(segment, start + (end - start) / 2), true);
+    }
+
+    @Test
+    public void recordCutInsideItsHeaderIsDiscarded() throws IOException {
+        // Past the length, inside the CRC: the high bytes of a small length are zero like free space.
+        assertTornTailRecovered((segment, start, end) -> truncate(segment, start + 6), true);
+    }
+
+    @Test
+    public void cutAtARecordBoundaryLosesOnlyTheLastRecord() throws IOException {
+        // Nothing of the last record is left, so there are no torn bytes to report.
+        assertTornTailRecovered((segment, start, end) -> truncate(segment, start), false);
+    }
+
+    @Test
+    public void checksumMismatchInTheLastRecordIsDiscarded() throws IOException {
+        assertTornTailRecovered((segment, start, end) -> flipByte(segment, end - 2), true);
+    }
+
+    @Test
+    public void tornFirstRecordOfANewSegmentIsDiscarded() throws IOException {
+        // Find how many records fill the first segment, then write one more so the last record
+        // is the first of segment 2.
+        long[] probe = write(folder.newFolder().toPath(), 1_000);
+        int perSegment = 0;
+        while (EventLog.segmentOf(probe[perSegment]) == 1) perSegment++;
+
+        Path directory = folder.newFolder().toPath();
+        long[] ends = write(directory, perSegment + 1);
+        long end = ends[perSegment];
+        assertEquals(2, EventLog.segmentOf(end));
+        truncate(segmentFile(directory, end), EventLog.offsetOf(end) / 2);
+
+        try (EventLog log = open(directory, new ArrayList<>())) {
+            EventLog.RecoveryReport report = log.getRecoveryReport();
+            assertEquals(perSegment, report.getRecords());
+            assertEquals(2, report.getSegments());
+            assertEquals(2, report.getTornSegment());
+            assertEquals(0, report.getTornOffset());
+            assertEquals(2, EventLog.segmentOf(log.endPosition()));
+            assertEquals(0, EventLog.offsetOf(log.endPosition()));
+        }
+    }
+
+    @Test
+    public void checksumMismatchBeforeTheLastSegmentFailsToOpen() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        long[] ends = write(directory, 1_000);
+        flipByte(segmentFile(directory, ends[0]), EventLog.offsetOf(ends[0]) - 2);
+
+        try {
+            open(directory, new ArrayList<>()).close();
+            fail("Corruption outside the last segment must not be discarded as a torn write.");
+        } catch (StorageUnavailableException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("segment 1 is corrupt at offset 0"));
+        }
+    }
+
+    @Test
+    public void engineRecoversTheStateBeforeATornWrite() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        int expenses;
+        long start;
+        long end;
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            seed(engine, 200);
+            expenses = engine.listAllExpenses().size();
+            start = engine.getEventLog().endPosition();
+            engine.createExpenseWithSplits(new Expense(Money.ofCents(99_999), "Written during the crash", 1,
+                                                       LocalDate.of(2024, 6, 1)), List.of(1, 2, 3, 4));
+            end = engine.getEventLog().endPosition();
+        }
+        int recordStart = EventLog.segmentOf(start) == EventLog.segmentOf(end) ? EventLog.offsetOf(start) : 0;
+        truncate(segmentFile(directory, end), recordStart + 5);
+
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            assertEquals(expenses, engine.listAllExpenses().size());
+            assertEquals(0, engine.verifyBalances().size());
+            engine.recordSettlement(new Settlement(1, 2, 1, Money.ofCents(1_500)));
+        }
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            assertEquals(0, engine.getEventLog().getRecoveryReport().getTornBytes());
+            assertEquals(expenses, engine.listAllExpenses().size());
+            assertEquals(21, countSettlements(engine)); // 20 from seed() plus the one after recovery
+        }
+    }
+
+    @Test
+    public void concurrentGroupCommittedWritesReplay() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        int threads = 4;
+        int perThread = 200;
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            seed(engine, 0);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        engine.createExpenseWithSplits(new Expense(Money.ofCents(100 + i), "Concurrent", 1 + i % 10,
+                                                                   LocalDate.of(2024, 1, 1)), List.of(1, 2, 3));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+            executor.shutdown();
+        }
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            assertEquals(threads * perThread, engine.listAllExpenses().size());
+            assertEquals(0, engine.getEventLog().getRecoveryReport().getTornBytes());
+            assertEquals(0, engine.verifyBalances().size());
+        }
+    }
+
+    @Test
+    public void everyEventTypeReplaysToTheSameState() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        IntLongMap groupBalances;
+        IntLongMap balances;
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            seed(engine, 0);
+            engine.updateUser(new User("user2", "second@example.com", null, "Second User"));
+            engine.registerNewUser(new User("leaving", "leaving@example.com", "hash", "Leaving"));
+            engine.deleteUser("leaving");
+            engine.deleteUserById(10);
+            engine.restoreUser(new User(11, "leaving", "leaving@example.com", "hash", "Leaving"));
+
+            long added = engine.addExpense(new Expense(-1, Money.ofCents(600), "Added", 1, LocalDate.of(2024, 2, 1), 1));
+            engine.splitExpenseAndRecordDebts(new Expense(added, Money.ofCents(600), "Added", 1, LocalDate.of(2024, 2, 1), 1),
+                                              List.of(1, 2, 3), new long[] {100, 200, 300});
+            engine.createExpenseWithSplits(new Expense(-1, Money.ofCents(901), "With shares", 2, LocalDate.of(2024, 2, 2), 1),
+                                           List.of(2, 4), new long[] {450, 451});
+            engine.recordSettlement(new Settlement(1, 3, 1, Money.ofCents(250)));
+            engine.importBatch(List.of(new Expense(-1, Money.ofCents(300), "Imported", 4, LocalDate.of(2024, 2, 3), 1),
+                                       new Expense(-1, Money.ofCents(50), null, 5, LocalDate.of(2024, 2, 4), 0)),
+                               List.of(List.of(4, 5, 6), List.of(5)),
+                               List.of(new Settlement(0, 6, 4, Money.ofCents(100))));
+            groupBalances = engine.readGroupBalanceCents(1);
+            balances = engine.readBalanceCents();
+        }
+
+        try (EventLogStorageEngine engine = new EventLogStorageEngine(directory, SEGMENT_BYTES, true)) {
+            assertEquals(10, engine.listAllUsers().size());
+            assertEquals("second@example.com", engine.findUserByUsername("user2").getEmail());
+            assertEquals("the restored user keeps its id", 11, engine.findUserByUsername("leaving").getUserId());
+            List<Expense> expenses = engine.listAllExpenses();
+            assertEquals(4, expenses.size());
+            assertEquals(1, expenses.get(0).getGroupId());
+            assertEquals(LocalDate.of(2024, 2, 2), expenses.get(1).getDate());
+            assertEquals(0, expenses.get(3).getGroupId());
+            assertEquals("the payer's own share is not recorded", 2, engine.listExpenseSplits(1).size());
+            assertEquals(2, countSettlements(engine));
+            assertEquals(groupBalances.toDecimalMap(), engine.readGroupBalanceCents(1).toDecimalMap());
+            assertEquals(balances.toDecimalMap(), engine.readBalanceCents().toDecimalMap());
+            assertEquals(0, engine.verifyBalances().size());
+        }
+    }
+
+    /**
+     * Writes records, damages the last one and checks that reopening drops exactly that record
+     * and reports where it was, and that a record appended in its place survives the next restart.
+     */
+    private void assertTornTailRecovered(Damage damage, boolean tornBytesLeft) throws IOException {
+        Path directory = folder.newFolder().toPath();
+        int records = 300;
+        long[] ends = write(directory, records);
+        long start = ends[records - 2];
+        long end = ends[records - 1];
+        assertEquals("the last record must share its segment with the one before it",
+                     EventLog.segmentOf(start), EventLog.segmentOf(end));
+        damage.apply(segmentFile(directory, end), EventLog.offsetOf(start), EventLog.offsetOf(end));
+
+        List<byte[]> replayed = new ArrayList<>();
+        try (EventLog log = open(directory, replayed)) {
+            EventLog.RecoveryReport report = log.getRecoveryReport();
+            assertEquals(records - 1, report.getRecords());
+            assertEquals(start, log.endPosition());
+            if (tornBytesLeft) {
+                assertEquals(EventLog.segmentOf(end), report.getTornSegment());
+                assertEquals(EventLog.offsetOf(start), report.getTornOffset());
+                assertTrue("torn bytes: " + report.getTornBytes(),
+                           report.getTornBytes() > 0 && report.getTornBytes() <= end - start);
+            } else {
+                assertEquals(0, report.getTornBytes());
+            }
+            log.awaitDurable(log.append(TYPE, payload(records)));
+        }
+        assertArrayEquals(payload(records - 2), replayed.get(records - 2));
+
+        replayed.clear();
+        try (EventLog log = open(directory, replayed)) {
+            assertEquals(records, log.getRecoveryReport().getRecords());
+            assertEquals(0, log.getRecoveryReport().getTornBytes());
+            assertEquals(end, log.endPosition()); // same size as the record it replaced
+        }
+        assertArrayEquals(payload(records), replayed.get(records - 1));
+    }
+
+    // --- HELPERS ---
+
+    /**
+     * @return The position just past each record.
+     */
+    private static long[] write(Path directory, int records) {
+        long[] ends = new long[records];
+        try (EventLog log = open(directory, new ArrayList<>())) {
+            for (int i = 0; i < records; i++) {
+                ends[i] = log.append(TYPE, payload(i));
+            }
+            log.awaitDurable(ends[records - 1]);
+        }
+        return ends;
+    }
+
+    private static EventLog open(Path directory, List<byte[]> replayed) {
+        return EventLog.open(directory, SEGMENT_BYTES, true, (type, payload) -> {
+            assertEquals(TYPE, type);
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            replayed.add(bytes);
+        });
+    }
+
+    // The same length for every record, distinct and with no zero bytes.
+    private static byte[] payload(int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        while (buffer.hasRemaining()) buffer.putInt(0x01010101 | (index + 1) * 31);
+        return buffer.array();
+    }
+
+    private static Path segmentFile(Path directory, long position) {
+        return directory.resolve(String.format("segment-%012d.log", EventLog.segmentOf(position)));
+    }
+
+    private static void seed(EventLogStorageEngine engine, int expenses) {
+        for (int i = 1; i <= 10; i++) {
+            engine.registerNewUser(new User("user" + i, "user" + i + "@example.com", "hash" + i, "User " + i));
+        }
+        engine.createGroup("Trip", 1);
+        for (int i = 0; i < expenses; i++) {
+            int payer = 1 + i % 10;
+            engine.createExpenseWithSplits(new Expense(Money.ofCents(100 + i * 7), "Expense " + i, payer,
+                                                       LocalDate.of(2024, 1, 1).plusDays(i % 365)),
+                                           List.of(payer, 1 + (i + 3) % 10));
+            if (i % 10 == 0) {
+                engine.recordSettlement(new Settlement(1, 1 + i % 10, 1 + (i + 1) % 10, Money.ofCents(100 + i)));
+            }
+        }
+    }
+
+    private static int countSettlements(EventLogStorageEngine engine) {
+        int[] count = {0};
+        engine.streamSettlements(settlement -> count[0]++);
+        return count[0];
+    }
+
+    private static void truncate(Path file, int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void flipByte(Path file, int offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * The group-partitioned fork-join compute against a sequential sum of the same columns: every
+ * group's balances must come out the same for any parallelism, large enough histories must
+ * actually be split, and the groups must add up to the global balances.
+ */
+public class GroupBalancesTest {
+
+    private static final int USERS = 500;
+    private static final int GROUPS = 3_000;
+
+    @Test
+    public void parallelComputeMatchesTheSequentialSumForAnyParallelism() {
+        Columns history = generate(400_000, new Random(42));
+        GroupBalances expected = sequential(history);
+        assertTrue("the history must be large enough for several partitions",
+                   history.columns().rows() > 4 * 256 * 1024);
+
+        for (int parallelism : new int[] {1, 2, 3, 4, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                GroupBalances actual = GroupBalances.compute(history.columns(), pool);
+                assertSameGroups("parallelism " + parallelism, expected, actual);
+                assertEquals(expected.total().withoutZeros().toDecimalMap(), actual.total().withoutZeros().toDecimalMap());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void smallHistoryIncludingGroupZeroIsSummedExactly() {
+        Columns history = generate(2_000, new Random(7));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GroupBalances actual = GroupBalances.compute(history.columns(), pool);
+            assertSameGroups("small history", sequential(history), actual);
+            assertFalse("group 0 has rows", actual.get(0).isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameGroups(String label, GroupBalances expected, GroupBalances actual) {
+        TreeSet<Integer> groupIds = new TreeSet<>();
+        expected.forEachGroup((groupId, balances) -> groupIds.add(groupId));
+        actual.forEachGroup((groupId, balances) -> groupIds.add(groupId));
+        for (int groupId : groupIds) {
+            assertEquals(label + ", group " + groupId, expected.get(groupId).toDecimalMap(), actual.get(groupId).toDecimalMap());
+        }
+    }
+
+    // The same rules as GroupBalances.compute, one row at a time on this thread
+    private static GroupBalances sequential(Columns h) {
+        GroupBalances balances = new GroupBalances();
+        for (int row = 0; row < h.expenseCount; row++) {
+            balances.add(h.expenseGroup[row], h.expensePayer[row], h.expenseAmount[row]);
+        }
+        for (int split = 0; split < h.splitCount; split++) {
+            balances.add(h.expenseGroup[h.splitExpense[split]], h.splitMember[split], -h.splitOwed[split]);
+        }
+        for (int row = 0; row < h.settlementCount; row++) {
+            balances.add(h.settlementGroup[row], h.settlementPayer[row], h.settlementAmount[row]);
+            balances.add(h.settlementGroup[row], h.settlementReceiver[row], -h.settlementAmount[row]);
+        }
+        return balances;
+    }
+
+    /**
+     * Expenses of 2 to 6 members in random groups (one in ten in group 0), one settlement per ten.
+     */
+    private static Columns generate(int expenses, Random random) {
+        Columns h = new Columns(expenses);
+        for (int e = 0; e < expenses; e++) {
+            int groupId = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(GROUPS);
+            int members = 2 + random.nextInt(5);
+            int first = 1 + random.nextInt(USERS - members);
+            long amount = 100 + random.nextInt(50_000);
+            h.expenseGroup[e] = groupId;
+            h.expensePayer[e] = first;
+            h.expenseAmount[e] = amount;
+            long[] shares = MathOperations.calculateSplit(amount, members);
+            for (int m = 1; m < members; m++) {
+                int split = h.splitCount++;
+                h.splitExpense[split] = e;
+                h.splitMember[split] = first + m;
+                h.splitOwed[split] = shares[m];
+            }
+            if (e % 10 == 0) {
+                int row = h.settlementCount++;
+                h.settlementGroup[row] = groupId;
+                h.settlementPayer[row] = first + 1;
+                h.settlementReceiver[row] = first;
+                h.settlementAmount[row] = 1 + random.nextInt(5_000);
+            }
+        }
+        h.expenseCount = expenses;
+        return h;
+    }
+
+    private static final class Columns {
+        final int[] expenseGroup;
+        final int[] expensePayer;
+        final long[] expenseAmount;
+        int expenseCount;
+        final int[] splitExpense;
+        final int[] splitMember;
+        final long[] splitOwed;
+        int splitCount;
+        final int[] settlementGroup;
+        final int[] settlementPayer;
+        final int[] settlementReceiver;
+        final long[] settlementAmount;
+        int settlementCount;
+
+        Columns(int expenses) {
+            expenseGroup = new int[expenses];
+            expensePayer = new int[expenses];
+            expenseAmount = new long[expenses];
+            splitExpense = new int[expenses * 5];
+            splitMember = new int[expenses * 5];
+            splitOwed = new long[expenses * 5];
+            settlementGroup = new int[expenses / 10 + 1];
+            settlementPayer = new int[expenses / 10 + 1];
+            settlementReceiver = new int[expenses / 10 + 1];
+            settlementAmount = new long[expenses / 10 + 1];
+        }
+
+        GroupBalances.Columns columns() {
+            return new GroupBalances.Columns(expenseGroup, expensePayer, expenseAmount, expenseCount,
+                                             splitExpense, splitMember, splitOwed, splitCount,
+                                             settlementGroup, settlementPayer, settlementReceiver,
+                                             settlementAmount, settlementCount);
+        }
+    }
+}
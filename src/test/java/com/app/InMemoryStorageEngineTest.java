@@ -0,0 +1,225 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The StorageEngine contract as the in-memory engine keeps it: foreign keys are enforced and a
+ * rejected write leaves no rows, balances or used ids behind; splits, pages and streams read back
+ * what was written; clearAll restarts ids.
+ */
+public class InMemoryStorageEngineTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 1);
+
+    private InMemoryStorageEngine engine;
+
+    @Before
+    public void registerUsers() {
+        engine = new InMemoryStorageEngine();
+        for (int u = 1; u <= 3; u++) {
+            engine.registerNewUser(new User("user" + u, "user" + u + "@example.com", "hash", "User " + u));
+        }
+    }
+
+    @After
+    public void close() {
+        engine.close();
+    }
+
+    @Test
+    public void splitsAndBalancesReadBackWhatWasWritten() {
+        long expenseId = engine.createExpenseWithSplits(expense(900, 1), List.of(1, 2, 3));
+
+        assertEquals(1, expenseId);
+        List<ExpenseSplit> splits = engine.listExpenseSplits(expenseId);
+        assertEquals(2, splits.size());
+        for (ExpenseSplit split : splits) {
+            assertEquals(expenseId, split.getExpenseId());
+            assertEquals(300, split.getOwedAmountCents());
+        }
+        IntLongMap balances = engine.readBalanceCents();
+        assertEquals("the payer is credited the whole amount", 900, balances.get(1));
+        assertEquals(-300, balances.get(2));
+        assertEquals(-300, balances.get(3));
+        assertTrue(engine.verifyBalances().isEmpty());
+    }
+
+    @Test
+    public void zeroAmountExpenseSplitsIntoZeroShares() {
+        long expenseId = engine.createExpenseWithSplits(expense(0, 1), List.of(1, 2, 3));
+
+        for (ExpenseSplit split : engine.listExpenseSplits(expenseId)) {
+            assertEquals(0, split.getOwedAmountCents());
+        }
+        assertTrue(engine.readBalanceCents().withoutZeros().isEmpty());
+    }
+
+    @Test
+    public void expenseWithAnUnknownMemberLeavesNothingBehind() {
+        engine.createExpenseWithSplits(expense(900, 1), List.of(1, 2, 3));
+        Map<Integer, Double> before = engine.readBalances();
+
+        try {
+            engine.createExpenseWithSplits(expense(500, 1), List.of(1, 2, 99));
+            fail("member 99 does not exist");
+        } catch (DatabaseException expected) {
+            // the whole expense is rejected
+        }
+
+        assertEquals(1, engine.listAllExpenses().size());
+        assertEquals(before, engine.readBalances());
+        assertTrue(engine.verifyBalances().isEmpty());
+        assertEquals("the rejected write used no id", 2, engine.createExpenseWithSplits(expense(500, 2), List.of(1, 2)));
+    }
+
+    @Test
+    public void unknownPayersAndReceiversAreRejected() {
+        try {
+            engine.addExpense(expense(100, 42));
+            fail("payer 42 does not exist");
+        } catch (DatabaseException expected) {
+            // no such payer
+        }
+        try {
+            engine.recordSettlement(new Settlement(0, 1, 42, Money.ofCents(100)));
+            fail("receiver 42 does not exist");
+        } catch (DatabaseException expected) {
+            // no such receiver
+        }
+        try {
+            engine.splitExpenseAndRecordDebts(new Expense(7, Money.ofCents(100), "missing", 1, DAY), List.of(2));
+            fail("expense 7 does not exist");
+        } catch (DatabaseException expected) {
+            // no such expense
+        }
+
+        assertTrue(engine.listAllExpenses().isEmpty());
+        assertTrue(engine.listAllSettlements().isEmpty());
+        assertTrue(engine.readBalanceCents().isEmpty());
+    }
+
+    @Test
+    public void importWithOneBadRowStoresNothing() {
+        List<Expense> expenses = List.of(expense(600, 1), expense(300, 2));
+        List<List<Integer>> participants = List.of(List.of(1, 2, 3), List.of(2, 3));
+        List<Settlement> settlements = List.of(new Settlement(0, 2, 1, Money.ofCents(100)),
+                                               new Settlement(0, 3, 99, Money.ofCents(100)));
+        try {
+            engine.importBatch(expenses, participants, settlements);
+            fail("receiver 99 does not exist");
+        } catch (DatabaseException expected) {
+            // the whole batch is rejected
+        }
+        assertTrue(engine.listAllExpenses().isEmpty());
+        assertTrue(engine.listAllSettlements().isEmpty());
+        assertTrue(engine.readBalanceCents().isEmpty());
+
+        engine.importBatch(expenses, participants, settlements.subList(0, 1));
+        assertEquals(2, engine.listAllExpenses().size());
+        assertEquals(1, engine.listAllSettlements().size());
+        assertEquals(2, engine.listExpenseSplits(1).size());
+        assertTrue(engine.verifyBalances().isEmpty());
+    }
+
+    @Test
+    public void usersReferencedByHistoryCannotBeDeleted() {
+        engine.registerNewUser(new User("user4", "user4@example.com", "hash", "User 4"));
+        engine.createExpenseWithSplits(expense(900, 1), List.of(1, 2));
+        engine.recordSettlement(new Settlement(0, 3, 1, Money.ofCents(100)));
+
+        for (int userId = 1; userId <= 3; userId++) {
+            try {
+                engine.deleteUserById(userId);
+                fail("user " + userId + " is referenced");
+            } catch (DatabaseException expected) {
+                // payer, member and settlement party alike
+            }
+            assertEquals(userId, engine.findUserById(userId).getUserId());
+        }
+        assertTrue(engine.deleteUserById(4));
+        assertNull(engine.findUserByUsername("user4"));
+        assertFalse(engine.deleteUserById(4));
+    }
+
+    @Test
+    public void pagesAndStreamsWalkEveryRowInIdOrder() {
+        for (int i = 0; i < 25; i++) {
+            engine.createExpenseWithSplits(expense(100 + i, 1 + i % 3), List.of(1, 2, 3));
+            engine.recordSettlement(new Settlement(0, 1 + (i + 1) % 3, 1 + i % 3, Money.ofCents(10)));
+        }
+
+        List<Long> paged = new ArrayList<>();
+        for (List<Expense> page = engine.listExpensesPage(0, 10); !page.isEmpty();
+             page = engine.listExpensesPage(page.get(page.size() - 1).getExpenseId(), 10)) {
+            assertTrue(page.size() <= 10);
+            page.forEach(expense -> paged.add(expense.getExpenseId()));
+        }
+        List<Long> streamed = new ArrayList<>();
+        engine.streamExpenses(expense -> streamed.add(expense.getExpenseId()));
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= 25; id++) expected.add(id);
+        assertEquals(expected, paged);
+        assertEquals(expected, streamed);
+
+        List<Long> settlements = new ArrayList<>();
+        for (List<Settlement> page = engine.listSettlementsPage(0, 7); !page.isEmpty();
+             page = engine.listSettlementsPage(page.get(page.size() - 1).getSettlementId(), 7)) {
+            page.forEach(settlement -> settlements.add(settlement.getSettlementId()));
+        }
+        assertEquals(expected, settlements);
+    }
+
+    @Test
+    public void balancesAsOfADateCountOnlyEarlierHistory() {
+        engine.createExpenseWithSplits(new Expense(Money.ofCents(900), "january", 1, LocalDate.of(2024, 1, 10)), List.of(1, 2, 3));
+        engine.recordSettlement(new Settlement(-1, 0, 2, 1, Money.ofCents(300), LocalDateTime.of(2024, 2, 1, 12, 0)));
+        engine.createExpenseWithSplits(new Expense(Money.ofCents(400), "march", 3, LocalDate.of(2024, 3, 5)), List.of(2, 3));
+
+        IntLongMap january = engine.readBalanceCentsAsOf(LocalDate.of(2024, 1, 31));
+        assertEquals(900, january.get(1));
+        assertEquals(-300, january.get(2));
+        assertEquals(-300, january.get(3));
+
+        IntLongMap february = engine.readBalanceCentsAsOf(LocalDate.of(2024, 2, 1));
+        assertEquals(600, february.get(1));
+        assertFalse("user 2 has settled up", february.containsKey(2));
+        assertEquals(-300, february.get(3));
+
+        assertTrue(engine.readBalanceCentsAsOf(LocalDate.of(2023, 12, 31)).isEmpty());
+        assertEquals(engine.readBalances(), engine.readBalancesAsOf(LocalDate.of(2024, 3, 5)));
+    }
+
+    @Test
+    public void clearAllRestartsIds() {
+        engine.createExpenseWithSplits(expense(900, 1), List.of(1, 2, 3));
+        engine.recordSettlement(new Settlement(0, 2, 1, Money.ofCents(100)));
+
+        engine.clearAll();
+
+        assertTrue(engine.listAllUsers().isEmpty());
+        assertTrue(engine.listAllExpenses().isEmpty());
+        assertTrue(engine.readBalanceCents().isEmpty());
+        engine.registerNewUser(new User("again", "again@example.com", "hash", "Again"));
+        assertEquals(1, engine.findUserByUsername("again").getUserId());
+        assertEquals(1, engine.addExpense(expense(100, 1)));
+        assertTrue(engine.listExpenseSplits(1).isEmpty());
+    }
+
+    private static Expense expense(long cents, int payerId) {
+        return new Expense(Money.ofCents(cents), "expense of " + cents, payerId, DAY);
+    }
+}
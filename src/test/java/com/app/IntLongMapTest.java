@@ -0,0 +1,103 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntLongMapTest {
+
+    @Test
+    public void growsFarBeyondItsExpectedSize() {
+        IntLongMap map = new IntLongMap(1);
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(20_000) - 10_000; // negative keys and 0 included
+            long delta = random.nextInt(2_001) - 1_000;
+            map.addTo(key, delta);
+            expected.merge(key, delta, Long::sum);
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals("key " + key, (long) value, map.get(key)));
+        assertEquals(0, map.get(20_000));
+        assertFalse(map.containsKey(20_000));
+        assertEquals(expected, toMap(map));
+    }
+
+    @Test
+    public void zeroKeyIsStoredLikeAnyOther() {
+        IntLongMap map = new IntLongMap(4);
+        assertFalse(map.containsKey(0));
+        assertEquals(0, map.get(0));
+
+        map.addTo(0, 250);
+        map.addTo(0, -50);
+        map.addTo(7, 1);
+        assertTrue(map.containsKey(0));
+        assertEquals(200, map.get(0));
+        assertEquals(2, map.size());
+
+        map.put(0, -3);
+        assertEquals(-3, map.get(0));
+        assertEquals(2, map.size());
+        assertEquals(Map.of(0, -3L, 7, 1L), toMap(map));
+    }
+
+    @Test
+    public void settledEntriesAreDroppedAndClearEmptiesTheMap() {
+        IntLongMap map = new IntLongMap();
+        for (int key = -50; key <= 50; key++) {
+            map.addTo(key, key * 100L);
+        }
+        map.addTo(10, -1_000);  // settles user 10
+        map.addTo(-20, 2_000);  // settles user -20
+
+        // There is no per-key removal: settled (zero) entries stay until withoutZeros or clear.
+        assertEquals(101, map.size());
+        IntLongMap open = map.withoutZeros();
+        assertEquals(98, open.size()); // keys 0, 10 and -20 are gone
+        assertFalse(open.containsKey(0));
+        assertFalse(open.containsKey(10));
+        assertFalse(open.containsKey(-20));
+        assertEquals(5_000, open.get(50));
+        assertFalse(map.toDecimalMap().containsKey(10));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(50));
+        assertEquals(0, map.get(50));
+        map.addTo(50, 1);
+        assertEquals(1, map.get(50));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void addAllMergesPartialSums() {
+        IntLongMap first = new IntLongMap();
+        IntLongMap second = new IntLongMap();
+        for (int key = 0; key < 1_000; key++) {
+            first.addTo(key, key);
+            second.addTo(key + 500, -key);
+        }
+        first.addAll(second);
+
+        assertEquals(1_500, first.size());
+        assertEquals(0, first.get(0));
+        assertEquals(999 - 499, first.get(999));
+        assertEquals(-999, first.get(1_499));
+    }
+
+    private static Map<Integer, Long> toMap(IntLongMap map) {
+        Map<Integer, Long> result = new HashMap<>();
+        map.forEach(result::put);
+        return result;
+    }
+}
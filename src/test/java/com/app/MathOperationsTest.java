@@ -0,0 +1,88 @@
+package com.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MathOperationsTest {
+
+    @Test
+    public void equalSplitAddsUpToTheTotal() {
+        assertArrayEquals(new long[] {334, 333, 333}, MathOperations.calculateSplit(1_000, 3));
+        assertArrayEquals(new long[] {0, 0, 0}, MathOperations.calculateSplit(0, 3));
+        assertArrayEquals(new long[] {1, 1, 0, 0}, MathOperations.calculateSplit(2, 4));
+        for (long total = 0; total < 500; total += 7) {
+            for (int people = 1; people <= 12; people++) {
+                long[] shares = MathOperations.calculateSplit(total, people);
+                assertEquals(people, shares.length);
+                assertEquals(total, Arrays.stream(shares).sum());
+                long spread = shares[0] - shares[people - 1];
+                assertTrue("shares differ by more than a cent: " + Arrays.toString(shares), spread == 0 || spread == 1);
+            }
+        }
+    }
+
+    @Test
+    public void splitWithoutPeopleHasNoShares() {
+        assertEquals(0, MathOperations.calculateSplit(1_000, 0).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTotalIsRejected() {
+        MathOperations.calculateSplit(-1_000, 3);
+    }
+
+    @Test
+    public void weightedSharesAddUpToTheTotal() {
+        Random random = new Random(3);
+        for (int round = 0; round < 2_000; round++) {
+            long total = random.nextInt(1_000_000);
+            long[] weights = new long[1 + random.nextInt(20)];
+            for (int i = 0; i < weights.length; i++) weights[i] = random.nextInt(50);
+            weights[random.nextInt(weights.length)] += 1; // at least one positive weight
+
+            long[] shares = MathOperations.allocateByWeight(total, weights);
+            assertEquals(Arrays.toString(weights), total, Arrays.stream(shares).sum());
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] == 0) assertEquals(0, shares[i]);
+            }
+        }
+    }
+
+    @Test
+    public void equalWeightsMatchTheEqualSplit() {
+        for (long total = 0; total < 300; total += 11) {
+            for (int people = 1; people <= 9; people++) {
+                long[] weights = new long[people];
+                Arrays.fill(weights, 1 + total % 4);
+                assertArrayEquals(MathOperations.calculateSplit(total, people), MathOperations.allocateByWeight(total, weights));
+            }
+        }
+    }
+
+    @Test
+    public void leftoverCentsGoToTheLargestRemainders() {
+        // Exact shares 3.33.., 6.66.., 0.0..: the leftover cent goes to the larger remainder (.66)
+        assertArrayEquals(new long[] {3, 7, 0}, MathOperations.allocateByWeight(10, new long[] {1, 2, 0}));
+        // Weights above 2^31 take the boxed sort; total * weight above 2^63 takes BigInteger
+        long big = 3_000_000_000L;
+        assertArrayEquals(new long[] {334, 333, 333}, MathOperations.allocateByWeight(1_000, new long[] {big, big, big}));
+        long[] shares = MathOperations.allocateByWeight(Long.MAX_VALUE / 2, new long[] {big, big + 1, 7});
+        assertEquals(Long.MAX_VALUE / 2, Arrays.stream(shares).sum());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allZeroWeightsAreRejected() {
+        MathOperations.allocateByWeight(100, new long[] {0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightIsRejected() {
+        MathOperations.allocateByWeight(100, new long[] {3, -1});
+    }
+}
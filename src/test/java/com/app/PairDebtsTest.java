@@ -0,0 +1,136 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PairDebtsTest {
+
+    @Test
+    public void growsFarBeyondItsExpectedSize() {
+        PairDebts debts = new PairDebts(1);
+        Map<Long, Long> expected = new HashMap<>(); // (lower, higher) -> what lower owes higher
+        Random random = new Random(19);
+        for (int i = 0; i < 100_000; i++) {
+            int debtor = 1 + random.nextInt(400);
+            int creditor = 1 + random.nextInt(400);
+            long cents = random.nextInt(2_001) - 1_000;
+            debts.add(debtor, creditor, cents);
+            if (debtor != creditor && cents != 0) {
+                expected.merge(key(Math.min(debtor, creditor), Math.max(debtor, creditor)),
+                               debtor < creditor ? cents : -cents, Long::sum);
+            }
+        }
+
+        assertEquals(expected.size(), debts.size());
+        expected.forEach((key, cents) -> {
+            int low = (int) (key >>> 32);
+            int high = (int) (long) key;
+            assertEquals(low + " -> " + high, (long) cents, debts.owed(low, high));
+            assertEquals(high + " -> " + low, -cents, debts.owed(high, low));
+        });
+        assertEquals(0, debts.owed(401, 1));
+        assertEquals(nonZero(expected), toMap(debts));
+        assertEquals("a copy is independent but equal", toMap(debts), toMap(debts.copy()));
+    }
+
+    @Test
+    public void pairsThatNetOutAreNoLongerReported() {
+        PairDebts debts = new PairDebts();
+        debts.add(1, 2, 500);
+        debts.add(3, 1, 200);
+        debts.add(2, 1, 500); // pays back in full
+
+        assertEquals(0, debts.owed(1, 2));
+        assertEquals(0, debts.owed(2, 1));
+        assertEquals(1, debts.toList().size());
+        assertEquals(List.of("3 owes 1: 200"), describe(debts, 1));
+        assertTrue(describe(debts, 2).isEmpty());
+        assertEquals("the netted pair keeps its entry", 2, debts.size());
+
+        debts.add(2, 1, 120); // and then some: the debt turns around
+        assertEquals(120, debts.owed(2, 1));
+        assertEquals(List.of("2 owes 1: 120"), describe(debts, 2));
+        assertEquals(2, debts.size());
+
+        debts.add(4, 4, 1_000);
+        debts.add(4, 5, 0);
+        assertEquals("self-debts and zero amounts add no entry", 2, debts.size());
+    }
+
+    @Test
+    public void readsByUserSeeOnlyTheirPairsMostRecentFirst() {
+        PairDebts debts = new PairDebts(2);
+        debts.add(7, 3, 100);
+        debts.add(7, 9, 250);
+        debts.add(3, 9, 40);
+        debts.add(12, 7, 60);
+        debts.add(3, 7, 30); // existing pair: keeps its place in both lists
+
+        assertEquals(List.of("12 owes 7: 60", "7 owes 9: 250", "7 owes 3: 70"), describe(debts, 7));
+        assertEquals(List.of("3 owes 9: 40", "7 owes 3: 70"), describe(debts, 3));
+        assertEquals(List.of("3 owes 9: 40", "7 owes 9: 250"), describe(debts, 9));
+        assertTrue(describe(debts, 5).isEmpty());
+
+        // After growth and rehashing, every user's list still holds exactly their non-zero pairs
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            int debtor = 1 + random.nextInt(60);
+            int creditor = 1 + random.nextInt(60);
+            long cents = 1 + random.nextInt(500);
+            debts.add(debtor, creditor, cents);
+        }
+        for (int userId = 1; userId <= 60; userId++) {
+            Map<Long, Long> ofUser = new HashMap<>();
+            int user = userId;
+            debts.forEachOf(userId, (debtor, creditor, cents) -> {
+                assertTrue(debtor == user || creditor == user);
+                assertEquals(debts.owed(debtor, creditor), cents);
+                ofUser.put(key(debtor, creditor), cents);
+            });
+            Map<Long, Long> fromAll = new HashMap<>();
+            debts.forEach((debtor, creditor, cents) -> {
+                if (debtor == user || creditor == user) fromAll.put(key(debtor, creditor), cents);
+            });
+            assertEquals("user " + userId, fromAll, ofUser);
+        }
+    }
+
+    private static long key(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    // Debtor-first keys of the non-zero entries of a (lower, higher) map
+    private static Map<Long, Long> nonZero(Map<Long, Long> byPair) {
+        Map<Long, Long> result = new HashMap<>();
+        byPair.forEach((key, cents) -> {
+            int low = (int) (key >>> 32);
+            int high = (int) (long) key;
+            if (cents > 0) result.put(key(low, high), cents);
+            if (cents < 0) result.put(key(high, low), -cents);
+        });
+        return result;
+    }
+
+    private static Map<Long, Long> toMap(PairDebts debts) {
+        Map<Long, Long> result = new HashMap<>();
+        debts.forEach((debtor, creditor, cents) -> {
+            assertTrue(cents > 0);
+            result.put(key(debtor, creditor), cents);
+        });
+        return result;
+    }
+
+    private static List<String> describe(PairDebts debts, int userId) {
+        List<String> lines = new ArrayList<>();
+        debts.forEachOf(userId, (debtor, creditor, cents) -> lines.add(debtor + " owes " + creditor + ": " + cents));
+        return lines;
+    }
+}
@@ -0,0 +1,152 @@
+package com.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Read coalescing: identical concurrent reads share one load (SingleFlight behind the body
+ * cache), and loads beyond the AdmissionControl bound are rejected instead of queueing without
+ * limit.
+ */
+public class ResponseBodyCacheTest {
+
+    private static final int READERS = 32;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void identicalConcurrentReadsRunTheLoaderOnce() throws Exception {
+        ResponseBodyCache cache = new ResponseBodyCache(16, new AdmissionControl(2, 0, 0, 1));
+        AtomicInteger loads = new AtomicInteger();
+        // Holds the first load until every other reader has joined it.
+        ResponseBodyCache.BodySupplier loader = () -> {
+            loads.incrementAndGet();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cache.getCoalesced() < READERS - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return "balances".getBytes(StandardCharsets.UTF_8);
+        };
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> reads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            reads.add(executor.submit(() -> {
+                start.await();
+                return cache.getOrCompute("balances", 7, loader);
+            }));
+        }
+        start.countDown();
+        for (Future<byte[]> read : reads) {
+            assertArrayEquals("balances".getBytes(StandardCharsets.UTF_8), read.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(READERS, cache.getMisses());
+        assertEquals(READERS - 1, cache.getCoalesced());
+
+        // The body stays cached for the version, and a new version loads again.
+        cache.getOrCompute("balances", 7, loader);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        cache.getOrCompute("balances", 8, () -> {
+            loads.incrementAndGet();
+            return new byte[0];
+        });
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void readsBeyondTheAdmissionBoundAreRejected() throws Exception {
+        AdmissionControl admission = new AdmissionControl(2, 1, 10_000, 3);
+        ResponseBodyCache cache = new ResponseBodyCache(16, admission);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ResponseBodyCache.BodySupplier blocked = () -> {
+            loads.incrementAndGet();
+            release.await();
+            return new byte[0];
+        };
+
+        // Distinct keys, so nothing is coalesced: two loads run, a third queues.
+        List<Future<byte[]>> admitted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String key = "page-" + i;
+            admitted.add(executor.submit(() -> cache.getOrCompute(key, 1, blocked)));
+            awaitStats(admission, Math.min(i + 1, 2), i < 2 ? 0 : 1);
+        }
+
+        try {
+            cache.getOrCompute("page-3", 1, blocked);
+            fail("A read beyond the running and queued bound must be rejected.");
+        } catch (AdmissionControl.OverloadedException expected) {
+            assertEquals(3, expected.getRetryAfterSeconds());
+        }
+        assertEquals(1, admission.getStats().getRejected());
+
+        release.countDown();
+        for (Future<byte[]> read : admitted) {
+            read.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(3, loads.get());
+        assertEquals(3, admission.getStats().getAdmitted());
+        assertEquals(0, admission.getStats().getRunning());
+    }
+
+    @Test
+    public void queuedReadIsRejectedAfterItsWait() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 4, 50, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> running = executor.submit(() -> admission.call(() -> {
+            release.await();
+            return null;
+        }));
+        awaitStats(admission, 1, 0);
+
+        long start = System.nanoTime();
+        try {
+            admission.call(() -> "never runs");
+            fail("A read that waits longer than the queue wait must be rejected.");
+        } catch (AdmissionControl.OverloadedException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("timed out"));
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, admission.getStats().getQueued());
+
+        release.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        assertEquals(1, admission.getStats().getAdmitted());
+        assertEquals(1, admission.getStats().getRejected());
+    }
+
+    private static void awaitStats(AdmissionControl admission, int running, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            AdmissionControl.Stats stats = admission.getStats();
+            if (stats.getRunning() == running && stats.getQueued() == queued) return;
+            Thread.sleep(1);
+        }
+        fail("expected " + running + " running and " + queued + " queued, got " + admission.getStats().getRunning()
+             + " and " + admission.getStats().getQueued());
+    }
+}
@@ -0,0 +1,97 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SettlementPlannerTest {
+
+    private final SettlementPlanner planner = new SettlementPlanner();
+
+    @Test
+    public void exactPlanBeatsGreedyWhenAZeroSumSubgroupExists() {
+        // {+6, -6} settles on its own: 1 + 2 transfers, where greedy first pairs +6 with -4.
+        IntLongMap balances = balances(600, 400, -300, -300, -400);
+        List<Settlement> greedy = planner.planGreedy(balances);
+        List<Settlement> exact = planner.planExact(balances);
+
+        assertEquals(3, exact.size());
+        assertTrue("greedy " + greedy.size() + " vs exact " + exact.size(), greedy.size() > exact.size());
+        assertSettles(balances, greedy);
+        assertSettles(balances, exact);
+    }
+
+    @Test
+    public void exactPlanNeverNeedsMoreTransfersThanGreedy() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            IntLongMap balances = randomBalances(random, 2 + random.nextInt(11));
+            List<Settlement> greedy = planner.planGreedy(balances);
+            List<Settlement> exact = planner.planExact(balances);
+
+            assertTrue("round " + round + ": exact " + exact.size() + " > greedy " + greedy.size(),
+                       exact.size() <= greedy.size());
+            assertTrue(greedy.size() <= Math.max(0, balances.withoutZeros().size() - 1));
+            assertSettles(balances, greedy);
+            assertSettles(balances, exact);
+        }
+    }
+
+    @Test
+    public void largeGroupsFallBackToGreedy() {
+        IntLongMap balances = randomBalances(new Random(11), SettlementPlanner.EXACT_MAX_PARTICIPANTS + 10);
+        List<Settlement> exact = planner.planExact(balances);
+
+        assertEquals(planner.planGreedy(balances).size(), exact.size());
+        assertSettles(balances, exact);
+    }
+
+    @Test
+    public void settledGroupNeedsNoTransfers() {
+        IntLongMap balances = balances(0, 0);
+        assertTrue(planner.planGreedy(balances).isEmpty());
+        assertTrue(planner.planExact(balances).isEmpty());
+        assertTrue(planner.planExact(new IntLongMap()).isEmpty());
+    }
+
+    // Applies every transfer (the payer's debt shrinks, the receiver's credit shrinks) and
+    // expects each balance to end at exactly zero.
+    private static void assertSettles(IntLongMap balances, List<Settlement> plan) {
+        IntLongMap remaining = new IntLongMap();
+        remaining.addAll(balances);
+        for (Settlement transfer : plan) {
+            assertTrue("transfers are positive: " + transfer.getAmountCents(), transfer.getAmountCents() > 0);
+            assertNotEquals(transfer.getPayerId(), transfer.getReceiverId());
+            remaining.addTo(transfer.getPayerId(), transfer.getAmountCents());
+            remaining.addTo(transfer.getReceiverId(), -transfer.getAmountCents());
+        }
+        remaining.forEach((userId, cents) -> assertEquals("user " + userId, 0, cents));
+    }
+
+    // Users 1..n with the given balances in cents.
+    private static IntLongMap balances(long... cents) {
+        IntLongMap balances = new IntLongMap();
+        for (int i = 0; i < cents.length; i++) {
+            balances.addTo(i + 1, cents[i]);
+        }
+        return balances;
+    }
+
+    // The last user takes whatever makes the group sum to zero.
+    private static IntLongMap randomBalances(Random random, int users) {
+        long[] cents = new long[users];
+        long sum = 0;
+        for (int i = 0; i < users - 1; i++) {
+            // Small amounts, so zero-sum subgroups (where exact beats greedy) are common
+            cents[i] = (random.nextInt(11) - 5) * 100L;
+            sum += cents[i];
+        }
+        cents[users - 1] = -sum;
+        return balances(cents);
+    }
+}
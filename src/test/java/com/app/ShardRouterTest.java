@@ -0,0 +1,63 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Routing of rows to shards and the mapping between shard-local and global ids.
+ */
+public class ShardRouterTest {
+
+    @Test
+    public void groupsGoToOneShardAndUngroupedRowsAreSpreadByPayer() {
+        ShardRouter router = new ShardRouter(4);
+
+        assertEquals(1, router.shardOf(5, 2));
+        assertEquals(1, router.shardOf(5, 3));
+        assertEquals(3, router.shardOf(0, 7));
+        assertEquals(0, router.shardOf(0, 8));
+        assertTrue(router.isSingleShard(5));
+        assertFalse(router.isSingleShard(0));
+        assertTrue(new ShardRouter(1).isSingleShard(0));
+    }
+
+    @Test
+    public void globalIdsAreUniqueAndMapBack() {
+        ShardRouter router = new ShardRouter(3);
+        Set<Long> seen = new HashSet<>();
+        for (int shard = 0; shard < 3; shard++) {
+            for (long local = 1; local <= 100; local++) {
+                long global = router.globalId(local, shard);
+                assertTrue("duplicate global id " + global, seen.add(global));
+                assertEquals(shard, router.shardOfId(global));
+                assertEquals(local, router.localId(global));
+            }
+        }
+        assertEquals("failures pass through", -1, router.globalId(-1, 2));
+    }
+
+    @Test
+    public void localAfterSelectsExactlyTheLaterRowsOfEachShard() {
+        ShardRouter router = new ShardRouter(3);
+        for (long afterId = 0; afterId <= 40; afterId++) {
+            for (int shard = 0; shard < 3; shard++) {
+                long localAfter = router.localAfter(afterId, shard);
+                for (long local = 1; local <= 15; local++) {
+                    assertEquals("after " + afterId + ", shard " + shard + ", local " + local,
+                                 router.globalId(local, shard) > afterId, local > localAfter);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void atLeastOneShardIsNeeded() {
+        new ShardRouter(0);
+    }
+}
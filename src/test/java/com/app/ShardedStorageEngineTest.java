@@ -0,0 +1,433 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.app.controller.ExpenseController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * ShardedStorageEngine over in-memory shards, checked against one unsharded in-memory engine that
+ * gets the same writes: users replicated to every shard, grouped and ungrouped expenses, splits
+ * added to an existing expense through its global id, settlements and a bulk import. Every merged
+ * read must match, and page cursors must not skip rows written on a lagging shard. Shards that
+ * reject writes check that user writes are undone and that a partially committed import is only
+ * replayed for the rows that were not stored.
+ */
+public class ShardedStorageEngineTest {
+
+    private static final int USERS = 24;
+    private static final int GROUPS = 12;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    private final List<StorageEngine> engines = new ArrayList<>();
+
+    @After
+    public void close() {
+        engines.forEach(StorageEngine::close);
+    }
+
+    @Test
+    public void mergedReadsMatchAnUnshardedEngine() {
+        ShardedStorageEngine sharded = sharded(3);
+        StorageEngine reference = open(new InMemoryStorageEngine());
+        write(sharded, reference, 600, new Random(11));
+
+        assertEquals(reference.readBalances(), sharded.readBalances());
+        LocalDate midYear = FIRST_DAY.plusMonths(6);
+        assertEquals(reference.readBalancesAsOf(midYear), sharded.readBalancesAsOf(midYear));
+        for (int groupId = 0; groupId <= GROUPS; groupId++) {
+            assertEquals("group " + groupId, reference.readGroupBalances(groupId), sharded.readGroupBalances(groupId));
+        }
+        assertEquals(pairs(reference.readPairDebts()), pairs(sharded.readPairDebts()));
+        assertEquals(pairs(reference.readPairDebts(7)), pairs(sharded.readPairDebts(7)));
+
+        List<Expense> expenses = sharded.listAllExpenses();
+        assertEquals(expenseRows(reference.listAllExpenses()), expenseRows(expenses));
+        Map<String, Long> referenceIds = new HashMap<>();
+        for (Expense expense : reference.listAllExpenses()) referenceIds.put(expense.getDescription(), expense.getExpenseId());
+        for (Expense expense : expenses) {
+            List<ExpenseSplit> splits = sharded.listExpenseSplits(expense.getExpenseId());
+            for (ExpenseSplit split : splits) assertEquals(expense.getExpenseId(), split.getExpenseId());
+            assertEquals(expense.getDescription(), splitRows(reference.listExpenseSplits(referenceIds.get(expense.getDescription()))),
+                         splitRows(splits));
+        }
+        assertEquals(settlementRows(reference.listAllSettlements()), settlementRows(sharded.listAllSettlements()));
+
+        SpendingReport.Request request = new SpendingReport.Request(FIRST_DAY, FIRST_DAY.plusYears(1).minusDays(1),
+                                                                    SpendingReport.Granularity.MONTH, 0);
+        assertEquals(buckets(reference.readSpendingReport(request)), buckets(sharded.readSpendingReport(request)));
+        assertTrue(sharded.verifyBalances().isEmpty());
+    }
+
+    @Test
+    public void pagesAndStreamsWalkEveryRowInGlobalIdOrder() {
+        ShardedStorageEngine sharded = sharded(3);
+        write(sharded, open(new InMemoryStorageEngine()), 400, new Random(5));
+
+        List<Long> ids = new ArrayList<>();
+        for (Expense expense : sharded.listAllExpenses()) ids.add(expense.getExpenseId());
+        for (int i = 1; i < ids.size(); i++) assertTrue("ids ascend", ids.get(i) > ids.get(i - 1));
+
+        List<Long> paged = new ArrayList<>();
+        for (List<Expense> page = sharded.listExpensesPage(0, 37); !page.isEmpty();
+             page = sharded.listExpensesPage(page.get(page.size() - 1).getExpenseId(), 37)) {
+            assertTrue(page.size() <= 37);
+            page.forEach(expense -> paged.add(expense.getExpenseId()));
+        }
+        assertEquals(ids, paged);
+        List<Long> streamed = new ArrayList<>();
+        sharded.streamExpenses(expense -> streamed.add(expense.getExpenseId()));
+        assertEquals(ids, streamed);
+
+        List<Long> settlementIds = new ArrayList<>();
+        for (Settlement settlement : sharded.listAllSettlements()) settlementIds.add(settlement.getSettlementId());
+        List<Long> pagedSettlements = new ArrayList<>();
+        for (List<Settlement> page = sharded.listSettlementsPage(0, 9); !page.isEmpty();
+             page = sharded.listSettlementsPage(page.get(page.size() - 1).getSettlementId(), 9)) {
+            page.forEach(settlement -> pagedSettlements.add(settlement.getSettlementId()));
+        }
+        assertEquals(settlementIds, pagedSettlements);
+
+        List<Long> cursored = new ArrayList<>();
+        KeysetPage<Expense> page = sharded.pageExpenses(null, 37);
+        for (; !page.getRows().isEmpty(); page = sharded.pageExpenses(page.getNextCursor(), 37)) {
+            page.getRows().forEach(expense -> cursored.add(expense.getExpenseId()));
+        }
+        assertEquals("without writes in between, cursor pages walk the ids in order", ids, cursored);
+    }
+
+    /**
+     * Global ids are local * N + shard, so a shard with fewer rows hands out lower ids: a row it
+     * stores after a page was served sorts behind that page's last id. The cursor keeps each
+     * shard's position, so paging on from it still finds the row.
+     */
+    @Test
+    public void heldCursorSeesRowsWrittenLaterOnALaggingShard() {
+        ShardedStorageEngine sharded = sharded(2);
+        registerUsers(sharded, 3);
+        for (int i = 0; i < 5; i++) {
+            sharded.createExpenseWithSplits(new Expense(-1, Money.ofCents(100), "busy " + i, 1, FIRST_DAY, 2), List.of(1, 2));
+            sharded.recordSettlement(new Settlement(2, 2, 1, Money.ofCents(10)));
+        }
+        KeysetPage<Expense> firstPage = sharded.pageExpenses(null, 10);
+        assertEquals(5, firstPage.getRows().size());
+        KeysetPage<Settlement> firstSettlements = sharded.pageSettlements(null, 10);
+
+        long late = sharded.createExpenseWithSplits(new Expense(-1, Money.ofCents(100), "late", 1, FIRST_DAY, 1), List.of(1, 3));
+        long lateSettlement = sharded.recordSettlement(new Settlement(1, 3, 1, Money.ofCents(10)));
+
+        assertTrue("the lagging shard's id sorts behind the last one served",
+                   late < firstPage.getRows().get(4).getExpenseId());
+        KeysetPage<Expense> next = sharded.pageExpenses(firstPage.getNextCursor(), 10);
+        assertEquals(1, next.getRows().size());
+        assertEquals(late, next.getRows().get(0).getExpenseId());
+        assertTrue(sharded.pageExpenses(next.getNextCursor(), 10).getRows().isEmpty());
+        List<Settlement> nextSettlements = sharded.pageSettlements(firstSettlements.getNextCursor(), 10).getRows();
+        assertEquals(1, nextSettlements.size());
+        assertEquals(lateSettlement, nextSettlements.get(0).getSettlementId());
+
+        try {
+            sharded.pageExpenses("1.2.3", 10);
+            fail("a cursor for three shards");
+        } catch (IllegalArgumentException expected) {
+            // rejected, not read as some other position
+        }
+    }
+
+    @Test
+    public void pagesOverHttpCarryTheShardCursor() throws Exception {
+        ShardedStorageEngine sharded = sharded(2);
+        registerUsers(sharded, 2);
+        for (int i = 0; i < 3; i++) {
+            sharded.createExpenseWithSplits(new Expense(-1, Money.ofCents(100), "e" + i, 1, FIRST_DAY, 2), List.of(1, 2));
+        }
+        ExpenseController controller = new ExpenseController(new ObjectMapper(), sharded);
+
+        ResponseEntity<?> first = controller.getAllExpenses(null, 2, false, null);
+        assertEquals("shard 0 served local ids 1 and 2, shard 1 nothing", "2.0", first.getHeaders().getFirst("X-Next-Cursor"));
+        ResponseEntity<?> last = controller.getAllExpenses("2.0", 2, false, null);
+        assertEquals(1, ((List<?>) last.getBody()).size());
+        assertNull(last.getHeaders().getFirst("X-Next-Cursor"));
+        assertEquals(HttpStatus.BAD_REQUEST, controller.getAllExpenses("2.x", 2, false, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, controller.getSettlements("-5", 2, false, null).getStatusCode());
+    }
+
+    @Test
+    public void userAndGroupWritesAreReplicatedToEveryShard() {
+        ShardedStorageEngine sharded = sharded(3);
+        registerUsers(sharded, 5);
+        sharded.deleteUserById(5);
+        assertEquals(1, sharded.createGroup("first", 1));
+        assertEquals(2, sharded.createGroup("second", 2));
+
+        for (StorageEngine shard : sharded.getShards()) {
+            assertEquals(4, shard.listAllUsers().size());
+            assertEquals(3, shard.findUserByUsername("user3").getUserId());
+            assertEquals("every shard has groups 1 and 2", 3, shard.createGroup("next", 1));
+        }
+    }
+
+    @Test
+    public void userWithHistoryOnAnotherShardIsDeletedNowhere() {
+        ShardedStorageEngine sharded = sharded(3);
+        registerUsers(sharded, 4);
+        sharded.createGroup("first", 1);
+        int groupId = (int) sharded.createGroup("second", 1);
+        assertEquals("the group lives on shard 2", 2, sharded.getRouter().shardOf(groupId, 0));
+        sharded.createExpenseWithSplits(new Expense(-1, Money.ofCents(900), "dinner", 3, FIRST_DAY, groupId), List.of(3, 4));
+
+        try {
+            sharded.deleteUserById(4);
+            fail("user 4 owes on shard 2");
+        } catch (DatabaseException expected) {
+            // rejected before any shard deleted the user
+        }
+        try {
+            sharded.deleteUser("user4");
+            fail("user 4 owes on shard 2");
+        } catch (DatabaseException expected) {
+            // the same by username
+        }
+        assertTrue(sharded.isUserReferenced(4));
+        for (StorageEngine shard : sharded.getShards()) {
+            assertEquals(4, shard.findUserByUsername("user4").getUserId());
+        }
+
+        assertTrue(sharded.deleteUserById(2));
+        for (StorageEngine shard : sharded.getShards()) {
+            assertEquals(3, shard.listAllUsers().size());
+            assertNull(shard.findUserById(2));
+        }
+    }
+
+    @Test
+    public void failedShardUndoesTheUserWriteOnTheOthers() {
+        FailingShard failing = new FailingShard();
+        ShardedStorageEngine sharded = open(new ShardedStorageEngine(List.of(new InMemoryStorageEngine(),
+                                                                             new InMemoryStorageEngine(), failing)));
+        registerUsers(sharded, 3);
+
+        failing.failUserWrites = true;
+        try {
+            sharded.deleteUserById(2);
+            fail("shard 2 is down");
+        } catch (StorageUnavailableException expected) {
+            // the other shards get user 2 back
+        }
+        try {
+            sharded.registerNewUser(new User("user4", "user4@example.com", "hash", "User 4"));
+            fail("shard 2 is down");
+        } catch (StorageUnavailableException expected) {
+            // and do not keep user 4
+        }
+        failing.failUserWrites = false;
+
+        for (StorageEngine shard : sharded.getShards()) {
+            List<User> users = shard.listAllUsers();
+            assertEquals(3, users.size());
+            assertEquals("user2", users.get(1).getUsername());
+            assertEquals(2, users.get(1).getUserId());
+            assertEquals("hash", users.get(1).getPasswordHash());
+            assertNull(shard.findUserByUsername("user4"));
+        }
+        sharded.deleteUserById(2);
+        for (StorageEngine shard : sharded.getShards()) {
+            assertNull(shard.findUserById(2));
+        }
+    }
+
+    @Test
+    public void importerReplaysOnlyTheRowsOfShardsThatDidNotCommit() throws IOException {
+        FailingShard failing = new FailingShard();
+        ShardedStorageEngine sharded = open(new ShardedStorageEngine(List.of(new InMemoryStorageEngine(), failing)));
+        registerUsers(sharded, 3);
+        failing.failImports = true;
+
+        // Ungrouped rows go to shard payer mod 2: payer 1's expense to the failing shard 1
+        BulkImporter.Report report = new BulkImporter(sharded).importStream(new ByteArrayInputStream((
+                "{\"amount\": 3, \"description\": \"a\", \"payerId\": 2, \"participantIds\": [1, 2]}\n"
+                + "{\"amount\": 4, \"description\": \"b\", \"payerId\": 1, \"participantIds\": [1, 3]}\n"
+                + "{\"type\": \"settlement\", \"amount\": 1, \"payerId\": 2, \"receiverId\": 1}\n"
+                + "{\"amount\": 5, \"description\": \"c\", \"payerId\": 2}\n").getBytes(StandardCharsets.UTF_8)),
+                BulkImporter.Format.NDJSON, 10);
+
+        assertEquals(1, report.getChunksReplayed());
+        assertEquals(3, report.getExpensesImported());
+        assertEquals(1, report.getSettlementsImported());
+        assertEquals(0, report.getRowsFailed());
+        List<String> descriptions = new ArrayList<>();
+        for (Expense expense : sharded.listAllExpenses()) descriptions.add(expense.getDescription());
+        descriptions.sort(null);
+        assertEquals("shard 0's rows are not stored twice", List.of("a", "b", "c"), descriptions);
+        assertEquals(1, sharded.listAllSettlements().size());
+        assertTrue(sharded.verifyBalances().isEmpty());
+    }
+
+    private ShardedStorageEngine sharded(int shardCount) {
+        List<StorageEngine> shards = new ArrayList<>();
+        for (int s = 0; s < shardCount; s++) shards.add(new InMemoryStorageEngine());
+        return open(new ShardedStorageEngine(shards));
+    }
+
+    private <T extends StorageEngine> T open(T engine) {
+        engines.add(engine);
+        return engine;
+    }
+
+    // A shard whose user writes or imports are rejected
+    private static final class FailingShard extends InMemoryStorageEngine {
+        volatile boolean failUserWrites;
+        volatile boolean failImports;
+
+        @Override
+        public void importBatch(List<Expense> expenses, List<List<Integer>> participants, List<Settlement> settlements) {
+            if (failImports) throw new DatabaseException("import rejected");
+            super.importBatch(expenses, participants, settlements);
+        }
+
+        @Override
+        public void registerNewUser(User user) {
+            if (failUserWrites) throw new StorageUnavailableException("shard is down", null);
+            super.registerNewUser(user);
+        }
+
+        @Override
+        public boolean deleteUserById(int userId) {
+            if (failUserWrites) throw new StorageUnavailableException("shard is down", null);
+            return super.deleteUserById(userId);
+        }
+    }
+
+    private static void registerUsers(StorageEngine engine, int count) {
+        for (int u = 1; u <= count; u++) {
+            engine.registerNewUser(new User("user" + u, "user" + u + "@example.com", "hash", "User " + u));
+        }
+    }
+
+    /**
+     * The same writes to both engines. Group g has 3 to 6 consecutive users.
+     */
+    private static void write(ShardedStorageEngine sharded, StorageEngine reference, int expenses, Random random) {
+        registerUsers(sharded, USERS);
+        registerUsers(reference, USERS);
+        int[] groupIds = new int[GROUPS];
+        int[] firstMember = new int[GROUPS];
+        int[] groupSize = new int[GROUPS];
+        for (int g = 0; g < GROUPS; g++) {
+            groupIds[g] = (int) sharded.createGroup("group " + g, 1);
+            reference.createGroup("group " + g, 1);
+            firstMember[g] = 1 + random.nextInt(USERS - 6);
+            groupSize[g] = 3 + random.nextInt(4);
+        }
+
+        for (int i = 0; i < expenses; i++) {
+            boolean grouped = random.nextInt(10) != 0;
+            int g = random.nextInt(GROUPS);
+            int groupId = grouped ? groupIds[g] : 0;
+            int first = grouped ? firstMember[g] : 1 + random.nextInt(USERS - 4);
+            int size = grouped ? groupSize[g] : 2 + random.nextInt(3);
+            List<Integer> members = new ArrayList<>();
+            for (int m = 0; m < size; m++) members.add(first + m);
+            int payer = members.get(random.nextInt(size));
+            Expense expense = new Expense(-1, Money.ofCents(100 + random.nextInt(50_000)), "expense " + i, payer,
+                                          FIRST_DAY.plusDays(random.nextInt(365)), groupId);
+            if (i % 25 == 0) {
+                // Splits recorded later for an existing expense, found through its (global) id
+                long shardedId = sharded.addExpense(expense);
+                long referenceId = reference.addExpense(expense);
+                sharded.splitExpenseAndRecordDebts(withId(expense, shardedId), members);
+                reference.splitExpenseAndRecordDebts(withId(expense, referenceId), members);
+            } else {
+                sharded.createExpenseWithSplits(expense, members);
+                reference.createExpenseWithSplits(expense, members);
+            }
+            if (i % 10 == 0) {
+                Settlement settlement = new Settlement(groupId, members.get(0), payer, Money.ofCents(1 + random.nextInt(5_000)));
+                sharded.recordSettlement(settlement);
+                reference.recordSettlement(settlement);
+            }
+        }
+
+        List<Expense> imported = new ArrayList<>();
+        List<List<Integer>> participants = new ArrayList<>();
+        List<Settlement> importedSettlements = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int g = random.nextInt(GROUPS);
+            imported.add(new Expense(-1, Money.ofCents(100 + random.nextInt(20_000)), "imported " + i, firstMember[g],
+                                     FIRST_DAY.plusDays(random.nextInt(365)), groupIds[g]));
+            participants.add(List.of(firstMember[g], firstMember[g] + 1, firstMember[g] + 2));
+            if (i % 5 == 0) {
+                importedSettlements.add(new Settlement(groupIds[g], firstMember[g] + 1, firstMember[g], Money.ofCents(500)));
+            }
+        }
+        sharded.importBatch(imported, participants, importedSettlements);
+        reference.importBatch(imported, participants, importedSettlements);
+    }
+
+    private static Expense withId(Expense expense, long expenseId) {
+        return new Expense(expenseId, Money.ofCents(expense.getAmountCents()), expense.getDescription(),
+                           expense.getPayerId(), expense.getDate(), expense.getGroupId());
+    }
+
+    private static Map<String, Long> pairs(PairDebts debts) {
+        Map<String, Long> pairs = new TreeMap<>();
+        debts.forEach((debtorId, creditorId, cents) -> pairs.put(debtorId + ">" + creditorId, cents));
+        return pairs;
+    }
+
+    // Ids differ between the engines, so rows are compared by content (descriptions are unique)
+    private static Map<String, String> expenseRows(List<Expense> expenses) {
+        Map<String, String> rows = new TreeMap<>();
+        for (Expense expense : expenses) {
+            rows.put(expense.getDescription(), expense.getPayerId() + " " + expense.getAmountCents() + " "
+                    + expense.getDate() + " " + expense.getGroupId());
+        }
+        return rows;
+    }
+
+    private static List<String> settlementRows(List<Settlement> settlements) {
+        List<String> rows = new ArrayList<>();
+        for (Settlement settlement : settlements) {
+            rows.add(settlement.getGroupId() + " " + settlement.getPayerId() + " " + settlement.getReceiverId() + " "
+                    + settlement.getAmountCents());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static List<String> splitRows(List<ExpenseSplit> splits) {
+        List<String> rows = new ArrayList<>();
+        for (ExpenseSplit split : splits) rows.add(split.getMemberId() + " " + split.getOwedAmountCents());
+        rows.sort(null);
+        return rows;
+    }
+
+    private static List<String> buckets(SpendingReport report) {
+        List<String> rows = new ArrayList<>();
+        for (SpendingReport.Bucket bucket : report.getBuckets()) {
+            rows.add(bucket.getPeriod() + " " + bucket.getUserId() + " " + bucket.getPaid() + " " + bucket.getOwed()
+                    + " " + bucket.getExpenses());
+        }
+        return rows;
+    }
+}
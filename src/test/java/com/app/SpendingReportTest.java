@@ -0,0 +1,139 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The in-memory engine's spending report (SpendingBuckets) against a brute-force sum over every
+ * expense written, for each granularity, partial first and last periods and single users.
+ * Expenses are written in random date order so the day index grows in both directions.
+ */
+public class SpendingReportTest {
+
+    private static final int USERS = 25;
+    private static final int EXPENSES = 5_000;
+    private static final LocalDate FIRST = LocalDate.of(2023, 1, 1);
+    private static final int DAYS = 730;
+
+    private final Random random = new Random(18);
+    private final List<Written> written = new ArrayList<>();
+    private InMemoryStorageEngine engine;
+
+    // One expense as written: its date, payer, amount and (member, share) pairs
+    private static final class Written {
+        final LocalDate date;
+        final int payerId;
+        final long amountCents;
+        final List<Integer> memberIds;
+        final long[] shares;
+
+        Written(LocalDate date, int payerId, long amountCents, List<Integer> memberIds, long[] shares) {
+            this.date = date;
+            this.payerId = payerId;
+            this.amountCents = amountCents;
+            this.memberIds = memberIds;
+            this.shares = shares;
+        }
+    }
+
+    @Before
+    public void writeRandomExpenses() {
+        engine = new InMemoryStorageEngine();
+        engine.setConsoleOutput(false);
+        for (int u = 1; u <= USERS; u++) {
+            engine.registerNewUser(new User("user" + u, "user" + u + "@example.com", "hash", "User " + u));
+        }
+        for (int i = 0; i < EXPENSES; i++) {
+            LocalDate date = FIRST.plusDays(random.nextInt(DAYS));
+            int payerId = 1 + random.nextInt(USERS);
+            long amountCents = 1 + random.nextInt(100_000);
+            List<Integer> memberIds = new ArrayList<>();
+            int members = random.nextInt(5);
+            for (int m = 0; m < members; m++) {
+                int memberId = 1 + random.nextInt(USERS);
+                if (!memberIds.contains(memberId)) memberIds.add(memberId);
+            }
+            long[] shares = SplitStrategy.equalShares(amountCents, memberIds.size());
+            engine.createExpenseWithSplits(new Expense(Money.ofCents(amountCents), "Expense " + i, payerId, date),
+                                           memberIds, shares);
+            written.add(new Written(date, payerId, amountCents, memberIds, shares));
+        }
+    }
+
+    @After
+    public void close() {
+        engine.close();
+    }
+
+    @Test
+    public void everyGranularityMatchesABruteForceSum() {
+        LocalDate last = FIRST.plusDays(DAYS - 1);
+        for (SpendingReport.Granularity granularity : SpendingReport.Granularity.values()) {
+            assertReportMatches(new SpendingReport.Request(FIRST, last, granularity, 0));
+            // Partial first and last periods, and a range reaching past the data on both sides
+            assertReportMatches(new SpendingReport.Request(LocalDate.of(2023, 2, 15), LocalDate.of(2024, 5, 9), granularity, 0));
+            assertReportMatches(new SpendingReport.Request(FIRST.minusDays(40), last.plusDays(40), granularity, 0));
+        }
+    }
+
+    @Test
+    public void singleUsersAndSingleDaysMatchABruteForceSum() {
+        for (int userId = 1; userId <= USERS; userId += 6) {
+            assertReportMatches(new SpendingReport.Request(FIRST, FIRST.plusDays(DAYS - 1), SpendingReport.Granularity.WEEK, userId));
+        }
+        for (int i = 0; i < 20; i++) {
+            LocalDate day = FIRST.plusDays(random.nextInt(DAYS));
+            assertReportMatches(new SpendingReport.Request(day, day, SpendingReport.Granularity.DAY, 0));
+        }
+        LocalDate before = FIRST.minusDays(10);
+        assertTrue(engine.readSpendingReport(new SpendingReport.Request(before, before, SpendingReport.Granularity.MONTH, 0))
+                         .getBuckets().isEmpty());
+    }
+
+    private void assertReportMatches(SpendingReport.Request request) {
+        List<String> actual = new ArrayList<>();
+        for (SpendingReport.Bucket bucket : engine.readSpendingReport(request).getBuckets()) {
+            actual.add(bucket.getPeriod() + " user " + bucket.getUserId() + ": paid " + bucket.getPaid()
+                       + ", owed " + bucket.getOwed() + ", expenses " + bucket.getExpenses());
+        }
+        assertEquals(request.getGranularity() + " " + request.getFrom() + ".." + request.getTo() + " user " + request.getUserId(),
+                     bruteForce(request), actual);
+    }
+
+    // {paid, owed, expenses} per period, then user
+    private List<String> bruteForce(SpendingReport.Request request) {
+        Map<LocalDate, Map<Integer, long[]>> totals = new TreeMap<>();
+        for (Written expense : written) {
+            if (expense.date.isBefore(request.getFrom()) || expense.date.isAfter(request.getTo())) continue;
+            Map<Integer, long[]> period = totals.computeIfAbsent(request.getGranularity().start(expense.date), p -> new TreeMap<>());
+            if (request.getUserId() == 0 || request.getUserId() == expense.payerId) {
+                long[] payer = period.computeIfAbsent(expense.payerId, u -> new long[3]);
+                payer[0] += expense.amountCents;
+                payer[2]++;
+            }
+            for (int i = 0; i < expense.memberIds.size(); i++) {
+                int memberId = expense.memberIds.get(i);
+                if (memberId == expense.payerId) continue; // the payer's own share is not a split
+                if (request.getUserId() != 0 && request.getUserId() != memberId) continue;
+                period.computeIfAbsent(memberId, u -> new long[3])[1] += expense.shares[i];
+            }
+        }
+
+        List<String> rows = new ArrayList<>();
+        totals.forEach((period, users) -> users.forEach((userId, t) ->
+                rows.add(period + " user " + userId + ": paid " + Money.toDouble(t[0])
+                         + ", owed " + Money.toDouble(t[1]) + ", expenses " + t[2])));
+        return rows;
+    }
+}
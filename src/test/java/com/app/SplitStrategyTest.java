@@ -0,0 +1,84 @@
+package com.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SplitStrategyTest {
+
+    @Test
+    public void everyStrategyAddsUpToTheTotal() {
+        long total = 10_001;
+        assertSum(total, SplitStrategy.EQUAL.allocate(total, 3, null));
+        assertSum(total, SplitStrategy.PERCENTAGE.allocate(total, 3, List.of(33.33, 33.33, 33.34)));
+        assertSum(total, SplitStrategy.PERCENTAGE.allocate(total, 3, List.of(33.333, 33.333, 33.333)));
+        assertSum(total, SplitStrategy.SHARES.allocate(total, 4, List.of(2, 1, 1, 0.5)));
+        assertSum(total, SplitStrategy.EXACT.allocate(total, 2, List.of(50.00, 50.01)));
+    }
+
+    @Test
+    public void equalPercentagesAndSharesMatchTheEqualSplit() {
+        for (long total = 1; total < 1_000; total += 37) {
+            long[] equal = MathOperations.calculateSplit(total, 4);
+            assertArrayEquals(equal, SplitStrategy.EQUAL.allocate(total, 4, null));
+            assertArrayEquals(equal, SplitStrategy.PERCENTAGE.allocate(total, 4, List.of(25, 25, 25, 25)));
+            assertArrayEquals(equal, SplitStrategy.SHARES.allocate(total, 4, List.of(3, 3, 3, 3)));
+        }
+    }
+
+    @Test
+    public void sharesAreProportional() {
+        assertArrayEquals(new long[] {5_000, 2_500, 2_500, 0},
+                          SplitStrategy.SHARES.allocate(10_000, 4, List.of(2, 1, 1, 0)));
+    }
+
+    @Test
+    public void nothingToSplitGivesZeroShares() {
+        assertArrayEquals(new long[3], SplitStrategy.EQUAL.allocate(0, 3, null));
+        assertArrayEquals(new long[2], SplitStrategy.SHARES.allocate(0, 2, List.of(1, 1)));
+        assertArrayEquals(new long[2], SplitStrategy.equalShares(-500, 2));
+        assertEquals(0, SplitStrategy.EQUAL.allocate(100, 0, null).length);
+    }
+
+    @Test
+    public void invalidValuesAreRejected() {
+        assertRejected(SplitStrategy.PERCENTAGE, 2, List.of(50, 49));   // not 100
+        assertRejected(SplitStrategy.SHARES, 2, List.of(0, 0));         // no positive share
+        assertRejected(SplitStrategy.SHARES, 2, List.of(1, -1));        // negative
+        assertRejected(SplitStrategy.EXACT, 2, List.of(5.00, 4.99));    // off by a cent
+        assertRejected(SplitStrategy.EXACT, 2, List.of(10.00));         // one value short
+        assertRejected(SplitStrategy.SHARES, 2, null);
+    }
+
+    @Test
+    public void parsesNamesCaseInsensitively() {
+        assertEquals(SplitStrategy.EQUAL, SplitStrategy.parse(null));
+        assertEquals(SplitStrategy.EQUAL, SplitStrategy.parse(" "));
+        assertEquals(SplitStrategy.PERCENTAGE, SplitStrategy.parse("Percentage"));
+        assertEquals(SplitStrategy.EXACT, SplitStrategy.parse("custom"));
+        try {
+            SplitStrategy.parse("thirds");
+            fail("Unknown split types must be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static void assertSum(long total, long[] shares) {
+        assertEquals(Arrays.toString(shares), total, Arrays.stream(shares).sum());
+    }
+
+    private static void assertRejected(SplitStrategy strategy, int participants, List<? extends Number> values) {
+        try {
+            strategy.allocate(1_000, participants, values);
+            fail(strategy + " " + values + " must be rejected.");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Group commit with a write that fails in the middle of a batch: its caller alone gets the error,
+ * the rest of the batch is rerun without it and committed, and the data version moves once per
+ * committed batch.
+ */
+public class WriteBatcherTest {
+
+    private final FakeDatabase database = new FakeDatabase();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void failingWriteInTheMiddleOfABatchFailsOnlyItsCaller() throws Exception {
+        List<Integer> committedBatches = new ArrayList<>();
+        SQLException failure = new SQLException("duplicate key");
+        long versionBefore = DataVersion.current();
+
+        // One flusher and no linger: the gate write is flushed alone and holds the flusher while
+        // the next five queue up, so they are taken together, in order, as the second batch.
+        try (WriteBatcher batcher = new WriteBatcher(database::connect, 5, 0, 1, 16,
+                                                     (conn, writes) -> committedBatches.add(writes))) {
+            CountDownLatch gateRunning = new CountDownLatch(1);
+            CountDownLatch gate = new CountDownLatch(1);
+            Future<String> gateWrite = executor.submit(() -> batcher.submit(conn -> {
+                gateRunning.countDown();
+                awaitQuietly(gate);
+                return database.insert("gate");
+            }));
+            assertTrue(gateRunning.await(10, TimeUnit.SECONDS));
+
+            List<Future<String>> writes = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                String row = "row-" + i;
+                writes.add(executor.submit(() -> batcher.submit(conn -> {
+                    if (row.equals("row-2")) {
+                        database.attempt(row);
+                        throw failure;
+                    }
+                    return database.insert(row);
+                })));
+                awaitQueued(batcher, i + 1);
+            }
+            gate.countDown();
+
+            assertEquals("gate", gateWrite.get(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 5; i++) {
+                try {
+                    assertEquals("row-" + i, writes.get(i).get(10, TimeUnit.SECONDS));
+                    assertTrue("row-2 must fail", i != 2);
+                } catch (ExecutionException e) {
+                    assertEquals("only row-2 fails", 2, i);
+                    assertTrue(e.getCause() instanceof DatabaseException);
+                    assertSame(failure, e.getCause().getCause());
+                }
+            }
+            assertEquals(1, batcher.getStats().getFallbacks());
+        }
+
+        assertEquals(Arrays.asList("gate", "row-0", "row-1", "row-3", "row-4"), database.stored);
+        // The rows before the failing write ran twice: once in the rolled-back attempt, once in the rerun.
+        assertEquals(Arrays.asList("gate", "row-0", "row-1", "row-2", "row-0", "row-1", "row-3", "row-4"),
+                     database.attempts);
+        assertEquals(2, database.commits);
+        assertEquals(1, database.rollbacks);
+        assertEquals(2, DataVersion.current() - versionBefore);
+        assertEquals(Arrays.asList(1, 4), committedBatches);
+    }
+
+    @Test
+    public void batchWithOnlyFailingWritesCommitsNothing() throws Exception {
+        long versionBefore = DataVersion.current();
+
+        try (WriteBatcher batcher = new WriteBatcher(database::connect, 4, 0, 1, 16, (conn, writes) -> fail("nothing commits"))) {
+            try {
+                batcher.submit(conn -> {
+                    throw new IllegalArgumentException("bad split");
+                });
+                fail("The write's own exception must reach its caller.");
+            } catch (IllegalArgumentException expected) {
+                assertEquals("bad split", expected.getMessage());
+            }
+        }
+
+        assertTrue(database.stored.isEmpty());
+        assertEquals(0, database.commits);
+        assertEquals(1, database.rollbacks);
+        assertEquals(0, DataVersion.current() - versionBefore);
+    }
+
+    // --- HELPERS ---
+
+    private static void awaitQueued(WriteBatcher batcher, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (batcher.getStats().getQueued() != queued) {
+            if (System.nanoTime() > deadline) fail("expected " + queued + " queued writes, got " + batcher.getStats().getQueued());
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rows inserted on a connection stay pending until commit and are dropped by rollback; only
+     * the flusher thread touches it, one connection at a time.
+     */
+    private static final class FakeDatabase {
+        final List<String> attempts = new ArrayList<>();
+        final List<String> stored = new ArrayList<>();
+        final List<String> pending = new ArrayList<>();
+        int commits;
+        int rollbacks;
+        boolean autoCommit = true;
+
+        synchronized String insert(String row) {
+            attempt(row);
+            pending.add(row);
+            return row;
+        }
+
+        synchronized void attempt(String row) {
+            attempts.add(row);
+        }
+
+        Connection connect() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        synchronized (this) {
+                            switch (method.getName()) {
+                                case "setAutoCommit":
+                                    autoCommit = (Boolean) args[0];
+                                    return null;
+                                case "getAutoCommit":
+                                    return autoCommit;
+                                case "commit":
+                                    stored.addAll(pending);
+                                    pending.clear();
+                                    commits++;
+                                    return null;
+                                case "rollback":
+                                    pending.clear();
+                                    rollbacks++;
+                                    return null;
+                                case "close":
+                                    return null;
+                                default:
+                                    throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+    }
+}